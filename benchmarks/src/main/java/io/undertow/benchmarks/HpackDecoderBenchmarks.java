@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import io.undertow.protocols.http2.HpackDecoder;
+import io.undertow.protocols.http2.HpackEncoder;
+import io.undertow.protocols.http2.HpackException;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HttpString;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding of a typical browser request header block with the HPACK decoder. The block is
+ * decoded repeatedly against the same decoder, which models many requests on a single connection.
+ * <p>
+ * Run with {@code -prof gc} to see the allocation rate per decoded block.
+ */
+@Measurement(iterations = 3, time = 3)
+@Warmup(iterations = 3, time = 3)
+@Fork(1)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@State(Scope.Thread)
+public class HpackDecoderBenchmarks {
+
+    /**
+     * How the header block is encoded. {@code INDEXED} is the steady state of a browser connection where
+     * every header is already in the dynamic table, the literal modes send every header as a literal
+     * with an indexed name, which is what some clients and proxies do.
+     */
+    public enum Encoding {
+        INDEXED,
+        LITERAL_HUFFMAN,
+        LITERAL_RAW
+    }
+
+    @SuppressWarnings("unused") // Set by JMH
+    @Param({"INDEXED", "LITERAL_HUFFMAN", "LITERAL_RAW"})
+    private Encoding encoding;
+
+    private HpackDecoder decoder;
+    private ByteBuffer block;
+    private ConsumingEmitter emitter;
+
+    @Setup
+    public void setup() throws HpackException {
+        HeaderMap headers = new HeaderMap();
+        headers.add(new HttpString(":method"), "GET");
+        headers.add(new HttpString(":scheme"), "https");
+        headers.add(new HttpString(":authority"), "www.example.com:8443");
+        headers.add(new HttpString(":path"), "/static/js/application.min.js");
+        headers.add(new HttpString("user-agent"), "Mozilla/5.0 (X11; Linux x86_64; rv:78.0) Gecko/20100101 Firefox/78.0");
+        headers.add(new HttpString("accept"), "*/*");
+        headers.add(new HttpString("accept-language"), "en-US,en;q=0.5");
+        headers.add(new HttpString("accept-encoding"), "gzip, deflate, br");
+        headers.add(new HttpString("referer"), "https://www.example.com:8443/index.html");
+        headers.add(new HttpString("cookie"), "JSESSIONID=Xk3tyDh8Vd0_2XbkY4uXnL8yRQq0fJgR5W8Kw0Ed.node1; theme=dark; consent=1");
+        headers.add(new HttpString("cache-control"), "no-cache");
+        headers.add(new HttpString("x-requested-with"), "XMLHttpRequest");
+
+        final boolean indexing = encoding == Encoding.INDEXED;
+        final boolean huffman = encoding != Encoding.LITERAL_RAW;
+        HpackEncoder encoder = new HpackEncoder(4096, new HpackEncoder.HpackHeaderFunction() {
+            @Override
+            public boolean shouldUseIndexing(HttpString header, String value) {
+                return indexing;
+            }
+
+            @Override
+            public boolean shouldUseHuffman(HttpString header, String value) {
+                return huffman;
+            }
+
+            @Override
+            public boolean shouldUseHuffman(HttpString header) {
+                return huffman;
+            }
+        });
+        decoder = new HpackDecoder(4096);
+        emitter = new ConsumingEmitter();
+        decoder.setHeaderEmitter(emitter);
+
+        ByteBuffer target = ByteBuffer.allocate(4096);
+        encoder.encode(headers, target);
+        target.flip();
+        if (indexing) {
+            //the first block populates the dynamic table, the second one only references it
+            decoder.decode(target, false);
+            target.clear();
+            encoder.encode(headers, target);
+            target.flip();
+        }
+        block = target;
+    }
+
+    @Benchmark
+    public void decodeRequestHeaders(Blackhole blackhole) throws HpackException {
+        emitter.blackhole = blackhole;
+        ByteBuffer buffer = block.duplicate();
+        decoder.decode(buffer, false);
+    }
+
+    private static final class ConsumingEmitter implements HpackDecoder.HeaderEmitter {
+
+        Blackhole blackhole;
+
+        @Override
+        public void emitHeader(HttpString name, String value, boolean neverIndex) {
+            if (blackhole == null) {
+                //priming the dynamic table during setup
+                return;
+            }
+            blackhole.consume(name);
+            blackhole.consume(value);
+        }
+    }
+}
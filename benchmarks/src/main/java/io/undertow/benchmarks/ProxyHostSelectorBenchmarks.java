@@ -0,0 +1,162 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import io.undertow.Undertow;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import io.undertow.server.handlers.proxy.ProxyHandler;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the response time distribution of a load balancing proxy in front of three backends, one of which is
+ * much slower than the others. The sample time mode reports the percentiles, the p99 shows how much of the traffic
+ * each host selector still sends to the slow backend.
+ */
+@Measurement(iterations = 3, time = 5)
+@Warmup(iterations = 2, time = 5)
+@Fork(1)
+@Threads(16)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+public class ProxyHostSelectorBenchmarks {
+
+    private static final int PROXY_PORT = 4450;
+    private static final int BACKEND_PORT = 4451;
+    private static final int BACKENDS = 3;
+    private static final int SLOW_BACKEND_DELAY = 20;
+
+    public enum Selector {
+        ROUND_ROBIN,
+        LEAST_OUTSTANDING_REQUESTS,
+        POWER_OF_TWO_CHOICES,
+        PEAK_EWMA
+    }
+
+    @SuppressWarnings("unused") // Set by JMH
+    @Param({"ROUND_ROBIN", "LEAST_OUTSTANDING_REQUESTS", "POWER_OF_TWO_CHOICES", "PEAK_EWMA"})
+    private Selector selector;
+
+    private final List<Undertow> servers = new ArrayList<>();
+    private CloseableHttpClient client;
+    private String uri;
+
+    @Setup
+    public void setup() throws Exception {
+        LoadBalancingProxyClient proxyClient = new LoadBalancingProxyClient(UndertowClient.getInstance(), null, createSelector())
+                .setConnectionsPerThread(32);
+        for (int i = 0; i < BACKENDS; ++i) {
+            final boolean slow = i == 0;
+            Undertow backend = Undertow.builder()
+                    .addHttpListener(BACKEND_PORT + i, "localhost")
+                    .setWorkerThreads(64)
+                    .setHandler(new BlockingHandler(new HttpHandler() {
+                        @Override
+                        public void handleRequest(HttpServerExchange exchange) throws Exception {
+                            if (slow) {
+                                Thread.sleep(SLOW_BACKEND_DELAY);
+                            }
+                            exchange.getResponseSender().send("backend");
+                        }
+                    }))
+                    .build();
+            backend.start();
+            servers.add(backend);
+            proxyClient.addHost(new URI("http://localhost:" + (BACKEND_PORT + i)));
+        }
+        Undertow proxy = Undertow.builder()
+                .addHttpListener(PROXY_PORT, "localhost")
+                .setHandler(ProxyHandler.builder().setProxyClient(proxyClient).setMaxRequestTime(30000).build())
+                .build();
+        proxy.start();
+        servers.add(proxy);
+
+        client = HttpClients.custom()
+                .disableConnectionState()
+                .disableAutomaticRetries()
+                .setMaxConnPerRoute(100)
+                .setMaxConnTotal(100)
+                .build();
+        uri = "http://localhost:" + PROXY_PORT + "/";
+    }
+
+    private LoadBalancingProxyClient.HostSelector createSelector() {
+        switch (selector) {
+            case ROUND_ROBIN:
+                return null;
+            case LEAST_OUTSTANDING_REQUESTS:
+                return new LoadBalancingProxyClient.LeastOutstandingRequestsHostSelector();
+            case POWER_OF_TWO_CHOICES:
+                return new LoadBalancingProxyClient.PowerOfTwoChoicesHostSelector();
+            case PEAK_EWMA:
+                return new LoadBalancingProxyClient.PeakEwmaHostSelector();
+            default:
+                throw new IllegalStateException("Unknown selector: " + selector);
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        for (Undertow server : servers) {
+            server.stop();
+        }
+        servers.clear();
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+    }
+
+    @Benchmark
+    public String proxyGet() throws IOException {
+        try (CloseableHttpResponse response = client.execute(new HttpGet(uri))) {
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IllegalStateException("Unexpected status: " + response.getStatusLine());
+            }
+            return EntityUtils.toString(response.getEntity());
+        }
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.benchmarks;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.extensions.ExtensionHandshake;
+import io.undertow.websockets.extensions.PerMessageDeflateHandshake;
+import org.xnio.ChannelListener;
+import org.xnio.IoFuture;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+/**
+ * Opens web socket connections to a {@link WebSocketBenchmarkServer}, and hands every text message that is received
+ * on them to a single {@link Receiver}.
+ * <p>
+ * Connections are spread over the loopback addresses {@code 127.0.0.1}, {@code 127.0.0.2} and so on, with at most
+ * {@link #CONNECTIONS_PER_ADDRESS} on each, as a single local address runs out of ephemeral ports long before the
+ * connection counts the load harness is interested in.
+ */
+final class WebSocketBenchmarkClient implements Closeable {
+
+    static final int CONNECTIONS_PER_ADDRESS = 20000;
+
+    private static final Receiver NO_RECEIVER = new Receiver() {
+        @Override
+        public void onMessage(WebSocketChannel channel, String message) {
+        }
+    };
+
+    private final XnioWorker worker;
+    private final ByteBufferPool bufferPool;
+    private final URI uri;
+    private final boolean compression;
+    private final List<WebSocketChannel> channels = Collections.synchronizedList(new ArrayList<WebSocketChannel>());
+    private volatile Receiver receiver = NO_RECEIVER;
+    private int connectCount;
+
+    WebSocketBenchmarkClient(URI uri, boolean compression, int ioThreads) throws IOException {
+        this.uri = uri;
+        this.compression = compression;
+        this.worker = Xnio.getInstance().createWorker(OptionMap.builder()
+                .set(Options.WORKER_IO_THREADS, ioThreads)
+                .set(Options.WORKER_TASK_CORE_THREADS, 1)
+                .set(Options.WORKER_TASK_MAX_THREADS, 1)
+                .set(Options.TCP_NODELAY, true)
+                .getMap());
+        this.bufferPool = new DefaultByteBufferPool(true, 8192);
+    }
+
+    void setReceiver(Receiver receiver) {
+        this.receiver = receiver == null ? NO_RECEIVER : receiver;
+    }
+
+    /**
+     * Starts a new connection from the next local address.
+     */
+    synchronized IoFuture<WebSocketChannel> connect() {
+        int address = 1 + connectCount++ / CONNECTIONS_PER_ADDRESS;
+        InetSocketAddress bindAddress = new InetSocketAddress("127.0." + (address >> 8) + "." + (address & 0xFF), 0);
+        Set<ExtensionHandshake> extensions = compression
+                ? Collections.<ExtensionHandshake>singleton(new PerMessageDeflateHandshake(true))
+                : Collections.<ExtensionHandshake>emptySet();
+        IoFuture<WebSocketChannel> future = WebSocketClient.connectionBuilder(worker, bufferPool, uri)
+                .setBindAddress(bindAddress)
+                .setClientExtensions(extensions)
+                .connect();
+        future.addNotifier(new IoFuture.HandlingNotifier<WebSocketChannel, Object>() {
+            @Override
+            public void handleDone(WebSocketChannel channel, Object attachment) {
+                channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                    @Override
+                    protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) {
+                        receiver.onMessage(channel, message.getData());
+                    }
+                });
+                channel.addCloseTask(new ChannelListener<WebSocketChannel>() {
+                    @Override
+                    public void handleEvent(WebSocketChannel channel) {
+                        channels.remove(channel);
+                    }
+                });
+                channel.resumeReceives();
+                channels.add(channel);
+            }
+        }, null);
+        return future;
+    }
+
+    /**
+     * Opens {@code count} connections, with at most {@code concurrency} handshakes in progress at any one time.
+     *
+     * @throws IOException if any of the connections could not be opened
+     */
+    void connect(int count, int concurrency) throws IOException, InterruptedException {
+        final Semaphore permits = new Semaphore(concurrency);
+        final AtomicReference<IOException> failure = new AtomicReference<>();
+        for (int i = 0; i < count && failure.get() == null; ++i) {
+            permits.acquire();
+            connect().addNotifier(new IoFuture.HandlingNotifier<WebSocketChannel, Object>() {
+                @Override
+                public void handleDone(WebSocketChannel channel, Object attachment) {
+                    permits.release();
+                }
+
+                @Override
+                public void handleFailed(IOException exception, Object attachment) {
+                    failure.compareAndSet(null, exception);
+                    permits.release();
+                }
+
+                @Override
+                public void handleCancelled(Object attachment) {
+                    permits.release();
+                }
+            }, null);
+        }
+        permits.acquire(concurrency);
+        permits.release(concurrency);
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+    }
+
+    List<WebSocketChannel> getChannels() {
+        synchronized (channels) {
+            return new ArrayList<>(channels);
+        }
+    }
+
+    /**
+     * Closes every connection that is open, without shutting down the client.
+     */
+    void closeChannels() {
+        for (WebSocketChannel channel : getChannels()) {
+            IoUtils.safeClose(channel);
+        }
+        channels.clear();
+        synchronized (this) {
+            connectCount = 0;
+        }
+    }
+
+    @Override
+    public void close() {
+        closeChannels();
+        worker.shutdown();
+        bufferPool.close();
+    }
+
+    interface Receiver {
+
+        /**
+         * Called on the IO thread of the channel the message was received on.
+         */
+        void onMessage(WebSocketChannel channel, String message);
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.benchmarks;
+
+import java.io.Closeable;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.servlet.ServletException;
+import javax.websocket.OnClose;
+import javax.websocket.OnMessage;
+import javax.websocket.OnOpen;
+import javax.websocket.Session;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpoint;
+
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.server.handlers.PathHandler;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.api.ServletContainer;
+import io.undertow.servlet.util.DefaultClassIntrospector;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.core.AbstractReceiveListener;
+import io.undertow.websockets.core.BufferedTextMessage;
+import io.undertow.websockets.core.WebSocketBroadcaster;
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import io.undertow.websockets.extensions.PerMessageDeflateHandshake;
+import io.undertow.websockets.jsr.ServerWebSocketContainer;
+import io.undertow.websockets.jsr.WebSocketDeploymentInfo;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+
+/**
+ * An echo server for the web socket benchmarks, which serves the same endpoint through the core
+ * {@link WebSocketChannel} API on {@code /core} and through the JSR API on {@code /jsr}. Both endpoints accept
+ * {@code permessage-deflate}, so whether it is used is up to the client.
+ */
+final class WebSocketBenchmarkServer implements Closeable {
+
+    private final Undertow undertow;
+    private final WebSocketProtocolHandshakeHandler coreHandler;
+    private final ServerWebSocketContainer jsrContainer;
+    private final WebSocketBroadcaster broadcaster = new WebSocketBroadcaster();
+
+    WebSocketBenchmarkServer(String host, int port, int ioThreads) throws ServletException {
+        coreHandler = Handlers.websocket(new WebSocketConnectionCallback() {
+            @Override
+            public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+                channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                    @Override
+                    protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) {
+                        WebSockets.sendText(message.getData(), channel, null);
+                    }
+                });
+                channel.resumeReceives();
+            }
+        }).addExtension(new PerMessageDeflateHandshake());
+
+        DeploymentInfo deployment = new DeploymentInfo()
+                .setClassLoader(WebSocketBenchmarkServer.class.getClassLoader())
+                .setContextPath("/")
+                .setClassIntrospecter(DefaultClassIntrospector.INSTANCE)
+                .addServletContextAttribute(WebSocketDeploymentInfo.ATTRIBUTE_NAME,
+                        new WebSocketDeploymentInfo()
+                                .setBuffers(new DefaultByteBufferPool(true, 8192))
+                                .addEndpoint(JsrEchoEndpoint.class)
+                                .addExtension(new PerMessageDeflateHandshake()))
+                .setDeploymentName("websocket-benchmark.war");
+        DeploymentManager manager = ServletContainer.Factory.newInstance().addDeployment(deployment);
+        manager.deploy();
+        PathHandler path = Handlers.path()
+                .addExactPath("/core", coreHandler)
+                .addPrefixPath("/", manager.start());
+        jsrContainer = (ServerWebSocketContainer) manager.getDeployment().getServletContext().getAttribute(ServerContainer.class.getName());
+
+        undertow = Undertow.builder()
+                .setIoThreads(ioThreads)
+                .addHttpListener(port, host)
+                .setHandler(path)
+                .build();
+        undertow.start();
+    }
+
+    /**
+     * @return the number of connections that are currently open on the given API
+     */
+    int getConnectionCount(WebSocketApi api) {
+        return api == WebSocketApi.CORE ? coreHandler.getPeerConnections().size() : JsrEchoEndpoint.SESSIONS.size();
+    }
+
+    /**
+     * Sends a message to every connection on the given API.
+     *
+     * @return the number of connections the message was sent to
+     */
+    int broadcast(WebSocketApi api, String message) {
+        if (api == WebSocketApi.CORE) {
+            return broadcaster.broadcastText(message, coreHandler.getPeerConnections());
+        }
+        return jsrContainer.broadcastText(message, JsrEchoEndpoint.SESSIONS, null);
+    }
+
+    InetSocketAddress getAddress() {
+        return (InetSocketAddress) undertow.getListenerInfo().get(0).getAddress();
+    }
+
+    /**
+     * Stops the server once the clients have closed their connections, or after a ten second grace period.
+     */
+    @Override
+    public void close() {
+        long deadline = System.currentTimeMillis() + 10000;
+        try {
+            while (getConnectionCount(WebSocketApi.CORE) + getConnectionCount(WebSocketApi.JSR) > 0 && System.currentTimeMillis() < deadline) {
+                Thread.sleep(10);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        undertow.stop();
+    }
+
+    @ServerEndpoint("/jsr")
+    public static class JsrEchoEndpoint {
+
+        static final Set<Session> SESSIONS = Collections.newSetFromMap(new ConcurrentHashMap<Session, Boolean>());
+
+        @OnOpen
+        public void onOpen(Session session) {
+            SESSIONS.add(session);
+        }
+
+        @OnClose
+        public void onClose(Session session) {
+            SESSIONS.remove(session);
+        }
+
+        @OnMessage
+        public String onMessage(String message) {
+            return message;
+        }
+    }
+}
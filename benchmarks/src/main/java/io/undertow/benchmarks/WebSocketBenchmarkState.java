@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.benchmarks;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.websockets.core.WebSocketChannel;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * An echo server and a set of open client connections to it, on either the core or the JSR web socket API.
+ * <p>
+ * Messages that start with {@link #BROADCAST_PREFIX} count down the current broadcast latch, any other message
+ * is the echo of a round trip. Each benchmark thread sends its own message, so threads that share a connection
+ * can tell their echoes apart.
+ */
+@State(Scope.Benchmark)
+public class WebSocketBenchmarkState {
+
+    static final String BROADCAST_PREFIX = "broadcast:";
+
+    private static final int PORT = 4434;
+
+    @SuppressWarnings("unused") // Set by JMH
+    @Param({"CORE", "JSR"})
+    private WebSocketApi api;
+
+    @SuppressWarnings("unused") // Set by JMH
+    @Param({"false", "true"})
+    private boolean compression;
+
+    /**
+     * The number of connections that are open while the benchmark runs
+     */
+    @SuppressWarnings("unused") // Set by JMH
+    @Param({"1", "1000"})
+    private int connections;
+
+    private final ConcurrentMap<String, CountDownLatch> roundTrips = new ConcurrentHashMap<>();
+    private final AtomicInteger nextChannel = new AtomicInteger();
+    private volatile CountDownLatch broadcastLatch;
+    private WebSocketBenchmarkServer server;
+    private WebSocketBenchmarkClient client;
+    private List<WebSocketChannel> channels;
+
+    @Setup
+    public final void before() throws Exception {
+        server = new WebSocketBenchmarkServer("127.0.0.1", PORT, 4);
+        InetSocketAddress address = server.getAddress();
+        client = new WebSocketBenchmarkClient(new URI("ws://127.0.0.1:" + address.getPort() + api.getPath()), compression, 4);
+        client.setReceiver(new WebSocketBenchmarkClient.Receiver() {
+            @Override
+            public void onMessage(WebSocketChannel channel, String message) {
+                if (message.startsWith(BROADCAST_PREFIX)) {
+                    broadcastLatch.countDown();
+                } else {
+                    CountDownLatch latch = roundTrips.remove(message);
+                    if (latch != null) {
+                        latch.countDown();
+                    }
+                }
+            }
+        });
+        client.connect(connections, 100);
+        channels = client.getChannels();
+    }
+
+    @TearDown
+    public final void after() throws IOException {
+        if (client != null) {
+            client.close();
+            client = null;
+        }
+        if (server != null) {
+            server.close();
+            server = null;
+        }
+    }
+
+    /**
+     * @return a channel for a benchmark thread, threads are spread evenly over the open connections
+     */
+    WebSocketChannel nextChannel() {
+        return channels.get(nextChannel.getAndIncrement() % channels.size());
+    }
+
+    /**
+     * Registers a round trip of the given message, the returned latch is released when the echo arrives.
+     */
+    CountDownLatch expectEcho(String message) {
+        CountDownLatch latch = new CountDownLatch(1);
+        roundTrips.put(message, latch);
+        return latch;
+    }
+
+    /**
+     * Registers a broadcast, the returned latch is released once every open connection has received it.
+     */
+    CountDownLatch expectBroadcast() {
+        CountDownLatch latch = new CountDownLatch(channels.size());
+        broadcastLatch = latch;
+        return latch;
+    }
+
+    WebSocketApi getApi() {
+        return api;
+    }
+
+    WebSocketBenchmarkServer getServer() {
+        return server;
+    }
+
+    WebSocketBenchmarkClient getClient() {
+        return client;
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.benchmarks;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.xnio.IoUtils;
+
+/**
+ * Measures web socket round trip latency, handshake cost and broadcast throughput over loopback. For connection
+ * counts beyond what fits in a JMH run, and for the memory used by idle connections, see
+ * {@link WebSocketLoadHarness}.
+ */
+@Measurement(iterations = 3, time = 3)
+@Warmup(iterations = 3, time = 3)
+@Fork(1)
+@Threads(4)
+public class WebSocketBenchmarks {
+
+    private static final String MESSAGE = "Hello World, this is a web socket benchmark message";
+
+    @Benchmark
+    @BenchmarkMode(Mode.SampleTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void roundTrip(WebSocketBenchmarkState state, ThreadState threadState) throws InterruptedException {
+        CountDownLatch latch = state.expectEcho(threadState.message);
+        WebSockets.sendText(threadState.message, threadState.channel, null);
+        latch.await();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.AverageTime)
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public void handshake(WebSocketBenchmarkState state) throws Exception {
+        WebSocketChannel channel = state.getClient().connect().getInterruptibly();
+        IoUtils.safeClose(channel);
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    @Threads(1)
+    public int broadcast(WebSocketBenchmarkState state) throws InterruptedException {
+        CountDownLatch latch = state.expectBroadcast();
+        int sent = state.getServer().broadcast(state.getApi(), WebSocketBenchmarkState.BROADCAST_PREFIX + MESSAGE);
+        latch.await();
+        return sent;
+    }
+
+    @State(Scope.Thread)
+    public static class ThreadState {
+
+        private static final AtomicInteger THREAD_COUNT = new AtomicInteger();
+
+        WebSocketChannel channel;
+        String message;
+
+        @Setup
+        public void setup(WebSocketBenchmarkState state) {
+            channel = state.nextChannel();
+            message = THREAD_COUNT.incrementAndGet() + ":" + MESSAGE;
+        }
+    }
+}
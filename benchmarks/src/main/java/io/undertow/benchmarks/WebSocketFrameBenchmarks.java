@@ -0,0 +1,104 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.benchmarks;
+
+import io.undertow.websockets.core.protocol.version07.BenchmarkMaskers;
+import io.undertow.websockets.core.protocol.version07.Masker;
+import io.undertow.websockets.core.protocol.version07.UTF8Checker;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the per frame work done on inbound web socket data: unmasking a client frame, and validating the UTF-8
+ * of a text frame. The payload is held in a direct buffer, as it would be when read from the pooled buffers.
+ */
+@Measurement(iterations = 3, time = 3)
+@Warmup(iterations = 3, time = 3)
+@Fork(1)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@State(Scope.Thread)
+public class WebSocketFrameBenchmarks {
+
+    @SuppressWarnings("unused") // Set by JMH
+    @Param({"64", "4096", "1048576"})
+    private int frameSize;
+
+    /**
+     * The percentage of characters in the text frame that are not ASCII
+     */
+    @SuppressWarnings("unused") // Set by JMH
+    @Param({"0", "10"})
+    private int nonAsciiPercent;
+
+    private ByteBuffer frame;
+    private ByteBuffer text;
+    private Masker masker;
+
+    @Setup
+    public void setup() {
+        frame = ByteBuffer.allocateDirect(frameSize);
+        for (int i = 0; i < frameSize; ++i) {
+            frame.put(i, (byte) i);
+        }
+        masker = BenchmarkMaskers.create(0x5A3C9E17);
+
+        StringBuilder sb = new StringBuilder();
+        int count = 0;
+        while (sb.length() < frameSize) {
+            if (nonAsciiPercent > 0 && count++ % (100 / nonAsciiPercent) == 0) {
+                sb.append('é');
+            } else {
+                sb.append((char) ('a' + count % 26));
+            }
+        }
+        byte[] bytes = sb.toString().getBytes(StandardCharsets.UTF_8);
+        text = ByteBuffer.allocateDirect(bytes.length);
+        text.put(bytes).flip();
+    }
+
+    @Benchmark
+    public ByteBuffer unmask() {
+        masker.setMaskingKey(0x5A3C9E17);
+        masker.afterRead(frame, 0, frameSize);
+        return frame;
+    }
+
+    @Benchmark
+    public UTF8Checker validateUtf8() throws IOException {
+        UTF8Checker checker = new UTF8Checker();
+        checker.afterRead(text, 0, text.remaining());
+        checker.complete();
+        return checker;
+    }
+}
@@ -0,0 +1,201 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.benchmarks;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.net.URI;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import io.undertow.websockets.core.WebSocketChannel;
+import io.undertow.websockets.core.WebSockets;
+
+/**
+ * A standalone load test that opens a large number of web socket connections over loopback, and reports the
+ * handshake rate, the memory used by each idle connection, round trip latency percentiles and broadcast throughput.
+ * <p>
+ * It is run from the benchmarks jar, with options given as {@code name=value} arguments:
+ * <pre>
+ * java -Xmx8g -cp target/undertow-benchmarks.jar io.undertow.benchmarks.WebSocketLoadHarness connections=100000 api=JSR compression=true
+ * </pre>
+ * <ul>
+ *     <li>{@code connections} - the number of connections to open, defaults to 10000</li>
+ *     <li>{@code api} - {@code CORE} or {@code JSR}, defaults to {@code CORE}</li>
+ *     <li>{@code compression} - whether the client offers {@code permessage-deflate}, defaults to {@code false}</li>
+ *     <li>{@code mode} - {@code all} to run the server and the client in this JVM, {@code server} to only run the
+ *     server, or {@code client} to only run the client against a server started with {@code mode=server}.
+ *     Defaults to {@code all}</li>
+ *     <li>{@code port} - the server port, defaults to 4435</li>
+ *     <li>{@code concurrency} - the maximum number of handshakes in progress at once, defaults to 1000</li>
+ *     <li>{@code samples} - the number of round trips to measure, defaults to 100000</li>
+ *     <li>{@code broadcasts} - the number of broadcasts to send, defaults to 100</li>
+ * </ul>
+ * Each connection uses a file descriptor on each end, so {@code ulimit -n} must be raised above twice the number of
+ * connections when running in {@code all} mode. The idle memory figure covers every part of the process that
+ * grows with the connection count, so in {@code all} mode it includes both the client and the server end of each
+ * connection; run the server on its own to see the server side alone. Direct memory is reported as it is held by
+ * the JVM, which includes pooled buffers that are not currently in use.
+ */
+public final class WebSocketLoadHarness {
+
+    private static final String MESSAGE = "Hello World, this is a web socket load test message";
+
+    private WebSocketLoadHarness() {
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            int index = arg.indexOf('=');
+            if (index == -1) {
+                throw new IllegalArgumentException("Arguments must be of the form name=value: " + arg);
+            }
+            options.put(arg.substring(0, index), arg.substring(index + 1));
+        }
+        int connections = Integer.parseInt(option(options, "connections", "10000"));
+        WebSocketApi api = WebSocketApi.valueOf(option(options, "api", "CORE"));
+        boolean compression = Boolean.parseBoolean(option(options, "compression", "false"));
+        String mode = option(options, "mode", "all");
+        int port = Integer.parseInt(option(options, "port", "4435"));
+        int concurrency = Integer.parseInt(option(options, "concurrency", "1000"));
+        int samples = Integer.parseInt(option(options, "samples", "100000"));
+        int broadcasts = Integer.parseInt(option(options, "broadcasts", "100"));
+        int ioThreads = Runtime.getRuntime().availableProcessors();
+
+        WebSocketBenchmarkServer server = null;
+        if (!mode.equals("client")) {
+            server = new WebSocketBenchmarkServer("0.0.0.0", port, ioThreads);
+            System.out.println("Server listening on " + server.getAddress());
+            if (mode.equals("server")) {
+                Thread.sleep(Long.MAX_VALUE);
+                return;
+            }
+        }
+        System.out.println("Opening " + connections + " connections to the " + api + " endpoint, compression " + (compression ? "on" : "off"));
+        long heapBefore = heapUsed();
+        long directBefore = directUsed();
+
+        WebSocketBenchmarkClient client = new WebSocketBenchmarkClient(new URI("ws://127.0.0.1:" + port + api.getPath()), compression, ioThreads);
+        try {
+            long start = System.nanoTime();
+            client.connect(connections, concurrency);
+            long elapsed = System.nanoTime() - start;
+            System.out.printf("Handshakes: %d in %d ms, %.0f per second%n", connections,
+                    TimeUnit.NANOSECONDS.toMillis(elapsed), connections * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+
+            if (server != null) {
+                while (server.getConnectionCount(api) < connections) {
+                    Thread.sleep(10);
+                }
+            }
+            long heap = heapUsed() - heapBefore;
+            long direct = directUsed() - directBefore;
+            System.out.printf("Idle memory per connection: %d bytes heap, %d bytes direct%n", heap / connections, direct / connections);
+
+            measureLatency(client, samples);
+            if (server != null) {
+                measureBroadcast(server, client, api, broadcasts);
+            }
+        } finally {
+            client.close();
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+
+    private static void measureLatency(WebSocketBenchmarkClient client, int samples) throws InterruptedException {
+        final AtomicReference<CountDownLatch> echo = new AtomicReference<>();
+        client.setReceiver(new WebSocketBenchmarkClient.Receiver() {
+            @Override
+            public void onMessage(WebSocketChannel channel, String message) {
+                echo.get().countDown();
+            }
+        });
+        List<WebSocketChannel> channels = client.getChannels();
+        long[] times = new long[samples];
+        for (int i = 0; i < samples; ++i) {
+            WebSocketChannel channel = channels.get(i % channels.size());
+            CountDownLatch latch = new CountDownLatch(1);
+            echo.set(latch);
+            long start = System.nanoTime();
+            WebSockets.sendText(MESSAGE, channel, null);
+            latch.await();
+            times[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        System.out.printf("Round trip latency (us): p50 %.1f, p90 %.1f, p99 %.1f, p99.9 %.1f, max %.1f%n",
+                percentile(times, 0.5), percentile(times, 0.9), percentile(times, 0.99), percentile(times, 0.999),
+                times[times.length - 1] / 1000.0);
+    }
+
+    private static void measureBroadcast(WebSocketBenchmarkServer server, WebSocketBenchmarkClient client, WebSocketApi api, int broadcasts) throws InterruptedException {
+        final AtomicReference<CountDownLatch> delivered = new AtomicReference<>();
+        client.setReceiver(new WebSocketBenchmarkClient.Receiver() {
+            @Override
+            public void onMessage(WebSocketChannel channel, String message) {
+                delivered.get().countDown();
+            }
+        });
+        long deliveries = 0;
+        long start = System.nanoTime();
+        for (int i = 0; i < broadcasts; ++i) {
+            CountDownLatch latch = new CountDownLatch(server.getConnectionCount(api));
+            delivered.set(latch);
+            deliveries += server.broadcast(api, MESSAGE);
+            latch.await();
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.printf("Broadcast: %d messages to %d connections in %d ms, %.0f deliveries per second%n", broadcasts,
+                server.getConnectionCount(api), TimeUnit.NANOSECONDS.toMillis(elapsed), deliveries * (double) TimeUnit.SECONDS.toNanos(1) / elapsed);
+    }
+
+    private static double percentile(long[] sorted, double percentile) {
+        return sorted[Math.min(sorted.length - 1, (int) (sorted.length * percentile))] / 1000.0;
+    }
+
+    private static long heapUsed() throws InterruptedException {
+        for (int i = 0; i < 3; ++i) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+    }
+
+    private static long directUsed() {
+        for (BufferPoolMXBean pool : ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class)) {
+            if (pool.getName().equals("direct")) {
+                return pool.getMemoryUsed();
+            }
+        }
+        return 0;
+    }
+
+    private static String option(Map<String, String> options, String name, String defaultValue) {
+        String value = options.get(name);
+        return value == null ? defaultValue : value;
+    }
+}
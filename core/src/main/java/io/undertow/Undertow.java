@@ -19,6 +19,7 @@
 package io.undertow;
 
 import io.undertow.connector.ByteBufferPool;
+import io.undertow.protocols.ssl.SslHandshakeStatistics;
 import io.undertow.protocols.ssl.UndertowXnioSsl;
 import io.undertow.server.ConnectorStatistics;
 import io.undertow.server.DefaultByteBufferPool;
@@ -651,6 +652,14 @@ public final class Undertow {
             return openListener.getConnectorStatistics();
         }
 
+        /**
+         *
+         * @return The handshake statistics for this listener, or null if this is not a SSL listener or it uses the proxy protocol
+         */
+        public SslHandshakeStatistics getSslHandshakeStatistics() {
+            return UndertowXnioSsl.getHandshakeStatistics(channel);
+        }
+
         public <T> void setSocketOption(Option<T>option, T value) throws IOException {
             channel.setOption(option, value);
         }
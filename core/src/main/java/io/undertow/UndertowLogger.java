@@ -423,4 +423,8 @@ public interface UndertowLogger extends BasicLogger {
     @LogMessage(level = DEBUG)
     @Message(id = 5092, value = "Failed to free direct buffer")
     void directBufferDeallocationFailed(@Cause Throwable t);
+
+    @LogMessage(level = WARN)
+    @Message(id = 5093, value = "Failed to append event to the replay log")
+    void failedToAppendToReplayLog(@Cause IOException e);
 }
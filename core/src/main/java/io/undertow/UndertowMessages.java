@@ -610,4 +610,10 @@ public interface UndertowMessages {
 
     @Message(id = 196, value = "Session with id %s already exists")
     IllegalStateException sessionWithIdAlreadyExists(String sessionID);
+
+    @Message(id = 197, value = "Received a HTTP/2 PRIORITY_UPDATE frame from a server")
+    String http2UnexpectedPriorityUpdate();
+
+    @Message(id = 198, value = "Unknown host selector %s")
+    IllegalArgumentException unknownHostSelector(String name);
 }
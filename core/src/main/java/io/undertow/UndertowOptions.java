@@ -273,6 +273,16 @@ public class UndertowOptions {
      */
     public static final Option<Integer> HTTP2_HUFFMAN_CACHE_SIZE = Option.simple(UndertowOptions.class, "HTTP2_HUFFMAN_CACHE_SIZE", Integer.class);
 
+    /**
+     * If the server should use the stream priority information sent by the client to schedule HTTP/2 DATA frames.
+     * Both RFC 7540 dependency weights and RFC 9218 extensible priorities are supported.
+     * <p>
+     * If this is false frames are sent in the order they are written.
+     * <p>
+     * default is true
+     */
+    public static final Option<Boolean> HTTP2_PRIORITY_SCHEDULING = Option.simple(UndertowOptions.class, "HTTP2_PRIORITY_SCHEDULING", Boolean.class);
+
     /**
      * The maximum number of concurrent requests that will be processed at a time. This differs from max concurrent streams in that it is not sent to the remote client.
      *
@@ -321,6 +331,79 @@ public class UndertowOptions {
      */
     public static final Option<Boolean> SSL_USER_CIPHER_SUITES_ORDER = Option.simple(UndertowOptions.class, "SSL_USER_CIPHER_SUITES_ORDER", Boolean.class);
 
+    /**
+     * If dynamic TLS record sizing is enabled. If this is true the first {@link #SSL_SMALL_RECORD_THRESHOLD} bytes
+     * written to a connection, and the first bytes written after the connection has been idle for
+     * {@link #SSL_RECORD_SIZING_IDLE_TIMEOUT}, are sent in records that fit in a single TCP segment, so the client can
+     * start processing data before the whole record has arrived. After that maximum size records are used.
+     * <p>
+     * default is false
+     */
+    public static final Option<Boolean> SSL_DYNAMIC_RECORD_SIZING = Option.simple(UndertowOptions.class, "SSL_DYNAMIC_RECORD_SIZING", Boolean.class);
+
+    public static final int DEFAULT_SSL_SMALL_RECORD_SIZE = 1360;
+
+    /**
+     * The maximum amount of application data in a small TLS record when dynamic record sizing is in use.
+     * <p>
+     * default is 1360, which together with the record overhead fits in a TCP segment on a standard 1500 byte MTU
+     */
+    public static final Option<Integer> SSL_SMALL_RECORD_SIZE = Option.simple(UndertowOptions.class, "SSL_SMALL_RECORD_SIZE", Integer.class);
+
+    public static final int DEFAULT_SSL_SMALL_RECORD_THRESHOLD = 1024 * 1024;
+
+    /**
+     * The number of bytes that are sent in small TLS records before switching to maximum size records when dynamic
+     * record sizing is in use.
+     * <p>
+     * default is 1MB
+     */
+    public static final Option<Integer> SSL_SMALL_RECORD_THRESHOLD = Option.simple(UndertowOptions.class, "SSL_SMALL_RECORD_THRESHOLD", Integer.class);
+
+    public static final int DEFAULT_SSL_RECORD_SIZING_IDLE_TIMEOUT = 1000;
+
+    /**
+     * The amount of time in milliseconds a connection has to be idle before dynamic record sizing goes back to small
+     * records.
+     * <p>
+     * default is 1000
+     */
+    public static final Option<Integer> SSL_RECORD_SIZING_IDLE_TIMEOUT = Option.simple(UndertowOptions.class, "SSL_RECORD_SIZING_IDLE_TIMEOUT", Integer.class);
+
+    /**
+     * The number of threads in the dedicated executor that runs SSL engine delegated tasks (such as key exchange
+     * and certificate validation) for a listener. If this is zero the tasks run in the XNIO worker.
+     * <p>
+     * default is 0
+     */
+    public static final Option<Integer> SSL_HANDSHAKE_THREADS = Option.simple(UndertowOptions.class, "SSL_HANDSHAKE_THREADS", Integer.class);
+
+    public static final int DEFAULT_SSL_HANDSHAKE_QUEUE_SIZE = 1000;
+
+    /**
+     * The maximum number of tasks that can be queued in the dedicated handshake executor. Once the queue is full
+     * handshakes that need to run a task fail, and their connections are closed.
+     * <p>
+     * default is 1000
+     */
+    public static final Option<Integer> SSL_HANDSHAKE_QUEUE_SIZE = Option.simple(UndertowOptions.class, "SSL_HANDSHAKE_QUEUE_SIZE", Integer.class);
+
+    /**
+     * The maximum number of handshakes that can be in progress on a listener at the same time. Connections that
+     * are accepted while this limit is reached are closed immediately.
+     * <p>
+     * default is -1 (unlimited)
+     */
+    public static final Option<Integer> SSL_MAX_CONCURRENT_HANDSHAKES = Option.simple(UndertowOptions.class, "SSL_MAX_CONCURRENT_HANDSHAKES", Integer.class);
+
+    /**
+     * The maximum number of new handshakes per second on a listener. Connections that are accepted once this rate
+     * has been reached are closed immediately.
+     * <p>
+     * default is -1 (unlimited)
+     */
+    public static final Option<Integer> SSL_MAX_HANDSHAKE_RATE = Option.simple(UndertowOptions.class, "SSL_MAX_HANDSHAKE_RATE", Integer.class);
+
 
     public static final Option<Boolean> ALLOW_UNESCAPED_CHARACTERS_IN_URL = Option.simple(UndertowOptions.class,"ALLOW_UNESCAPED_CHARACTERS_IN_URL", Boolean.class);
 
@@ -363,6 +446,15 @@ public class UndertowOptions {
      */
     public static final Option<String> AJP_ALLOWED_REQUEST_ATTRIBUTES_PATTERN = Option.simple(UndertowOptions.class, "AJP_ALLOWED_REQUEST_ATTRIBUTES_PATTERN", String.class);
 
+    /**
+     * The maximum number of requests that a HTTP/1.1 client connection will have outstanding at the same time. If this
+     * is larger than one then idempotent requests without a request body are pipelined, and sent before the responses
+     * to the earlier requests on the connection have been received. Other requests wait until the connection is idle.
+     *
+     * Defaults to 1, which disables pipelining
+     */
+    public static final Option<Integer> CLIENT_MAX_PIPELINED_REQUESTS = Option.simple(UndertowOptions.class, "CLIENT_MAX_PIPELINED_REQUESTS", Integer.class);
+
 
     private UndertowOptions() {
 
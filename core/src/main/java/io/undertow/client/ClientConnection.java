@@ -108,6 +108,27 @@ public interface ClientConnection extends Channel {
      */
     boolean isMultiplexingSupported();
 
+    /**
+     * Returns the maximum number of requests that can be active on this connection at the same time, as advertised
+     * by the peer. This is only meaningful if {@link #isMultiplexingSupported()} returns true.
+     *
+     * @return the maximum number of concurrent requests, or <code>-1</code> if the limit is not known
+     */
+    default int getMaxConcurrentRequests() {
+        return -1;
+    }
+
+    /**
+     * Returns the maximum number of requests that can be outstanding on this connection at the same time if it does
+     * not support multiplexing. Requests beyond the first one are only pipelined if they are idempotent and have no
+     * request body, other requests wait until the connection is idle.
+     *
+     * @return the maximum number of pipelined requests, or <code>1</code> if pipelining is not supported
+     */
+    default int getMaxPipelinedRequests() {
+        return 1;
+    }
+
     /**
      *
      * @return the statistics information, or <code>null</code> if statistics are not supported or disabled
@@ -42,6 +42,7 @@ import io.undertow.server.Connectors;
 import io.undertow.server.protocol.http.HttpContinue;
 import io.undertow.util.AbstractAttachable;
 import io.undertow.util.ConnectionUtils;
+import io.undertow.util.HeaderMap;
 import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 import io.undertow.util.Methods;
@@ -73,10 +74,14 @@ import java.net.SocketAddress;
 import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayDeque;
+import java.util.Collections;
 import java.util.Deque;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 
 import static io.undertow.client.UndertowClientMessages.MESSAGES;
 import static org.xnio.Bits.allAreClear;
@@ -108,9 +113,31 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
 
     private static final Logger log = Logger.getLogger(HttpClientConnection.class);
 
+    private static final Set<HttpString> PIPELINED_METHODS;
+
+    static {
+        Set<HttpString> methods = new HashSet<>();
+        methods.add(Methods.GET);
+        methods.add(Methods.DELETE);
+        methods.add(Methods.PUT);
+        methods.add(Methods.HEAD);
+        methods.add(Methods.OPTIONS);
+        PIPELINED_METHODS = Collections.unmodifiableSet(methods);
+    }
+
     private final Deque<HttpClientExchange> pendingQueue = new ArrayDeque<>();
+    /**
+     * Requests that have been sent while the response to the current request is still outstanding, in the order in
+     * which their responses will arrive
+     */
+    private final Deque<HttpClientExchange> pipelinedRequests = new ArrayDeque<>();
     private HttpClientExchange currentRequest;
+    /**
+     * The exchange that is currently writing its request, or null if the request channel is idle
+     */
+    private HttpClientExchange writingRequest;
     private HttpResponseBuilder pendingResponse;
+    private final int maxPipelinedRequests;
 
     private final OptionMap options;
     private final StreamConnection connection;
@@ -162,6 +189,7 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
             clientStatistics = null;
         }
         this.options = options;
+        this.maxPipelinedRequests = Math.max(options.get(UndertowOptions.CLIENT_MAX_PIPELINED_REQUESTS, 1), 1);
         this.connection = connection;
         this.pushBackStreamSourceConduit = new PushBackStreamSourceConduit(connection.getSourceChannel().getConduit());
         this.connection.getSourceChannel().setConduit(pushBackStreamSourceConduit);
@@ -183,16 +211,12 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
                 for(ChannelListener<ClientConnection> listener : closeListeners) {
                     listener.handleEvent(HttpClientConnection.this);
                 }
-                HttpClientExchange pending = pendingQueue.poll();
-                while (pending != null) {
-                    pending.setFailed(new ClosedChannelException());
-                    pending = pendingQueue.poll();
-                }
                 if(currentRequest != null) {
                     currentRequest.setFailed(new ClosedChannelException());
                     currentRequest = null;
                     pendingResponse = null;
                 }
+                failQueuedRequests(new ClosedChannelException());
             }
         });
         //we resume reads, so if the target goes away we get notified
@@ -302,6 +326,39 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
         return false;
     }
 
+    @Override
+    public int getMaxConcurrentRequests() {
+        if(http2Delegate != null) {
+            return http2Delegate.getMaxConcurrentRequests();
+        }
+        return -1;
+    }
+
+    @Override
+    public int getMaxPipelinedRequests() {
+        if(http2Delegate != null) {
+            return 1;
+        }
+        return maxPipelinedRequests;
+    }
+
+    @Override
+    public boolean isPingSupported() {
+        if(http2Delegate != null) {
+            return http2Delegate.isPingSupported();
+        }
+        return false;
+    }
+
+    @Override
+    public void sendPing(PingListener listener, long timeout, TimeUnit timeUnit) {
+        if(http2Delegate != null) {
+            http2Delegate.sendPing(listener, timeout, timeUnit);
+            return;
+        }
+        ClientConnection.super.sendPing(listener, timeout, timeUnit);
+    }
+
     @Override
     public ClientStatistics getStatistics() {
         if(http2Delegate != null) {
@@ -345,15 +402,87 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
 
         if (currentRequest == null) {
             initiateRequest(httpClientExchange);
+        } else if (pendingQueue.isEmpty() && canPipeline(request)) {
+            pipelineRequest(httpClientExchange);
         } else {
             pendingQueue.add(httpClientExchange);
         }
     }
 
+    /**
+     * Returns true if the request can be written now, before the responses to the requests already sent have been
+     * received. Only idempotent requests without a request body are pipelined, and only behind other such requests, so
+     * the responses can be matched in order and the requests can safely be retried elsewhere if the connection is lost.
+     */
+    private boolean canPipeline(ClientRequest request) {
+        return maxPipelinedRequests > 1
+                && writingRequest == null
+                && pipelinedRequests.size() + 1 < maxPipelinedRequests
+                && allAreClear(state, UPGRADE_REQUESTED | UPGRADED | CLOSE_REQ | CLOSED)
+                && isPipelinable(currentRequest.getRequest())
+                && isPipelinable(request);
+    }
+
+    private static boolean isPipelinable(ClientRequest request) {
+        if (request.getProtocol() != Protocols.HTTP_1_1 || !PIPELINED_METHODS.contains(request.getMethod())) {
+            return false;
+        }
+        final HeaderMap headers = request.getRequestHeaders();
+        final String length = headers.getFirst(Headers.CONTENT_LENGTH);
+        final String connection = headers.getFirst(Headers.CONNECTION);
+        return (length == null || length.equals("0"))
+                && (connection == null || Headers.KEEP_ALIVE.equalToString(connection))
+                && !headers.contains(Headers.TRANSFER_ENCODING)
+                && !headers.contains(Headers.UPGRADE)
+                && !headers.contains(Headers.EXPECT);
+    }
+
+    private void pipelineRequest(HttpClientExchange httpClientExchange) {
+        log.debugf("pipelining request to %s %s", getPeerAddress(), httpClientExchange.getRequest().getPath());
+        pipelinedRequests.add(httpClientExchange);
+        writeRequest(httpClientExchange);
+    }
+
+    /**
+     * Sends any queued requests that can be pipelined behind the current one.
+     */
+    private void pipelineQueuedRequests() {
+        HttpClientExchange next = pendingQueue.peek();
+        while (next != null && currentRequest != null && canPipeline(next.getRequest())) {
+            pendingQueue.poll();
+            pipelineRequest(next);
+            next = pendingQueue.peek();
+        }
+    }
+
+    private void failQueuedRequests(IOException exception) {
+        HttpClientExchange ex = pipelinedRequests.poll();
+        while (ex != null) {
+            ex.setFailed(exception);
+            ex = pipelinedRequests.poll();
+        }
+        ex = pendingQueue.poll();
+        while (ex != null) {
+            ex.setFailed(exception);
+            ex = pendingQueue.poll();
+        }
+    }
+
     private void initiateRequest(HttpClientExchange httpClientExchange) {
-        this.requestCount++;
         currentRequest = httpClientExchange;
         pendingResponse = new HttpResponseBuilder();
+
+        //setup the client request conduits
+        final ConduitStreamSourceChannel sourceChannel = connection.getSourceChannel();
+        sourceChannel.setReadListener(clientReadListener);
+        sourceChannel.resumeReads();
+
+        writeRequest(httpClientExchange);
+    }
+
+    private void writeRequest(HttpClientExchange httpClientExchange) {
+        this.requestCount++;
+        writingRequest = httpClientExchange;
         ClientRequest request = httpClientExchange.getRequest();
 
         String connectionString = request.getRequestHeaders().getFirst(Headers.CONNECTION);
@@ -374,11 +503,6 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
             state |= UPGRADE_REQUESTED;
         }
 
-        //setup the client request conduits
-        final ConduitStreamSourceChannel sourceChannel = connection.getSourceChannel();
-        sourceChannel.setReadListener(clientReadListener);
-        sourceChannel.resumeReads();
-
         ConduitStreamSinkChannel sinkChannel = connection.getSinkChannel();
         StreamSinkConduit conduit = originalSinkConduit;
         HttpRequestConduit httpRequestConduit = new HttpRequestConduit(conduit, bufferPool, request);
@@ -393,7 +517,7 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
         if (fixedLengthString != null) {
             try {
                 long length = Long.parseLong(fixedLengthString);
-                conduit = new ClientFixedLengthStreamSinkConduit(conduit, length, false, false, currentRequest);
+                conduit = new ClientFixedLengthStreamSinkConduit(conduit, length, false, false, httpClientExchange);
                 hasContent = length != 0;
             } catch (NumberFormatException e) {
                 handleError(e);
@@ -406,7 +530,7 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
             }
             conduit = new ChunkedStreamSinkConduit(conduit, httpClientExchange.getConnection().getBufferPool(), false, false, httpClientExchange.getRequest().getRequestHeaders(), requestFinishListener, httpClientExchange);
         } else {
-            conduit = new ClientFixedLengthStreamSinkConduit(conduit, 0, false, false, currentRequest);
+            conduit = new ClientFixedLengthStreamSinkConduit(conduit, 0, false, false, httpClientExchange);
             hasContent = false;
         }
         sinkChannel.setConduit(conduit);
@@ -441,7 +565,9 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
     }
     private void handleError(IOException exception) {
         UndertowLogger.REQUEST_IO_LOGGER.ioException(exception);
-        currentRequest.setFailed(exception);
+        if (currentRequest != null) {
+            currentRequest.setFailed(exception);
+        }
         currentRequest = null;
         pendingResponse = null;
         safeClose(connection);
@@ -478,10 +604,14 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
     public void exchangeDone() {
         log.debugf("exchange complete in connection to %s", getPeerAddress());
 
-        connection.getSinkChannel().setConduit(originalSinkConduit);
+        if (writingRequest == null || writingRequest == currentRequest) {
+            //a pipelined request may still be being written
+            writingRequest = null;
+            connection.getSinkChannel().setConduit(originalSinkConduit);
+            connection.getSinkChannel().suspendWrites();
+            connection.getSinkChannel().setWriteListener(null);
+        }
         connection.getSourceChannel().setConduit(pushBackStreamSourceConduit);
-        connection.getSinkChannel().suspendWrites();
-        connection.getSinkChannel().setWriteListener(null);
 
         if (anyAreSet(state, CLOSE_REQ)) {
             currentRequest = null;
@@ -497,17 +627,32 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
         currentRequest = null;
         pendingResponse = null;
 
-        HttpClientExchange next = pendingQueue.poll();
+        HttpClientExchange next = pipelinedRequests.poll();
+        if (next != null) {
+            //the request has already been sent, start reading its response, which may already have been read ahead
+            currentRequest = next;
+            pendingResponse = new HttpResponseBuilder();
+            connection.getSourceChannel().setReadListener(clientReadListener);
+            connection.getSourceChannel().resumeReads();
+            connection.getSourceChannel().wakeupReads();
+            pipelineQueuedRequests();
+            return;
+        }
+        next = pendingQueue.poll();
         if (next == null) {
             //we resume reads, so if the target goes away we get notified
             connection.getSourceChannel().setReadListener(clientReadListener);
             connection.getSourceChannel().resumeReads();
         } else {
             initiateRequest(next);
+            pipelineQueuedRequests();
         }
     }
 
     public void requestDataSent() {
+        if (writingRequest != null && writingRequest.isRequestDataSent()) {
+            writingRequest = null;
+        }
         if(http2UpgradeReceived) {
             doHttp2Upgrade();
         }
@@ -626,12 +771,8 @@ class HttpClientConnection extends AbstractAttachable implements Closeable, Clie
                 }
                 if(close) {
                     HttpClientConnection.this.state |= CLOSE_REQ;
-                    //we are going to close, kill any queued connections
-                    HttpClientExchange ex = pendingQueue.poll();
-                    while (ex != null) {
-                        ex.setFailed(new IOException(UndertowClientMessages.MESSAGES.connectionClosed()));
-                        ex = pendingQueue.poll();
-                    }
+                    //we are going to close, kill any queued connections, pipelined requests will not be processed either
+                    failQueuedRequests(new IOException(UndertowClientMessages.MESSAGES.connectionClosed()));
                 }
                 if(response.getResponseCode() == StatusCodes.SWITCHING_PROTOCOLS && Http2Channel.CLEARTEXT_UPGRADE_STRING.equals(response.getResponseHeaders().getFirst(Headers.UPGRADE))) {
                     //http2 upgrade
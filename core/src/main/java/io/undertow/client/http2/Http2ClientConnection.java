@@ -339,6 +339,11 @@ public class Http2ClientConnection implements ClientConnection {
         return true;
     }
 
+    @Override
+    public int getMaxConcurrentRequests() {
+        return http2Channel.getSendMaxConcurrentStreams();
+    }
+
     @Override
     public ClientStatistics getStatistics() {
         return clientStatistics;
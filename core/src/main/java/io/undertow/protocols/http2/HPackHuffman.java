@@ -375,10 +375,28 @@ public class HPackHuffman {
      * @param target The target for the decompressed data
      */
     public static void decode(ByteBuffer data, int length, StringBuilder target) throws HpackException {
+        byte[] decoded = new byte[maxDecodedLength(length)];
+        int decodedLength = decode(data, length, decoded);
+        for (int i = 0; i < decodedLength; ++i) {
+            target.append((char) (decoded[i] & 0xFF));
+        }
+    }
+
+    /**
+     * Decodes a huffman encoded string into the target array, without allocating. The target array must be at
+     * least {@link #maxDecodedLength(int)} bytes long.
+     *
+     * @param data   The byte buffer
+     * @param length The data length
+     * @param target The target for the decompressed data
+     * @return The number of bytes written to the target array
+     */
+    public static int decode(ByteBuffer data, int length, byte[] target) throws HpackException {
         assert data.remaining() >= length;
         int treePos = 0;
         boolean eosBits = true;
         int eosCount = 0;
+        int targetPos = 0;
         for (int i = 0; i < length; ++i) {
             byte b = data.get();
             int bitPos = 7;
@@ -391,7 +409,7 @@ public class HPackHuffman {
                         eosBits = false;
                         eosCount = 0;
                     } else {
-                        target.append((char) (val & LOW_MASK));
+                        target[targetPos++] = decodedSymbol(val & LOW_MASK);
                         treePos = 0;
                         eosBits = true;
                         eosCount = 0;
@@ -404,7 +422,7 @@ public class HPackHuffman {
                             eosCount++;
                         }
                     } else {
-                        target.append((char) ((val >> 16) & LOW_MASK));
+                        target[targetPos++] = decodedSymbol((val >> 16) & LOW_MASK);
                         treePos = 0;
                         eosCount = 0;
                         eosBits = true;
@@ -416,6 +434,26 @@ public class HPackHuffman {
         if (!eosBits || eosCount > 7) {
             throw UndertowMessages.MESSAGES.huffmanEncodedHpackValueDidNotEndWithEOS();
         }
+        return targetPos;
+    }
+
+    /**
+     * The shortest huffman code is 5 bits, so this is the largest number of bytes that
+     * the given number of encoded bytes can decode to.
+     *
+     * @param length The encoded length
+     * @return The maximum decoded length
+     */
+    static int maxDecodedLength(int length) {
+        return (length * 8) / 5 + 1;
+    }
+
+    private static byte decodedSymbol(int symbol) throws HpackException {
+        if (symbol > 0xFF) {
+            //the EOS symbol must not appear in the encoded data
+            throw UndertowMessages.MESSAGES.huffmanEncodedHpackValueDidNotEndWithEOS();
+        }
+        return (byte) symbol;
     }
 
 
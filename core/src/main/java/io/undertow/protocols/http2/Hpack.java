@@ -19,8 +19,12 @@
 package io.undertow.protocols.http2;
 
 import java.nio.ByteBuffer;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
 
 import io.undertow.UndertowMessages;
+import io.undertow.util.Headers;
 import io.undertow.util.HttpString;
 
 /**
@@ -42,6 +46,13 @@ final class Hpack {
     static final HeaderField[] STATIC_TABLE;
     static final int STATIC_TABLE_LENGTH;
 
+    /**
+     * Open addressed hash table of well known lower case header names, so that the decoder can
+     * hand out the same {@link HttpString} instance every time a well known name is sent as a literal.
+     */
+    private static final HttpString[] KNOWN_HEADER_NAMES;
+    private static final int KNOWN_HEADER_NAMES_MASK;
+
     static {
         PREFIX_TABLE = new int[32];
         for (int i = 0; i < 32; ++i) {
@@ -118,6 +129,48 @@ final class Hpack {
         fields[61] = new HeaderField(new HttpString("www-authenticate"), null);
         STATIC_TABLE = fields;
         STATIC_TABLE_LENGTH = STATIC_TABLE.length - 1;
+
+        //HTTP/2 header names are always lower case, so we can't hand out the mixed case Headers constants
+        //directly. Instead we intern a lower case copy of each one, using the static table instance if there is one.
+        Map<String, HttpString> known = new LinkedHashMap<>();
+        for (int i = 1; i < fields.length; ++i) {
+            known.put(fields[i].name.toString(), fields[i].name);
+        }
+        HttpString[] headers = {
+                Headers.ACCEPT, Headers.ACCEPT_CHARSET, Headers.ACCEPT_ENCODING, Headers.ACCEPT_LANGUAGE, Headers.ACCEPT_RANGES, Headers.AGE,
+                Headers.ALLOW, Headers.AUTHENTICATION_INFO, Headers.AUTHORIZATION, Headers.CACHE_CONTROL, Headers.CONNECTION,
+                Headers.CONTENT_DISPOSITION, Headers.CONTENT_ENCODING, Headers.CONTENT_LANGUAGE, Headers.CONTENT_LENGTH, Headers.CONTENT_LOCATION,
+                Headers.CONTENT_MD5, Headers.CONTENT_RANGE, Headers.CONTENT_SECURITY_POLICY, Headers.CONTENT_TYPE, Headers.COOKIE, Headers.COOKIE2,
+                Headers.DATE, Headers.ETAG, Headers.EXPECT, Headers.EXPIRES, Headers.FORWARDED, Headers.FROM, Headers.HOST, Headers.IF_MATCH,
+                Headers.IF_MODIFIED_SINCE, Headers.IF_NONE_MATCH, Headers.IF_RANGE, Headers.IF_UNMODIFIED_SINCE, Headers.LAST_MODIFIED,
+                Headers.LOCATION, Headers.MAX_FORWARDS, Headers.ORIGIN, Headers.PRAGMA, Headers.PROXY_AUTHENTICATE, Headers.PROXY_AUTHORIZATION,
+                Headers.RANGE, Headers.REFERER, Headers.REFERRER_POLICY, Headers.REFRESH, Headers.RETRY_AFTER, Headers.SEC_WEB_SOCKET_ACCEPT,
+                Headers.SEC_WEB_SOCKET_EXTENSIONS, Headers.SEC_WEB_SOCKET_KEY, Headers.SEC_WEB_SOCKET_KEY1, Headers.SEC_WEB_SOCKET_KEY2,
+                Headers.SEC_WEB_SOCKET_LOCATION, Headers.SEC_WEB_SOCKET_ORIGIN, Headers.SEC_WEB_SOCKET_PROTOCOL, Headers.SEC_WEB_SOCKET_VERSION,
+                Headers.SERVER, Headers.SERVLET_ENGINE, Headers.SET_COOKIE, Headers.SET_COOKIE2, Headers.SSL_CIPHER, Headers.SSL_CIPHER_USEKEYSIZE,
+                Headers.SSL_CLIENT_CERT, Headers.SSL_SESSION_ID, Headers.STATUS, Headers.STRICT_TRANSPORT_SECURITY, Headers.TE, Headers.TRAILER,
+                Headers.TRANSFER_ENCODING, Headers.UPGRADE, Headers.USER_AGENT, Headers.VARY, Headers.VIA, Headers.WARNING, Headers.WWW_AUTHENTICATE,
+                Headers.X_CONTENT_TYPE_OPTIONS, Headers.X_DISABLE_PUSH, Headers.X_FORWARDED_FOR, Headers.X_FORWARDED_HOST, Headers.X_FORWARDED_PORT,
+                Headers.X_FORWARDED_PROTO, Headers.X_FORWARDED_SERVER, Headers.X_FRAME_OPTIONS, Headers.X_XSS_PROTECTION};
+        for (HttpString header : headers) {
+            String name = header.toString().toLowerCase(Locale.ENGLISH);
+            if (!known.containsKey(name)) {
+                known.put(name, new HttpString(name));
+            }
+        }
+        int tableSize = Integer.highestOneBit(known.size() * 4);
+        HttpString[] table = new HttpString[tableSize];
+        for (HttpString name : known.values()) {
+            byte[] bytes = new byte[name.length()];
+            name.copyTo(bytes, 0);
+            int pos = hash(bytes, bytes.length) & (tableSize - 1);
+            while (table[pos] != null) {
+                pos = (pos + 1) & (tableSize - 1);
+            }
+            table[pos] = name;
+        }
+        KNOWN_HEADER_NAMES = table;
+        KNOWN_HEADER_NAMES_MASK = tableSize - 1;
     }
 
     static class HeaderField {
@@ -214,6 +267,46 @@ final class Hpack {
     }
 
 
+    /**
+     * Returns the shared instance of a well known header name, or null if the name is not known.
+     *
+     * @param data   The header name bytes
+     * @param length The length of the name in the array
+     * @param hash   The hash of the name, as returned by {@link #hash(byte[], int)}
+     * @return The interned header name, or null
+     */
+    static HttpString knownHeaderName(byte[] data, int length, int hash) {
+        int pos = hash & KNOWN_HEADER_NAMES_MASK;
+        HttpString candidate;
+        while ((candidate = KNOWN_HEADER_NAMES[pos]) != null) {
+            if (bytesEqual(candidate, data, length)) {
+                return candidate;
+            }
+            pos = (pos + 1) & KNOWN_HEADER_NAMES_MASK;
+        }
+        return null;
+    }
+
+    static boolean bytesEqual(HttpString string, byte[] data, int length) {
+        if (string.length() != length) {
+            return false;
+        }
+        for (int i = 0; i < length; ++i) {
+            if (string.byteAt(i) != data[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static int hash(byte[] data, int length) {
+        int h = 0;
+        for (int i = 0; i < length; ++i) {
+            h = 31 * h + data[i];
+        }
+        return h ^ (h >>> 16);
+    }
+
     static byte toLower(byte b) {
         if (b >= 'A' && b <= 'Z') {
             return (byte) (b + LOWER_DIFF);
@@ -34,6 +34,20 @@ public class HpackDecoder {
 
     private static final int DEFAULT_RING_BUFFER_SIZE = 10;
 
+    private static final int DEFAULT_SCRATCH_SIZE = 128;
+
+    /**
+     * The number of recently decoded header names and values that are remembered, so repeated literals
+     * on the same connection do not create new objects. Must be a power of two.
+     */
+    private static final int NAME_CACHE_SIZE = 32;
+    private static final int VALUE_CACHE_SIZE = 64;
+
+    /**
+     * Values longer than this are never cached, so we don't pin large strings for the life of the connection
+     */
+    private static final int MAX_CACHED_VALUE_LENGTH = 4096;
+
     /**
      * The object that receives the headers that are emitted from this decoder
      */
@@ -73,7 +87,25 @@ public class HpackDecoder {
 
     private boolean first = true;
 
-    private final StringBuilder stringBuilder = new StringBuilder();
+    /**
+     * Scratch space that literals are decoded into. This is reused for the life of the connection, and only grows
+     * if a literal is larger than any we have seen before.
+     */
+    private byte[] scratch = new byte[DEFAULT_SCRATCH_SIZE];
+
+    /**
+     * The length of the literal currently in the scratch buffer
+     */
+    private int scratchLength;
+
+    /**
+     * The table entry that the name of the current literal header field was taken from, if any. If the value is the
+     * same as the value of this entry then the existing value is used.
+     */
+    private HeaderField nameReference;
+
+    private final HttpString[] nameCache = new HttpString[NAME_CACHE_SIZE];
+    private final String[] valueCache = new String[VALUE_CACHE_SIZE];
 
     public HpackDecoder(int maxAllowedMemorySize) {
         this.specifiedMemorySize = Math.min(Hpack.DEFAULT_TABLE_SIZE, maxAllowedMemorySize);
@@ -122,7 +154,7 @@ public class HpackDecoder {
                     buffer.position(originalPos);
                     return;
                 }
-                String headerValue = readHpackString(buffer);
+                String headerValue = readHeaderValue(buffer);
                 if (headerValue == null) {
                     if(!moreData) {
                         throw UndertowMessages.MESSAGES.hpackFailed();
@@ -143,7 +175,7 @@ public class HpackDecoder {
                     buffer.position(originalPos);
                     return;
                 }
-                String headerValue = readHpackString(buffer);
+                String headerValue = readHeaderValue(buffer);
                 if (headerValue == null) {
                     if(!moreData) {
                         throw UndertowMessages.MESSAGES.hpackFailed();
@@ -160,7 +192,7 @@ public class HpackDecoder {
                     buffer.position(originalPos);
                     return;
                 }
-                String headerValue = readHpackString(buffer);
+                String headerValue = readHeaderValue(buffer);
                 if (headerValue == null) {
                     if(!moreData) {
                         throw UndertowMessages.MESSAGES.hpackFailed();
@@ -226,56 +258,108 @@ public class HpackDecoder {
         } else if (index != 0) {
             return handleIndexedHeaderName(index);
         } else {
-            String string = readHpackString(buffer);
-            if (string == null) {
+            nameReference = null;
+            if (!readHpackString(buffer)) {
                 return null;
-            } else if (string.isEmpty()) {
+            } else if (scratchLength == 0) {
                 //don't allow empty header names
                 throw new HpackException();
             }
-            return new HttpString(string);
+            int hash = Hpack.hash(scratch, scratchLength);
+            HttpString known = Hpack.knownHeaderName(scratch, scratchLength, hash);
+            if (known != null) {
+                return known;
+            }
+            int cachePos = hash & (NAME_CACHE_SIZE - 1);
+            HttpString cached = nameCache[cachePos];
+            if (cached != null && Hpack.bytesEqual(cached, scratch, scratchLength)) {
+                return cached;
+            }
+            HttpString name = new HttpString(scratch, 0, scratchLength);
+            nameCache[cachePos] = name;
+            return name;
         }
     }
 
-    private String readHpackString(ByteBuffer buffer) throws HpackException {
-        if (!buffer.hasRemaining()) {
+    private String readHeaderValue(ByteBuffer buffer) throws HpackException {
+        if (!readHpackString(buffer)) {
             return null;
         }
+        int length = scratchLength;
+        if (length == 0) {
+            //return the interned empty string, rather than allocating a new one each time
+            return "";
+        }
+        if (nameReference != null && nameReference.value != null && scratchEquals(nameReference.value)) {
+            return nameReference.value;
+        }
+        if (length > MAX_CACHED_VALUE_LENGTH) {
+            return scratchToString();
+        }
+        int cachePos = Hpack.hash(scratch, length) & (VALUE_CACHE_SIZE - 1);
+        String cached = valueCache[cachePos];
+        if (cached != null && scratchEquals(cached)) {
+            return cached;
+        }
+        String value = scratchToString();
+        valueCache[cachePos] = value;
+        return value;
+    }
+
+    /**
+     * Reads a string literal into the scratch buffer.
+     *
+     * @return false if there was not enough data in the buffer
+     */
+    private boolean readHpackString(ByteBuffer buffer) throws HpackException {
+        if (!buffer.hasRemaining()) {
+            return false;
+        }
         byte data = buffer.get(buffer.position());
 
         int length = Hpack.decodeInteger(buffer, 7);
         if (buffer.remaining() < length || length == -1) {
-            return null;
+            return false;
         }
         boolean huffman = (data & 0b10000000) != 0;
         if (huffman) {
-            return readHuffmanString(length, buffer);
-        }
-        for (int i = 0; i < length; ++i) {
-            stringBuilder.append((char) buffer.get());
+            ensureScratchCapacity(HPackHuffman.maxDecodedLength(length));
+            scratchLength = HPackHuffman.decode(buffer, length, scratch);
+        } else {
+            ensureScratchCapacity(length);
+            buffer.get(scratch, 0, length);
+            scratchLength = length;
         }
-        String ret = stringBuilder.toString();
-        stringBuilder.setLength(0);
-        if (ret.isEmpty()) {
-            //return the interned empty string, rather than allocating a new one each time
-            return "";
+        return true;
+    }
+
+    private void ensureScratchCapacity(int length) {
+        if (scratch.length < length) {
+            scratch = new byte[Math.max(length, scratch.length * 2)];
         }
-        return ret;
     }
 
-    private String readHuffmanString(int length, ByteBuffer buffer) throws HpackException {
-        HPackHuffman.decode(buffer, length, stringBuilder);
-        String ret = stringBuilder.toString();
-        if (ret.isEmpty()) {
-            return "";
+    private boolean scratchEquals(String value) {
+        if (value.length() != scratchLength) {
+            return false;
+        }
+        for (int i = 0; i < scratchLength; ++i) {
+            if (value.charAt(i) != (char) (scratch[i] & 0xFF)) {
+                return false;
+            }
         }
-        stringBuilder.setLength(0);
-        return ret;
+        return true;
+    }
+
+    @SuppressWarnings("deprecation")
+    private String scratchToString() {
+        return new String(scratch, 0, 0, scratchLength);
     }
 
     private HttpString handleIndexedHeaderName(int index) throws HpackException {
         if (index <= Hpack.STATIC_TABLE_LENGTH) {
-            return Hpack.STATIC_TABLE[index].name;
+            nameReference = Hpack.STATIC_TABLE[index];
+            return nameReference.name;
         } else {
             if (index > Hpack.STATIC_TABLE_LENGTH + filledTableSlots) {
                 throw new HpackException();
@@ -285,6 +369,7 @@ public class HpackDecoder {
             if (res == null) {
                 throw new HpackException();
             }
+            nameReference = res;
             return res.name;
         }
     }
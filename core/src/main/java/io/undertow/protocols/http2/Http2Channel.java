@@ -76,6 +76,11 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
     public static final HttpString AUTHORITY = new HttpString(":authority");
     public static final HttpString STATUS = new HttpString(":status");
 
+    /**
+     * The RFC 9218 priority request header
+     */
+    static final HttpString PRIORITY = new HttpString("priority");
+
     static final int FRAME_TYPE_DATA = 0x00;
     static final int FRAME_TYPE_HEADERS = 0x01;
     static final int FRAME_TYPE_PRIORITY = 0x02;
@@ -86,6 +91,7 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
     static final int FRAME_TYPE_GOAWAY = 0x07;
     static final int FRAME_TYPE_WINDOW_UPDATE = 0x08;
     static final int FRAME_TYPE_CONTINUATION = 0x09;
+    static final int FRAME_TYPE_PRIORITY_UPDATE = 0x10;
 
 
     public static final int ERROR_NO_ERROR = 0x00;
@@ -163,6 +169,10 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
 
     private final HpackDecoder decoder;
     private final HpackEncoder encoder;
+    /**
+     * The priority tree, which is shared with the frame priority. Guarded by the channel lock.
+     */
+    private final Http2PriorityTree priorityTree;
     private final int maxPadding;
     private final Random paddingRandom;
 
@@ -206,8 +216,10 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
     }
 
     public Http2Channel(StreamConnection connectedStreamChannel, String protocol, ByteBufferPool bufferPool, PooledByteBuffer data, boolean clientSide, boolean fromUpgrade, boolean prefaceRequired, ByteBuffer initialOtherSideSettings, OptionMap settings) {
-        super(connectedStreamChannel, bufferPool, new Http2FramePriority(clientSide ? (fromUpgrade ? 3 : 1) : 2), data, settings);
+        super(connectedStreamChannel, bufferPool, new Http2FramePriority(clientSide ? (fromUpgrade ? 3 : 1) : 2,
+                clientSide || !settings.get(UndertowOptions.HTTP2_PRIORITY_SCHEDULING, true) ? null : new Http2PriorityTree()), data, settings);
         streamIdCounter = clientSide ? (fromUpgrade ? 3 : 1) : 2;
+        priorityTree = ((Http2FramePriority) getFramePriority()).getPriorityTree();
 
         pushEnabled = settings.get(UndertowOptions.HTTP2_SETTINGS_ENABLE_PUSH, true);
         this.initialReceiveWindowSize = settings.get(UndertowOptions.HTTP2_SETTINGS_INITIAL_WINDOW_SIZE, DEFAULT_INITIAL_WINDOW_SIZE);
@@ -383,7 +395,8 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
                 //fall through
             }
             case FRAME_TYPE_HEADERS: {
-                if(!isIdle(frameParser.streamId)) {
+                final boolean newStream = isIdle(frameParser.streamId);
+                if(!newStream) {
                     //this is an existing stream
                     //make sure it exists
                     StreamHolder existing = currentStreams.get(frameParser.streamId);
@@ -446,9 +459,16 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
                     frameData.close();
                     return null;
                 }
-//                if(priorityTree != null) {
-//                    priorityTree.registerStream(frameParser.streamId, parser.getDependentStreamId(), parser.getWeight(), parser.isExclusive());
-//                }
+                if(priorityTree != null && newStream) {
+                    //trailers don't change the priority of the stream
+                    String priority = parser.getHeaderMap().getFirst(PRIORITY);
+                    synchronized (this) {
+                        priorityTree.registerStream(frameParser.streamId, parser.getDependentStreamId(), parser.getWeight(), parser.isExclusive());
+                        if(priority != null) {
+                            priorityTree.extensiblePriority(frameParser.streamId, priority, false);
+                        }
+                    }
+                }
                 break;
             }
             case FRAME_TYPE_RST_STREAM: {
@@ -523,13 +543,26 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
                     return null;
                 }
                 frameData.close();
-//                if(priorityTree == null) {
-//                    //we don't care, because we are the client side
-//                    //so this situation should never happen
-//                    return null;
-//                }
-//                priorityTree.priorityFrame(frameParser.streamId, parser.getStreamDependency(), parser.getWeight(), parser.isExclusive());
-//                //we don't return priority notifications, they are handled internally
+                if(priorityTree == null) {
+                    //we don't care, because we are the client side
+                    //or priority scheduling is disabled
+                    return null;
+                }
+                synchronized (this) {
+                    priorityTree.priorityFrame(frameParser.streamId, parser.getStreamDependency(), parser.getWeight(), parser.isExclusive());
+                }
+                //we don't return priority notifications, they are handled internally
+                return null;
+            }
+            case FRAME_TYPE_PRIORITY_UPDATE: {
+                Http2PriorityUpdateParser parser = (Http2PriorityUpdateParser) frameParser.parser;
+                frameData.close();
+                if(priorityTree != null) {
+                    synchronized (this) {
+                        priorityTree.extensiblePriority(parser.getPrioritizedStreamId(), parser.getPriorityFieldValue(), true);
+                    }
+                }
+                //we don't return priority notifications, they are handled internally
                 return null;
             }
             default: {
@@ -911,6 +944,10 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
         int streamId = streamIdCounter;
         streamIdCounter += 2;
         Http2PushPromiseStreamSinkChannel pushPromise = new Http2PushPromiseStreamSinkChannel(this, requestHeaders, associatedStreamId, streamId);
+        if(priorityTree != null) {
+            //pushed streams depend on the stream they are associated with
+            priorityTree.registerStream(streamId, associatedStreamId, Http2PriorityTree.DEFAULT_WEIGHT, false);
+        }
         flushChannel(pushPromise);
 
         Http2HeadersStreamSinkChannel http2SynStreamStreamSinkChannel = new Http2HeadersStreamSinkChannel(this, streamId, responseHeaders);
@@ -956,6 +993,11 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
         }
         existing.sinkClosed = true;
         existing.sinkChannel = null;
+        if(priorityTree != null) {
+            synchronized (this) {
+                priorityTree.streamRemoved(streamId);
+            }
+        }
         if(existing.sourceClosed) {
             if(streamId % 2 == (isClient() ? 1 : 0)) {
                 sendConcurrentStreamsAtomicUpdater.getAndDecrement(this);
@@ -1063,6 +1105,11 @@ public class Http2Channel extends AbstractFramedChannel<Http2Channel, AbstractHt
     private void handleRstStream(int streamId) {
         StreamHolder holder = currentStreams.remove(streamId);
         if(holder != null) {
+            if(priorityTree != null) {
+                synchronized (this) {
+                    priorityTree.streamRemoved(streamId);
+                }
+            }
             if(streamId % 2 == (isClient() ? 1 : 0)) {
                 sendConcurrentStreamsAtomicUpdater.getAndDecrement(this);
             } else {
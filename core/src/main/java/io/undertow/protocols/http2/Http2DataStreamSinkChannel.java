@@ -46,6 +46,22 @@ public class Http2DataStreamSinkChannel extends Http2StreamSinkChannel implement
     private boolean completionListenerReady;
     private TrailersProducer trailersProducer;
 
+    /**
+     * If the frame that is currently queued contains a HPACK encoded header block. Frames with a header block
+     * must be sent in the order they were encoded, so they can't be re-ordered by {@link Http2FramePriority}.
+     */
+    private boolean headerBlockInFrame;
+
+    /**
+     * The number of flow controlled bytes in the frame that is currently queued
+     */
+    private int frameDataLength;
+
+    //scheduling state, managed by Http2FramePriority under the channel lock
+    int priorityUrgency = Http2PriorityTree.DEFAULT_URGENCY;
+    boolean priorityIncremental = true;
+    long priorityFinishTime;
+
     Http2DataStreamSinkChannel(Http2Channel channel, int streamId, int frameType) {
         this(channel, streamId, new HeaderMap(), frameType);
     }
@@ -234,6 +250,8 @@ public class Http2DataStreamSinkChannel extends Http2StreamSinkChannel implement
             trailer.flip();
             firstTrailerBuffer.close();
         }
+        headerBlockInFrame = firstFrame || requiresTrailers;
+        frameDataLength = fcWindow;
         if (allHeaderBuffers == null) {
             //only one buffer required
             currentBuffer.flip();
@@ -299,6 +317,14 @@ public class Http2DataStreamSinkChannel extends Http2StreamSinkChannel implement
 
     }
 
+    boolean isHeaderBlockInFrame() {
+        return headerBlockInFrame;
+    }
+
+    int getFrameDataLength() {
+        return frameDataLength;
+    }
+
     protected boolean isFlushRequiredOnEmptyBuffer() {
         return first;
     }
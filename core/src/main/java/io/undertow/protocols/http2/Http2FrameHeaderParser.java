@@ -24,6 +24,7 @@ import static io.undertow.protocols.http2.Http2Channel.FRAME_TYPE_DATA;
 import static io.undertow.protocols.http2.Http2Channel.FRAME_TYPE_GOAWAY;
 import static io.undertow.protocols.http2.Http2Channel.FRAME_TYPE_HEADERS;
 import static io.undertow.protocols.http2.Http2Channel.FRAME_TYPE_PRIORITY;
+import static io.undertow.protocols.http2.Http2Channel.FRAME_TYPE_PRIORITY_UPDATE;
 import static io.undertow.protocols.http2.Http2Channel.FRAME_TYPE_PUSH_PROMISE;
 import static io.undertow.protocols.http2.Http2Channel.FRAME_TYPE_RST_STREAM;
 import static io.undertow.protocols.http2.Http2Channel.FRAME_TYPE_SETTINGS;
@@ -163,6 +164,20 @@ class Http2FrameHeaderParser implements FrameHeaderData {
                     parser = new Http2PriorityParser(length);
                     break;
                 }
+                case FRAME_TYPE_PRIORITY_UPDATE: {
+                    if (streamId != 0) {
+                        throw new ConnectionErrorException(Http2Channel.ERROR_PROTOCOL_ERROR, UndertowMessages.MESSAGES.streamIdMustBeZeroForFrameType(FRAME_TYPE_PRIORITY_UPDATE));
+                    }
+                    if (http2Channel.isClient()) {
+                        //only clients send priority updates
+                        throw new ConnectionErrorException(Http2Channel.ERROR_PROTOCOL_ERROR, UndertowMessages.MESSAGES.http2UnexpectedPriorityUpdate());
+                    }
+                    if (length < 4) {
+                        throw new ConnectionErrorException(Http2Channel.ERROR_FRAME_SIZE_ERROR, UndertowMessages.MESSAGES.incorrectFrameSize());
+                    }
+                    parser = new Http2PriorityUpdateParser(length);
+                    break;
+                }
                 default: {
                     parser = new Http2DiscardParser(length);
                     break;
@@ -21,13 +21,24 @@ package io.undertow.protocols.http2;
 import java.util.Deque;
 import java.util.Iterator;
 import java.util.List;
+import java.util.ListIterator;
 
 import io.undertow.UndertowLogger;
 import io.undertow.server.protocol.framed.FramePriority;
 import io.undertow.server.protocol.framed.SendFrameHeader;
 
 /**
- * TODO: real priority
+ * Frame priority implementation for HTTP2.
+ * <p>
+ * If a priority tree is in use then DATA frames are scheduled using self clocked weighted fair queuing. Each frame
+ * is tagged with a virtual finish time, which is the finish time of the streams previous frame (or the current virtual
+ * time if that is later) plus the frame length divided by the streams share of the connection, as determined
+ * by the RFC 7540 dependency tree. Frames are then sent in order of RFC 9218 urgency, and then finish time, so a
+ * large download can't starve smaller responses. Non incremental responses of the same urgency are sent one
+ * at a time in stream id order, as RFC 9218 recommends.
+ * <p>
+ * Frames that contain a HPACK header block and control frames are never re-ordered, as the header blocks must
+ * arrive in the order they were encoded. DATA frames are never moved in front of them.
  *
  * @author Stuart Douglas
  */
@@ -35,8 +46,27 @@ class Http2FramePriority implements FramePriority<Http2Channel, AbstractHttp2Str
 
     private int nextId;
 
+    /**
+     * The priority tree, or null if frames are just sent in the order they are queued
+     */
+    private final Http2PriorityTree priorityTree;
+
+    /**
+     * The virtual time, which is the finish time of the most recent DATA frame that has started being sent
+     */
+    private long virtualTime;
+
     Http2FramePriority(int nextId) {
+        this(nextId, null);
+    }
+
+    Http2FramePriority(int nextId, Http2PriorityTree priorityTree) {
         this.nextId = nextId;
+        this.priorityTree = priorityTree;
+    }
+
+    Http2PriorityTree getPriorityTree() {
+        return priorityTree;
     }
 
     @Override
@@ -80,7 +110,7 @@ class Http2FramePriority implements FramePriority<Http2Channel, AbstractHttp2Str
             }
         }
 
-        pendingFrames.add(newFrame);
+        addPendingFrame(newFrame, pendingFrames);
         if (incrementIfAccepted) {
             nextId += 2;
         }
@@ -117,7 +147,7 @@ class Http2FramePriority implements FramePriority<Http2Channel, AbstractHttp2Str
             if (pending instanceof Http2StreamSinkChannel) {
                 SendFrameHeader header = ((Http2StreamSinkChannel) pending).generateSendFrameHeader();
                 if (header.getByteBuffer() != null) {
-                    pendingFrames.add(pending);
+                    addPendingFrame(pending, pendingFrames);
                     it.remove();
                     it = holdFrames.iterator();
                     if (incrementNextId) {
@@ -131,4 +161,52 @@ class Http2FramePriority implements FramePriority<Http2Channel, AbstractHttp2Str
         }
 
     }
+
+    private void addPendingFrame(AbstractHttp2StreamSinkChannel frame, List<AbstractHttp2StreamSinkChannel> pendingFrames) {
+        if (priorityTree == null || !isReorderable(frame)) {
+            pendingFrames.add(frame);
+            return;
+        }
+        Http2DataStreamSinkChannel dataFrame = (Http2DataStreamSinkChannel) frame;
+        if (!pendingFrames.isEmpty() && isReorderable(pendingFrames.get(0))) {
+            //the frame at the head of the queue is the one being sent, which determines the virtual time
+            virtualTime = Math.max(virtualTime, ((Http2DataStreamSinkChannel) pendingFrames.get(0)).priorityFinishTime);
+        }
+        int streamId = dataFrame.getStreamId();
+        int length = Math.max(1, dataFrame.getFrameDataLength());
+        dataFrame.priorityUrgency = priorityTree.getUrgency(streamId);
+        dataFrame.priorityIncremental = priorityTree.isIncremental(streamId);
+        long start = Math.max(virtualTime, dataFrame.priorityFinishTime);
+        dataFrame.priorityFinishTime = start + (long) (length / priorityTree.getWeightingProportion(streamId));
+
+        //walk back from the end of the queue, until we find a frame we can't be sent in front of
+        //we never insert at the head of the queue, as that frame may have already been partially written
+        int position = pendingFrames.size();
+        ListIterator<AbstractHttp2StreamSinkChannel> it = pendingFrames.listIterator(position);
+        while (position > 1) {
+            AbstractHttp2StreamSinkChannel previous = it.previous();
+            if (!isReorderable(previous) || compare((Http2DataStreamSinkChannel) previous, dataFrame) <= 0) {
+                break;
+            }
+            position--;
+        }
+        pendingFrames.add(position, frame);
+    }
+
+    private static boolean isReorderable(AbstractHttp2StreamSinkChannel frame) {
+        return frame instanceof Http2DataStreamSinkChannel && !((Http2DataStreamSinkChannel) frame).isHeaderBlockInFrame();
+    }
+
+    private static int compare(Http2DataStreamSinkChannel f1, Http2DataStreamSinkChannel f2) {
+        if (f1.priorityUrgency != f2.priorityUrgency) {
+            return f1.priorityUrgency < f2.priorityUrgency ? -1 : 1;
+        }
+        if (f1.priorityIncremental != f2.priorityIncremental) {
+            return f1.priorityIncremental ? 1 : -1;
+        }
+        if (!f1.priorityIncremental) {
+            return Integer.compare(f1.getStreamId(), f2.getStreamId());
+        }
+        return Long.compare(f1.priorityFinishTime, f2.priorityFinishTime);
+    }
 }
@@ -50,7 +50,7 @@ class Http2PriorityParser extends Http2PushBackParser {
             exclusive = false;
             streamDependency = read;
         }
-        weight = resource.get();
+        weight = (resource.get() & 0xFF) + 1;
     }
 
     public int getWeight() {
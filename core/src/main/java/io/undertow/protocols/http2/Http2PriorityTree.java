@@ -20,17 +20,38 @@ package io.undertow.protocols.http2;
 
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashSet;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * A structure that represents HTTP2 priority information.
- *
+ * <p>
+ * This tracks both the RFC 7540 dependency tree, and the RFC 9218 extensible priority parameters (urgency and
+ * incremental delivery) for each stream.
+ * <p>
  * Note that this structure is not thread safe, it is intended to be protected by an external lock
  *
  * @author Stuart Douglas
  */
 public class Http2PriorityTree {
 
+    public static final int DEFAULT_WEIGHT = 16;
+
+    /**
+     * The default urgency as per RFC 9218
+     */
+    public static final int DEFAULT_URGENCY = 3;
+
+    private static final int MAX_URGENCY = 7;
+
+    /**
+     * The maximum number of nodes we will create for streams that the client has sent priority information for
+     * but not opened yet. This stops a client from making us track an unbounded number of idle streams, once it is
+     * reached the oldest idle stream that no other stream depends on is evicted.
+     */
+    private static final int MAX_IDLE_NODES = 100;
+
     private final Http2PriorityNode rootNode;
     private final Map<Integer, Http2PriorityNode> nodesByID = new HashMap<>();
 
@@ -42,6 +63,11 @@ public class Http2PriorityTree {
 
     private int evictionQueuePosition;
 
+    /**
+     * Streams that have priority information but have not been opened yet, oldest first
+     */
+    private final Set<Integer> idleStreams = new LinkedHashSet<>();
+
     /**
      * The maximum number of streams that we store priority information for
      */
@@ -58,19 +84,32 @@ public class Http2PriorityTree {
      * @param weighting The weighting. If no weighting is specified this should be 16
      */
     public void registerStream(int streamId, int dependency, int weighting, boolean exclusive) {
+        Http2PriorityNode existing = nodesByID.get(streamId);
+        if(existing != null) {
+            //we already have priority information for this stream from a PRIORITY or PRIORITY_UPDATE frame
+            idleStreams.remove(streamId);
+            priorityFrame(streamId, dependency, weighting, exclusive);
+            return;
+        }
+        createNode(streamId, dependency, weighting, exclusive);
+    }
+
+    private Http2PriorityNode createNode(int streamId, int dependency, int weighting, boolean exclusive) {
         final Http2PriorityNode node = new Http2PriorityNode(streamId, weighting);
+        Http2PriorityNode parent = nodesByID.get(dependency);
+        if(parent == null) {
+            //a dependency on a stream that is not in the tree results in the default priority
+            parent = rootNode;
+            node.weighting = DEFAULT_WEIGHT;
+            exclusive = false;
+        }
         if(exclusive) {
-            Http2PriorityNode existing = nodesByID.get(dependency);
-            if(existing != null) {
-                existing.exclusive(node);
-            }
+            parent.exclusive(node);
         } else {
-            Http2PriorityNode existing = nodesByID.get(dependency);
-            if(existing != null) {
-                existing.addDependent(node);
-            }
+            parent.addDependent(node);
         }
         nodesByID.put(streamId, node);
+        return node;
     }
 
     /**
@@ -87,16 +126,47 @@ public class Http2PriorityTree {
             //add to eviction queue
             int toEvict = evictionQueue[evictionQueuePosition];
             evictionQueue[evictionQueuePosition++] = streamId;
-            Http2PriorityNode nodeToEvict = nodesByID.get(toEvict);
+            if(evictionQueuePosition == evictionQueue.length) {
+                evictionQueuePosition = 0;
+            }
+            Http2PriorityNode nodeToEvict = toEvict == 0 ? null : nodesByID.get(toEvict);
             //we don't remove the node if it has since got dependents since it was put into the queue
             //as this is the whole reason we maintain the queue in the first place
             if(nodeToEvict != null && !nodeToEvict.hasDependents()) {
-                nodesByID.remove(toEvict);
+                removeNode(nodeToEvict);
             }
         }
 
     }
 
+    private void removeNode(Http2PriorityNode node) {
+        nodesByID.remove(node.streamId);
+        idleStreams.remove(node.streamId);
+        if(node.parent != null) {
+            node.parent.removeDependent(node);
+        }
+    }
+
+    /**
+     * Makes room for a new idle stream, evicting the oldest one that no other stream depends on if the limit has
+     * been reached. Idle streams that have dependents are kept, as clients use them to group other streams.
+     *
+     * @return false if there was no room, in which case the priority information should be ignored
+     */
+    private boolean reserveIdleNode() {
+        if(idleStreams.size() < MAX_IDLE_NODES) {
+            return true;
+        }
+        for(Integer streamId : idleStreams) {
+            Http2PriorityNode node = nodesByID.get(streamId);
+            if(!node.hasDependents()) {
+                removeNode(node);
+                return true;
+            }
+        }
+        return false;
+    }
+
     /**
      * Creates a priority queue
      * @return
@@ -138,26 +208,141 @@ public class Http2PriorityTree {
         return ret;
     }
 
+    /**
+     * Returns the proportion of the connection bandwidth that the stream should get, based on its weight and the
+     * weights of its ancestors and siblings in the dependency tree.
+     *
+     * @param streamId The stream id
+     * @return The proportion, in the range (0, 1]
+     */
+    public double getWeightingProportion(int streamId) {
+        Http2PriorityNode node = nodesByID.get(streamId);
+        if(node == null || node.parent == null) {
+            //unknown streams are treated as if they were a default weighted dependent of the root
+            return DEFAULT_WEIGHT / (double) Math.max(DEFAULT_WEIGHT, rootNode.totalWeights + DEFAULT_WEIGHT);
+        }
+        return createWeightingProportion(node);
+    }
+
+    /**
+     * @param streamId The stream id
+     * @return The RFC 9218 urgency of the stream, lower values are more urgent
+     */
+    public int getUrgency(int streamId) {
+        Http2PriorityNode node = nodesByID.get(streamId);
+        return node == null ? DEFAULT_URGENCY : node.urgency;
+    }
+
+    /**
+     * Returns true if the stream should share bandwidth with other streams of the same urgency. Streams that have not
+     * sent any extensible priority information are treated as incremental, so streams that only use RFC 7540
+     * priorities share bandwidth according to their weights.
+     *
+     * @param streamId The stream id
+     * @return true if the response can be delivered incrementally
+     */
+    public boolean isIncremental(int streamId) {
+        Http2PriorityNode node = nodesByID.get(streamId);
+        return node == null || node.incremental;
+    }
+
     public void priorityFrame(int streamId, int streamDependency, int weight, boolean exlusive) {
         Http2PriorityNode existing = nodesByID.get(streamId);
         if(existing == null) {
+            //priority information for a stream that has not been opened yet
+            if(!reserveIdleNode()) {
+                return;
+            }
+            createNode(streamId, streamDependency, weight, exlusive);
+            idleStreams.add(streamId);
             return;
         }
-        int dif = weight - existing.weighting;
-        existing.parent.totalWeights += dif;
+        Http2PriorityNode newParent = nodesByID.get(streamDependency);
+        if(newParent == null) {
+            newParent = rootNode;
+            weight = DEFAULT_WEIGHT;
+            exlusive = false;
+        }
+        if(newParent == existing) {
+            return;
+        }
+        if(isDescendant(newParent, existing)) {
+            //as per RFC 7540 5.3.3 the new parent is first moved to be dependent on the previous parent of the stream
+            newParent.parent.removeDependent(newParent);
+            existing.parent.addDependent(newParent);
+        }
+        if(existing.parent != null) {
+            existing.parent.removeDependent(existing);
+        }
         existing.weighting = weight;
         if(exlusive) {
-            Http2PriorityNode newParent = nodesByID.get(streamDependency);
-            if(newParent != null) {
-                existing.parent.removeDependent(existing);
-                newParent.exclusive(existing);
+            newParent.exclusive(existing);
+        } else {
+            newParent.addDependent(existing);
+        }
+    }
+
+    /**
+     * Handles RFC 9218 extensible priority information, from either the {@code priority} request header or a
+     * PRIORITY_UPDATE frame.
+     *
+     * @param streamId       The stream id
+     * @param priority       The priority field value
+     * @param priorityUpdate true if this came from a PRIORITY_UPDATE frame, which takes precedence over the header
+     */
+    public void extensiblePriority(int streamId, String priority, boolean priorityUpdate) {
+        Http2PriorityNode node = nodesByID.get(streamId);
+        if(node == null) {
+            if(priorityUpdate && !reserveIdleNode()) {
+                return;
             }
-        } else if(existing.parent.streamId != streamDependency) {
-            Http2PriorityNode newParent = nodesByID.get(streamDependency);
-            if(newParent != null) {
-                newParent.addDependent(existing);
+            node = createNode(streamId, 0, DEFAULT_WEIGHT, false);
+            if(priorityUpdate) {
+                idleStreams.add(streamId);
             }
+        } else if(!priorityUpdate && node.priorityUpdateReceived) {
+            return;
+        }
+        if(priorityUpdate) {
+            node.priorityUpdateReceived = true;
         }
+        //RFC 9218 defaults, any parameters that are not present take these values
+        int urgency = DEFAULT_URGENCY;
+        boolean incremental = false;
+        for(String member : priority.split(",")) {
+            int paramsStart = member.indexOf(';');
+            if(paramsStart != -1) {
+                member = member.substring(0, paramsStart);
+            }
+            member = member.trim();
+            if(member.equals("i") || member.equals("i=?1")) {
+                incremental = true;
+            } else if(member.equals("i=?0")) {
+                incremental = false;
+            } else if(member.startsWith("u=")) {
+                try {
+                    int value = Integer.parseInt(member.substring(2));
+                    if(value >= 0 && value <= MAX_URGENCY) {
+                        urgency = value;
+                    }
+                } catch (NumberFormatException e) {
+                    //ignore, as required by the spec
+                }
+            }
+        }
+        node.urgency = urgency;
+        node.incremental = incremental;
+    }
+
+    private static boolean isDescendant(Http2PriorityNode node, Http2PriorityNode possibleAncestor) {
+        Http2PriorityNode current = node.parent;
+        while (current != null) {
+            if(current == possibleAncestor) {
+                return true;
+            }
+            current = current.parent;
+        }
+        return false;
     }
 
 
@@ -180,6 +365,21 @@ public class Http2PriorityTree {
          */
         int totalWeights;
 
+        /**
+         * The RFC 9218 urgency
+         */
+        int urgency = DEFAULT_URGENCY;
+
+        /**
+         * If the stream can be interleaved with other streams of the same urgency
+         */
+        boolean incremental = true;
+
+        /**
+         * If we have received a PRIORITY_UPDATE for this stream, in which case the priority header is ignored
+         */
+        boolean priorityUpdateReceived;
+
         /**
          * streams that depend on this stream, in weighted order. May contains null at the end of the list
          */
@@ -195,22 +395,17 @@ public class Http2PriorityTree {
             if(dependents == null) {
                 return;
             }
-            totalWeights -= node.weighting;
-            boolean found = false;
-            int i;
-            for(i = 0; i < dependents.length - 1; ++i ) {
-                if(dependents[i] == node) {
-                    found = true;
-                }
-                if(found) {
-                    dependents[i] = dependents[i + i];
-                }
+            for(int i = 0; i < dependents.length; ++i) {
                 if(dependents[i] == null) {
-                    break;
+                    return;
+                }
+                if(dependents[i] == node) {
+                    System.arraycopy(dependents, i + 1, dependents, i, dependents.length - i - 1);
+                    dependents[dependents.length - 1] = null;
+                    totalWeights -= node.weighting;
+                    node.parent = null;
+                    return;
                 }
-            }
-            if(found) {
-                dependents[i + 1] = null;
             }
         }
 
@@ -235,7 +430,6 @@ public class Http2PriorityTree {
                 Http2PriorityNode[] old = dependents;
                 dependents = new Http2PriorityNode[dependents.length + 5];
                 System.arraycopy(old, 0, dependents, 0, old.length);
-                ++i;
             }
             dependents[i] = node;
             node.parent = this;
@@ -248,7 +442,7 @@ public class Http2PriorityTree {
             }
 
             for(Http2PriorityNode i : dependents) {
-                if(i != null) {
+                if(i != null && i != node) {
                     node.addDependent(i);
                 }
             }
@@ -256,6 +450,7 @@ public class Http2PriorityTree {
             for(int i = 1; i < dependents.length; ++ i) {
                 dependents[i] = null;
             }
+            node.parent = this;
             totalWeights = node.weighting;
         }
     }
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+import io.undertow.UndertowMessages;
+
+/**
+ * Parser for RFC 9218 PRIORITY_UPDATE frames
+ */
+class Http2PriorityUpdateParser extends Http2PushBackParser {
+
+    private int prioritizedStreamId;
+    private String priorityFieldValue;
+
+    Http2PriorityUpdateParser(int frameLength) {
+        super(frameLength);
+    }
+
+    @Override
+    protected void handleData(ByteBuffer resource, Http2FrameHeaderParser headerParser) throws IOException {
+        if (resource.remaining() < getFrameLength()) {
+            return;
+        }
+        prioritizedStreamId = Http2ProtocolUtils.readInt(resource) & ~(1 << 31);
+        if (prioritizedStreamId == 0) {
+            throw new ConnectionErrorException(Http2Channel.ERROR_PROTOCOL_ERROR, UndertowMessages.MESSAGES.streamIdMustNotBeZeroForFrameType(Http2Channel.FRAME_TYPE_PRIORITY_UPDATE));
+        }
+        byte[] value = new byte[resource.remaining()];
+        resource.get(value);
+        priorityFieldValue = new String(value, StandardCharsets.US_ASCII);
+    }
+
+    int getPrioritizedStreamId() {
+        return prioritizedStreamId;
+    }
+
+    String getPriorityFieldValue() {
+        return priorityFieldValue;
+    }
+}
@@ -25,6 +25,7 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.SSLEngine;
@@ -33,6 +34,7 @@ import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLSession;
 
 import io.undertow.UndertowLogger;
+import io.undertow.UndertowOptions;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
 import io.undertow.server.DefaultByteBufferPool;
@@ -40,6 +42,7 @@ import org.xnio.Buffers;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.IoUtils;
+import org.xnio.OptionMap;
 import org.xnio.StreamConnection;
 import org.xnio.XnioIoThread;
 import org.xnio.XnioWorker;
@@ -170,6 +173,31 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
 
     private boolean invokingReadListenerHandshake = false;
 
+    /**
+     * The maximum amount of application data in a record while the connection is using small records, or 0 if
+     * dynamic record sizing is disabled.
+     */
+    private final int smallRecordSize;
+    private final long smallRecordThreshold;
+    private final long recordSizingIdleNanos;
+    /**
+     * The number of application bytes that have been written since the connection was last idle
+     */
+    private long bytesSinceIdle;
+    private long lastWrapTime;
+
+    private volatile long applicationRecordsWritten;
+    private volatile long smallRecordsWritten;
+    private volatile long applicationBytesWritten;
+
+    /**
+     * The listener's handshake manager, this is null for connections that were not accepted by an
+     * {@link UndertowAcceptingSslChannel}
+     */
+    private SslHandshakeManager handshakeManager;
+    private boolean handshakeInProgress;
+    private long handshakeStartTime;
+    private long handshakeStartMillis;
 
 
     private final Runnable runReadListenerCommand = new Runnable() {
@@ -197,6 +225,10 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
     };
 
     SslConduit(UndertowSslConnection connection, StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, Runnable handshakeCallback) {
+        this(connection, delegate, engine, bufferPool, handshakeCallback, OptionMap.EMPTY);
+    }
+
+    SslConduit(UndertowSslConnection connection, StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, Runnable handshakeCallback, OptionMap optionMap) {
         this.connection = connection;
         this.delegate = delegate;
         this.handshakeCallback = handshakeCallback;
@@ -204,6 +236,13 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
         this.source = delegate.getSourceChannel().getConduit();
         this.engine = engine;
         this.bufferPool = bufferPool;
+        if(optionMap.get(UndertowOptions.SSL_DYNAMIC_RECORD_SIZING, false)) {
+            this.smallRecordSize = Math.max(1, optionMap.get(UndertowOptions.SSL_SMALL_RECORD_SIZE, UndertowOptions.DEFAULT_SSL_SMALL_RECORD_SIZE));
+        } else {
+            this.smallRecordSize = 0;
+        }
+        this.smallRecordThreshold = optionMap.get(UndertowOptions.SSL_SMALL_RECORD_THRESHOLD, UndertowOptions.DEFAULT_SSL_SMALL_RECORD_THRESHOLD);
+        this.recordSizingIdleNanos = TimeUnit.MILLISECONDS.toNanos(optionMap.get(UndertowOptions.SSL_RECORD_SIZING_IDLE_TIMEOUT, UndertowOptions.DEFAULT_SSL_RECORD_SIZING_IDLE_TIMEOUT));
         delegate.getSourceChannel().getConduit().setReadReadyHandler(readReadyHandler = new SslReadReadyHandler(null));
         delegate.getSinkChannel().getConduit().setWriteReadyHandler(writeReadyHandler = new SslWriteReadyHandler(null));
         if(engine.getUseClientMode()) {
@@ -728,7 +767,7 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
                     dataToUnwrap = null;
                     notifyReadClosed();
                     return -1;
-                } else if (res == 0 && engine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED) {
+                } else if (res == 0 && isHandshakeComplete()) {
                     //its possible there was some data in the buffer from a previous unwrap that had a buffer underflow
                     //if not we just close the buffer so it does not hang around
                     if(!dataToUnwrap.getBuffer().hasRemaining()) {
@@ -976,13 +1015,101 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
             if (userBuffers == null) {
                 result = engine.wrap(EMPTY_BUFFER, wrappedData.getBuffer());
             } else {
-                result = engine.wrap(userBuffers, off, len, wrappedData.getBuffer());
+                result = wrapApplicationData(userBuffers, off, len);
             }
         }
         wrappedData.getBuffer().flip();
         return result;
     }
 
+    /**
+     * Wraps application data. If dynamic record sizing is enabled and the connection is still (or again) using small
+     * records then the engine only sees enough data for a single small record, so the client can start processing
+     * the data as soon as the first TCP segment arrives.
+     */
+    private SSLEngineResult wrapApplicationData(ByteBuffer[] userBuffers, int off, int len) throws SSLException {
+        final int recordLimit = smallRecordSize > 0 ? currentRecordLimit() : 0;
+        final SSLEngineResult result;
+        if(recordLimit == 0) {
+            result = engine.wrap(userBuffers, off, len, wrappedData.getBuffer());
+        } else {
+            //temporarily move the limit of the buffer that crosses the record boundary, rather than copying the data
+            ByteBuffer limited = null;
+            int oldLimit = 0;
+            int end = off;
+            int remaining = recordLimit;
+            while (end < off + len) {
+                ByteBuffer buffer = userBuffers[end++];
+                if(buffer.remaining() >= remaining) {
+                    limited = buffer;
+                    oldLimit = buffer.limit();
+                    buffer.limit(buffer.position() + remaining);
+                    break;
+                }
+                remaining -= buffer.remaining();
+            }
+            try {
+                result = engine.wrap(userBuffers, off, end - off, wrappedData.getBuffer());
+            } finally {
+                if(limited != null) {
+                    limited.limit(oldLimit);
+                }
+            }
+        }
+        final int consumed = result.bytesConsumed();
+        if(consumed > 0) {
+            applicationRecordsWritten++;
+            applicationBytesWritten += consumed;
+            if(recordLimit > 0) {
+                smallRecordsWritten++;
+            }
+            bytesSinceIdle += consumed;
+        }
+        return result;
+    }
+
+    /**
+     * @return The maximum amount of data to put in the next record, or 0 if maximum size records should be used
+     */
+    private int currentRecordLimit() {
+        long now = System.nanoTime();
+        if(now - lastWrapTime > recordSizingIdleNanos) {
+            bytesSinceIdle = 0;
+        }
+        lastWrapTime = now;
+        return bytesSinceIdle < smallRecordThreshold ? smallRecordSize : 0;
+    }
+
+    /**
+     * @return The number of TLS records containing application data that have been written to this connection
+     */
+    public long getApplicationRecordsWritten() {
+        return applicationRecordsWritten;
+    }
+
+    /**
+     * @return The number of records that have been limited in size by dynamic record sizing
+     */
+    public long getSmallRecordsWritten() {
+        return smallRecordsWritten;
+    }
+
+    /**
+     * @return The number of application data bytes that have been written to this connection
+     */
+    public long getApplicationBytesWritten() {
+        return applicationBytesWritten;
+    }
+
+    /**
+     * The engine only reports {@link SSLEngineResult.HandshakeStatus#FINISHED} in the result of the wrap or unwrap that
+     * completed the handshake, after that it reports {@link SSLEngineResult.HandshakeStatus#NOT_HANDSHAKING}.
+     */
+    private boolean isHandshakeComplete() {
+        SSLEngineResult.HandshakeStatus status = engine.getHandshakeStatus();
+        return status == SSLEngineResult.HandshakeStatus.FINISHED || status == SSLEngineResult.HandshakeStatus.NOT_HANDSHAKING;
+    }
+
     private boolean handleHandshakeResult(SSLEngineResult result) throws IOException {
         switch (result.getHandshakeStatus()) {
             case NEED_TASK: {
@@ -1014,6 +1141,10 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
             case FINISHED: {
                 if(anyAreSet(state, FLAG_IN_HANDSHAKE)) {
                     state &= ~FLAG_IN_HANDSHAKE;
+                    if(handshakeInProgress) {
+                        handshakeInProgress = false;
+                        handshakeManager.handshakeCompleted(handshakeStartTime, handshakeStartMillis, engine.getSession());
+                    }
                     handshakeCallback.run();
                 }
             }
@@ -1052,6 +1183,10 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
             return;
         }
         state |= FLAG_CLOSED | FLAG_DELEGATE_SINK_SHUTDOWN | FLAG_DELEGATE_SOURCE_SHUTDOWN | FLAG_WRITE_SHUTDOWN | FLAG_READ_SHUTDOWN;
+        if(handshakeInProgress) {
+            handshakeInProgress = false;
+            handshakeManager.handshakeFailed();
+        }
         notifyReadClosed();
         notifyWriteClosed();
         if(dataToUnwrap != null) {
@@ -1099,49 +1234,78 @@ public class SslConduit implements StreamSourceConduit, StreamSinkConduit {
 
         synchronized (this) {
             outstandingTasks += tasks.size();
-            for (final Runnable task : tasks) {
-                getWorker().execute(new Runnable() {
-                    @Override
-                    public void run() {
-                        try {
-                            task.run();
-                        } finally {
-                            synchronized (SslConduit.this) {
-                                if (outstandingTasks == 1) {
-                                    getWriteThread().execute(new Runnable() {
-                                        @Override
-                                        public void run() {
-                                            synchronized (SslConduit.this) {
-                                                SslConduit.this.notifyAll();
-
-                                                --outstandingTasks;
-                                                try {
-                                                    doHandshake();
-                                                } catch (IOException | RuntimeException | Error e) {
-                                                    UndertowLogger.REQUEST_LOGGER.debug("Closing SSLConduit after exception on handshake", e);
-                                                    IoUtils.safeClose(connection);
-                                                }
-                                                if (anyAreSet(state, FLAG_READS_RESUMED)) {
-                                                    wakeupReads(); //wakeup, because we need to run an unwrap even if there is no data to be read
-                                                }
-                                                if (anyAreSet(state, FLAG_WRITES_RESUMED)) {
-                                                    resumeWrites(); //we don't need to wakeup, as the channel should be writable
+            for (int i = 0; i < tasks.size(); ++i) {
+                final Runnable task = tasks.get(i);
+                try {
+                    executeTask(new Runnable() {
+                        @Override
+                        public void run() {
+                            try {
+                                task.run();
+                            } finally {
+                                synchronized (SslConduit.this) {
+                                    if (outstandingTasks == 1) {
+                                        getWriteThread().execute(new Runnable() {
+                                            @Override
+                                            public void run() {
+                                                synchronized (SslConduit.this) {
+                                                    SslConduit.this.notifyAll();
+
+                                                    --outstandingTasks;
+                                                    try {
+                                                        doHandshake();
+                                                    } catch (IOException | RuntimeException | Error e) {
+                                                        UndertowLogger.REQUEST_LOGGER.debug("Closing SSLConduit after exception on handshake", e);
+                                                        IoUtils.safeClose(connection);
+                                                    }
+                                                    if (anyAreSet(state, FLAG_READS_RESUMED)) {
+                                                        wakeupReads(); //wakeup, because we need to run an unwrap even if there is no data to be read
+                                                    }
+                                                    if (anyAreSet(state, FLAG_WRITES_RESUMED)) {
+                                                        resumeWrites(); //we don't need to wakeup, as the channel should be writable
+                                                    }
                                                 }
                                             }
-                                        }
-                                    });
-                                } else {
-                                    outstandingTasks--;
+                                        });
+                                    } else {
+                                        outstandingTasks--;
+                                    }
                                 }
                             }
-                        }
 
-                    }
-                });
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    //the handshake executor is full, we fail the handshake rather than queue more work
+                    //the tasks that were not submitted will never complete
+                    outstandingTasks -= tasks.size() - i;
+                    UndertowLogger.REQUEST_LOGGER.debug("Closing SSLConduit as the handshake executor rejected a task", e);
+                    IoUtils.safeClose(connection);
+                    return;
+                }
             }
         }
     }
 
+    private void executeTask(Runnable task) {
+        if(handshakeManager != null) {
+            handshakeManager.executeTask(task, getWorker());
+        } else {
+            getWorker().execute(task);
+        }
+    }
+
+    /**
+     * Sets the manager that the handshake is reported to, and that runs the delegated tasks. This must be
+     * called before the handshake starts, and the manager must already have admitted the handshake.
+     */
+    void setHandshakeManager(SslHandshakeManager handshakeManager) {
+        this.handshakeManager = handshakeManager;
+        this.handshakeInProgress = true;
+        this.handshakeStartTime = System.nanoTime();
+        this.handshakeStartMillis = System.currentTimeMillis();
+    }
+
     public SSLEngine getSSLEngine() {
         return engine;
     }
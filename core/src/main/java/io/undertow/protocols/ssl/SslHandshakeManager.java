@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.ssl;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicLongFieldUpdater;
+
+import javax.net.ssl.SSLSession;
+
+import io.undertow.UndertowOptions;
+import org.xnio.OptionMap;
+
+/**
+ * Per listener handshake management. This provides admission control for new handshakes, an optional dedicated
+ * executor for the delegated tasks of the SSL engine, and the listener's handshake statistics.
+ * <p>
+ * If there is no dedicated executor the delegated tasks run in the XNIO worker as before. If there is one its queue
+ * bounds the handshake work that can be outstanding, once it is full further handshakes fail rather than spilling
+ * over into the worker.
+ */
+final class SslHandshakeManager implements SslHandshakeStatistics {
+
+    private static final long[] LATENCY_BUCKETS = {1, 2, 5, 10, 20, 50, 100, 200, 500, 1000, 2000, 5000};
+
+    private static final AtomicInteger threadCount = new AtomicInteger();
+
+    private static final AtomicLongFieldUpdater<SslHandshakeManager> completedHandshakesUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeManager.class, "completedHandshakes");
+    private static final AtomicLongFieldUpdater<SslHandshakeManager> failedHandshakesUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeManager.class, "failedHandshakes");
+    private static final AtomicLongFieldUpdater<SslHandshakeManager> rejectedHandshakesUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeManager.class, "rejectedHandshakes");
+    private static final AtomicLongFieldUpdater<SslHandshakeManager> activeHandshakesUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeManager.class, "activeHandshakes");
+    private static final AtomicLongFieldUpdater<SslHandshakeManager> resumedSessionsUpdater = AtomicLongFieldUpdater.newUpdater(SslHandshakeManager.class, "resumedSessions");
+
+    private volatile long completedHandshakes;
+    private volatile long failedHandshakes;
+    private volatile long rejectedHandshakes;
+    private volatile long activeHandshakes;
+    private volatile long resumedSessions;
+
+    private final AtomicLongArray latencyHistogram = new AtomicLongArray(LATENCY_BUCKETS.length + 1);
+
+    /**
+     * The executor for delegated tasks, or null if they should run in the worker
+     */
+    private final ThreadPoolExecutor executor;
+    private final int maxConcurrentHandshakes;
+    private final int maxHandshakeRate;
+
+    private long rateWindowStart;
+    private int rateWindowCount;
+
+    SslHandshakeManager(OptionMap optionMap) {
+        int threads = optionMap.get(UndertowOptions.SSL_HANDSHAKE_THREADS, 0);
+        if (threads > 0) {
+            int queueSize = optionMap.get(UndertowOptions.SSL_HANDSHAKE_QUEUE_SIZE, UndertowOptions.DEFAULT_SSL_HANDSHAKE_QUEUE_SIZE);
+            executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ssl-handshake-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+        } else {
+            executor = null;
+        }
+        maxConcurrentHandshakes = optionMap.get(UndertowOptions.SSL_MAX_CONCURRENT_HANDSHAKES, -1);
+        maxHandshakeRate = optionMap.get(UndertowOptions.SSL_MAX_HANDSHAKE_RATE, -1);
+    }
+
+    /**
+     * Attempts to admit a new handshake. If this returns true then exactly one of {@link #handshakeCompleted(long, long, SSLSession)}
+     * or {@link #handshakeFailed()} must be called once the handshake is done.
+     *
+     * @return <code>true</code> if the handshake can proceed, <code>false</code> if the connection should be closed
+     */
+    boolean tryStartHandshake() {
+        for (;;) {
+            long active = activeHandshakes;
+            if (maxConcurrentHandshakes > 0 && active >= maxConcurrentHandshakes) {
+                rejectedHandshakesUpdater.incrementAndGet(this);
+                return false;
+            }
+            if (activeHandshakesUpdater.compareAndSet(this, active, active + 1)) {
+                break;
+            }
+        }
+        if (maxHandshakeRate > 0 && !acquireRatePermit()) {
+            activeHandshakesUpdater.decrementAndGet(this);
+            rejectedHandshakesUpdater.incrementAndGet(this);
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized boolean acquireRatePermit() {
+        long now = System.nanoTime();
+        if (now - rateWindowStart >= TimeUnit.SECONDS.toNanos(1)) {
+            rateWindowStart = now;
+            rateWindowCount = 0;
+        }
+        if (rateWindowCount >= maxHandshakeRate) {
+            return false;
+        }
+        rateWindowCount++;
+        return true;
+    }
+
+    /**
+     * @param startTime   The time the handshake started, as returned by {@link System#nanoTime()}
+     * @param startMillis The time the handshake started, as returned by {@link System#currentTimeMillis()}
+     * @param session     The session
+     */
+    void handshakeCompleted(long startTime, long startMillis, SSLSession session) {
+        activeHandshakesUpdater.decrementAndGet(this);
+        completedHandshakesUpdater.incrementAndGet(this);
+        //a resumed session was created by an earlier handshake
+        if (session != null && session.getCreationTime() < startMillis) {
+            resumedSessionsUpdater.incrementAndGet(this);
+        }
+        long latency = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime);
+        int bucket = 0;
+        while (bucket < LATENCY_BUCKETS.length && latency > LATENCY_BUCKETS[bucket]) {
+            bucket++;
+        }
+        latencyHistogram.incrementAndGet(bucket);
+    }
+
+    void handshakeFailed() {
+        activeHandshakesUpdater.decrementAndGet(this);
+        failedHandshakesUpdater.incrementAndGet(this);
+    }
+
+    /**
+     * Runs a delegated task from the SSL engine.
+     *
+     * @param task   The task
+     * @param worker The executor to use if there is no dedicated executor
+     * @throws RejectedExecutionException if the queue of the dedicated executor is full, or it has been shut down. The
+     *                                    handshake should be failed.
+     */
+    void executeTask(Runnable task, Executor worker) {
+        if (executor != null) {
+            executor.execute(task);
+        } else {
+            worker.execute(task);
+        }
+    }
+
+    void shutdown() {
+        if (executor != null) {
+            executor.shutdown();
+        }
+    }
+
+    @Override
+    public long getCompletedHandshakes() {
+        return completedHandshakes;
+    }
+
+    @Override
+    public long getFailedHandshakes() {
+        return failedHandshakes;
+    }
+
+    @Override
+    public long getRejectedHandshakes() {
+        return rejectedHandshakes;
+    }
+
+    @Override
+    public long getActiveHandshakes() {
+        return activeHandshakes;
+    }
+
+    @Override
+    public long getResumedSessions() {
+        return resumedSessions;
+    }
+
+    @Override
+    public double getSessionResumptionRatio() {
+        long completed = completedHandshakes;
+        if (completed == 0) {
+            return 0;
+        }
+        return (double) resumedSessions / completed;
+    }
+
+    @Override
+    public long[] getHandshakeLatencyBuckets() {
+        return LATENCY_BUCKETS.clone();
+    }
+
+    @Override
+    public long[] getHandshakeLatencyHistogram() {
+        long[] ret = new long[latencyHistogram.length()];
+        for (int i = 0; i < ret.length; ++i) {
+            ret[i] = latencyHistogram.get(i);
+        }
+        return ret;
+    }
+
+    @Override
+    public void reset() {
+        completedHandshakesUpdater.set(this, 0);
+        failedHandshakesUpdater.set(this, 0);
+        rejectedHandshakesUpdater.set(this, 0);
+        resumedSessionsUpdater.set(this, 0);
+        for (int i = 0; i < latencyHistogram.length(); ++i) {
+            latencyHistogram.set(i, 0);
+        }
+    }
+}
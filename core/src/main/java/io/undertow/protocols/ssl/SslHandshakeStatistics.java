@@ -0,0 +1,79 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.ssl;
+
+/**
+ * Handshake level statistics for a SSL listener
+ */
+public interface SslHandshakeStatistics {
+
+    /**
+     *
+     * @return The number of handshakes that have completed successfully
+     */
+    long getCompletedHandshakes();
+
+    /**
+     *
+     * @return The number of handshakes where the connection was closed before the handshake completed
+     */
+    long getFailedHandshakes();
+
+    /**
+     *
+     * @return The number of connections that were closed without attempting a handshake because the listener was overloaded
+     */
+    long getRejectedHandshakes();
+
+    /**
+     *
+     * @return The number of handshakes that are currently in progress
+     */
+    long getActiveHandshakes();
+
+    /**
+     *
+     * @return The number of completed handshakes that resumed an existing session
+     */
+    long getResumedSessions();
+
+    /**
+     *
+     * @return The fraction of completed handshakes that resumed an existing session, or 0 if no handshakes have completed
+     */
+    double getSessionResumptionRatio();
+
+    /**
+     *
+     * @return The upper bounds of the handshake latency histogram buckets (milliseconds). The histogram has one more
+     *         bucket than there are bounds, which contains all handshakes that took longer than the last bound.
+     */
+    long[] getHandshakeLatencyBuckets();
+
+    /**
+     *
+     * @return The number of completed handshakes in each latency bucket
+     */
+    long[] getHandshakeLatencyHistogram();
+
+    /**
+     * Resets all values to zero, apart from the number of active handshakes
+     */
+    void reset();
+}
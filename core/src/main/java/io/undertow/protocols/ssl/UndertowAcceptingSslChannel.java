@@ -78,6 +78,11 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
     protected final boolean startTls;
     protected final ByteBufferPool applicationBufferPool;
     private final boolean useCipherSuitesOrder;
+    /**
+     * The options that are passed to each accepted connection, used to configure TLS record sizing
+     */
+    private final OptionMap connectionOptions;
+    private final SslHandshakeManager handshakeManager;
 
     UndertowAcceptingSslChannel(final UndertowXnioSsl ssl, final AcceptingChannel<? extends StreamConnection> tcpServer, final OptionMap optionMap, final ByteBufferPool applicationBufferPool, final boolean startTls) {
         this.tcpServer = tcpServer;
@@ -96,6 +101,8 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
         //noinspection ThisEscapedInObjectConstruction
         acceptSetter = ChannelListeners.<AcceptingChannel<SslConnection>>getDelegatingSetter(tcpServer.getAcceptSetter(), this);
         useCipherSuitesOrder = optionMap.get(UndertowOptions.SSL_USER_CIPHER_SUITES_ORDER, false);
+        connectionOptions = optionMap;
+        handshakeManager = new SslHandshakeManager(optionMap);
     }
 
     private static final Set<Option<?>> SUPPORTED_OPTIONS = Option.setBuilder()
@@ -140,6 +147,12 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
         if (tcpConnection == null) {
             return null;
         }
+        if (!handshakeManager.tryStartHandshake()) {
+            UndertowLogger.REQUEST_IO_LOGGER.debugf("Closing SSL connection from %s as the handshake limit has been reached", tcpConnection.getPeerAddress());
+            IoUtils.safeClose(tcpConnection);
+            return null;
+        }
+        final UndertowSslConnection connection;
         try {
             final InetSocketAddress peerAddress = tcpConnection.getPeerAddress(InetSocketAddress.class);
             final SSLEngine engine = ssl.getSslContext().createSSLEngine(getHostNameNoResolve(peerAddress), peerAddress.getPort());
@@ -199,16 +212,23 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
                     engine.setEnabledProtocols(finalList.toArray(new String[finalList.size()]));
                 }
             }
-            return accept(tcpConnection, engine);
+            connection = accept(tcpConnection, engine);
         } catch (IOException | RuntimeException e) {
+            handshakeManager.handshakeFailed();
             IoUtils.safeClose(tcpConnection);
             UndertowLogger.REQUEST_LOGGER.failedToAcceptSSLRequest(e);
             return null;
         }
+        connection.getSslConduit().setHandshakeManager(handshakeManager);
+        return connection;
+    }
+
+    SslHandshakeStatistics getHandshakeStatistics() {
+        return handshakeManager;
     }
 
     protected UndertowSslConnection accept(StreamConnection tcpServer, SSLEngine sslEngine) throws IOException {
-        return new UndertowSslConnection(tcpServer, sslEngine, applicationBufferPool);
+        return new UndertowSslConnection(tcpServer, sslEngine, applicationBufferPool, connectionOptions);
     }
 
     public ChannelListener.Setter<? extends AcceptingChannel<SslConnection>> getCloseSetter() {
@@ -220,7 +240,11 @@ class UndertowAcceptingSslChannel implements AcceptingChannel<SslConnection> {
     }
 
     public void close() throws IOException {
-        tcpServer.close();
+        try {
+            tcpServer.close();
+        } finally {
+            handshakeManager.shutdown();
+        }
     }
 
     public boolean supportsOption(final Option<?> option) {
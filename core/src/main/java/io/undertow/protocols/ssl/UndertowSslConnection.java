@@ -21,6 +21,7 @@ package io.undertow.protocols.ssl;
 import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.Option;
+import org.xnio.OptionMap;
 import org.xnio.Options;
 import io.undertow.connector.ByteBufferPool;
 import org.xnio.SslClientAuthMode;
@@ -51,10 +52,20 @@ class UndertowSslConnection extends SslConnection {
      * @param delegate the underlying connection
      */
     UndertowSslConnection(StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool) {
+        this(delegate, engine, bufferPool, OptionMap.EMPTY);
+    }
+
+    /**
+     * Construct a new instance.
+     *
+     * @param delegate the underlying connection
+     * @param optionMap the options, used to configure TLS record sizing
+     */
+    UndertowSslConnection(StreamConnection delegate, SSLEngine engine, ByteBufferPool bufferPool, OptionMap optionMap) {
         super(delegate.getIoThread());
         this.delegate = delegate;
         this.engine = engine;
-        sslConduit = new SslConduit(this, delegate, engine, bufferPool, new HandshakeCallback());
+        sslConduit = new SslConduit(this, delegate, engine, bufferPool, new HandshakeCallback(), optionMap);
         setSourceConduit(sslConduit);
         setSinkConduit(sslConduit);
     }
@@ -98,6 +109,20 @@ class UndertowSslConnection extends SslConnection {
         return sslConduit.getSSLEngine();
     }
 
+    /**
+     * @return The number of TLS records containing application data that have been written to this connection
+     */
+    public long getApplicationRecordsWritten() {
+        return sslConduit.getApplicationRecordsWritten();
+    }
+
+    /**
+     * @return The number of application data bytes that have been written to this connection
+     */
+    public long getApplicationBytesWritten() {
+        return sslConduit.getApplicationBytesWritten();
+    }
+
     SslConduit getSslConduit() {
         return sslConduit;
     }
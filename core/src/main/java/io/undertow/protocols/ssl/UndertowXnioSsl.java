@@ -156,6 +156,18 @@ public class UndertowXnioSsl extends XnioSsl {
         return ((UndertowSslConnection) connection).getSslConduit();
     }
 
+    /**
+     * Get the handshake statistics for a listener.
+     *
+     * @return the statistics, or null if the channel was not created by {@link #createSslConnectionServer}
+     */
+    public static SslHandshakeStatistics getHandshakeStatistics(AcceptingChannel<?> channel) {
+        if (channel instanceof UndertowAcceptingSslChannel) {
+            return ((UndertowAcceptingSslChannel) channel).getHandshakeStatistics();
+        }
+        return null;
+    }
+
     @SuppressWarnings("deprecation")
     public IoFuture<ConnectedSslStreamChannel> connectSsl(final XnioWorker worker, final InetSocketAddress bindAddress, final InetSocketAddress destination, final ChannelListener<? super ConnectedSslStreamChannel> openListener, final ChannelListener<? super BoundChannel> bindListener, final OptionMap optionMap) {
         final FutureResult<ConnectedSslStreamChannel> futureResult = new FutureResult<>(IoUtils.directExecutor());
@@ -199,11 +211,11 @@ public class UndertowXnioSsl extends XnioSsl {
     }
 
     public SslConnection wrapExistingConnection(StreamConnection connection, OptionMap optionMap) {
-        return new UndertowSslConnection(connection, createSSLEngine(sslContext, optionMap, (InetSocketAddress) connection.getPeerAddress(), true), bufferPool);
+        return new UndertowSslConnection(connection, createSSLEngine(sslContext, optionMap, (InetSocketAddress) connection.getPeerAddress(), true), bufferPool, optionMap);
     }
 
     public SslConnection wrapExistingConnection(StreamConnection connection, OptionMap optionMap, boolean clientMode) {
-        return new UndertowSslConnection(connection, createSSLEngine(sslContext, optionMap, (InetSocketAddress) connection.getPeerAddress(), clientMode), bufferPool);
+        return new UndertowSslConnection(connection, createSSLEngine(sslContext, optionMap, (InetSocketAddress) connection.getPeerAddress(), clientMode), bufferPool, optionMap);
     }
 
     public SslConnection wrapExistingConnection(StreamConnection connection, OptionMap optionMap, URI destinationURI) {
@@ -213,7 +225,7 @@ public class UndertowXnioSsl extends XnioSsl {
             sslParameters.setServerNames(Collections.singletonList(new SNIHostName(destinationURI.getHost())));
             sslEngine.setSSLParameters(sslParameters);
         }
-        return new UndertowSslConnection(connection, sslEngine, bufferPool);
+        return new UndertowSslConnection(connection, sslEngine, bufferPool, optionMap);
     }
 
     private InetSocketAddress getPeerAddress(URI destinationURI) {
@@ -440,7 +452,7 @@ public class UndertowXnioSsl extends XnioSsl {
 
                 sslEngine.setSSLParameters(params);
 
-                final SslConnection wrappedConnection = new UndertowSslConnection(connection, sslEngine, bufferPool);
+                final SslConnection wrappedConnection = new UndertowSslConnection(connection, sslEngine, bufferPool, optionMap);
                 if (!futureResult.setResult(wrappedConnection)) {
                     IoUtils.safeClose(connection);
                 } else {
@@ -0,0 +1,1265 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.UndertowLogger;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.AllowedContentEncodings;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.DateUtils;
+import io.undertow.util.ETag;
+import io.undertow.util.ETagUtils;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.StatusCodes;
+import org.xnio.Buffers;
+import org.xnio.IoUtils;
+import org.xnio.channels.StreamSourceChannel;
+import org.xnio.conduits.AbstractStreamSinkConduit;
+import org.xnio.conduits.ConduitWritableByteChannel;
+import org.xnio.conduits.Conduits;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * A shared HTTP cache that is intended to sit in front of a {@link io.undertow.server.handlers.proxy.ProxyHandler}.
+ * <p>
+ * Unlike {@link CacheHandler}, which relies on the application to mark responses as cacheable, this handler follows
+ * the caching rules of RFC 9111 for a shared cache. GET responses with a cacheable status code are stored if they have
+ * an explicit freshness lifetime ({@code s-maxage}, {@code max-age} or {@code Expires}) or a validator ({@code ETag}
+ * or {@code Last-Modified}), and are not marked {@code no-store} or {@code private}. Responses that set cookies, vary
+ * on every header ({@code Vary: *}) or do not have a content length are never stored. Responses are stored per
+ * variant, based on the request headers named by the {@code Vary} header of the stored response.
+ * <p>
+ * A fresh response is served directly from the cache, with an {@code Age} header, and a conditional request that
+ * matches it gets a {@code 304}. Once a response is stale it is revalidated with a conditional request to the next
+ * handler. If the backend answers with {@code 304} the stored response is refreshed and its body is sent to the client,
+ * otherwise the new response replaces it.
+ * <p>
+ * Two response directives allow stale responses to be served:
+ * <ul>
+ * <li>{@code stale-while-revalidate}: while a stale response is within this window a single request at a time is sent
+ * to the backend to revalidate it, and all other requests for the resource are served the stale response without
+ * waiting. This handler has no way of issuing a request of its own, so the revalidation is done by one of the client
+ * requests.</li>
+ * <li>{@code stale-if-error}: if the backend fails with a 5xx response, or can't be reached at all, while a stale response is
+ * within this window the stale response is sent instead of the error.</li>
+ * </ul>
+ * Neither applies if the response is marked {@code must-revalidate}, {@code proxy-revalidate}, has an
+ * {@code s-maxage} directive or if the request has a {@code no-cache} directive.
+ * <p>
+ * Bodies up to {@code maxMemoryObjectSize} are held in a {@link DirectBufferCache}, which should be dedicated to this
+ * handler. Larger bodies can optionally be stored as files in a disk directory, the total size of which is bounded
+ * by evicting the oldest files first. Heuristic freshness is not supported, a response with a validator but no
+ * explicit lifetime is always revalidated before it is used.
+ * <p>
+ * Requests with an {@code Authorization} or {@code Range} header bypass the cache, and a successful or redirected
+ * response to a request with an unsafe method invalidates the responses stored for its target URI.
+ */
+public class ProxyCacheHandler implements HttpHandler {
+
+    public static final int DEFAULT_MAX_ENTRIES = 10000;
+
+    public static final int DEFAULT_MAX_MEMORY_OBJECT_SIZE = 1024 * 1024;
+
+    /**
+     * The maximum number of variants of a single resource, if this is exceeded all variants are discarded
+     */
+    private static final int MAX_VARIANTS = 32;
+
+    private static final HttpString[] NO_VARY = new HttpString[0];
+
+    private final DirectBufferCache cache;
+    private final HttpHandler next;
+    private final int maxMemoryObjectSize;
+    private final Path diskDirectory;
+    private final long maxDiskObjectSize;
+    private final long maxDiskSize;
+
+    private final LRUCache<PrimaryKey, Variants> entries;
+    private final ConcurrentLinkedQueue<DiskBody> diskBodies = new ConcurrentLinkedQueue<>();
+    private final AtomicLong diskUsage = new AtomicLong();
+
+    public ProxyCacheHandler(final DirectBufferCache cache, final HttpHandler next) {
+        this(cache, next, DEFAULT_MAX_ENTRIES, DEFAULT_MAX_MEMORY_OBJECT_SIZE, null, 0, 0);
+    }
+
+    /**
+     * @param cache               The cache that holds response bodies
+     * @param next                The next handler, normally a proxy handler
+     * @param maxEntries          The maximum number of resources that are stored
+     * @param maxMemoryObjectSize The largest body that is held in memory
+     * @param diskDirectory       The directory used to store larger bodies, or {@code null} if they should not be stored
+     * @param maxDiskObjectSize   The largest body that is stored on disk
+     * @param maxDiskSize         The maximum total size of the bodies stored on disk
+     */
+    public ProxyCacheHandler(final DirectBufferCache cache, final HttpHandler next, final int maxEntries, final int maxMemoryObjectSize, final Path diskDirectory, final long maxDiskObjectSize, final long maxDiskSize) {
+        this.cache = cache;
+        this.next = next;
+        this.maxMemoryObjectSize = maxMemoryObjectSize;
+        this.diskDirectory = diskDirectory;
+        this.maxDiskObjectSize = maxDiskObjectSize;
+        this.maxDiskSize = maxDiskSize;
+        this.entries = new LRUCache<>(maxEntries, -1);
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        final HttpString method = exchange.getRequestMethod();
+        if (!method.equals(Methods.GET)) {
+            if (!method.equals(Methods.HEAD) && !method.equals(Methods.OPTIONS) && !method.equals(Methods.TRACE)) {
+                invalidateOnSuccess(exchange);
+            }
+            next.handleRequest(exchange);
+            return;
+        }
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        final CacheControl requestCacheControl = CacheControl.parse(requestHeaders.get(Headers.CACHE_CONTROL));
+        if (requestCacheControl.noStore || requestHeaders.contains(Headers.AUTHORIZATION) || requestHeaders.contains(Headers.RANGE)) {
+            next.handleRequest(exchange);
+            return;
+        }
+        final boolean noCache = requestCacheControl.noCache || (!requestHeaders.contains(Headers.CACHE_CONTROL) && "no-cache".equalsIgnoreCase(requestHeaders.getFirst(Headers.PRAGMA)));
+        final PrimaryKey key = new PrimaryKey(exchange);
+        final Variants variants = entries.get(key);
+        CachedResponse cached = null;
+        if (variants != null) {
+            cached = variants.responses.get(variantKey(exchange, variants.vary));
+            if (cached != null && !isAvailable(cached.body)) {
+                variants.responses.remove(cached.variantKey, cached);
+                cached = null;
+            }
+        }
+        if (cached == null) {
+            if (requestCacheControl.onlyIfCached) {
+                exchange.setStatusCode(StatusCodes.GATEWAY_TIME_OUT);
+                exchange.endExchange();
+                return;
+            }
+            forward(exchange, key, null, false, requestCacheControl);
+            return;
+        }
+        final long age = cached.getAge(System.currentTimeMillis());
+        if (!noCache && isUsable(cached, age, requestCacheControl)) {
+            serve(exchange, key, cached, age, requestCacheControl);
+            return;
+        }
+        boolean revalidating = false;
+        if (!noCache && cached.isStaleUsable(age, cached.staleWhileRevalidate)) {
+            if (!cached.startRevalidation()) {
+                //another request is already revalidating it
+                serve(exchange, key, cached, age, requestCacheControl);
+                return;
+            }
+            revalidating = true;
+        }
+        if (requestCacheControl.onlyIfCached) {
+            if (revalidating) {
+                cached.endRevalidation();
+            }
+            exchange.setStatusCode(StatusCodes.GATEWAY_TIME_OUT);
+            exchange.endExchange();
+            return;
+        }
+        forward(exchange, key, cached, revalidating, requestCacheControl);
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    /**
+     * An unsafe method may change the resource, so once the backend has accepted it anything we have for the resource
+     * is out of date. A request that failed has not changed anything.
+     */
+    private void invalidateOnSuccess(final HttpServerExchange exchange) {
+        final PrimaryKey key = new PrimaryKey(exchange);
+        exchange.addResponseWrapper(new ConduitWrapper<StreamSinkConduit>() {
+            @Override
+            public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+                final int status = exchange.getStatusCode();
+                if (status >= 200 && status < 400) {
+                    discard(entries.remove(key));
+                }
+                return factory.create();
+            }
+        });
+    }
+
+    /**
+     * @return {@code true} if the stored response satisfies the request without contacting the backend
+     */
+    private static boolean isUsable(final CachedResponse cached, final long age, final CacheControl requestCacheControl) {
+        if (requestCacheControl.maxAge >= 0 && age > requestCacheControl.maxAge) {
+            return false;
+        }
+        if (requestCacheControl.minFresh >= 0 && cached.freshnessLifetime - age < requestCacheControl.minFresh) {
+            return false;
+        }
+        if (age < cached.freshnessLifetime) {
+            return true;
+        }
+        if (cached.mustRevalidate || requestCacheControl.maxStale == CacheControl.UNSET) {
+            return false;
+        }
+        return requestCacheControl.maxStale == CacheControl.UNLIMITED || age - cached.freshnessLifetime <= requestCacheControl.maxStale;
+    }
+
+    /**
+     * Sends the request to the next handler. If there is a stored response it is revalidated and may be used in place
+     * of the backend response, otherwise the backend response is stored if possible.
+     *
+     * @param revalidating {@code true} if this request holds the revalidation claim of the stored response
+     */
+    private void forward(final HttpServerExchange exchange, final PrimaryKey key, final CachedResponse stored, final boolean revalidating, final CacheControl requestCacheControl) throws Exception {
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        //the stored body is kept open so it can still be sent if it is evicted in the meantime
+        final BodyReader storedBody = stored == null ? null : open(stored.body);
+        if (stored != null && stored.body != null && storedBody == null) {
+            if (revalidating) {
+                stored.endRevalidation();
+            }
+            forward(exchange, key, null, false, requestCacheControl);
+            return;
+        }
+        //if the client sent its own validators a 304 from the backend is meant for the client, not for us
+        final boolean conditional = stored != null && stored.hasValidator() &&
+                !requestHeaders.contains(Headers.IF_NONE_MATCH) &&
+                !requestHeaders.contains(Headers.IF_MODIFIED_SINCE) &&
+                !requestHeaders.contains(Headers.IF_MATCH) &&
+                !requestHeaders.contains(Headers.IF_UNMODIFIED_SINCE);
+        if (conditional) {
+            if (stored.etag != null) {
+                requestHeaders.put(Headers.IF_NONE_MATCH, stored.etag);
+            }
+            if (stored.lastModified != null) {
+                requestHeaders.put(Headers.IF_MODIFIED_SINCE, stored.lastModified);
+            }
+        }
+        final long requestTime = System.currentTimeMillis();
+        final Capture capture = new Capture();
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+                try {
+                    if (storedBody != null) {
+                        storedBody.close();
+                    }
+                    if (revalidating) {
+                        stored.endRevalidation();
+                    }
+                    capture.complete();
+                } finally {
+                    nextListener.proceed();
+                }
+            }
+        });
+        exchange.addResponseWrapper(new ConduitWrapper<StreamSinkConduit>() {
+            @Override
+            public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+                final long responseTime = System.currentTimeMillis();
+                final int status = exchange.getStatusCode();
+                if (stored != null) {
+                    if (status == StatusCodes.NOT_MODIFIED && conditional) {
+                        final CachedResponse refreshed = stored.refresh(exchange.getResponseHeaders(), requestTime, responseTime);
+                        store(key, refreshed);
+                        return replay(factory, exchange, refreshed, storedBody);
+                    }
+                    if (status >= 500 && stored.isStaleUsable(stored.getAge(responseTime), stored.staleIfError)) {
+                        UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Serving stale response for %s as the backend returned %s", exchange.getRequestURI(), status);
+                        return replay(factory, exchange, stored, storedBody);
+                    }
+                }
+                if (status >= 500) {
+                    return factory.create();
+                }
+                final CachedResponse response = createResponse(exchange, requestTime, responseTime);
+                if (response == null) {
+                    //the new response replaces whatever we had, even though we can't store it
+                    if (stored != null && status != StatusCodes.NOT_MODIFIED) {
+                        discard(key, stored);
+                    }
+                    return factory.create();
+                }
+                return capture.start(key, response, factory);
+            }
+        });
+        next.handleRequest(exchange);
+    }
+
+    /**
+     * Replaces the response from the backend with a stored response
+     */
+    private StreamSinkConduit replay(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange, final CachedResponse response, final BodyReader body) {
+        exchange.setStatusCode(response.status);
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        responseHeaders.clear();
+        for (HeaderValues values : response.headers) {
+            responseHeaders.putAll(values.getHeaderName(), values);
+        }
+        responseHeaders.put(Headers.CONTENT_LENGTH, body == null ? 0 : body.length);
+        responseHeaders.put(Headers.AGE, response.getAge(System.currentTimeMillis()) / 1000);
+        return new ReplayStreamSinkConduit(factory.create(), body);
+    }
+
+    private void serve(final HttpServerExchange exchange, final PrimaryKey key, final CachedResponse response, final long age, final CacheControl requestCacheControl) throws Exception {
+        final BodyReader body = open(response.body);
+        if (response.body != null && body == null) {
+            discard(key, response);
+            forward(exchange, key, null, false, requestCacheControl);
+            return;
+        }
+        exchange.setStatusCode(response.status);
+        final HeaderMap responseHeaders = exchange.getResponseHeaders();
+        for (HeaderValues values : response.headers) {
+            responseHeaders.putAll(values.getHeaderName(), values);
+        }
+        responseHeaders.put(Headers.AGE, age / 1000);
+        if (response.status == StatusCodes.OK && isNotModified(exchange, response)) {
+            if (body != null) {
+                body.close();
+            }
+            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+            responseHeaders.remove(Headers.CONTENT_LENGTH);
+            exchange.endExchange();
+            return;
+        }
+        if (body == null) {
+            responseHeaders.put(Headers.CONTENT_LENGTH, 0);
+            exchange.endExchange();
+            return;
+        }
+        responseHeaders.put(Headers.CONTENT_LENGTH, body.length);
+        final IoCallback callback = new CloseBodyCallback(body);
+        if (body.channel != null) {
+            exchange.getResponseSender().transferFrom(body.channel, callback);
+        } else {
+            exchange.getResponseSender().send(body.buffers, callback);
+        }
+    }
+
+    private static boolean isNotModified(final HttpServerExchange exchange, final CachedResponse response) {
+        final HeaderMap requestHeaders = exchange.getRequestHeaders();
+        final String ifNoneMatch = requestHeaders.getFirst(Headers.IF_NONE_MATCH);
+        if (ifNoneMatch != null) {
+            if (response.etag == null) {
+                return false;
+            }
+            final List<ETag> etags = ETagUtils.parseETagList(response.etag);
+            return !etags.isEmpty() && !ETagUtils.handleIfNoneMatch(ifNoneMatch, etags.get(0), true);
+        }
+        final String ifModifiedSince = requestHeaders.getFirst(Headers.IF_MODIFIED_SINCE);
+        if (ifModifiedSince != null && response.lastModified != null) {
+            final Date lastModified = DateUtils.parseDate(response.lastModified);
+            return lastModified != null && !DateUtils.handleIfModifiedSince(ifModifiedSince, lastModified);
+        }
+        return false;
+    }
+
+    /**
+     * @return The response that should be stored, or {@code null} if the response can't be stored
+     */
+    private CachedResponse createResponse(final HttpServerExchange exchange, final long requestTime, final long responseTime) {
+        switch (exchange.getStatusCode()) {
+            case StatusCodes.OK:
+            case StatusCodes.NON_AUTHORITATIVE_INFORMATION:
+            case StatusCodes.NO_CONTENT:
+            case StatusCodes.MULTIPLE_CHOICES:
+            case StatusCodes.MOVED_PERMANENTLY:
+            case StatusCodes.PERMANENT_REDIRECT:
+            case StatusCodes.NOT_FOUND:
+            case StatusCodes.METHOD_NOT_ALLOWED:
+            case StatusCodes.GONE:
+            case StatusCodes.REQUEST_URI_TOO_LARGE:
+            case StatusCodes.NOT_IMPLEMENTED:
+                break;
+            default:
+                return null;
+        }
+        final HeaderMap headers = exchange.getResponseHeaders();
+        if (headers.contains(Headers.SET_COOKIE)) {
+            return null;
+        }
+        final CacheControl cacheControl = CacheControl.parse(headers.get(Headers.CACHE_CONTROL));
+        if (cacheControl.noStore || cacheControl.privateResponse) {
+            return null;
+        }
+        final HttpString[] vary = parseVary(headers.get(Headers.VARY));
+        if (vary == null) {
+            return null;
+        }
+        final AllowedContentEncodings contentEncodings = exchange.getAttachment(AllowedContentEncodings.ATTACHMENT_KEY);
+        if (contentEncodings != null && !contentEncodings.isIdentity()) {
+            //we have no idea how big the encoded response will be
+            return null;
+        }
+        final long length;
+        final String lengthString = headers.getFirst(Headers.CONTENT_LENGTH);
+        if (lengthString == null) {
+            if (exchange.getStatusCode() != StatusCodes.NO_CONTENT) {
+                return null;
+            }
+            length = 0;
+        } else {
+            try {
+                length = Long.parseLong(lengthString);
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+        if (length < 0 || (length > maxMemoryObjectSize && (diskDirectory == null || length > maxDiskObjectSize))) {
+            return null;
+        }
+        final CachedResponse response = new CachedResponse(exchange.getStatusCode(), copyHeaders(headers), vary, variantKey(exchange, vary), length, requestTime, responseTime);
+        if (response.freshnessLifetime <= 0 && !response.hasValidator()) {
+            return null;
+        }
+        return response;
+    }
+
+    /**
+     * @return The header names, or {@code null} if the response varies on everything
+     */
+    private static HttpString[] parseVary(final HeaderValues vary) {
+        if (vary == null) {
+            return NO_VARY;
+        }
+        final List<HttpString> names = new ArrayList<>();
+        for (String value : vary) {
+            for (String name : value.split(",")) {
+                name = name.trim();
+                if (name.equals("*")) {
+                    return null;
+                }
+                if (!name.isEmpty()) {
+                    names.add(HttpString.tryFromString(name));
+                }
+            }
+        }
+        return names.toArray(new HttpString[names.size()]);
+    }
+
+    private static List<String> variantKey(final HttpServerExchange exchange, final HttpString[] vary) {
+        final String[] values = new String[vary.length];
+        for (int i = 0; i < vary.length; ++i) {
+            final HeaderValues headerValues = exchange.getRequestHeaders().get(vary[i]);
+            if (headerValues != null) {
+                values[i] = headerValues.size() == 1 ? headerValues.getFirst() : headerValues.toString();
+            }
+        }
+        return Arrays.asList(values);
+    }
+
+    private void store(final PrimaryKey key, final CachedResponse response) {
+        Variants variants = entries.get(key);
+        while (variants == null || !Arrays.equals(variants.vary, response.vary)
+                || (variants.responses.size() >= MAX_VARIANTS && !variants.responses.containsKey(response.variantKey))) {
+            if (variants != null) {
+                discard(entries.remove(key));
+            }
+            //add does not replace an existing entry, so if another request added one first that one is used
+            entries.add(key, new Variants(response.vary));
+            variants = entries.get(key);
+        }
+        final CachedResponse old = variants.responses.put(response.variantKey, response);
+        if (old != null && old.body != response.body) {
+            discardBody(old.body);
+        }
+        if (entries.get(key) != variants && variants.responses.remove(response.variantKey, response)) {
+            //the entry was removed while we were adding to it, and nothing else will discard the body
+            discardBody(response.body);
+        }
+    }
+
+    private void discard(final PrimaryKey key, final CachedResponse response) {
+        final Variants variants = entries.get(key);
+        if (variants != null && variants.responses.remove(response.variantKey, response)) {
+            discardBody(response.body);
+        }
+    }
+
+    private void discard(final Variants variants) {
+        if (variants == null) {
+            return;
+        }
+        for (CachedResponse response : variants.responses.values()) {
+            discardBody(response.body);
+        }
+        variants.responses.clear();
+    }
+
+    private void discardBody(final Object body) {
+        if (body instanceof DiskBody) {
+            deleteDiskBody((DiskBody) body);
+        } else if (body != null) {
+            cache.remove(body);
+        }
+    }
+
+    private boolean isAvailable(final Object body) {
+        if (body == null) {
+            return true;
+        } else if (body instanceof DiskBody) {
+            return !((DiskBody) body).isDeleted();
+        }
+        final DirectBufferCache.CacheEntry entry = cache.get(body);
+        return entry != null && entry.enabled();
+    }
+
+    /**
+     * Opens a stored body for reading. The returned reader must be closed.
+     *
+     * @return The reader, or {@code null} if there is no body or it has been evicted
+     */
+    private BodyReader open(final Object body) {
+        if (body == null) {
+            return null;
+        } else if (body instanceof DiskBody) {
+            final DiskBody diskBody = (DiskBody) body;
+            if (diskBody.isDeleted()) {
+                return null;
+            }
+            try {
+                return new BodyReader(FileChannel.open(diskBody.file, StandardOpenOption.READ), diskBody.length);
+            } catch (IOException e) {
+                //it was deleted
+                return null;
+            }
+        }
+        final DirectBufferCache.CacheEntry entry = cache.get(body);
+        if (entry == null || !entry.enabled() || !entry.reference()) {
+            return null;
+        }
+        final LimitedBufferSlicePool.PooledByteBuffer[] pooled = entry.buffers();
+        final ByteBuffer[] buffers = new ByteBuffer[pooled.length];
+        for (int i = 0; i < buffers.length; i++) {
+            // Keep position from mutating
+            buffers[i] = pooled[i].getBuffer().duplicate();
+        }
+        return new BodyReader(entry, buffers);
+    }
+
+    private void addDiskBody(final DiskBody body) {
+        diskBodies.add(body);
+        long usage = diskUsage.addAndGet(body.length);
+        while (usage > maxDiskSize) {
+            final DiskBody oldest = diskBodies.poll();
+            if (oldest == null) {
+                break;
+            }
+            deleteDiskBody(oldest);
+            usage = diskUsage.get();
+        }
+    }
+
+    private void deleteDiskBody(final DiskBody body) {
+        if (body.delete()) {
+            diskUsage.addAndGet(-body.length);
+            diskBodies.remove(body);
+        }
+    }
+
+    private static HeaderMap copyHeaders(final HeaderMap headers) {
+        final HeaderMap copy = new HeaderMap();
+        for (HeaderValues values : headers) {
+            final HttpString name = values.getHeaderName();
+            if (name.equals(Headers.CONNECTION) ||
+                    name.equals(Headers.KEEP_ALIVE) ||
+                    name.equals(Headers.TRANSFER_ENCODING) ||
+                    name.equals(Headers.CONTENT_LENGTH)) {
+                continue;
+            }
+            copy.putAll(name, values);
+        }
+        return copy;
+    }
+
+    /**
+     * Captures a response from the backend into the cache. The body is copied before it is passed on, and the response
+     * is stored as soon as the last byte has been copied, so a client that sends another request as soon as it has
+     * read the response gets the stored copy.
+     */
+    private final class Capture {
+
+        private PrimaryKey key;
+        private CachedResponse response;
+        private DirectBufferCache.CacheEntry entry;
+        private ByteBuffer[] buffers;
+        private FileChannel file;
+        private long copied;
+        private boolean done;
+
+        StreamSinkConduit start(final PrimaryKey key, final CachedResponse response, final ConduitFactory<StreamSinkConduit> factory) {
+            if (response.length == 0) {
+                store(key, response);
+                return factory.create();
+            }
+            if (response.length <= maxMemoryObjectSize) {
+                final Object body = new Object();
+                final DirectBufferCache.CacheEntry entry = cache.add(body, (int) response.length);
+                if (!entry.allocate() || entry.buffers().length == 0 || !entry.claimEnable()) {
+                    cache.remove(body);
+                    return factory.create();
+                }
+                final LimitedBufferSlicePool.PooledByteBuffer[] pooled = entry.buffers();
+                buffers = new ByteBuffer[pooled.length];
+                for (int i = 0; i < buffers.length; i++) {
+                    buffers[i] = pooled[i].getBuffer();
+                    buffers[i].clear();
+                }
+                this.entry = entry;
+                this.response = response.withBody(body);
+            } else {
+                final Path path;
+                try {
+                    path = Files.createTempFile(diskDirectory, "undertow-proxy-cache", ".body");
+                    file = FileChannel.open(path, StandardOpenOption.WRITE);
+                } catch (IOException e) {
+                    UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+                    return factory.create();
+                }
+                this.response = response.withBody(new DiskBody(path, response.length));
+            }
+            this.key = key;
+            return new CapturingStreamSinkConduit(factory.create(), this);
+        }
+
+        /**
+         * Copies the next part of the body, and stores the response once it is complete
+         */
+        synchronized void copy(final ByteBuffer data) {
+            if (done) {
+                return;
+            }
+            final long length = response.length;
+            if (copied + data.remaining() > length) {
+                //more data than the content length, should not happen
+                complete();
+                return;
+            }
+            try {
+                if (file != null) {
+                    copied += data.remaining();
+                    while (data.hasRemaining()) {
+                        file.write(data);
+                    }
+                } else {
+                    copied += Buffers.copy(buffers, 0, buffers.length, data);
+                }
+            } catch (IOException e) {
+                UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+                complete();
+                return;
+            }
+            if (copied != length) {
+                return;
+            }
+            done = true;
+            if (file != null) {
+                IoUtils.safeClose(file);
+                addDiskBody((DiskBody) response.body);
+            } else {
+                for (ByteBuffer buffer : buffers) {
+                    //prepare buffers for reading
+                    buffer.flip();
+                }
+                entry.enable();
+            }
+            store(key, response);
+        }
+
+        /**
+         * Discards the body if it is not complete. This is called when the exchange is complete.
+         */
+        synchronized void complete() {
+            if (response == null || done) {
+                return;
+            }
+            done = true;
+            if (file != null) {
+                IoUtils.safeClose(file);
+                ((DiskBody) response.body).delete();
+            } else {
+                entry.disable();
+                cache.remove(response.body);
+            }
+        }
+    }
+
+    /**
+     * A stored response. The body is the key of a {@link DirectBufferCache} entry, a {@link DiskBody} or {@code null}
+     * if the response has no body. All times are in milliseconds.
+     */
+    private static final class CachedResponse {
+
+        private static final AtomicIntegerFieldUpdater<CachedResponse> revalidatingUpdater = AtomicIntegerFieldUpdater.newUpdater(CachedResponse.class, "revalidating");
+
+        final int status;
+        final HeaderMap headers;
+        final HttpString[] vary;
+        final List<String> variantKey;
+        final long length;
+        final Object body;
+        final long requestTime;
+        final long responseTime;
+
+        final long initialAge;
+        final long freshnessLifetime;
+        final long staleWhileRevalidate;
+        final long staleIfError;
+        final boolean mustRevalidate;
+        final String etag;
+        final String lastModified;
+
+        @SuppressWarnings("unused")
+        private volatile int revalidating;
+
+        CachedResponse(final int status, final HeaderMap headers, final HttpString[] vary, final List<String> variantKey, final long length, final long requestTime, final long responseTime) {
+            this(status, headers, vary, variantKey, length, null, requestTime, responseTime);
+        }
+
+        private CachedResponse(final int status, final HeaderMap headers, final HttpString[] vary, final List<String> variantKey, final long length, final Object body, final long requestTime, final long responseTime) {
+            this.status = status;
+            this.headers = headers;
+            this.vary = vary;
+            this.variantKey = variantKey;
+            this.length = length;
+            this.body = body;
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+            this.etag = headers.getFirst(Headers.ETAG);
+            this.lastModified = headers.getFirst(Headers.LAST_MODIFIED);
+
+            final CacheControl cacheControl = CacheControl.parse(headers.get(Headers.CACHE_CONTROL));
+            final Date date = DateUtils.parseDate(headers.getFirst(Headers.DATE));
+            final long dateValue = date == null ? responseTime : date.getTime();
+            long ageValue = 0;
+            final String age = headers.getFirst(Headers.AGE);
+            if (age != null) {
+                try {
+                    ageValue = Math.max(0, Long.parseLong(age.trim()) * 1000);
+                } catch (NumberFormatException ignore) {
+                }
+            }
+            this.initialAge = Math.max(Math.max(0, responseTime - dateValue), ageValue + (responseTime - requestTime));
+            if (cacheControl.noCache) {
+                this.freshnessLifetime = 0;
+            } else if (cacheControl.sMaxAge >= 0) {
+                this.freshnessLifetime = cacheControl.sMaxAge;
+            } else if (cacheControl.maxAge >= 0) {
+                this.freshnessLifetime = cacheControl.maxAge;
+            } else {
+                final Date expires = DateUtils.parseDate(headers.getFirst(Headers.EXPIRES));
+                this.freshnessLifetime = expires == null ? 0 : Math.max(0, expires.getTime() - dateValue);
+            }
+            //s-maxage implies proxy-revalidate
+            this.mustRevalidate = cacheControl.noCache || cacheControl.mustRevalidate || cacheControl.proxyRevalidate || cacheControl.sMaxAge >= 0;
+            this.staleWhileRevalidate = cacheControl.staleWhileRevalidate;
+            this.staleIfError = cacheControl.staleIfError;
+        }
+
+        CachedResponse withBody(final Object body) {
+            return new CachedResponse(status, headers, vary, variantKey, length, body, requestTime, responseTime);
+        }
+
+        /**
+         * Creates a copy of this response with the headers from a {@code 304} response merged in
+         */
+        CachedResponse refresh(final HeaderMap notModifiedHeaders, final long requestTime, final long responseTime) {
+            final HeaderMap merged = new HeaderMap();
+            for (HeaderValues values : headers) {
+                merged.putAll(values.getHeaderName(), values);
+            }
+            for (HeaderValues values : copyHeaders(notModifiedHeaders)) {
+                merged.putAll(values.getHeaderName(), values);
+            }
+            return new CachedResponse(status, merged, vary, variantKey, length, body, requestTime, responseTime);
+        }
+
+        long getAge(final long now) {
+            return initialAge + (now - responseTime);
+        }
+
+        /**
+         * @return {@code true} if the response may be served stale at the given age, for a directive with the given window
+         */
+        boolean isStaleUsable(final long age, final long window) {
+            return !mustRevalidate && window != CacheControl.UNSET && age - freshnessLifetime <= window;
+        }
+
+        boolean hasValidator() {
+            return etag != null || lastModified != null;
+        }
+
+        boolean startRevalidation() {
+            return revalidatingUpdater.compareAndSet(this, 0, 1);
+        }
+
+        void endRevalidation() {
+            revalidating = 0;
+        }
+    }
+
+    private static final class Variants {
+
+        final HttpString[] vary;
+        final ConcurrentMap<List<String>, CachedResponse> responses = new ConcurrentHashMap<>();
+
+        Variants(final HttpString[] vary) {
+            this.vary = vary;
+        }
+    }
+
+    private static final class DiskBody {
+
+        private static final AtomicIntegerFieldUpdater<DiskBody> deletedUpdater = AtomicIntegerFieldUpdater.newUpdater(DiskBody.class, "deleted");
+
+        final Path file;
+        final long length;
+        private volatile int deleted;
+
+        DiskBody(final Path file, final long length) {
+            this.file = file;
+            this.length = length;
+        }
+
+        boolean isDeleted() {
+            return deleted != 0;
+        }
+
+        /**
+         * Deletes the file. Readers that already have it open can still read it.
+         *
+         * @return {@code true} if this call deleted the file
+         */
+        boolean delete() {
+            if (!deletedUpdater.compareAndSet(this, 0, 1)) {
+                return false;
+            }
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                UndertowLogger.REQUEST_IO_LOGGER.ioException(e);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * An open stored body, backed either by a referenced cache entry or an open file
+     */
+    private static final class BodyReader {
+
+        final DirectBufferCache.CacheEntry entry;
+        final ByteBuffer[] buffers;
+        final FileChannel channel;
+        final long length;
+        private long position;
+        private boolean closed;
+
+        BodyReader(final DirectBufferCache.CacheEntry entry, final ByteBuffer[] buffers) {
+            this.entry = entry;
+            this.buffers = buffers;
+            this.channel = null;
+            this.length = entry.size();
+        }
+
+        BodyReader(final FileChannel channel, final long length) {
+            this.entry = null;
+            this.buffers = null;
+            this.channel = channel;
+            this.length = length;
+        }
+
+        /**
+         * @return {@code true} if the whole body has been written
+         */
+        boolean writeTo(final StreamSinkConduit conduit) throws IOException {
+            while (position < length) {
+                final long written;
+                if (channel != null) {
+                    written = conduit.transferFrom(channel, position, length - position);
+                } else {
+                    written = conduit.write(buffers, 0, buffers.length);
+                }
+                if (written <= 0) {
+                    return false;
+                }
+                position += written;
+            }
+            return true;
+        }
+
+        synchronized void close() {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (entry != null) {
+                entry.dereference();
+            } else {
+                IoUtils.safeClose(channel);
+            }
+        }
+    }
+
+    /**
+     * Discards the response body from the backend, and sends a stored body in its place
+     */
+    private static final class ReplayStreamSinkConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+        private final BodyReader body;
+        private boolean shutdown;
+        private boolean bodyWritten;
+
+        ReplayStreamSinkConduit(final StreamSinkConduit next, final BodyReader body) {
+            super(next);
+            this.body = body;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            final int remaining = src.remaining();
+            src.position(src.limit());
+            return remaining;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            long total = 0;
+            for (int i = offset; i < offset + length; ++i) {
+                total += write(srcs[i]);
+            }
+            return total;
+        }
+
+        @Override
+        public int writeFinal(final ByteBuffer src) throws IOException {
+            return Conduits.writeFinalBasic(this, src);
+        }
+
+        @Override
+        public long writeFinal(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return Conduits.writeFinalBasic(this, srcs, offset, length);
+        }
+
+        @Override
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            return src.transferTo(position, count, new ConduitWritableByteChannel(this));
+        }
+
+        @Override
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            return IoUtils.transfer(source, count, throughBuffer, new ConduitWritableByteChannel(this));
+        }
+
+        @Override
+        public void terminateWrites() throws IOException {
+            shutdown = true;
+        }
+
+        @Override
+        public boolean isWriteShutdown() {
+            return shutdown;
+        }
+
+        @Override
+        public boolean flush() throws IOException {
+            if (!shutdown) {
+                return next.flush();
+            }
+            if (!bodyWritten) {
+                if (body != null) {
+                    try {
+                        if (!body.writeTo(next)) {
+                            return false;
+                        }
+                    } catch (IOException | RuntimeException e) {
+                        body.close();
+                        throw e;
+                    }
+                    body.close();
+                }
+                bodyWritten = true;
+                next.terminateWrites();
+            }
+            return next.flush();
+        }
+
+        @Override
+        public void truncateWrites() throws IOException {
+            if (body != null) {
+                body.close();
+            }
+            next.truncateWrites();
+        }
+    }
+
+    /**
+     * Copies the response body into a {@link Capture} before it is written
+     */
+    private static final class CapturingStreamSinkConduit extends AbstractStreamSinkConduit<StreamSinkConduit> {
+
+        private final Capture capture;
+        /**
+         * The number of bytes accepted by the next conduit
+         */
+        private long written;
+        /**
+         * The number of bytes copied, if a write is only partially accepted the rest of the data has already been
+         * copied when it is written again
+         */
+        private long copied;
+
+        CapturingStreamSinkConduit(final StreamSinkConduit next, final Capture capture) {
+            super(next);
+            this.capture = capture;
+        }
+
+        @Override
+        public int write(final ByteBuffer src) throws IOException {
+            copy(new ByteBuffer[]{src}, 0, 1);
+            final int res = next.write(src);
+            written += res;
+            return res;
+        }
+
+        @Override
+        public long write(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            copy(srcs, offset, length);
+            final long res = next.write(srcs, offset, length);
+            written += res;
+            return res;
+        }
+
+        private void copy(final ByteBuffer[] srcs, final int offset, final int length) {
+            long skip = copied - written;
+            for (int i = offset; i < offset + length; ++i) {
+                final ByteBuffer data = srcs[i].duplicate();
+                final int n = (int) Math.min(skip, data.remaining());
+                data.position(data.position() + n);
+                skip -= n;
+                if (data.hasRemaining()) {
+                    copied += data.remaining();
+                    capture.copy(data);
+                }
+            }
+        }
+
+        @Override
+        public int writeFinal(final ByteBuffer src) throws IOException {
+            return Conduits.writeFinalBasic(this, src);
+        }
+
+        @Override
+        public long writeFinal(final ByteBuffer[] srcs, final int offset, final int length) throws IOException {
+            return Conduits.writeFinalBasic(this, srcs, offset, length);
+        }
+
+        @Override
+        public long transferFrom(final FileChannel src, final long position, final long count) throws IOException {
+            return src.transferTo(position, count, new ConduitWritableByteChannel(this));
+        }
+
+        @Override
+        public long transferFrom(final StreamSourceChannel source, final long count, final ByteBuffer throughBuffer) throws IOException {
+            return IoUtils.transfer(source, count, throughBuffer, new ConduitWritableByteChannel(this));
+        }
+    }
+
+    private static final class PrimaryKey {
+        private final String host;
+        private final String uri;
+        private final String query;
+        private final int hashCode;
+
+        private PrimaryKey(final HttpServerExchange exchange) {
+            this.host = exchange.getHostAndPort();
+            this.uri = exchange.getRequestURI();
+            this.query = exchange.getQueryString();
+            int result = host.hashCode();
+            result = 31 * result + uri.hashCode();
+            result = 31 * result + query.hashCode();
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final PrimaryKey that = (PrimaryKey) o;
+            return hashCode == that.hashCode &&
+                    host.equals(that.host) &&
+                    uri.equals(that.uri) &&
+                    query.equals(that.query);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    /**
+     * The subset of the {@code Cache-Control} directives that are relevant to a shared cache. All times are in
+     * milliseconds.
+     */
+    private static final class CacheControl {
+
+        static final long UNSET = -1;
+        static final long UNLIMITED = Long.MAX_VALUE;
+
+        boolean noStore;
+        boolean noCache;
+        boolean privateResponse;
+        boolean mustRevalidate;
+        boolean proxyRevalidate;
+        boolean onlyIfCached;
+        long maxAge = UNSET;
+        long sMaxAge = UNSET;
+        long maxStale = UNSET;
+        long minFresh = UNSET;
+        long staleWhileRevalidate = UNSET;
+        long staleIfError = UNSET;
+
+        static CacheControl parse(final HeaderValues values) {
+            final CacheControl result = new CacheControl();
+            if (values == null) {
+                return result;
+            }
+            for (String value : values) {
+                for (String directive : value.split(",")) {
+                    directive = directive.trim();
+                    final int eq = directive.indexOf('=');
+                    final String name = (eq == -1 ? directive : directive.substring(0, eq).trim()).toLowerCase(Locale.ENGLISH);
+                    final String argument = eq == -1 ? null : directive.substring(eq + 1).trim();
+                    switch (name) {
+                        case "no-store":
+                            result.noStore = true;
+                            break;
+                        case "no-cache":
+                            //the field-name form of no-cache is treated as the unqualified form
+                            result.noCache = true;
+                            break;
+                        case "private":
+                            result.privateResponse = true;
+                            break;
+                        case "must-revalidate":
+                            result.mustRevalidate = true;
+                            break;
+                        case "proxy-revalidate":
+                            result.proxyRevalidate = true;
+                            break;
+                        case "only-if-cached":
+                            result.onlyIfCached = true;
+                            break;
+                        case "max-age":
+                            result.maxAge = parseSeconds(argument, 0);
+                            break;
+                        case "s-maxage":
+                            result.sMaxAge = parseSeconds(argument, 0);
+                            break;
+                        case "max-stale":
+                            result.maxStale = argument == null ? UNLIMITED : parseSeconds(argument, UNSET);
+                            break;
+                        case "min-fresh":
+                            result.minFresh = parseSeconds(argument, UNSET);
+                            break;
+                        case "stale-while-revalidate":
+                            result.staleWhileRevalidate = parseSeconds(argument, UNSET);
+                            break;
+                        case "stale-if-error":
+                            result.staleIfError = parseSeconds(argument, UNSET);
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            return result;
+        }
+
+        /**
+         * @return The delta seconds value in milliseconds, or the default if it is invalid
+         */
+        private static long parseSeconds(final String argument, final long defaultValue) {
+            if (argument == null) {
+                return defaultValue;
+            }
+            String value = argument;
+            if (value.length() > 1 && value.startsWith("\"") && value.endsWith("\"")) {
+                value = value.substring(1, value.length() - 1);
+            }
+            try {
+                final long seconds = Long.parseLong(value);
+                if (seconds < 0) {
+                    return defaultValue;
+                }
+                return seconds > Integer.MAX_VALUE ? Integer.MAX_VALUE * 1000L : seconds * 1000;
+            } catch (NumberFormatException e) {
+                return defaultValue;
+            }
+        }
+    }
+
+    private static final class CloseBodyCallback implements IoCallback {
+        private final BodyReader body;
+
+        CloseBodyCallback(final BodyReader body) {
+            this.body = body;
+        }
+
+        @Override
+        public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+            body.close();
+            exchange.endExchange();
+        }
+
+        @Override
+        public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+            UndertowLogger.REQUEST_IO_LOGGER.ioException(exception);
+            body.close();
+            exchange.endExchange();
+        }
+    }
+}
@@ -0,0 +1,561 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.cache;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
+
+import io.undertow.UndertowLogger;
+import io.undertow.io.IoCallback;
+import io.undertow.io.Sender;
+import io.undertow.server.ConduitWrapper;
+import io.undertow.server.ExchangeCompletionListener;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.encoding.AllowedContentEncodings;
+import io.undertow.util.ConduitFactory;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HeaderValues;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.SameThreadExecutor;
+import io.undertow.util.StatusCodes;
+import org.xnio.XnioExecutor;
+import org.xnio.conduits.StreamSinkConduit;
+
+/**
+ * Handler that collapses identical concurrent GET requests into a single request to the next handler.
+ * <p>
+ * The first request for a given resource (the leader) is passed to the next handler as normal. Identical requests
+ * that arrive while it is in progress (the followers) are parked, and once the leader has completed its response is
+ * copied to all of them. This prevents a thundering herd of requests reaching a backend or an expensive handler when
+ * a popular resource is not in any cache, and works the same way for HTTP/1.1 and HTTP/2 exchanges, and for proxied
+ * responses.
+ * <p>
+ * Requests are considered identical if they have the same host, URI, query string and values for the configured
+ * vary headers. Requests that carry credentials (an {@code Authorization}, {@code Proxy-Authorization} or
+ * {@code Cookie} header), conditional or range headers, or a request body are never collapsed.
+ * The leader's response is only shared if it has a content length, a status code that is cacheable by default,
+ * no {@code Set-Cookie} header, is not marked {@code private} or {@code no-store} and does not vary on any header
+ * other than the configured vary headers. The body is captured into the supplied {@link DirectBufferCache}, which
+ * should be dedicated to this handler, as the entries are only kept until the followers have been sent the response.
+ * <p>
+ * If the response can't be shared the followers are released to the next handler straight away, and further
+ * requests for the resource bypass collapsing for a short time. If the leader fails (e.g. a 5xx response or a
+ * connection error) one follower is promoted to be the new leader, and the rest stay parked behind it, so a failing
+ * backend does not receive the whole herd at once. Followers that have been parked for longer than the timeout are
+ * always sent to the next handler.
+ * <p>
+ * NOTE: Like {@link ResponseCache} this handler has no concept of authentication, and assumes that a response that
+ * meets the criteria above is the same for every user.
+ */
+public class RequestCollapsingHandler implements HttpHandler {
+
+    public static final long DEFAULT_TIMEOUT = 30000;
+
+    public static final int DEFAULT_MAX_RESPONSE_SIZE = 1024 * 1024;
+
+    /**
+     * How long a resource bypasses collapsing after it returned a response that could not be shared
+     */
+    private static final int UNCOLLAPSIBLE_MAX_AGE = 10000;
+
+    private static final int UNCOLLAPSIBLE_MAX_ENTRIES = 1000;
+
+    private static final List<HttpString> DEFAULT_VARY_HEADERS = Collections.singletonList(Headers.ACCEPT_ENCODING);
+
+    private final DirectBufferCache cache;
+    private final HttpHandler next;
+    private final long timeout;
+    private final int maxResponseSize;
+    private final HttpString[] varyHeaders;
+
+    private final ConcurrentMap<RequestKey, InFlightRequest> inFlightRequests = new ConcurrentHashMap<>();
+    private final LRUCache<RequestKey, Boolean> uncollapsible = new LRUCache<>(UNCOLLAPSIBLE_MAX_ENTRIES, UNCOLLAPSIBLE_MAX_AGE);
+
+    public RequestCollapsingHandler(final DirectBufferCache cache, final HttpHandler next) {
+        this(cache, next, DEFAULT_TIMEOUT, DEFAULT_MAX_RESPONSE_SIZE, DEFAULT_VARY_HEADERS);
+    }
+
+    /**
+     * @param cache           The cache that is used to hold response bodies until they have been sent to all followers
+     * @param next            The next handler
+     * @param timeout         The maximum time in milliseconds that a request will wait for an identical request to complete
+     * @param maxResponseSize The largest response body that will be shared
+     * @param varyHeaders     Request headers that can result in a different response, and so are part of the request identity
+     */
+    public RequestCollapsingHandler(final DirectBufferCache cache, final HttpHandler next, final long timeout, final int maxResponseSize, final List<HttpString> varyHeaders) {
+        this.cache = cache;
+        this.next = next;
+        this.timeout = timeout;
+        this.maxResponseSize = maxResponseSize;
+        this.varyHeaders = varyHeaders.toArray(new HttpString[varyHeaders.size()]);
+    }
+
+    @Override
+    public void handleRequest(final HttpServerExchange exchange) throws Exception {
+        if (!isCollapsible(exchange)) {
+            next.handleRequest(exchange);
+            return;
+        }
+        final RequestKey key = new RequestKey(exchange, varyHeaders);
+        if (uncollapsible.get(key) != null) {
+            next.handleRequest(exchange);
+            return;
+        }
+        final InFlightRequest request = new InFlightRequest(key);
+        final InFlightRequest existing = inFlightRequests.putIfAbsent(key, request);
+        if (existing == null) {
+            handleAsLeader(exchange, request);
+            return;
+        }
+        //there is already an identical request in progress, wait for it
+        exchange.dispatch(SameThreadExecutor.INSTANCE, new Runnable() {
+            @Override
+            public void run() {
+                //we need to have already dispatched for thread safety reasons
+                final ParkedRequest parked = new ParkedRequest(exchange);
+                if (!existing.park(parked)) {
+                    //the leader completed in the meantime, start again
+                    exchange.dispatch(SameThreadExecutor.INSTANCE, RequestCollapsingHandler.this);
+                    return;
+                }
+                parked.timeoutKey = exchange.getIoThread().executeAfter(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (parked.claim()) {
+                            UndertowLogger.REQUEST_LOGGER.debugf("Timed out waiting for identical request to %s to complete", exchange.getRequestURI());
+                            exchange.dispatch(next);
+                        }
+                    }
+                }, timeout, TimeUnit.MILLISECONDS);
+            }
+        });
+    }
+
+    public HttpHandler getNext() {
+        return next;
+    }
+
+    private boolean isCollapsible(final HttpServerExchange exchange) {
+        if (!exchange.getRequestMethod().equals(Methods.GET)) {
+            return false;
+        }
+        final HeaderMap headers = exchange.getRequestHeaders();
+        if (headers.contains(Headers.AUTHORIZATION) ||
+                headers.contains(Headers.PROXY_AUTHORIZATION) ||
+                headers.contains(Headers.COOKIE) ||
+                headers.contains(Headers.RANGE) ||
+                headers.contains(Headers.IF_MATCH) ||
+                headers.contains(Headers.IF_NONE_MATCH) ||
+                headers.contains(Headers.IF_MODIFIED_SINCE) ||
+                headers.contains(Headers.IF_UNMODIFIED_SINCE) ||
+                headers.contains(Headers.TRANSFER_ENCODING)) {
+            return false;
+        }
+        final String contentLength = headers.getFirst(Headers.CONTENT_LENGTH);
+        return contentLength == null || contentLength.equals("0");
+    }
+
+    private void handleAsLeader(final HttpServerExchange exchange, final InFlightRequest request) throws Exception {
+        exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+            @Override
+            public void exchangeEvent(final HttpServerExchange exchange, final NextListener nextListener) {
+                try {
+                    leaderComplete(request);
+                } finally {
+                    nextListener.proceed();
+                }
+            }
+        });
+        exchange.addResponseWrapper(new ConduitWrapper<StreamSinkConduit>() {
+            @Override
+            public StreamSinkConduit wrap(final ConduitFactory<StreamSinkConduit> factory, final HttpServerExchange exchange) {
+                final int status = exchange.getStatusCode();
+                if (status >= 500 && status != StatusCodes.NOT_IMPLEMENTED) {
+                    //the leader failed, let one of the followers try again when it is done
+                    return factory.create();
+                }
+                final long length = getSharedResponseLength(exchange);
+                if (length < 0) {
+                    //the followers need their own response, there is no point making them wait
+                    uncollapsible.add(request.key, Boolean.TRUE);
+                    releaseAll(request);
+                    return factory.create();
+                }
+                request.statusCode = status;
+                request.responseHeaders = copyHeaders(exchange.getResponseHeaders());
+                if (length == 0) {
+                    request.emptyResponse = true;
+                    return factory.create();
+                }
+                final DirectBufferCache.CacheEntry entry = cache.add(request, (int) length);
+                if (!entry.allocate() || entry.buffers().length == 0 || !entry.claimEnable()) {
+                    cache.remove(request);
+                    releaseAll(request);
+                    return factory.create();
+                }
+                request.entry = entry;
+                return new ResponseCachingStreamSinkConduit(factory.create(), entry, length);
+            }
+        });
+        next.handleRequest(exchange);
+    }
+
+    /**
+     * @return The content length of the response, or -1 if the response can't be sent to other requests
+     */
+    private long getSharedResponseLength(final HttpServerExchange exchange) {
+        switch (exchange.getStatusCode()) {
+            case StatusCodes.OK:
+            case StatusCodes.NON_AUTHORITATIVE_INFORMATION:
+            case StatusCodes.NO_CONTENT:
+            case StatusCodes.MULTIPLE_CHOICES:
+            case StatusCodes.MOVED_PERMANENTLY:
+            case StatusCodes.NOT_FOUND:
+            case StatusCodes.METHOD_NOT_ALLOWED:
+            case StatusCodes.GONE:
+            case StatusCodes.REQUEST_URI_TOO_LARGE:
+            case StatusCodes.NOT_IMPLEMENTED:
+                break;
+            default:
+                return -1;
+        }
+        final HeaderMap headers = exchange.getResponseHeaders();
+        if (headers.contains(Headers.SET_COOKIE)) {
+            return -1;
+        }
+        final HeaderValues cacheControl = headers.get(Headers.CACHE_CONTROL);
+        if (cacheControl != null) {
+            for (String value : cacheControl) {
+                value = value.toLowerCase(Locale.ENGLISH);
+                if (value.contains("private") || value.contains("no-store")) {
+                    return -1;
+                }
+            }
+        }
+        final HeaderValues vary = headers.get(Headers.VARY);
+        if (vary != null) {
+            for (String value : vary) {
+                for (String name : value.split(",")) {
+                    name = name.trim();
+                    if (!name.isEmpty() && !isVaryHeader(name)) {
+                        return -1;
+                    }
+                }
+            }
+        }
+        final AllowedContentEncodings contentEncodings = exchange.getAttachment(AllowedContentEncodings.ATTACHMENT_KEY);
+        if (contentEncodings != null && !contentEncodings.isIdentity()) {
+            //we have no idea how big the encoded response will be
+            return -1;
+        }
+        final String lengthString = headers.getFirst(Headers.CONTENT_LENGTH);
+        if (lengthString == null) {
+            return exchange.getStatusCode() == StatusCodes.NO_CONTENT ? 0 : -1;
+        }
+        try {
+            final long length = Long.parseLong(lengthString);
+            if (length < 0 || length > maxResponseSize) {
+                return -1;
+            }
+            return length;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private boolean isVaryHeader(final String name) {
+        for (HttpString header : varyHeaders) {
+            if (header.equalToString(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void leaderComplete(final InFlightRequest request) {
+        final List<ParkedRequest> parked = request.complete();
+        final DirectBufferCache.CacheEntry entry = request.entry;
+        final boolean success = request.emptyResponse || (entry != null && entry.enabled());
+        try {
+            if (success) {
+                inFlightRequests.remove(request.key, request);
+                for (ParkedRequest follower : parked) {
+                    if (follower.claim()) {
+                        sendSharedResponse(follower.exchange, request);
+                    }
+                }
+            } else if (!request.released) {
+                promoteFollower(request, parked);
+            } else {
+                inFlightRequests.remove(request.key, request);
+            }
+        } finally {
+            if (entry != null) {
+                cache.remove(request);
+            }
+        }
+    }
+
+    /**
+     * Picks one of the parked requests to retry the request, while the others wait for it.
+     */
+    private void promoteFollower(final InFlightRequest request, final List<ParkedRequest> parked) {
+        int i = 0;
+        ParkedRequest leader = null;
+        for (; i < parked.size(); ++i) {
+            if (parked.get(i).claim()) {
+                leader = parked.get(i);
+                break;
+            }
+        }
+        if (leader == null) {
+            inFlightRequests.remove(request.key, request);
+            return;
+        }
+        final InFlightRequest newRequest = new InFlightRequest(request.key);
+        for (++i; i < parked.size(); ++i) {
+            newRequest.park(parked.get(i));
+        }
+        if (!inFlightRequests.replace(request.key, request, newRequest)) {
+            //should not happen, but just to be safe we send everything to the next handler
+            leader.exchange.dispatch(next);
+            releaseAll(newRequest);
+            return;
+        }
+        final HttpServerExchange exchange = leader.exchange;
+        exchange.dispatch(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                handleAsLeader(exchange, newRequest);
+            }
+        });
+    }
+
+    private void releaseAll(final InFlightRequest request) {
+        inFlightRequests.remove(request.key, request);
+        for (ParkedRequest parked : request.release()) {
+            if (parked.claim()) {
+                parked.exchange.dispatch(next);
+            }
+        }
+    }
+
+    /**
+     * Sends the leaders response to the follower. This must be called from the thread that completed the leader,
+     * as it takes a reference to the cache entry before the entry is removed.
+     */
+    private void sendSharedResponse(final HttpServerExchange exchange, final InFlightRequest request) {
+        final DirectBufferCache.CacheEntry entry = request.entry;
+        if (entry != null && !entry.reference()) {
+            exchange.dispatch(next);
+            return;
+        }
+        exchange.dispatch(exchange.getIoThread(), new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) {
+                exchange.setStatusCode(request.statusCode);
+                final HeaderMap responseHeaders = exchange.getResponseHeaders();
+                for (HeaderValues values : request.responseHeaders) {
+                    responseHeaders.putAll(values.getHeaderName(), values);
+                }
+                if (entry == null) {
+                    exchange.endExchange();
+                    return;
+                }
+                responseHeaders.put(Headers.CONTENT_LENGTH, Long.toString(entry.size()));
+                boolean ok = false;
+                final ByteBuffer[] buffers;
+                try {
+                    LimitedBufferSlicePool.PooledByteBuffer[] pooled = entry.buffers();
+                    buffers = new ByteBuffer[pooled.length];
+                    for (int i = 0; i < buffers.length; i++) {
+                        // Keep position from mutating
+                        buffers[i] = pooled[i].getBuffer().duplicate();
+                    }
+                    ok = true;
+                } finally {
+                    if (!ok) {
+                        entry.dereference();
+                    }
+                }
+                exchange.getResponseSender().send(buffers, new DereferenceCallback(entry));
+            }
+        });
+    }
+
+    private static HeaderMap copyHeaders(final HeaderMap headers) {
+        final HeaderMap copy = new HeaderMap();
+        for (HeaderValues values : headers) {
+            final HttpString name = values.getHeaderName();
+            if (name.equals(Headers.CONNECTION) ||
+                    name.equals(Headers.KEEP_ALIVE) ||
+                    name.equals(Headers.TRANSFER_ENCODING) ||
+                    name.equals(Headers.CONTENT_LENGTH)) {
+                continue;
+            }
+            copy.putAll(name, values);
+        }
+        return copy;
+    }
+
+    /**
+     * A request that is being processed by the next handler, and the identical requests that are waiting for it
+     */
+    private static final class InFlightRequest {
+
+        private final RequestKey key;
+        private List<ParkedRequest> parked = new ArrayList<>();
+        private boolean done;
+
+        //response state, written by the leader before it completes
+        volatile int statusCode;
+        volatile HeaderMap responseHeaders;
+        volatile boolean emptyResponse;
+        volatile DirectBufferCache.CacheEntry entry;
+        volatile boolean released;
+
+        private InFlightRequest(final RequestKey key) {
+            this.key = key;
+        }
+
+        synchronized boolean park(final ParkedRequest request) {
+            if (done) {
+                return false;
+            }
+            parked.add(request);
+            return true;
+        }
+
+        synchronized List<ParkedRequest> complete() {
+            done = true;
+            final List<ParkedRequest> ret = parked;
+            parked = Collections.emptyList();
+            return ret;
+        }
+
+        synchronized List<ParkedRequest> release() {
+            released = true;
+            return complete();
+        }
+    }
+
+    private static final class ParkedRequest {
+
+        private static final AtomicIntegerFieldUpdater<ParkedRequest> claimedUpdater = AtomicIntegerFieldUpdater.newUpdater(ParkedRequest.class, "claimed");
+
+        final HttpServerExchange exchange;
+        volatile XnioExecutor.Key timeoutKey;
+        @SuppressWarnings("unused")
+        private volatile int claimed;
+
+        private ParkedRequest(final HttpServerExchange exchange) {
+            this.exchange = exchange;
+        }
+
+        /**
+         * Claims the request, so it can be resumed. Only one caller will ever be able to claim a request.
+         */
+        boolean claim() {
+            if (!claimedUpdater.compareAndSet(this, 0, 1)) {
+                return false;
+            }
+            final XnioExecutor.Key key = timeoutKey;
+            if (key != null) {
+                key.remove();
+            }
+            return true;
+        }
+    }
+
+    private static final class RequestKey {
+        private final String host;
+        private final String uri;
+        private final String query;
+        private final String[] varyValues;
+        private final int hashCode;
+
+        private RequestKey(final HttpServerExchange exchange, final HttpString[] varyHeaders) {
+            this.host = exchange.getHostAndPort();
+            this.uri = exchange.getRequestURI();
+            this.query = exchange.getQueryString();
+            this.varyValues = new String[varyHeaders.length];
+            for (int i = 0; i < varyHeaders.length; ++i) {
+                final HeaderValues values = exchange.getRequestHeaders().get(varyHeaders[i]);
+                if (values != null) {
+                    varyValues[i] = values.size() == 1 ? values.getFirst() : values.toString();
+                }
+            }
+            int result = host.hashCode();
+            result = 31 * result + uri.hashCode();
+            result = 31 * result + query.hashCode();
+            result = 31 * result + Arrays.hashCode(varyValues);
+            this.hashCode = result;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            final RequestKey that = (RequestKey) o;
+            return hashCode == that.hashCode &&
+                    host.equals(that.host) &&
+                    uri.equals(that.uri) &&
+                    query.equals(that.query) &&
+                    Arrays.equals(varyValues, that.varyValues);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class DereferenceCallback implements IoCallback {
+        private final DirectBufferCache.CacheEntry entry;
+
+        DereferenceCallback(DirectBufferCache.CacheEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public void onComplete(final HttpServerExchange exchange, final Sender sender) {
+            entry.dereference();
+            exchange.endExchange();
+        }
+
+        @Override
+        public void onException(final HttpServerExchange exchange, final Sender sender, final IOException exception) {
+            UndertowLogger.REQUEST_IO_LOGGER.ioException(exception);
+            entry.dereference();
+            exchange.endExchange();
+        }
+    }
+}
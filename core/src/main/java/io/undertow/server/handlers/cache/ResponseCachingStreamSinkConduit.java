@@ -92,7 +92,7 @@ public class ResponseCachingStreamSinkConduit extends AbstractStreamSinkConduit<
     public long write(final ByteBuffer[] srcs, final int offs, final int len) throws IOException {
 
         ByteBuffer[] origSrc = new ByteBuffer[srcs.length];
-        for (int i = 0; i < srcs.length; i++) {
+        for (int i = offs; i < offs + len; i++) {
             origSrc[i] = srcs[i].duplicate();
         }
         long totalWritten =  super.write(srcs, offs, len);
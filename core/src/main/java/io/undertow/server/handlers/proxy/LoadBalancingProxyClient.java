@@ -21,6 +21,8 @@ package io.undertow.server.handlers.proxy;
 import io.undertow.UndertowLogger;
 import io.undertow.client.ClientConnection;
 import io.undertow.client.UndertowClient;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.ServerConnection;
 import io.undertow.server.handlers.Cookie;
@@ -28,14 +30,17 @@ import io.undertow.util.AttachmentKey;
 import io.undertow.util.AttachmentList;
 import io.undertow.util.CopyOnWriteMap;
 import org.xnio.OptionMap;
+import org.xnio.XnioWorker;
 import org.xnio.ssl.XnioSsl;
 
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -60,6 +65,21 @@ public class LoadBalancingProxyClient implements ProxyClient {
 
     private static final AttachmentKey<AttachmentList<Host>> ATTEMPTED_HOSTS = AttachmentKey.createList(Host.class);
 
+    /**
+     * The time in nanoseconds over which the peak EWMA response time of a host decays
+     */
+    private static final long PEAK_EWMA_DECAY_TIME = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * The share of its normal traffic a host receives at the start of its slow start period
+     */
+    private static final double MIN_SLOW_START_WEIGHT = 0.05;
+
+    /**
+     * The number of power of two latency buckets used to estimate the response time percentile of a host
+     */
+    private static final int LATENCY_BUCKETS = 40;
+
     /**
      * Time in seconds between retries for problem servers
      */
@@ -74,6 +94,31 @@ public class LoadBalancingProxyClient implements ProxyClient {
     private volatile int maxQueueSize = 0;
     private volatile int softMaxConnectionsPerThread = 5;
     private volatile int ttl = -1;
+    private volatile int maxMultiplexedConnections = 0;
+    private volatile int minConnectionsPerThread = 0;
+    private volatile long connectionProbeInterval = -1;
+    private volatile int maxConnectionsPerHost = -1;
+    private volatile int maxPendingRequestsPerHost = -1;
+
+    /**
+     * Outlier detection settings, a host is ejected if any of the enabled limits are exceeded
+     */
+    private volatile double outlierErrorRatio = 0;
+    private volatile double outlierLatencyPercentile = 0.99;
+    private volatile long outlierLatencyThreshold = -1;
+    private volatile int outlierConsecutiveTimeouts = 0;
+    private volatile long outlierInterval = 10000;
+    private volatile int outlierMinimumRequests = 20;
+    private volatile long baseEjectionTime = 30000;
+    private volatile long maxEjectionTime = 300000;
+    private volatile long slowStartTime = 0;
+
+    /**
+     * The worker and buffer pool passed to {@link #warmUp(XnioWorker, ByteBufferPool)}, hosts that are added later are
+     * warmed up as soon as they are added.
+     */
+    private volatile XnioWorker warmUpWorker;
+    private volatile ByteBufferPool warmUpBufferPool;
 
     /**
      * The hosts list.
@@ -155,6 +200,221 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return this;
     }
 
+    public int getMaxMultiplexedConnections() {
+        return maxMultiplexedConnections;
+    }
+
+    /**
+     * Sets the maximum number of connections per IO thread that are opened to a backend that supports multiplexing
+     * (i.e. HTTP/2). Requests are sent as streams on the least loaded of these connections. If this is zero (the default)
+     * multiplexed connections are pooled like HTTP/1.1 connections.
+     *
+     * @param maxMultiplexedConnections The maximum number of multiplexed connections per host and IO thread
+     * @return this
+     */
+    public LoadBalancingProxyClient setMaxMultiplexedConnections(int maxMultiplexedConnections) {
+        this.maxMultiplexedConnections = maxMultiplexedConnections;
+        return this;
+    }
+
+    public int getMinConnectionsPerThread() {
+        return minConnectionsPerThread;
+    }
+
+    /**
+     * Sets the number of connections per IO thread that are opened to each host ahead of time. These connections are
+     * re-established in the background if they are closed or time out, so that requests do not have to wait for a new
+     * connection to be established. Use {@link #warmUp(XnioWorker, ByteBufferPool)} to open them before the first request,
+     * otherwise they are opened when a thread first sends a request to the host.
+     *
+     * @param minConnectionsPerThread The minimum number of connections per thread
+     * @return this
+     */
+    public LoadBalancingProxyClient setMinConnectionsPerThread(int minConnectionsPerThread) {
+        this.minConnectionsPerThread = minConnectionsPerThread;
+        return this;
+    }
+
+    public long getConnectionProbeInterval() {
+        return connectionProbeInterval;
+    }
+
+    /**
+     * Sets the interval in milliseconds at which idle connections are probed with a ping. Connections that do not answer
+     * within the interval are closed. Only protocols that support a ping (i.e. HTTP/2) are probed.
+     *
+     * @param connectionProbeInterval The probe interval, zero or less disables probing
+     * @return this
+     */
+    public LoadBalancingProxyClient setConnectionProbeInterval(long connectionProbeInterval) {
+        this.connectionProbeInterval = connectionProbeInterval;
+        return this;
+    }
+
+    public int getMaxConnectionsPerHost() {
+        return maxConnectionsPerHost;
+    }
+
+    /**
+     * Sets the maximum number of connections to a host across all IO threads. Once it is reached requests wait for a
+     * connection rather than opening more connections to a host that is not keeping up. As connections belong to an IO
+     * thread, a request on a thread without a connection waits until another thread has closed an idle connection, or
+     * one of its connections has been closed.
+     *
+     * @param maxConnectionsPerHost The maximum number of connections, zero or less for no limit
+     * @return this
+     */
+    public LoadBalancingProxyClient setMaxConnectionsPerHost(int maxConnectionsPerHost) {
+        this.maxConnectionsPerHost = maxConnectionsPerHost;
+        return this;
+    }
+
+    public int getMaxPendingRequestsPerHost() {
+        return maxPendingRequestsPerHost;
+    }
+
+    /**
+     * Sets the maximum number of requests that can be waiting for a connection to a host. Requests over this limit
+     * fail straight away, and are retried on another host, instead of being queued.
+     *
+     * @param maxPendingRequestsPerHost The maximum number of pending requests, zero or less for no limit
+     * @return this
+     */
+    public LoadBalancingProxyClient setMaxPendingRequestsPerHost(int maxPendingRequestsPerHost) {
+        this.maxPendingRequestsPerHost = maxPendingRequestsPerHost;
+        return this;
+    }
+
+    public double getOutlierErrorRatio() {
+        return outlierErrorRatio;
+    }
+
+    /**
+     * Sets the ratio of 5xx responses and timed out requests at which a host is ejected from the load balancer. The
+     * ratio is measured over the outlier detection interval.
+     *
+     * @param outlierErrorRatio The error ratio between 0 and 1, zero or less disables error ratio detection
+     * @return this
+     * @see #setOutlierDetectionInterval(long, int)
+     */
+    public LoadBalancingProxyClient setOutlierErrorRatio(double outlierErrorRatio) {
+        this.outlierErrorRatio = outlierErrorRatio;
+        return this;
+    }
+
+    public double getOutlierLatencyPercentile() {
+        return outlierLatencyPercentile;
+    }
+
+    public long getOutlierLatencyThreshold() {
+        return outlierLatencyThreshold;
+    }
+
+    /**
+     * Ejects a host if the given percentile of its response times over the outlier detection interval is above the
+     * threshold. Response times are counted in power of two buckets, and the lower bound of the bucket is compared to the
+     * threshold, so a host is only ejected if it is clearly over it.
+     *
+     * @param percentile The percentile, between 0 and 1
+     * @param threshold  The threshold in milliseconds, zero or less disables latency detection
+     * @return this
+     */
+    public LoadBalancingProxyClient setOutlierLatencyThreshold(double percentile, long threshold) {
+        this.outlierLatencyPercentile = percentile;
+        this.outlierLatencyThreshold = threshold;
+        return this;
+    }
+
+    public int getOutlierConsecutiveTimeouts() {
+        return outlierConsecutiveTimeouts;
+    }
+
+    /**
+     * Sets the number of consecutive requests to a host that have to time out for it to be ejected.
+     *
+     * @param outlierConsecutiveTimeouts The number of timeouts, zero or less disables timeout detection
+     * @return this
+     */
+    public LoadBalancingProxyClient setOutlierConsecutiveTimeouts(int outlierConsecutiveTimeouts) {
+        this.outlierConsecutiveTimeouts = outlierConsecutiveTimeouts;
+        return this;
+    }
+
+    public long getOutlierInterval() {
+        return outlierInterval;
+    }
+
+    public int getOutlierMinimumRequests() {
+        return outlierMinimumRequests;
+    }
+
+    /**
+     * Sets the interval over which the error ratio and latency percentile of a host are measured, and the number of
+     * requests a host must have handled in the interval before they are considered.
+     *
+     * @param interval        The interval in milliseconds
+     * @param minimumRequests The minimum number of requests
+     * @return this
+     */
+    public LoadBalancingProxyClient setOutlierDetectionInterval(long interval, int minimumRequests) {
+        this.outlierInterval = interval;
+        this.outlierMinimumRequests = minimumRequests;
+        return this;
+    }
+
+    public long getBaseEjectionTime() {
+        return baseEjectionTime;
+    }
+
+    public long getMaxEjectionTime() {
+        return maxEjectionTime;
+    }
+
+    /**
+     * Sets how long an ejected host is taken out of the load balancer. The time doubles every time a host is ejected
+     * again, up to the maximum, and is halved again for every interval in which the host is not ejected.
+     *
+     * @param baseEjectionTime The ejection time in milliseconds for the first ejection
+     * @param maxEjectionTime  The maximum ejection time in milliseconds
+     * @return this
+     */
+    public LoadBalancingProxyClient setEjectionTime(long baseEjectionTime, long maxEjectionTime) {
+        this.baseEjectionTime = baseEjectionTime;
+        this.maxEjectionTime = maxEjectionTime;
+        return this;
+    }
+
+    public long getSlowStartTime() {
+        return slowStartTime;
+    }
+
+    /**
+     * Sets the time over which traffic to a host is ramped up after it has been re-admitted following an ejection or a
+     * connection problem. The share of requests the host receives grows linearly over this time.
+     *
+     * @param slowStartTime The slow start time in milliseconds, zero or less to send the host its full share straight away
+     * @return this
+     */
+    public LoadBalancingProxyClient setSlowStartTime(long slowStartTime) {
+        this.slowStartTime = slowStartTime;
+        return this;
+    }
+
+    /**
+     * Opens {@link #getMinConnectionsPerThread()} connections to every host on each IO thread of the worker. Hosts that
+     * are added after this method has been called are warmed up when they are added.
+     *
+     * @param worker     The worker that will handle the proxied requests
+     * @param bufferPool The buffer pool to use for the connections
+     */
+    public synchronized void warmUp(XnioWorker worker, ByteBufferPool bufferPool) {
+        this.warmUpWorker = worker;
+        this.warmUpBufferPool = bufferPool;
+        for (Host host : hosts) {
+            host.connectionPool.warmUp(worker, bufferPool);
+        }
+    }
+
     public LoadBalancingProxyClient setTtl(int ttl) {
         this.ttl = ttl;
         return this;
@@ -202,6 +462,9 @@ public class LoadBalancingProxyClient implements ProxyClient {
         if (jvmRoute != null) {
             this.routes.put(jvmRoute, h);
         }
+        if (warmUpWorker != null) {
+            h.connectionPool.warmUp(warmUpWorker, warmUpBufferPool);
+        }
         return this;
     }
 
@@ -221,6 +484,9 @@ public class LoadBalancingProxyClient implements ProxyClient {
         if (jvmRoute != null) {
             this.routes.put(jvmRoute, h);
         }
+        if (warmUpWorker != null) {
+            h.connectionPool.warmUp(warmUpWorker, warmUpBufferPool);
+        }
         return this;
     }
 
@@ -254,6 +520,20 @@ public class LoadBalancingProxyClient implements ProxyClient {
         return PROXY_TARGET;
     }
 
+    /**
+     * Requests are only tracked per host if something reads the result, as tracking costs an allocation and an
+     * exchange completion listener per request. The round robin selector does not use the statistics.
+     *
+     * @return {@code true} if the host selector, outlier detection or the pending request limit need per host request tracking
+     */
+    private boolean isRequestTrackingRequired() {
+        return !(hostSelector instanceof RoundRobinHostSelector)
+                || maxPendingRequestsPerHost > 0
+                || outlierErrorRatio > 0
+                || outlierLatencyThreshold > 0
+                || outlierConsecutiveTimeouts > 0;
+    }
+
     @Override
     public void getConnection(ProxyTarget target, HttpServerExchange exchange, final ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit) {
         final ExclusiveConnectionHolder holder = exchange.getConnection().getAttachment(exclusiveConnectionKey);
@@ -268,6 +548,18 @@ public class LoadBalancingProxyClient implements ProxyClient {
             callback.couldNotResolveBackend(exchange);
         } else {
             exchange.addToAttachmentList(ATTEMPTED_HOSTS, host);
+            final ProxyCallback<ProxyConnection> hostCallback;
+            if (isRequestTrackingRequired()) {
+                if (!host.startPendingRequest()) {
+                    //fail fast, the proxy handler will retry on another host
+                    UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Too many requests waiting for a connection to %s", host.uri);
+                    callback.queuedRequestFailed(exchange);
+                    return;
+                }
+                hostCallback = new HostRequest(host, exchange, callback);
+            } else {
+                hostCallback = callback;
+            }
             if (holder != null || (exclusivityChecker != null && exclusivityChecker.isExclusivityRequired(exchange))) {
                 // If we have a holder, even if the connection was closed we now exclusivity was already requested so our client
                 // may be assuming it still exists.
@@ -293,27 +585,27 @@ public class LoadBalancingProxyClient implements ProxyClient {
                                 }
                             });
                         }
-                        callback.completed(exchange, result);
+                        hostCallback.completed(exchange, result);
                     }
 
                     @Override
                     public void queuedRequestFailed(HttpServerExchange exchange) {
-                        callback.queuedRequestFailed(exchange);
+                        hostCallback.queuedRequestFailed(exchange);
                     }
 
                     @Override
                     public void failed(HttpServerExchange exchange) {
                         UndertowLogger.PROXY_REQUEST_LOGGER.proxyFailedToConnectToBackend(exchange.getRequestURI(), host.uri);
-                        callback.failed(exchange);
+                        hostCallback.failed(exchange);
                     }
 
                     @Override
                     public void couldNotResolveBackend(HttpServerExchange exchange) {
-                        callback.couldNotResolveBackend(exchange);
+                        hostCallback.couldNotResolveBackend(exchange);
                     }
                 }, timeout, timeUnit, true);
             } else {
-                host.connectionPool.connect(target, exchange, callback, timeout, timeUnit, false);
+                host.connectionPool.connect(target, exchange, hostCallback, timeout, timeUnit, false);
             }
         }
     }
@@ -345,8 +637,18 @@ public class LoadBalancingProxyClient implements ProxyClient {
             Host selected = hosts[host];
             if(attempted == null || !attempted.contains(selected)) {
                 ProxyConnectionPool.AvailabilityType available = selected.connectionPool.available();
+                if (available == AVAILABLE && (selected.isEjected() || selected.isPendingLimitReached())) {
+                    //ejected hosts and hosts with an open circuit breaker are only used as a last resort
+                    available = FULL_QUEUE;
+                }
                 if (available == AVAILABLE) {
-                    return selected;
+                    double weight = selected.getTrafficWeight();
+                    if (weight >= 1 || ThreadLocalRandom.current().nextDouble() < weight) {
+                        return selected;
+                    } else if (full == null) {
+                        //the host is still ramping up after being re-admitted
+                        full = selected;
+                    }
                 } else if (available == FULL && full == null) {
                     full = selected;
                 } else if ((available == PROBLEM || available == FULL_QUEUE) && problem == null) {
@@ -395,6 +697,28 @@ public class LoadBalancingProxyClient implements ProxyClient {
         final URI uri;
         final XnioSsl ssl;
 
+        private final AtomicInteger outstandingRequests = new AtomicInteger();
+        private final AtomicInteger pendingRequests = new AtomicInteger();
+        private final Object responseTimeLock = new Object();
+        private double peakEwmaResponseTime;
+        private long peakEwmaTimestamp = System.nanoTime();
+
+        /**
+         * Outlier detection state for the current interval, guarded by the outlier lock
+         */
+        private final Object outlierLock = new Object();
+        private final int[] intervalLatencies = new int[LATENCY_BUCKETS];
+        private long intervalStart = System.nanoTime();
+        private int intervalRequests;
+        private int intervalErrors;
+        private boolean ejectedInInterval;
+        private int consecutiveTimeouts;
+        private int ejectionCount;
+        private volatile boolean ejected;
+        private volatile long ejectedUntil;
+        private volatile boolean slowStart;
+        private volatile long slowStartBegin;
+
         private Host(String jvmRoute, InetSocketAddress bindAddress, URI uri, XnioSsl ssl, OptionMap options) {
             this.connectionPool = new ProxyConnectionPool(this, bindAddress, uri, ssl, client, options);
             this.jvmRoute = jvmRoute;
@@ -432,15 +756,336 @@ public class LoadBalancingProxyClient implements ProxyClient {
             return maxQueueSize;
         }
 
+        @Override
+        public int getMaxMultiplexedConnections() {
+            return maxMultiplexedConnections;
+        }
+
+        @Override
+        public int getMinConnections() {
+            return minConnectionsPerThread;
+        }
+
+        @Override
+        public long getConnectionProbeInterval() {
+            return connectionProbeInterval;
+        }
+
+        @Override
+        public int getMaxHostConnections() {
+            return maxConnectionsPerHost;
+        }
+
+        @Override
+        public boolean clearError() {
+            boolean wasAvailable = isAvailable();
+            boolean available = super.clearError();
+            if (!wasAvailable && available) {
+                startSlowStart();
+            }
+            return available;
+        }
+
+        public ProxyConnectionPoolStatistics getConnectionPoolStatistics() {
+            return connectionPool.getPoolStatistics();
+        }
+
         public URI getUri() {
             return uri;
         }
 
+        /**
+         *
+         * @return The number of requests that have been sent to this host and have not completed yet. This is only
+         *         tracked if the host selector, outlier detection or the pending request limit use it.
+         */
+        public int getOutstandingRequests() {
+            return outstandingRequests.get();
+        }
+
+        /**
+         * Returns the peak EWMA of the response time of this host. The average moves up to a slower response
+         * straight away, and decays back towards faster responses (and towards zero when the host is idle)
+         * over roughly ten seconds.
+         *
+         * @return The peak EWMA response time in nanoseconds. This is only tracked if the host selector, outlier
+         *         detection or the pending request limit use it.
+         */
+        public double getPeakEwmaResponseTime() {
+            synchronized (responseTimeLock) {
+                long elapsed = Math.max(System.nanoTime() - peakEwmaTimestamp, 0);
+                return peakEwmaResponseTime * Math.exp(-elapsed / (double) PEAK_EWMA_DECAY_TIME);
+            }
+        }
+
+        /**
+         *
+         * @return The number of requests that are waiting for a connection to this host
+         */
+        public int getPendingRequests() {
+            return pendingRequests.get();
+        }
+
+        /**
+         *
+         * @return {@code true} if this host has been ejected by outlier detection, and has not been re-admitted yet
+         */
+        public boolean isEjected() {
+            if (!ejected) {
+                return false;
+            }
+            if (System.nanoTime() - ejectedUntil < 0) {
+                return true;
+            }
+            synchronized (outlierLock) {
+                if (ejected) {
+                    ejected = false;
+                    startSlowStart();
+                    UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Re-admitting host %s after ejection", uri);
+                }
+            }
+            return false;
+        }
+
+        /**
+         *
+         * @return The share of its normal traffic that this host should receive, which is less than one during the slow
+         * start period after it has been re-admitted
+         */
+        public double getTrafficWeight() {
+            if (!slowStart) {
+                return 1;
+            }
+            long slowStartTime = TimeUnit.MILLISECONDS.toNanos(LoadBalancingProxyClient.this.slowStartTime);
+            long elapsed = System.nanoTime() - slowStartBegin;
+            if (elapsed >= slowStartTime) {
+                slowStart = false;
+                return 1;
+            }
+            return Math.max(MIN_SLOW_START_WEIGHT, elapsed / (double) slowStartTime);
+        }
+
+        boolean isPendingLimitReached() {
+            int max = maxPendingRequestsPerHost;
+            return max > 0 && pendingRequests.get() >= max;
+        }
+
+        /**
+         * @return {@code false} if the pending request limit has been reached
+         */
+        boolean startPendingRequest() {
+            int max = maxPendingRequestsPerHost;
+            for (;;) {
+                int pending = pendingRequests.get();
+                if (max > 0 && pending >= max) {
+                    return false;
+                }
+                if (pendingRequests.compareAndSet(pending, pending + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        void pendingRequestDone() {
+            pendingRequests.decrementAndGet();
+        }
+
+        private void startSlowStart() {
+            if (slowStartTime > 0) {
+                slowStartBegin = System.nanoTime();
+                slowStart = true;
+            }
+        }
+
+        void requestStarted() {
+            outstandingRequests.incrementAndGet();
+        }
+
+        /**
+         * @param responseTime The time the request took in nanoseconds, or -1 if no response was received
+         * @param statusCode   The status code that was sent to the client
+         * @param timedOut     If the request timed out after it was sent to this host
+         */
+        void requestDone(long responseTime, int statusCode, boolean timedOut) {
+            outstandingRequests.decrementAndGet();
+            if (responseTime < 0) {
+                return;
+            }
+            if (outlierErrorRatio > 0 || outlierLatencyThreshold > 0 || outlierConsecutiveTimeouts > 0) {
+                detectOutlier(responseTime, statusCode >= 500 || timedOut, timedOut);
+            }
+            synchronized (responseTimeLock) {
+                long now = System.nanoTime();
+                if (responseTime > peakEwmaResponseTime) {
+                    peakEwmaResponseTime = responseTime;
+                } else {
+                    double weight = Math.exp(-Math.max(now - peakEwmaTimestamp, 0) / (double) PEAK_EWMA_DECAY_TIME);
+                    peakEwmaResponseTime = peakEwmaResponseTime * weight + responseTime * (1 - weight);
+                }
+                peakEwmaTimestamp = now;
+            }
+        }
+
+        private void detectOutlier(long responseTime, boolean error, boolean timedOut) {
+            String reason = null;
+            long ejectionTime = 0;
+            synchronized (outlierLock) {
+                long now = System.nanoTime();
+                if (now - intervalStart > TimeUnit.MILLISECONDS.toNanos(outlierInterval)) {
+                    if (!ejectedInInterval && ejectionCount > 0) {
+                        ejectionCount--;
+                    }
+                    resetInterval(now);
+                }
+                intervalRequests++;
+                if (error) {
+                    intervalErrors++;
+                }
+                long micros = TimeUnit.NANOSECONDS.toMicros(responseTime);
+                intervalLatencies[Math.min(LATENCY_BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros))]++;
+                consecutiveTimeouts = timedOut ? consecutiveTimeouts + 1 : 0;
+                if (ejected) {
+                    //requests that were in progress when the host was ejected
+                    return;
+                }
+                int maxTimeouts = outlierConsecutiveTimeouts;
+                double errorRatio = outlierErrorRatio;
+                long latencyThreshold = outlierLatencyThreshold;
+                if (maxTimeouts > 0 && consecutiveTimeouts >= maxTimeouts) {
+                    reason = consecutiveTimeouts + " consecutive timeouts";
+                } else if (intervalRequests >= outlierMinimumRequests) {
+                    if (errorRatio > 0 && intervalErrors >= errorRatio * intervalRequests) {
+                        reason = intervalErrors + " errors in " + intervalRequests + " requests";
+                    } else if (latencyThreshold > 0 && latencyPercentile(outlierLatencyPercentile) >= TimeUnit.MILLISECONDS.toMicros(latencyThreshold)) {
+                        reason = "response time percentile over " + latencyThreshold + "ms";
+                    }
+                }
+                if (reason == null) {
+                    return;
+                }
+                ejectionCount++;
+                ejectionTime = Math.min(baseEjectionTime << Math.min(ejectionCount - 1, 20), maxEjectionTime);
+                ejectedUntil = now + TimeUnit.MILLISECONDS.toNanos(ejectionTime);
+                ejected = true;
+                slowStart = false;
+                consecutiveTimeouts = 0;
+                resetInterval(now);
+                ejectedInInterval = true;
+            }
+            UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Ejecting host %s for %sms, %s", uri, ejectionTime, reason);
+        }
+
+        private void resetInterval(long now) {
+            intervalStart = now;
+            intervalRequests = 0;
+            intervalErrors = 0;
+            ejectedInInterval = false;
+            Arrays.fill(intervalLatencies, 0);
+        }
+
+        /**
+         * @return The lower bound in microseconds of the latency bucket that contains the percentile
+         */
+        private long latencyPercentile(double percentile) {
+            long target = (long) Math.ceil(percentile * intervalRequests);
+            long count = 0;
+            for (int i = 0; i < LATENCY_BUCKETS; ++i) {
+                count += intervalLatencies[i];
+                if (count >= target) {
+                    return i == 0 ? 0 : 1L << (i - 1);
+                }
+            }
+            return 1L << (LATENCY_BUCKETS - 2);
+        }
+
         void closeCurrentConnections() {
             connectionPool.closeCurrentConnections();
         }
     }
 
+    /**
+     * Tracks a request to a host, so the host selectors can see the outstanding requests and response times, and
+     * outlier detection can see the result.
+     * <p>
+     * The request is counted as outstanding from the time the host is selected until either the connection attempt
+     * fails or the exchange completes, and as pending until it has a connection. The pending count must already have
+     * been incremented when this is created.
+     * <p>
+     * The response time is measured until the backend response arrives, so relaying the body to a slow client does
+     * not make the host look slow. If no response arrived, e.g. because the request timed out, it is measured until
+     * the exchange completes.
+     */
+    private static final class HostRequest implements ProxyCallback<ProxyConnection>, ExchangeCompletionListener {
+
+        private final Host host;
+        private final ProxyCallback<ProxyConnection> delegate;
+        private final long start = System.nanoTime();
+        private boolean pending = true;
+        private boolean connected;
+        private boolean done;
+
+        private HostRequest(Host host, HttpServerExchange exchange, ProxyCallback<ProxyConnection> delegate) {
+            this.host = host;
+            this.delegate = delegate;
+            host.requestStarted();
+            exchange.addExchangeCompleteListener(this);
+        }
+
+        private void connectionDone() {
+            if (pending) {
+                pending = false;
+                host.pendingRequestDone();
+            }
+        }
+
+        private void done(HttpServerExchange exchange) {
+            connectionDone();
+            if (!done) {
+                done = true;
+                long responseTime = -1;
+                if (connected) {
+                    Long received = exchange.getAttachment(ProxyHandler.RESPONSE_RECEIVED);
+                    responseTime = (received == null ? System.nanoTime() : received) - start;
+                }
+                host.requestDone(responseTime, exchange.getStatusCode(), exchange.getAttachment(ProxyHandler.TIMED_OUT) != null);
+            }
+        }
+
+        @Override
+        public void completed(HttpServerExchange exchange, ProxyConnection result) {
+            connected = true;
+            connectionDone();
+            delegate.completed(exchange, result);
+        }
+
+        @Override
+        public void failed(HttpServerExchange exchange) {
+            done(exchange);
+            delegate.failed(exchange);
+        }
+
+        @Override
+        public void couldNotResolveBackend(HttpServerExchange exchange) {
+            done(exchange);
+            delegate.couldNotResolveBackend(exchange);
+        }
+
+        @Override
+        public void queuedRequestFailed(HttpServerExchange exchange) {
+            done(exchange);
+            delegate.queuedRequestFailed(exchange);
+        }
+
+        @Override
+        public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+            try {
+                done(exchange);
+            } finally {
+                nextListener.proceed();
+            }
+        }
+    }
+
     private static class ExclusiveConnectionHolder {
 
         private ProxyConnection connection;
@@ -461,4 +1106,69 @@ public class LoadBalancingProxyClient implements ProxyClient {
             return currentHost.incrementAndGet() % availableHosts.length;
         }
     }
+
+    /**
+     * Selects the host with the fewest outstanding requests. Ties are broken in a round robin manner.
+     */
+    public static class LeastOutstandingRequestsHostSelector implements HostSelector {
+
+        private final AtomicInteger currentHost = new AtomicInteger(0);
+
+        @Override
+        public int selectHost(Host[] availableHosts) {
+            int length = availableHosts.length;
+            int start = (currentHost.incrementAndGet() & Integer.MAX_VALUE) % length;
+            int selected = start;
+            int min = availableHosts[start].getOutstandingRequests();
+            for (int i = 1; i < length && min > 0; ++i) {
+                int host = (start + i) % length;
+                int outstanding = availableHosts[host].getOutstandingRequests();
+                if (outstanding < min) {
+                    min = outstanding;
+                    selected = host;
+                }
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * Picks two hosts at random, and selects the one with the lower load. This avoids the herd behaviour of always
+     * picking the least loaded host when the load information is stale.
+     */
+    public static class PowerOfTwoChoicesHostSelector implements HostSelector {
+
+        @Override
+        public int selectHost(Host[] availableHosts) {
+            int length = availableHosts.length;
+            if (length == 1) {
+                return 0;
+            }
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(length);
+            int second = random.nextInt(length - 1);
+            if (second >= first) {
+                second++;
+            }
+            return load(availableHosts[second]) < load(availableHosts[first]) ? second : first;
+        }
+
+        protected double load(Host host) {
+            return host.getOutstandingRequests();
+        }
+    }
+
+    /**
+     * A power of two choices selector that uses the peak EWMA of the response time multiplied by the number of
+     * outstanding requests as the load, so a host that becomes slow stops receiving its full share of the requests
+     * straight away.
+     */
+    public static class PeakEwmaHostSelector extends PowerOfTwoChoicesHostSelector {
+
+        @Override
+        protected double load(Host host) {
+            //hosts with no response time information are compared by their outstanding requests
+            return (host.getPeakEwmaResponseTime() + 1) * (host.getOutstandingRequests() + 1);
+        }
+    }
 }
@@ -23,8 +23,12 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
@@ -37,16 +41,20 @@ import io.undertow.client.ClientCallback;
 import io.undertow.client.ClientConnection;
 import io.undertow.client.ClientStatistics;
 import io.undertow.client.UndertowClient;
+import io.undertow.predicate.IdempotentPredicate;
 import io.undertow.server.ExchangeCompletionListener;
 import io.undertow.server.HttpServerExchange;
+import io.undertow.server.protocol.http.HttpContinue;
 import io.undertow.util.CopyOnWriteMap;
 import io.undertow.util.Headers;
+import io.undertow.connector.ByteBufferPool;
 import io.undertow.util.WorkerUtils;
 import org.xnio.ChannelListener;
 import org.xnio.IoUtils;
 import org.xnio.OptionMap;
 import org.xnio.XnioExecutor;
 import org.xnio.XnioIoThread;
+import org.xnio.XnioWorker;
 import org.xnio.ssl.XnioSsl;
 
 /**
@@ -56,10 +64,20 @@ import org.xnio.ssl.XnioSsl;
  *
  * In this case the caller is responsible for closing any connections.
  *
+ * If the target supports multiplexing (i.e. HTTP/2) and {@link ProxyConnectionPoolConfig#getMaxMultiplexedConnections()}
+ * is set then each IO thread keeps a small number of connections, and each request is sent as a new stream on the least
+ * loaded connection of its thread, up to the concurrent stream limit advertised by the target. As with all other
+ * connections a multiplexed connection is only ever used by the IO thread that opened it.
+ *
  * @author Stuart Douglas
  */
 public class ProxyConnectionPool implements Closeable {
 
+    /**
+     * The number of concurrent streams that will be used on a multiplexed connection if the target does not advertise a limit
+     */
+    private static final int DEFAULT_MAX_CONCURRENT_STREAMS = 100;
+
     private final URI uri;
 
     private final InetSocketAddress bindAddress;
@@ -104,11 +122,52 @@ public class ProxyConnectionPool implements Closeable {
      */
     private final long timeToLive;
 
+    /**
+     * The maximum number of multiplexed connections that requests are spread over. If this is zero then multiplexed
+     * connections are pooled in the same way as other connections.
+     *
+     * NOTE: This value is per IO thread, so to get the actual value this must be multiplied by the number of IO threads
+     */
+    private final int maxMultiplexedConnections;
+
+    /**
+     * Set to true once the target is known to support multiplexing, after which requests are sent as streams on the
+     * multiplexed connections of each thread instead of using the pools of exclusive connections.
+     */
+    private volatile boolean multiplexing;
+
+    /**
+     * The number of connections per IO thread that are opened ahead of time, and re-established in the background if
+     * they are closed or time out.
+     */
+    private final int minConnections;
+
+    /**
+     * The interval in milliseconds at which idle connections are probed, or zero or less if they are not probed
+     */
+    private final long probeInterval;
+
     /**
      * The total number of open connections, across all threads
      */
     private final AtomicInteger openConnections = new AtomicInteger(0);
 
+    /**
+     * The number of connections that are being established, across all threads
+     */
+    private final AtomicInteger pendingConnections = new AtomicInteger(0);
+
+    /**
+     * Threads that have queued requests but no connection, because the host connection limit has been reached by the
+     * other threads. The next connection slot that frees up is handed to the first of these.
+     */
+    private final ConcurrentLinkedQueue<HostThreadData> starvedThreads = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The number of idle connections that other threads have been asked to close, to free up a slot for a starved thread
+     */
+    private final AtomicInteger requestedSlots = new AtomicInteger(0);
+
     /**
      * request count for all closed connections
      */
@@ -122,6 +181,12 @@ public class ProxyConnectionPool implements Closeable {
      */
     private final AtomicLong written = new AtomicLong();
 
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong missLatency = new AtomicLong();
+    private final AtomicLong warmConnectionsOpened = new AtomicLong();
+    private final AtomicLong failedProbes = new AtomicLong();
+
     private final ConcurrentMap<XnioIoThread, HostThreadData> hostThreadData = new CopyOnWriteMap<>();
 
     public ProxyConnectionPool(ConnectionPoolManager connectionPoolManager, URI uri, UndertowClient client, OptionMap options) {
@@ -142,6 +207,9 @@ public class ProxyConnectionPool implements Closeable {
         this.maxCachedConnections = Math.max(connectionPoolManager.getMaxCachedConnections(), 0);
         this.coreCachedConnections = Math.max(connectionPoolManager.getSMaxConnections(), 0);
         this.timeToLive = connectionPoolManager.getTtl();
+        this.maxMultiplexedConnections = Math.max(connectionPoolManager.getMaxMultiplexedConnections(), 0);
+        this.minConnections = Math.min(Math.max(connectionPoolManager.getMinConnections(), 0), maxConnections);
+        this.probeInterval = connectionPoolManager.getConnectionProbeInterval();
         this.bindAddress = bindAddress;
         this.uri = uri;
         this.ssl = ssl;
@@ -159,16 +227,28 @@ public class ProxyConnectionPool implements Closeable {
 
     public void close() {
         this.closed = true;
-        for (HostThreadData data : hostThreadData.values()) {
-            final ConnectionHolder holder = data.availableConnections.poll();
-            if (holder != null) {
-                holder.clientConnection.getIoThread().execute(new Runnable() {
-                    @Override
-                    public void run() {
+        for (final HostThreadData data : hostThreadData.values()) {
+            data.ioThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    ConnectionHolder holder = data.availableConnections.poll();
+                    while (holder != null) {
                         IoUtils.safeClose(holder.clientConnection);
+                        holder = data.availableConnections.poll();
                     }
-                });
-            }
+                    //busy connections are closed once their last stream is done
+                    for (MultiplexedConnection connection : new ArrayList<>(data.multiplexedConnections)) {
+                        if (connection.activeStreams == 0) {
+                            IoUtils.safeClose(connection.clientConnection);
+                        }
+                    }
+                    redistributeMultiplexedQueue(data, false);
+                    if (data.connections == 0) {
+                        //no connection will be returned that could fail the queued requests
+                        redistributeQueued(data);
+                    }
+                }
+            });
         }
     }
 
@@ -187,8 +267,16 @@ public class ProxyConnectionPool implements Closeable {
             this.written.addAndGet(stats.getWritten());
             stats.reset();
         }
+        connectionAvailable(getData(), connectionHolder);
+    }
 
-        HostThreadData hostData = getData();
+    /**
+     * Hands the connection to the next queued request, or adds it to the idle connections of this thread.
+     *
+     * @param hostData         The data for the current thread
+     * @param connectionHolder The client connection holder
+     */
+    private void connectionAvailable(final HostThreadData hostData, final ConnectionHolder connectionHolder) {
         if (closed) {
             //the host has been closed
             IoUtils.safeClose(connectionHolder.clientConnection);
@@ -216,6 +304,9 @@ public class ProxyConnectionPool implements Closeable {
                 }
                 // Anything waiting for a connection is not expecting exclusivity.
                 connectionReady(connectionHolder, callback.getCallback(), callback.getExchange(), false);
+            } else if (claimRequestedSlot()) {
+                //another thread needs the slot more than this one needs an idle connection
+                IoUtils.safeClose(connection);
             } else {
                 final int cachedConnectionCount = hostData.availableConnections.size();
                 if (cachedConnectionCount >= maxCachedConnections) {
@@ -255,6 +346,8 @@ public class ProxyConnectionPool implements Closeable {
         openConnections.decrementAndGet();
         int connections = --hostData.connections;
         hostData.availableConnections.remove(connection);
+        hostData.lentConnections.remove(connection.clientConnection);
+        hostData.pipelinedConnections.remove(connection);
         if (connections < maxConnections) {
             CallbackHolder task = hostData.awaitingConnections.poll();
             while (task != null && task.isCancelled()) {
@@ -262,19 +355,253 @@ public class ProxyConnectionPool implements Closeable {
             }
             if (task != null) {
                 openConnection(task.exchange, task.callback, hostData, false);
+            } else {
+                handOverConnectionSlot();
             }
         }
+        maintainConnections(hostData);
+    }
+
+    /**
+     * Called on a thread that has queued requests, but can't open a connection because the host connection limit has been
+     * reached and has no connection that could become available. The other threads are asked to close an idle connection,
+     * and the slot that frees up is handed to this thread.
+     *
+     * @param data The data for the current thread
+     */
+    private void waitForConnectionSlot(final HostThreadData data) {
+        if (data.starved) {
+            return;
+        }
+        data.starved = true;
+        starvedThreads.add(data);
+        requestedSlots.incrementAndGet();
+        for (final HostThreadData other : hostThreadData.values()) {
+            if (other != data) {
+                other.ioThread.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        closeIdleConnectionForSlot(other);
+                    }
+                });
+            }
+        }
+    }
+
+    private void closeIdleConnectionForSlot(final HostThreadData data) {
+        ConnectionHolder holder = data.availableConnections.peekFirst();
+        while (holder != null && !holder.clientConnection.isOpen()) {
+            data.availableConnections.pollFirst();
+            holder = data.availableConnections.peekFirst();
+        }
+        if (holder != null && claimRequestedSlot()) {
+            data.availableConnections.pollFirst();
+            IoUtils.safeClose(holder.clientConnection);
+        }
+    }
+
+    /**
+     * @return {@code true} if a starved thread is waiting for an idle connection to be closed, in which case the caller
+     *         must close one
+     */
+    private boolean claimRequestedSlot() {
+        for (;;) {
+            final int requested = requestedSlots.get();
+            if (requested <= 0) {
+                return false;
+            }
+            if (requestedSlots.compareAndSet(requested, requested - 1)) {
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Called when a connection slot frees up that the current thread does not need, hands it to the first starved thread.
+     */
+    private void handOverConnectionSlot() {
+        final HostThreadData data = starvedThreads.poll();
+        if (data != null) {
+            data.ioThread.execute(new Runnable() {
+                @Override
+                public void run() {
+                    openStarvedConnection(data);
+                }
+            });
+        }
+    }
+
+    private void openStarvedConnection(final HostThreadData data) {
+        data.starved = false;
+        CallbackHolder task = data.awaitingConnections.peek();
+        while (task != null && task.isCancelled()) {
+            data.awaitingConnections.poll();
+            task = data.awaitingConnections.peek();
+        }
+        if (task == null || closed) {
+            //nothing is waiting any more, so the slot can go to another thread
+            handOverConnectionSlot();
+        } else if (data.connections == 0) {
+            if (isConnectionLimitReached()) {
+                //the slot was taken by another thread in the meantime
+                waitForConnectionSlot(data);
+            } else {
+                data.awaitingConnections.poll();
+                if (task.getTimeoutKey() != null) {
+                    task.getTimeoutKey().remove();
+                }
+                openConnection(task.exchange, task.callback, data, false);
+            }
+        }
+    }
+
+    /**
+     * Opens the minimum number of connections on every IO thread of the worker, so the first requests to the target do not
+     * have to wait for connections to be established.
+     *
+     * @param worker     The worker whose IO threads the connections belong to
+     * @param bufferPool The buffer pool to use for the connections
+     */
+    public void warmUp(final XnioWorker worker, final ByteBufferPool bufferPool) {
+        if (minConnections <= 0 && probeInterval <= 0) {
+            return;
+        }
+        for (int i = 0; i < worker.getIoThreadCount(); ++i) {
+            worker.getIoThread(i).execute(new Runnable() {
+                @Override
+                public void run() {
+                    HostThreadData data = getData();
+                    if (data.bufferPool == null) {
+                        data.bufferPool = bufferPool;
+                    }
+                    maintainConnections(data);
+                }
+            });
+        }
+    }
+
+    /**
+     * Opens connections in the background until this thread has the minimum number of connections, and schedules the
+     * probe task. This is a no-op until the thread knows which buffer pool to use, which happens on the first request or
+     * when the pool is warmed up.
+     *
+     * @param data The data for the current thread
+     */
+    private void maintainConnections(final HostThreadData data) {
+        if (closed || data.bufferPool == null) {
+            return;
+        }
+        if (probeInterval > 0 && data.probeKey == null) {
+            data.probeKey = WorkerUtils.executeAfter(data.ioThread, data.probeTask, probeInterval, TimeUnit.MILLISECONDS);
+        }
+        if (multiplexing || !connectionPoolManager.isAvailable()) {
+            return;
+        }
+        while (data.connections < minConnections && !isConnectionLimitReached()) {
+            data.connections++;
+            warmConnectionsOpened.incrementAndGet();
+            pendingConnections.incrementAndGet();
+            try {
+                client.connect(new ClientCallback<ClientConnection>() {
+                    @Override
+                    public void completed(final ClientConnection result) {
+                        pendingConnections.decrementAndGet();
+                        openConnections.incrementAndGet();
+                        if (isMultiplexed(result)) {
+                            data.connections--;
+                            addMultiplexedConnection(data, result);
+                            dispatchMultiplexedQueue(data);
+                            return;
+                        }
+                        final ConnectionHolder connectionHolder = new ConnectionHolder(result);
+                        result.getCloseSetter().set(new ChannelListener<ClientConnection>() {
+                            @Override
+                            public void handleEvent(ClientConnection channel) {
+                                handleClosedConnection(data, connectionHolder);
+                            }
+                        });
+                        connectionAvailable(data, connectionHolder);
+                    }
+
+                    @Override
+                    public void failed(IOException e) {
+                        data.connections--;
+                        pendingConnections.decrementAndGet();
+                        UndertowLogger.PROXY_REQUEST_LOGGER.debugf(e, "Failed to open connection to %s ahead of time", getUri());
+                        connectionPoolManager.handleError();
+                    }
+                }, bindAddress, getUri(), data.ioThread, ssl, data.bufferPool, options);
+            } catch (RuntimeException e) {
+                data.connections--;
+                pendingConnections.decrementAndGet();
+                connectionPoolManager.handleError();
+                UndertowLogger.PROXY_REQUEST_LOGGER.debugf(e, "Failed to open connection to %s ahead of time", getUri());
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends a ping on every idle connection of this thread that supports it, and closes the ones that do not answer within
+     * the probe interval. The close listener will then re-establish them if required.
+     *
+     * @param data The data for the current thread
+     */
+    private void probeConnections(final HostThreadData data) {
+        data.probeKey = null;
+        if (closed) {
+            return;
+        }
+        for (ConnectionHolder holder : data.availableConnections) {
+            final ClientConnection connection = holder.clientConnection;
+            if (connection.isOpen() && connection.isPingSupported()) {
+                connection.sendPing(new ClientConnection.PingListener() {
+                    @Override
+                    public void acknowledged() {
+                    }
+
+                    @Override
+                    public void failed(IOException e) {
+                        failedProbes.incrementAndGet();
+                        UndertowLogger.PROXY_REQUEST_LOGGER.debugf(e, "Idle connection to %s did not answer probe", getUri());
+                        IoUtils.safeClose(connection);
+                    }
+                }, probeInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+        maintainConnections(data);
     }
 
     private void openConnection(final HttpServerExchange exchange, final ProxyCallback<ProxyConnection> callback, final HostThreadData data, final boolean exclusive) {
         if (!exclusive) {
             data.connections++;
         }
+        pendingConnections.incrementAndGet();
         try {
             client.connect(new ClientCallback<ClientConnection>() {
                 @Override
                 public void completed(final ClientConnection result) {
+                    pendingConnections.decrementAndGet();
                     openConnections.incrementAndGet();
+                    if (!exclusive && isMultiplexed(result)) {
+                        //the connection takes streams instead of exclusive requests, so it does not count towards the pool
+                        data.connections--;
+                        final MultiplexedConnection connection = addMultiplexedConnection(data, result);
+                        connection.activeStreams++;
+                        streamReady(data, connection, callback, exchange);
+                        //anything queued on this thread can now use the multiplexed connections
+                        CallbackHolder task = data.awaitingConnections.poll();
+                        while (task != null) {
+                            if (task.getTimeoutKey() != null) {
+                                task.getTimeoutKey().remove();
+                            }
+                            if (!task.isCancelled()) {
+                                connectMultiplexed(task.getProxyTarget(), task.getExchange(), task.getCallback(), -1, TimeUnit.MILLISECONDS);
+                            }
+                            task = data.awaitingConnections.poll();
+                        }
+                        return;
+                    }
                     final ConnectionHolder connectionHolder = new ConnectionHolder(result);
                     if (!exclusive) {
                         result.getCloseSetter().set(new ChannelListener<ClientConnection>() {
@@ -292,10 +619,13 @@ public class ProxyConnectionPool implements Closeable {
                     if (!exclusive) {
                         data.connections--;
                     }
+                    pendingConnections.decrementAndGet();
                     UndertowLogger.REQUEST_LOGGER.debug("Failed to connect", e);
                     if (!connectionPoolManager.handleError()) {
                         redistributeQueued(getData());
                         scheduleFailedHostRetry(exchange);
+                    } else {
+                        handOverConnectionSlot();
                     }
                     callback.failed(exchange);
                 }
@@ -307,6 +637,7 @@ public class ProxyConnectionPool implements Closeable {
             if (!exclusive) {
                 data.connections--;
             }
+            pendingConnections.decrementAndGet();
             // skip scheduling retry, a runtime exception represents the result of a programming problem,
             // and as such, the client code of such exception cannot reasonably be expected to recover from them
             // or to handle them in any way
@@ -335,24 +666,262 @@ public class ProxyConnectionPool implements Closeable {
     }
 
     private void connectionReady(final ConnectionHolder result, final ProxyCallback<ProxyConnection> callback, final HttpServerExchange exchange, final boolean exclusive) {
+        if (!exclusive && result.activeRequests++ == 0
+                && result.clientConnection.getMaxPipelinedRequests() > 1 && isPipelinable(exchange)) {
+            //further requests can be pipelined on this connection until it is returned
+            getData().pipelinedConnections.add(result);
+        }
         try {
             exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
                 @Override
                 public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
                     if (!exclusive) {
-                        returnConnection(result);
+                        releaseConnection(result);
                     }
                     nextListener.proceed();
                 }
             });
         } catch (Exception e) {
-            returnConnection(result);
+            if (exclusive) {
+                returnConnection(result);
+            } else {
+                releaseConnection(result);
+            }
             callback.failed(exchange);
             return;
         }
         callback.completed(exchange, new ProxyConnection(result.clientConnection, uri.getPath() == null ? "/" : uri.getPath()));
     }
 
+    /**
+     * Called when an exchange that was using the connection has completed. The connection is only returned to the pool
+     * once no more requests are pipelined on it.
+     */
+    private void releaseConnection(final ConnectionHolder connectionHolder) {
+        if (--connectionHolder.activeRequests > 0) {
+            this.requestCount.incrementAndGet();
+            return;
+        }
+        getData().pipelinedConnections.remove(connectionHolder);
+        returnConnection(connectionHolder);
+    }
+
+    /**
+     * @return true if the request can be pipelined on a HTTP/1.1 connection, i.e. it is idempotent and has no body
+     */
+    private static boolean isPipelinable(final HttpServerExchange exchange) {
+        return exchange.isRequestComplete()
+                && IdempotentPredicate.INSTANCE.resolve(exchange)
+                && !exchange.getRequestHeaders().contains(Headers.UPGRADE)
+                && !HttpContinue.requiresContinueResponse(exchange);
+    }
+
+    /**
+     * @return the least loaded connection of this thread that the request can be pipelined on, or null if there is none
+     */
+    private ConnectionHolder pipelinedConnection(final HostThreadData data, final HttpServerExchange exchange) {
+        if (data.pipelinedConnections.isEmpty() || !isPipelinable(exchange)) {
+            return null;
+        }
+        ConnectionHolder selected = null;
+        for (ConnectionHolder holder : data.pipelinedConnections) {
+            if (holder.clientConnection.isOpen() && holder.activeRequests < holder.clientConnection.getMaxPipelinedRequests()
+                    && (selected == null || holder.activeRequests < selected.activeRequests)) {
+                selected = holder;
+            }
+        }
+        return selected;
+    }
+
+    private boolean isMultiplexed(final ClientConnection connection) {
+        return maxMultiplexedConnections > 0 && connection.isMultiplexingSupported();
+    }
+
+    /**
+     * Sends the request as a new stream on the least loaded multiplexed connection of this thread. If all connections
+     * are saturated a new one is opened, unless the limit has been reached in which case the request is queued until a
+     * stream is released.
+     */
+    private void connectMultiplexed(final ProxyClient.ProxyTarget proxyTarget, final HttpServerExchange exchange, final ProxyCallback<ProxyConnection> callback, final long timeout, final TimeUnit timeUnit) {
+        final HostThreadData data = getData();
+        final MultiplexedConnection connection = data.leastLoadedConnection();
+        if (connection != null) {
+            hits.incrementAndGet();
+            connection.activeStreams++;
+            streamReady(data, connection, callback, exchange);
+        } else if (data.multiplexedConnections.size() + data.multiplexedConnecting < maxMultiplexedConnections) {
+            openMultiplexedConnection(data, exchange, missed(callback));
+        } else if (data.awaitingStreams.size() < connectionPoolManager.getMaxQueueSize()) {
+            data.awaitingStreams.add(createCallbackHolder(proxyTarget, exchange, missed(callback), timeout, timeUnit));
+        } else {
+            // Reject the request directly if we reached the max request queue size
+            callback.queuedRequestFailed(exchange);
+        }
+    }
+
+    private void openMultiplexedConnection(final HostThreadData data, final HttpServerExchange exchange, final ProxyCallback<ProxyConnection> callback) {
+        data.multiplexedConnecting++;
+        try {
+            client.connect(new ClientCallback<ClientConnection>() {
+                @Override
+                public void completed(final ClientConnection result) {
+                    openConnections.incrementAndGet();
+                    data.multiplexedConnecting--;
+                    if (isMultiplexed(result)) {
+                        final MultiplexedConnection connection = addMultiplexedConnection(data, result);
+                        connection.activeStreams++;
+                        streamReady(data, connection, callback, exchange);
+                        dispatchMultiplexedQueue(data);
+                        return;
+                    }
+                    //the target no longer supports multiplexing, so go back to pooling exclusive connections
+                    multiplexing = false;
+                    final ConnectionHolder connectionHolder = new ConnectionHolder(result);
+                    result.getCloseSetter().set(new ChannelListener<ClientConnection>() {
+                        @Override
+                        public void handleEvent(ClientConnection channel) {
+                            handleClosedConnection(data, connectionHolder);
+                        }
+                    });
+                    data.connections++;
+                    connectionReady(connectionHolder, callback, exchange, false);
+                    redistributeMultiplexedQueue(data, true);
+                }
+
+                @Override
+                public void failed(IOException e) {
+                    data.multiplexedConnecting--;
+                    UndertowLogger.REQUEST_LOGGER.debug("Failed to connect", e);
+                    if (!connectionPoolManager.handleError()) {
+                        redistributeMultiplexedQueue(data, false);
+                        scheduleFailedHostRetry(exchange);
+                    } else if (data.multiplexedConnecting == 0 && data.multiplexedConnections.isEmpty()) {
+                        //there is nothing left that could serve the queued requests
+                        redistributeMultiplexedQueue(data, false);
+                    }
+                    callback.failed(exchange);
+                }
+            }, bindAddress, getUri(), exchange.getIoThread(), ssl, exchange.getConnection().getByteBufferPool(), options);
+        } catch (RuntimeException e) {
+            data.multiplexedConnecting--;
+            connectionPoolManager.handleError();
+            callback.failed(exchange);
+            throw e;
+        }
+    }
+
+    private MultiplexedConnection addMultiplexedConnection(final HostThreadData data, final ClientConnection result) {
+        multiplexing = true;
+        final MultiplexedConnection connection = new MultiplexedConnection(result);
+        result.getCloseSetter().set(new ChannelListener<ClientConnection>() {
+            @Override
+            public void handleEvent(ClientConnection channel) {
+                handleClosedMultiplexedConnection(data, connection);
+            }
+        });
+        data.multiplexedConnections.add(connection);
+        return connection;
+    }
+
+    private void streamReady(final HostThreadData data, final MultiplexedConnection connection, final ProxyCallback<ProxyConnection> callback, final HttpServerExchange exchange) {
+        try {
+            exchange.addExchangeCompleteListener(new ExchangeCompletionListener() {
+                @Override
+                public void exchangeEvent(HttpServerExchange exchange, NextListener nextListener) {
+                    requestCount.incrementAndGet();
+                    releaseStream(data, connection);
+                    nextListener.proceed();
+                }
+            });
+        } catch (Exception e) {
+            releaseStream(data, connection);
+            callback.failed(exchange);
+            return;
+        }
+        callback.completed(exchange, new ProxyConnection(connection.clientConnection, uri.getPath() == null ? "/" : uri.getPath()));
+    }
+
+    private void releaseStream(final HostThreadData data, final MultiplexedConnection connection) {
+        connection.activeStreams--;
+        //several requests can discover that the target supports multiplexing at the same time, so there may be more
+        //connections than the limit. These are closed once they are idle.
+        if (connection.activeStreams == 0
+                && (closed || !multiplexing || data.multiplexedConnections.size() > maxMultiplexedConnections)) {
+            data.multiplexedConnections.remove(connection);
+            IoUtils.safeClose(connection.clientConnection);
+        }
+        dispatchMultiplexedQueue(data);
+    }
+
+    /**
+     * Hands released streams to the requests that are queued on this thread.
+     */
+    private void dispatchMultiplexedQueue(final HostThreadData data) {
+        while (!data.awaitingStreams.isEmpty()) {
+            final MultiplexedConnection connection = data.leastLoadedConnection();
+            if (connection == null) {
+                return;
+            }
+            final CallbackHolder holder = data.awaitingStreams.poll();
+            if (holder.getTimeoutKey() != null) {
+                holder.getTimeoutKey().remove();
+            }
+            if (!holder.isCancelled()) {
+                connection.activeStreams++;
+                streamReady(data, connection, holder.getCallback(), holder.getExchange());
+            }
+        }
+    }
+
+    /**
+     * Removes all requests that are waiting for a stream on this thread.
+     *
+     * @param reconnect If the requests should be submitted to the pool again, otherwise they are failed
+     */
+    private void redistributeMultiplexedQueue(final HostThreadData data, final boolean reconnect) {
+        final List<CallbackHolder> queued = new ArrayList<>(data.awaitingStreams);
+        data.awaitingStreams.clear();
+        for (final CallbackHolder callback : queued) {
+            if (callback.getTimeoutKey() != null) {
+                callback.getTimeoutKey().remove();
+            }
+            if (callback.isCancelled()) {
+                continue;
+            }
+            if (reconnect) {
+                connect(callback.getProxyTarget(), callback.getExchange(), callback.getCallback(), -1, TimeUnit.MILLISECONDS, false);
+            } else if (callback.getExpireTime() > 0 && callback.getExpireTime() < System.currentTimeMillis()) {
+                callback.getCallback().failed(callback.getExchange());
+            } else {
+                callback.getCallback().queuedRequestFailed(callback.getExchange());
+            }
+        }
+    }
+
+    private void handleClosedMultiplexedConnection(final HostThreadData data, final MultiplexedConnection connection) {
+        openConnections.decrementAndGet();
+        ClientStatistics stats = connection.clientConnection.getStatistics();
+        if (stats != null) {
+            this.read.addAndGet(stats.getRead());
+            this.written.addAndGet(stats.getWritten());
+        }
+        data.multiplexedConnections.remove(connection);
+        if (closed || data.multiplexedConnections.size() + data.multiplexedConnecting >= maxMultiplexedConnections) {
+            return;
+        }
+        CallbackHolder task = data.awaitingStreams.poll();
+        while (task != null) {
+            if (task.getTimeoutKey() != null) {
+                task.getTimeoutKey().remove();
+            }
+            if (!task.isCancelled()) {
+                openMultiplexedConnection(data, task.getExchange(), task.getCallback());
+                return;
+            }
+            task = data.awaitingStreams.poll();
+        }
+    }
+
     public AvailabilityType available() {
         if (closed) {
             return AvailabilityType.CLOSED;
@@ -361,13 +930,28 @@ public class ProxyConnectionPool implements Closeable {
             return AvailabilityType.PROBLEM;
         }
         HostThreadData data = getData();
-        if (data.connections < maxConnections) {
-            return AvailabilityType.AVAILABLE;
+        if (multiplexing) {
+            if (data.leastLoadedConnection() != null
+                    || data.multiplexedConnections.size() + data.multiplexedConnecting < maxMultiplexedConnections) {
+                return AvailabilityType.AVAILABLE;
+            }
+            if (data.awaitingStreams.size() >= connectionPoolManager.getMaxQueueSize()) {
+                return AvailabilityType.FULL_QUEUE;
+            }
+            return AvailabilityType.FULL;
         }
         if (!data.availableConnections.isEmpty()) {
             return AvailabilityType.AVAILABLE;
         }
-        if (data.awaitingConnections.size() >= connectionPoolManager.getMaxQueueSize()) {
+        if (data.connections < maxConnections && !isConnectionLimitReached()) {
+            return AvailabilityType.AVAILABLE;
+        }
+        for (ConnectionHolder holder : data.pipelinedConnections) {
+            if (holder.activeRequests < holder.clientConnection.getMaxPipelinedRequests()) {
+                return AvailabilityType.AVAILABLE;
+            }
+        }
+        if (data.awaitingConnections.size() >= getMaxQueueSize(data)) {
             return AvailabilityType.FULL_QUEUE;
         }
         return AvailabilityType.FULL;
@@ -396,9 +980,14 @@ public class ProxyConnectionPool implements Closeable {
                             public void completed(ClientConnection result) {
                                 UndertowLogger.PROXY_REQUEST_LOGGER.debugf("Connected to previously failed host %s, returning to service", getUri());
                                 if (connectionPoolManager.clearError()) {
+                                    final HostThreadData data = getData();
+                                    if (isMultiplexed(result)) {
+                                        addMultiplexedConnection(data, result);
+                                        dispatchMultiplexedQueue(data);
+                                        return;
+                                    }
                                     // In case the node is available now, return the connection
                                     final ConnectionHolder connectionHolder = new ConnectionHolder(result);
-                                    final HostThreadData data = getData();
                                     result.getCloseSetter().set(new ChannelListener<ClientConnection>() {
                                         @Override
                                         public void handleEvent(ClientConnection channel) {
@@ -489,7 +1078,7 @@ public class ProxyConnectionPool implements Closeable {
         if (data != null) {
             return data;
         }
-        data = new HostThreadData();
+        data = new HostThreadData(ioThread);
         HostThreadData existing = hostThreadData.putIfAbsent(ioThread, data);
         if (existing != null) {
             return existing;
@@ -523,6 +1112,58 @@ public class ProxyConnectionPool implements Closeable {
         };
     }
 
+    public ProxyConnectionPoolStatistics getPoolStatistics() {
+        return new ProxyConnectionPoolStatistics() {
+            @Override
+            public long getHits() {
+                return hits.get();
+            }
+
+            @Override
+            public long getMisses() {
+                return misses.get();
+            }
+
+            @Override
+            public long getMissLatency() {
+                return missLatency.get();
+            }
+
+            @Override
+            public long getAverageMissLatency() {
+                long misses = getMisses();
+                return misses == 0 ? 0 : getMissLatency() / misses;
+            }
+
+            @Override
+            public long getWarmConnectionsOpened() {
+                return warmConnectionsOpened.get();
+            }
+
+            @Override
+            public long getFailedProbes() {
+                return failedProbes.get();
+            }
+
+            @Override
+            public void reset() {
+                hits.set(0);
+                misses.set(0);
+                missLatency.set(0);
+                warmConnectionsOpened.set(0);
+                failedProbes.set(0);
+            }
+        };
+    }
+
+    /**
+     * @return {@code true} if the limit on the number of connections to the host across all threads has been reached
+     */
+    private boolean isConnectionLimitReached() {
+        final int max = connectionPoolManager.getMaxHostConnections();
+        return max > 0 && openConnections.get() + pendingConnections.get() >= max;
+    }
+
     /**
      *
      * @return The total number of open connections
@@ -531,39 +1172,106 @@ public class ProxyConnectionPool implements Closeable {
         return openConnections.get();
     }
 
+    /**
+     * Takes an idle connection of the current IO thread out of the pool without opening a new one. The connection is
+     * still counted as open by the pool, and has to be handed back using {@link #releaseIdleConnection(ClientConnection)}
+     * from the same IO thread once the caller is done with it, or closed if it is no longer usable.
+     *
+     * @return An idle connection, or null if there is none on this thread
+     */
+    public ClientConnection acquireIdleConnection() {
+        if (closed) {
+            return null;
+        }
+        final HostThreadData data = getData();
+        ConnectionHolder connectionHolder = data.availableConnections.poll();
+        while (connectionHolder != null && !connectionHolder.clientConnection.isOpen()) {
+            connectionHolder = data.availableConnections.poll();
+        }
+        if (connectionHolder == null) {
+            return null;
+        }
+        data.lentConnections.put(connectionHolder.clientConnection, connectionHolder);
+        return connectionHolder.clientConnection;
+    }
+
+    /**
+     * Returns a connection obtained from {@link #acquireIdleConnection()} to the pool.
+     *
+     * @param connection The connection
+     */
+    public void releaseIdleConnection(final ClientConnection connection) {
+        final HostThreadData data = getData();
+        final ConnectionHolder connectionHolder = data.lentConnections.remove(connection);
+        if (connectionHolder != null) {
+            connectionAvailable(data, connectionHolder);
+        }
+    }
+
     /**
      * @param exclusive - Is connection for the exclusive use of one client?
      */
     public void connect(ProxyClient.ProxyTarget proxyTarget, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, final long timeout, final TimeUnit timeUnit, boolean exclusive) {
+        boolean upgradeRequest = exchange.getRequestHeaders().contains(Headers.UPGRADE);
+        if (multiplexing && !exclusive && !upgradeRequest) {
+            connectMultiplexed(proxyTarget, exchange, callback, timeout, timeUnit);
+            return;
+        }
         HostThreadData data = getData();
         ConnectionHolder connectionHolder = data.availableConnections.poll();
         while (connectionHolder != null && !connectionHolder.clientConnection.isOpen()) {
             connectionHolder = data.availableConnections.poll();
         }
-        boolean upgradeRequest = exchange.getRequestHeaders().contains(Headers.UPGRADE);
         if (connectionHolder != null && (!upgradeRequest || connectionHolder.clientConnection.isUpgradeSupported())) {
+            hits.incrementAndGet();
             if (exclusive) {
                 data.connections--;
             }
             connectionReady(connectionHolder, callback, exchange, exclusive);
-        } else if (exclusive || data.connections < maxConnections) {
-            openConnection(exchange, callback, data, exclusive);
+        } else if (exclusive || (data.connections < maxConnections && !isConnectionLimitReached())) {
+            openConnection(exchange, missed(callback), data, exclusive);
+        } else if ((connectionHolder = pipelinedConnection(data, exchange)) != null) {
+            //no more connections can be opened, but the request can be sent behind the ones in progress
+            hits.incrementAndGet();
+            connectionReady(connectionHolder, callback, exchange, false);
         } else {
             // Reject the request directly if we reached the max request queue size
-            if (data.awaitingConnections.size() >= connectionPoolManager.getMaxQueueSize()) {
+            if (data.awaitingConnections.size() >= getMaxQueueSize(data)) {
                 callback.queuedRequestFailed(exchange);
                 return;
             }
-            CallbackHolder holder;
-            if (timeout > 0) {
-                long time = System.currentTimeMillis();
-                holder = new CallbackHolder(proxyTarget, callback, exchange, time + timeUnit.toMillis(timeout));
-                holder.setTimeoutKey(WorkerUtils.executeAfter(exchange.getIoThread(), holder, timeout, timeUnit));
-            } else {
-                holder = new CallbackHolder(proxyTarget, callback, exchange, -1);
+            data.awaitingConnections.add(createCallbackHolder(proxyTarget, exchange, missed(callback), timeout, timeUnit));
+            if (data.connections == 0) {
+                //the host connection limit has been reached by the other threads
+                waitForConnectionSlot(data);
             }
-            data.awaitingConnections.add(holder);
         }
+        if (data.bufferPool == null && (minConnections > 0 || probeInterval > 0)) {
+            data.bufferPool = exchange.getConnection().getByteBufferPool();
+            maintainConnections(data);
+        }
+    }
+
+    /**
+     * A thread without connections can only get one once another thread hands over a connection slot, so it can always
+     * queue a request, even if queueing is disabled. Otherwise it would reject requests while the host is idle, just
+     * because the connections are owned by other threads.
+     */
+    private int getMaxQueueSize(final HostThreadData data) {
+        final int maxQueueSize = connectionPoolManager.getMaxQueueSize();
+        return data.connections == 0 ? Math.max(maxQueueSize, 1) : maxQueueSize;
+    }
+
+    private static CallbackHolder createCallbackHolder(ProxyClient.ProxyTarget proxyTarget, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, final long timeout, final TimeUnit timeUnit) {
+        CallbackHolder holder;
+        if (timeout > 0) {
+            long time = System.currentTimeMillis();
+            holder = new CallbackHolder(proxyTarget, callback, exchange, time + timeUnit.toMillis(timeout));
+            holder.setTimeoutKey(WorkerUtils.executeAfter(exchange.getIoThread(), holder, timeout, timeUnit));
+        } else {
+            holder = new CallbackHolder(proxyTarget, callback, exchange, -1);
+        }
+        return holder;
     }
 
     /**
@@ -582,6 +1290,9 @@ public class ProxyConnectionPool implements Closeable {
                         d = data.getValue().availableConnections.poll();
                     }
                     data.getValue().connections = 0;
+                    for (MultiplexedConnection connection : new ArrayList<>(data.getValue().multiplexedConnections)) {
+                        IoUtils.safeClose(connection.clientConnection);
+                    }
                     latch.countDown();
                 }
             });
@@ -596,12 +1307,39 @@ public class ProxyConnectionPool implements Closeable {
 
     private final class HostThreadData {
 
+        final XnioIoThread ioThread;
         int connections = 0;
         XnioIoThread.Key timeoutKey;
         long nextTimeout = -1;
+        /**
+         * The buffer pool used to open connections in the background, null until it is known
+         */
+        ByteBufferPool bufferPool;
+        XnioIoThread.Key probeKey;
+        /**
+         * If this thread is waiting for another thread to free up a connection slot
+         */
+        boolean starved;
 
         final Deque<ConnectionHolder> availableConnections = new ArrayDeque<>();
+        /**
+         * Connections in use that further requests can be pipelined on
+         */
+        final Deque<ConnectionHolder> pipelinedConnections = new ArrayDeque<>();
         final Deque<CallbackHolder> awaitingConnections = new ArrayDeque<>();
+        /**
+         * Idle connections that have been taken out of the pool by {@link #acquireIdleConnection()}
+         */
+        final Map<ClientConnection, ConnectionHolder> lentConnections = new IdentityHashMap<>();
+        /**
+         * The connections of this thread that requests are sent to as streams, if the target supports multiplexing
+         */
+        final List<MultiplexedConnection> multiplexedConnections = new ArrayList<>();
+        /**
+         * The number of multiplexed connections that are currently being opened
+         */
+        int multiplexedConnecting;
+        final Deque<CallbackHolder> awaitingStreams = new ArrayDeque<>();
         final Runnable timeoutTask = new Runnable() {
             @Override
             public void run() {
@@ -609,13 +1347,81 @@ public class ProxyConnectionPool implements Closeable {
                 timeoutConnections(currentTime, HostThreadData.this);
             }
         };
+        final Runnable probeTask = new Runnable() {
+            @Override
+            public void run() {
+                probeConnections(HostThreadData.this);
+            }
+        };
+
+        private HostThreadData(XnioIoThread ioThread) {
+            this.ioThread = ioThread;
+        }
+
+        /**
+         * @return The open connection with the fewest active streams that can accept another stream, or null if there is none
+         */
+        MultiplexedConnection leastLoadedConnection() {
+            MultiplexedConnection selected = null;
+            for (MultiplexedConnection connection : multiplexedConnections) {
+                if (connection.clientConnection.isOpen() && connection.activeStreams < connection.getMaxStreams()
+                        && (selected == null || connection.activeStreams < selected.activeStreams)) {
+                    selected = connection;
+                }
+            }
+            return selected;
+        }
+
+    }
+
+    private ProxyCallback<ProxyConnection> missed(final ProxyCallback<ProxyConnection> callback) {
+        //queued requests can be submitted again, they are only counted once
+        return callback instanceof MissCallback ? callback : new MissCallback(callback);
+    }
+
+    /**
+     * Wraps the callback of a request that could not be given an idle connection, and records how long it had to wait.
+     */
+    private final class MissCallback implements ProxyCallback<ProxyConnection> {
+
+        private final ProxyCallback<ProxyConnection> delegate;
+        private final long start = System.nanoTime();
 
+        private MissCallback(ProxyCallback<ProxyConnection> delegate) {
+            this.delegate = delegate;
+            misses.incrementAndGet();
+        }
+
+        @Override
+        public void completed(HttpServerExchange exchange, ProxyConnection result) {
+            missLatency.addAndGet(System.nanoTime() - start);
+            delegate.completed(exchange, result);
+        }
+
+        @Override
+        public void failed(HttpServerExchange exchange) {
+            delegate.failed(exchange);
+        }
+
+        @Override
+        public void couldNotResolveBackend(HttpServerExchange exchange) {
+            delegate.couldNotResolveBackend(exchange);
+        }
+
+        @Override
+        public void queuedRequestFailed(HttpServerExchange exchange) {
+            delegate.queuedRequestFailed(exchange);
+        }
     }
 
     private static final class ConnectionHolder {
 
         private long timeout;
         private final ClientConnection clientConnection;
+        /**
+         * The number of exchanges using the connection, more than one if requests are pipelined
+         */
+        private int activeRequests;
 
         private ConnectionHolder(ClientConnection clientConnection) {
             this.clientConnection = clientConnection;
@@ -624,6 +1430,21 @@ public class ProxyConnectionPool implements Closeable {
     }
 
 
+    private static final class MultiplexedConnection {
+
+        private final ClientConnection clientConnection;
+        private int activeStreams;
+
+        private MultiplexedConnection(ClientConnection clientConnection) {
+            this.clientConnection = clientConnection;
+        }
+
+        int getMaxStreams() {
+            int max = clientConnection.getMaxConcurrentRequests();
+            return max > 0 ? max : DEFAULT_MAX_CONCURRENT_STREAMS;
+        }
+    }
+
     private static final class CallbackHolder implements Runnable {
         final ProxyClient.ProxyTarget proxyTarget;
         final ProxyCallback<ProxyConnection> callback;
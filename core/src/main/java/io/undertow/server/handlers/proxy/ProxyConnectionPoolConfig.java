@@ -58,4 +58,46 @@ public interface ProxyConnectionPoolConfig {
      */
     int getMaxQueueSize();
 
+    /**
+     * Get the maximum number of multiplexed (HTTP/2) connections per IO thread that requests are sent to as streams. If
+     * this is zero or less multiplexed connections are pooled in the same way as other connections.
+     *
+     * @return
+     */
+    default int getMaxMultiplexedConnections() {
+        return 0;
+    }
+
+    /**
+     * Get the minimum number of connections per thread. These connections are opened ahead of time and re-established
+     * in the background if they are closed, so requests do not have to wait for a connection to be established.
+     *
+     * @return
+     */
+    default int getMinConnections() {
+        return 0;
+    }
+
+    /**
+     * Get the interval in milliseconds at which idle connections are probed. Connections that do not answer the probe
+     * in time are closed. Only connections that support a ping (i.e. HTTP/2) are probed, if this is zero or less no
+     * probes are sent.
+     *
+     * @return
+     */
+    default long getConnectionProbeInterval() {
+        return -1;
+    }
+
+    /**
+     * Get the maximum number of connections to the host across all IO threads. Once this is reached requests wait for a
+     * connection on their own thread. If their thread has no connections to the host another thread closes an idle
+     * connection to make room for one. If this is zero or less the number of connections is only limited per thread.
+     *
+     * @return
+     */
+    default int getMaxHostConnections() {
+        return -1;
+    }
+
 }
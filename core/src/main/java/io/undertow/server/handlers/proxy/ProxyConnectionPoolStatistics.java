@@ -0,0 +1,63 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+/**
+ * Statistics about how requests obtain a connection from a {@link ProxyConnectionPool}.
+ */
+public interface ProxyConnectionPoolStatistics {
+
+    /**
+     *
+     * @return The number of requests that were given an idle connection from the pool
+     */
+    long getHits();
+
+    /**
+     *
+     * @return The number of requests that had to wait for a connection to be opened or released
+     */
+    long getMisses();
+
+    /**
+     *
+     * @return The total time in nanoseconds that requests have spent waiting for a connection after a miss
+     */
+    long getMissLatency();
+
+    /**
+     *
+     * @return The average time in nanoseconds that a request spent waiting for a connection after a miss
+     */
+    long getAverageMissLatency();
+
+    /**
+     *
+     * @return The number of connections that have been opened ahead of time to keep the pool warm
+     */
+    long getWarmConnectionsOpened();
+
+    /**
+     *
+     * @return The number of idle connections that were closed because they did not answer a probe
+     */
+    long getFailedProbes();
+
+    void reset();
+}
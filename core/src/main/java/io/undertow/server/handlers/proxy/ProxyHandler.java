@@ -99,8 +99,17 @@ public final class ProxyHandler implements HttpHandler {
     public static final String UTF_8 = StandardCharsets.UTF_8.name();
 
     private static final AttachmentKey<ProxyConnection> CONNECTION = AttachmentKey.create(ProxyConnection.class);
+    private static final AttachmentKey<ClientExchange> CLIENT_EXCHANGE = AttachmentKey.create(ClientExchange.class);
     private static final AttachmentKey<HttpServerExchange> EXCHANGE = AttachmentKey.create(HttpServerExchange.class);
     private static final AttachmentKey<XnioExecutor.Key> TIMEOUT_KEY = AttachmentKey.create(XnioExecutor.Key.class);
+    /**
+     * Attached to the exchange if the request was sent to a backend, and timed out before it completed
+     */
+    static final AttachmentKey<Boolean> TIMED_OUT = AttachmentKey.create(Boolean.class);
+    /**
+     * The {@link System#nanoTime()} at which the backend response that is sent to the client arrived
+     */
+    static final AttachmentKey<Long> RESPONSE_RECEIVED = AttachmentKey.create(Long.class);
 
     private final ProxyClient proxyClient;
     private final int maxRequestTime;
@@ -118,6 +127,13 @@ public final class ProxyHandler implements HttpHandler {
 
     private final Predicate idempotentRequestPredicate;
 
+    /**
+     * Bounds the load added by retries and hedged requests, may be null if retries are not limited
+     */
+    private final RetryBudget retryBudget;
+    private final ResponseTimePercentile hedgingResponseTimes;
+    private final int minHedgingDelay;
+
     @Deprecated
     public ProxyHandler(ProxyClient proxyClient, int maxRequestTime, HttpHandler next) {
         this(proxyClient, maxRequestTime, next, false, false);
@@ -153,6 +169,9 @@ public final class ProxyHandler implements HttpHandler {
         this.reuseXForwarded = reuseXForwarded;
         this.maxConnectionRetries = maxConnectionRetries;
         this.idempotentRequestPredicate = IdempotentPredicate.INSTANCE;
+        this.retryBudget = null;
+        this.hedgingResponseTimes = null;
+        this.minHedgingDelay = 0;
     }
 
     @Deprecated
@@ -168,6 +187,16 @@ public final class ProxyHandler implements HttpHandler {
         this.reuseXForwarded = builder.reuseXForwarded;
         this.maxConnectionRetries = builder.maxConnectionRetries;
         this.idempotentRequestPredicate = builder.idempotentRequestPredicate;
+        this.hedgingResponseTimes = builder.hedgingPercentile > 0 ? new ResponseTimePercentile(builder.hedgingPercentile) : null;
+        this.minHedgingDelay = builder.minHedgingDelay;
+        if (builder.retryRatio >= 0) {
+            this.retryBudget = new RetryBudget(builder.retryRatio, builder.minRetriesPerSecond);
+        } else if (hedgingResponseTimes != null) {
+            //hedging is never unbounded
+            this.retryBudget = new RetryBudget(Builder.DEFAULT_HEDGING_RETRY_RATIO, Builder.DEFAULT_MIN_RETRIES_PER_SECOND);
+        } else {
+            this.retryBudget = null;
+        }
         for(Map.Entry<HttpString, ExchangeAttribute> e : builder.requestHeaders.entrySet()) {
             requestHeaders.put(e.getKey(), e.getValue());
         }
@@ -192,7 +221,15 @@ public final class ProxyHandler implements HttpHandler {
         if(target instanceof ProxyClient.MaxRetriesProxyTarget) {
             maxRetries = Math.max(maxRetries, ((ProxyClient.MaxRetriesProxyTarget) target).getMaxRetries());
         }
+        if (retryBudget != null) {
+            retryBudget.requestStarted();
+        }
         final ProxyClientHandler clientHandler = new ProxyClientHandler(exchange, target, timeout, maxRetries, idempotentRequestPredicate);
+        if (hedgingResponseTimes != null && exchange.isRequestComplete() && !exchange.isUpgrade()
+                && !HttpContinue.requiresContinueResponse(exchange) && idempotentRequestPredicate.resolve(exchange)) {
+            //there is no request body to replay, so a duplicate request can be sent to another host if this one is slow
+            clientHandler.hedge = new HedgedRequest(exchange, target, clientHandler, timeout);
+        }
         if (timeout > 0) {
             final XnioExecutor.Key key = WorkerUtils.executeAfter(exchange.getIoThread(), new Runnable() {
                 @Override
@@ -296,6 +333,7 @@ public final class ProxyHandler implements HttpHandler {
         private final HttpServerExchange exchange;
         private final Predicate idempotentPredicate;
         private ProxyClient.ProxyTarget target;
+        private HedgedRequest hedge;
 
         ProxyClientHandler(HttpServerExchange exchange, ProxyClient.ProxyTarget target, long timeout, int maxRetryAttempts, Predicate idempotentPredicate) {
             this.exchange = exchange;
@@ -313,13 +351,13 @@ public final class ProxyHandler implements HttpHandler {
         @Override
         public void completed(final HttpServerExchange exchange, final ProxyConnection connection) {
             exchange.putAttachment(CONNECTION, connection);
-            exchange.dispatch(SameThreadExecutor.INSTANCE, new ProxyAction(connection, exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, exchange.isRequestComplete() ? this : null, idempotentPredicate));
+            exchange.dispatch(SameThreadExecutor.INSTANCE, new ProxyAction(connection, exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, exchange.isRequestComplete() ? this : null, idempotentPredicate, hedge, false));
         }
 
         @Override
         public void failed(final HttpServerExchange exchange) {
             final long time = System.currentTimeMillis();
-            if (tries++ < maxRetryAttempts) {
+            if (tries++ < maxRetryAttempts && (retryBudget == null || retryBudget.tryRetry())) {
                 if (timeout > 0 && time > timeout) {
                     cancel(exchange);
                 } else {
@@ -354,9 +392,10 @@ public final class ProxyHandler implements HttpHandler {
         void cancel(final HttpServerExchange exchange) {
             final ProxyConnection connectionAttachment = exchange.getAttachment(CONNECTION);
             if (connectionAttachment != null) {
+                exchange.putAttachment(TIMED_OUT, Boolean.TRUE);
                 ClientConnection clientConnection = connectionAttachment.getConnection();
                 UndertowLogger.PROXY_REQUEST_LOGGER.timingOutRequest(clientConnection.getPeerAddress() + "" + exchange.getRequestURI());
-                IoUtils.safeClose(clientConnection);
+                abortRequest(clientConnection, exchange.getAttachment(CLIENT_EXCHANGE));
             } else {
                 UndertowLogger.PROXY_REQUEST_LOGGER.timingOutRequest(exchange.getRequestURI());
             }
@@ -370,6 +409,160 @@ public final class ProxyHandler implements HttpHandler {
 
     }
 
+    /**
+     * A request that is sent to a second host if the first one has not responded within the hedging delay. The
+     * first response is relayed to the client and the other request is cancelled.
+     * <p>
+     * Only requests on multiplexed connections are hedged, as the losing request can be cancelled by resetting its
+     * stream. Cancelling a request on a HTTP/1.1 connection would mean closing the connection.
+     * <p>
+     * The primary attempt is the one driven by the {@link ProxyClientHandler}, including its retries, the secondary
+     * attempt is the hedged request.
+     */
+    private final class HedgedRequest implements Runnable, ProxyCallback<ProxyConnection> {
+
+        private final HttpServerExchange exchange;
+        private final ProxyClient.ProxyTarget target;
+        private final ProxyClientHandler proxyClientHandler;
+        private final long timeout;
+        private ClientExchange primary;
+        private ClientExchange secondary;
+        private boolean primaryActive;
+        private boolean secondaryActive;
+        private boolean hedged;
+        private boolean responded;
+        private XnioExecutor.Key timer;
+
+        HedgedRequest(HttpServerExchange exchange, ProxyClient.ProxyTarget target, ProxyClientHandler proxyClientHandler, long timeout) {
+            this.exchange = exchange;
+            this.target = target;
+            this.proxyClientHandler = proxyClientHandler;
+            this.timeout = timeout;
+        }
+
+        /**
+         * @return {@code false} if a response has already been received, in which case the request has been cancelled
+         */
+        synchronized boolean requestSent(ClientExchange request, boolean secondAttempt) {
+            if (responded) {
+                cancel(request);
+                return false;
+            }
+            if (secondAttempt) {
+                secondary = request;
+            } else {
+                primary = request;
+                primaryActive = true;
+                if (!hedged && timer == null && request.getConnection().isMultiplexingSupported()) {
+                    long delay = hedgingResponseTimes.get();
+                    if (delay >= 0) {
+                        delay = Math.max(delay, TimeUnit.MILLISECONDS.toNanos(minHedgingDelay));
+                        timer = WorkerUtils.executeAfter(exchange.getIoThread(), this, delay, TimeUnit.NANOSECONDS);
+                    }
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @return {@code true} if this is the first response, otherwise the response should be discarded
+         */
+        synchronized boolean responseReceived(ClientExchange response, ProxyConnection connection, boolean secondAttempt, long responseTime) {
+            if (responded) {
+                return false;
+            }
+            responded = true;
+            if (timer != null) {
+                timer.remove();
+                timer = null;
+            }
+            hedgingResponseTimes.record(responseTime);
+            if (secondAttempt) {
+                exchange.putAttachment(CONNECTION, connection);
+                exchange.putAttachment(CLIENT_EXCHANGE, response);
+                if (primaryActive && primary != null) {
+                    cancel(primary);
+                }
+            } else if (secondaryActive && secondary != null) {
+                cancel(secondary);
+            }
+            return true;
+        }
+
+        /**
+         * @return {@code true} if the failure should be ignored, as the other attempt may still succeed
+         */
+        synchronized boolean attemptFailed(boolean secondAttempt) {
+            if (secondAttempt) {
+                secondaryActive = false;
+            } else {
+                primaryActive = false;
+            }
+            return responded || (secondAttempt ? primaryActive : secondaryActive);
+        }
+
+        private void cancel(ClientExchange request) {
+            abortRequest(request.getConnection(), request);
+        }
+
+        @Override
+        public void run() {
+            synchronized (this) {
+                timer = null;
+                if (responded || hedged || !primaryActive || exchange.isResponseStarted()) {
+                    return;
+                }
+                if (timeout > 0 && System.currentTimeMillis() >= timeout) {
+                    return;
+                }
+                if (!retryBudget.tryRetry()) {
+                    return;
+                }
+                hedged = true;
+                secondaryActive = true;
+            }
+            if (log.isDebugEnabled()) {
+                log.debugf("Sending hedged request for exchange %s", exchange);
+            }
+            proxyClient.getConnection(target, exchange, this, timeout > 0 ? timeout - System.currentTimeMillis() : -1, TimeUnit.MILLISECONDS);
+        }
+
+        @Override
+        public void completed(HttpServerExchange exchange, ProxyConnection connection) {
+            synchronized (this) {
+                if (responded || !connection.getConnection().isMultiplexingSupported()) {
+                    //the connection is returned to the pool when the exchange completes
+                    secondaryActive = false;
+                    return;
+                }
+            }
+            ProxyAction action = new ProxyAction(connection, exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, proxyClientHandler, idempotentRequestPredicate, this, true);
+            if (exchange.getIoThread() == Thread.currentThread()) {
+                action.run();
+            } else {
+                exchange.getIoThread().execute(action);
+            }
+        }
+
+        @Override
+        public void failed(HttpServerExchange exchange) {
+            if (!attemptFailed(true)) {
+                //the primary request failed while waiting for the hedged one
+                proxyClientHandler.failed(exchange);
+            }
+        }
+
+        @Override
+        public void couldNotResolveBackend(HttpServerExchange exchange) {
+            failed(exchange);
+        }
+
+        @Override
+        public void queuedRequestFailed(HttpServerExchange exchange) {
+            failed(exchange);
+        }
+    }
+
     private static class ProxyAction implements Runnable {
         private final ProxyConnection clientConnection;
         private final HttpServerExchange exchange;
@@ -378,9 +571,12 @@ public final class ProxyHandler implements HttpHandler {
         private final boolean reuseXForwarded;
         private final ProxyClientHandler proxyClientHandler;
         private final Predicate idempotentPredicate;
+        private final HedgedRequest hedge;
+        private final boolean hedgedAttempt;
 
         ProxyAction(final ProxyConnection clientConnection, final HttpServerExchange exchange, Map<HttpString, ExchangeAttribute> requestHeaders,
-                    boolean rewriteHostHeader, boolean reuseXForwarded, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate) {
+                    boolean rewriteHostHeader, boolean reuseXForwarded, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate,
+                    HedgedRequest hedge, boolean hedgedAttempt) {
             this.clientConnection = clientConnection;
             this.exchange = exchange;
             this.requestHeaders = requestHeaders;
@@ -388,6 +584,8 @@ public final class ProxyHandler implements HttpHandler {
             this.reuseXForwarded = reuseXForwarded;
             this.proxyClientHandler = proxyClientHandler;
             this.idempotentPredicate = idempotentPredicate;
+            this.hedge = hedge;
+            this.hedgedAttempt = hedgedAttempt;
         }
 
         @Override
@@ -566,6 +764,12 @@ public final class ProxyHandler implements HttpHandler {
                         log.debugf("Sent request %s to target %s for exchange %s", request, remoteHost, exchange);
                     }
                     result.putAttachment(EXCHANGE, exchange);
+                    if (hedge != null && !hedge.requestSent(result, hedgedAttempt)) {
+                        return;
+                    }
+                    if (!hedgedAttempt) {
+                        exchange.putAttachment(CLIENT_EXCHANGE, result);
+                    }
 
                     boolean requiresContinueResponse = HttpContinue.requiresContinueResponse(exchange);
                     if (requiresContinueResponse) {
@@ -611,7 +815,7 @@ public final class ProxyHandler implements HttpHandler {
                                             path = path.substring(0, i);
                                         }
 
-                                        exchange.dispatch(SameThreadExecutor.INSTANCE, new ProxyAction(new ProxyConnection(pushedRequest.getConnection(), path), exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, null, idempotentPredicate));
+                                        exchange.dispatch(SameThreadExecutor.INSTANCE, new ProxyAction(new ProxyConnection(pushedRequest.getConnection(), path), exchange, requestHeaders, rewriteHostHeader, reuseXForwarded, null, idempotentPredicate, null, false));
                                     }
                                 });
                                 return true;
@@ -620,15 +824,15 @@ public final class ProxyHandler implements HttpHandler {
                     }
 
 
-                    result.setResponseListener(new ResponseCallback(exchange, proxyClientHandler, idempotentPredicate));
-                    final IoExceptionHandler handler = new IoExceptionHandler(exchange, clientConnection.getConnection());
+                    result.setResponseListener(new ResponseCallback(exchange, proxyClientHandler, idempotentPredicate, clientConnection, hedge, hedgedAttempt));
+                    final IoExceptionHandler handler = new IoExceptionHandler(exchange, result);
                     if(requiresContinueResponse) {
                         try {
                             if(!result.getRequestChannel().flush()) {
                                 result.getRequestChannel().getWriteSetter().set(ChannelListeners.flushingChannelListener(new ChannelListener<StreamSinkChannel>() {
                                     @Override
                                     public void handleEvent(StreamSinkChannel channel) {
-                                        Transfer.initiateTransfer(exchange.getRequestChannel(), result.getRequestChannel(), ChannelListeners.closingChannelListener(), new HTTPTrailerChannelListener(exchange, result, exchange, proxyClientHandler, idempotentPredicate), handler, handler, exchange.getConnection().getByteBufferPool());
+                                        ProxyRelay.initiateRelay(exchange.getRequestChannel(), result.getRequestChannel(), ChannelListeners.closingChannelListener(), new HTTPTrailerChannelListener(exchange, result, exchange, proxyClientHandler, idempotentPredicate), handler, handler, exchange.getConnection().getByteBufferPool());
 
                                     }
                                 }, handler));
@@ -641,7 +845,7 @@ public final class ProxyHandler implements HttpHandler {
                     }
                     HTTPTrailerChannelListener trailerListener = new HTTPTrailerChannelListener(exchange, result, exchange, proxyClientHandler, idempotentPredicate);
                     if(!exchange.isRequestComplete()) {
-                        Transfer.initiateTransfer(exchange.getRequestChannel(), result.getRequestChannel(), ChannelListeners.closingChannelListener(), trailerListener, handler, handler, exchange.getConnection().getByteBufferPool());
+                        ProxyRelay.initiateRelay(exchange.getRequestChannel(), result.getRequestChannel(), ChannelListeners.closingChannelListener(), trailerListener, handler, handler, exchange.getConnection().getByteBufferPool());
                     } else {
                         trailerListener.handleEvent(result.getRequestChannel());
                     }
@@ -650,6 +854,10 @@ public final class ProxyHandler implements HttpHandler {
 
                 @Override
                 public void failed(IOException e) {
+                    if (hedge != null && hedge.attemptFailed(hedgedAttempt)) {
+                        UndertowLogger.PROXY_REQUEST_LOGGER.debug("Hedged proxy request failed", e);
+                        return;
+                    }
                     handleFailure(exchange, proxyClientHandler, idempotentPredicate, e);
                 }
             });
@@ -675,15 +883,34 @@ public final class ProxyHandler implements HttpHandler {
         private final HttpServerExchange exchange;
         private final ProxyClientHandler proxyClientHandler;
         private final Predicate idempotentPredicate;
+        private final ProxyConnection connection;
+        private final HedgedRequest hedge;
+        private final boolean hedgedAttempt;
+        private final long start = System.nanoTime();
 
-        private ResponseCallback(HttpServerExchange exchange, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate) {
+        private ResponseCallback(HttpServerExchange exchange, ProxyClientHandler proxyClientHandler, Predicate idempotentPredicate,
+                                 ProxyConnection connection, HedgedRequest hedge, boolean hedgedAttempt) {
             this.exchange = exchange;
             this.proxyClientHandler = proxyClientHandler;
             this.idempotentPredicate = idempotentPredicate;
+            this.connection = connection;
+            this.hedge = hedge;
+            this.hedgedAttempt = hedgedAttempt;
         }
 
         @Override
         public void completed(final ClientExchange result) {
+            if (exchange.isResponseComplete()) {
+                //the request has already been timed out
+                IoUtils.safeClose(result.getResponseChannel());
+                return;
+            }
+            if (hedge != null && !hedge.responseReceived(result, connection, hedgedAttempt, System.nanoTime() - start)) {
+                //the other request has already responded, and has cancelled this one
+                IoUtils.safeClose(result.getResponseChannel());
+                return;
+            }
+            exchange.putAttachment(RESPONSE_RECEIVED, System.nanoTime());
 
             final ClientResponse response = result.getResponse();
 
@@ -718,12 +945,16 @@ public final class ProxyHandler implements HttpHandler {
                     }
                 });
             }
-            final IoExceptionHandler handler = new IoExceptionHandler(exchange, result.getConnection());
-            Transfer.initiateTransfer(result.getResponseChannel(), exchange.getResponseChannel(), ChannelListeners.closingChannelListener(), new HTTPTrailerChannelListener(result, exchange, exchange, proxyClientHandler, idempotentPredicate), handler, handler, exchange.getConnection().getByteBufferPool());
+            final IoExceptionHandler handler = new IoExceptionHandler(exchange, result);
+            ProxyRelay.initiateRelay(result.getResponseChannel(), exchange.getResponseChannel(), ChannelListeners.closingChannelListener(), new HTTPTrailerChannelListener(result, exchange, exchange, proxyClientHandler, idempotentPredicate), handler, handler, exchange.getConnection().getByteBufferPool());
         }
 
         @Override
         public void failed(IOException e) {
+            if (hedge != null && hedge.attemptFailed(hedgedAttempt)) {
+                UndertowLogger.PROXY_REQUEST_LOGGER.debug("Hedged proxy request failed", e);
+                return;
+            }
             handleFailure(exchange, proxyClientHandler, idempotentPredicate, e);
         }
     }
@@ -774,20 +1005,35 @@ public final class ProxyHandler implements HttpHandler {
         }
     }
 
+    /**
+     * Aborts a request to the backend. A multiplexed connection may be used by other requests, so only the stream of this
+     * request is reset, any other connection is closed.
+     *
+     * @param connection The connection the request was sent on
+     * @param request    The request, or null if it has not been sent yet
+     */
+    private static void abortRequest(ClientConnection connection, ClientExchange request) {
+        if (!connection.isMultiplexingSupported()) {
+            IoUtils.safeClose(connection);
+        } else if (request != null) {
+            IoUtils.safeClose(request.getRequestChannel(), request.getResponseChannel());
+        }
+    }
+
     private static final class IoExceptionHandler implements ChannelExceptionHandler<Channel> {
 
         private final HttpServerExchange exchange;
-        private final ClientConnection clientConnection;
+        private final ClientExchange clientExchange;
 
-        private IoExceptionHandler(HttpServerExchange exchange, ClientConnection clientConnection) {
+        private IoExceptionHandler(HttpServerExchange exchange, ClientExchange clientExchange) {
             this.exchange = exchange;
-            this.clientConnection = clientConnection;
+            this.clientExchange = clientExchange;
         }
 
         @Override
         public void handleException(Channel channel, IOException exception) {
             IoUtils.safeClose(channel);
-            IoUtils.safeClose(clientConnection);
+            abortRequest(clientExchange.getConnection(), clientExchange);
             if (exchange.isResponseStarted()) {
                 UndertowLogger.REQUEST_IO_LOGGER.debug("Exception reading from target server", exception);
                 if (!exchange.isResponseStarted()) {
@@ -838,6 +1084,10 @@ public final class ProxyHandler implements HttpHandler {
         return idempotentRequestPredicate;
     }
 
+    public int getMinHedgingDelay() {
+        return minHedgingDelay;
+    }
+
     private static final class ClosingExceptionHandler implements ChannelExceptionHandler<Channel> {
 
         private final Closeable[] toClose;
@@ -860,6 +1110,9 @@ public final class ProxyHandler implements HttpHandler {
 
     public static class Builder {
 
+        static final double DEFAULT_HEDGING_RETRY_RATIO = 0.1;
+        static final int DEFAULT_MIN_RETRIES_PER_SECOND = 10;
+
         private ProxyClient proxyClient;
         private int maxRequestTime = -1;
         private final Map<HttpString, ExchangeAttribute> requestHeaders = new CopyOnWriteMap<>();
@@ -868,6 +1121,10 @@ public final class ProxyHandler implements HttpHandler {
         private boolean reuseXForwarded;
         private int maxConnectionRetries = DEFAULT_MAX_RETRY_ATTEMPTS;
         private Predicate idempotentRequestPredicate = IdempotentPredicate.INSTANCE;
+        private double hedgingPercentile;
+        private int minHedgingDelay;
+        private double retryRatio = -1;
+        private int minRetriesPerSecond = DEFAULT_MIN_RETRIES_PER_SECOND;
 
         Builder() {};
 
@@ -950,6 +1207,67 @@ public final class ProxyHandler implements HttpHandler {
             return this;
         }
 
+        public double getHedgingPercentile() {
+            return hedgingPercentile;
+        }
+
+        /**
+         * Enables hedged requests. If an idempotent request without a body has not received a response after the
+         * given percentile of recent response times a duplicate request is sent to another host, and whichever response
+         * arrives first is used. The other request is cancelled.
+         * <p>
+         * Only requests to hosts that support multiplexing (i.e. HTTP/2) are hedged, as the other request can then be
+         * cancelled without closing the connection.
+         * <p>
+         * Hedged requests are limited by the retry budget, if no budget has been set a budget of 10% of requests is used.
+         *
+         * @param hedgingPercentile The response time percentile, between 0 and 1, or zero to disable hedging
+         * @return this
+         * @see #setRetryBudget(double, int)
+         */
+        public Builder setHedgingPercentile(double hedgingPercentile) {
+            this.hedgingPercentile = hedgingPercentile;
+            return this;
+        }
+
+        public int getMinHedgingDelay() {
+            return minHedgingDelay;
+        }
+
+        /**
+         * Sets the minimum time in milliseconds to wait for a response before a hedged request is sent.
+         *
+         * @param minHedgingDelay The minimum delay
+         * @return this
+         */
+        public Builder setMinHedgingDelay(int minHedgingDelay) {
+            this.minHedgingDelay = minHedgingDelay;
+            return this;
+        }
+
+        public double getRetryRatio() {
+            return retryRatio;
+        }
+
+        public int getMinRetriesPerSecond() {
+            return minRetriesPerSecond;
+        }
+
+        /**
+         * Limits the extra load that retries and hedged requests send to the backends. Each request adds the retry ratio
+         * to a token bucket and each retry or hedged request takes one token from it, in addition a minimum number of
+         * retries per second is always allowed.
+         *
+         * @param retryRatio          The ratio of retries to requests, a negative value means retries are not limited
+         * @param minRetriesPerSecond The number of retries per second that are allowed regardless of the ratio
+         * @return this
+         */
+        public Builder setRetryBudget(double retryRatio, int minRetriesPerSecond) {
+            this.retryRatio = retryRatio;
+            this.minRetriesPerSecond = minRetriesPerSecond;
+            return this;
+        }
+
         public ProxyHandler build() {
             return new ProxyHandler(this);
         }
@@ -1,5 +1,7 @@
 package io.undertow.server.handlers.proxy;
 
+import io.undertow.UndertowMessages;
+import io.undertow.client.UndertowClient;
 import io.undertow.server.HandlerWrapper;
 import io.undertow.server.HttpHandler;
 import io.undertow.server.handlers.builder.HandlerBuilder;
@@ -28,6 +30,7 @@ public class ProxyHandlerBuilder implements HandlerBuilder {
         Map<String, Class<?>> params = new HashMap<>();
         params.put("hosts", String[].class);
         params.put("rewrite-host-header", Boolean.class);
+        params.put("host-selector", String.class);
         return params;
     }
 
@@ -53,22 +56,45 @@ public class ProxyHandlerBuilder implements HandlerBuilder {
             }
         }
         Boolean rewriteHostHeader = (Boolean) config.get("rewrite-host-header");
-        return new Wrapper(uris, rewriteHostHeader);
+        LoadBalancingProxyClient.HostSelector hostSelector = createHostSelector((String) config.get("host-selector"));
+        return new Wrapper(uris, rewriteHostHeader, hostSelector);
+    }
+
+    /**
+     * Creates the host selector for the given name, one of {@code round-robin} (the default),
+     * {@code least-outstanding-requests}, {@code power-of-two-choices} or {@code peak-ewma}.
+     */
+    static LoadBalancingProxyClient.HostSelector createHostSelector(String name) {
+        if (name == null || name.equals("round-robin")) {
+            return null;
+        }
+        switch (name) {
+            case "least-outstanding-requests":
+                return new LoadBalancingProxyClient.LeastOutstandingRequestsHostSelector();
+            case "power-of-two-choices":
+                return new LoadBalancingProxyClient.PowerOfTwoChoicesHostSelector();
+            case "peak-ewma":
+                return new LoadBalancingProxyClient.PeakEwmaHostSelector();
+            default:
+                throw UndertowMessages.MESSAGES.unknownHostSelector(name);
+        }
     }
 
     private static class Wrapper implements HandlerWrapper {
 
         private final List<URI> uris;
         private final boolean rewriteHostHeader;
+        private final LoadBalancingProxyClient.HostSelector hostSelector;
 
-        private Wrapper(List<URI> uris, Boolean rewriteHostHeader) {
+        private Wrapper(List<URI> uris, Boolean rewriteHostHeader, LoadBalancingProxyClient.HostSelector hostSelector) {
             this.uris = uris;
             this.rewriteHostHeader = rewriteHostHeader != null && rewriteHostHeader;
+            this.hostSelector = hostSelector;
         }
 
         @Override
         public HttpHandler wrap(HttpHandler handler) {
-            final LoadBalancingProxyClient loadBalancingProxyClient = new LoadBalancingProxyClient();
+            final LoadBalancingProxyClient loadBalancingProxyClient = new LoadBalancingProxyClient(UndertowClient.getInstance(), null, hostSelector);
             for (URI url : uris) {
                 loadBalancingProxyClient.addHost(url);
             }
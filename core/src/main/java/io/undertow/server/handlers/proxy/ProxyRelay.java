@@ -0,0 +1,244 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channel;
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import org.xnio.ChannelExceptionHandler;
+import org.xnio.ChannelListener;
+import org.xnio.ChannelListeners;
+import org.xnio.channels.Channels;
+import org.xnio.channels.StreamSinkChannel;
+import org.xnio.channels.StreamSourceChannel;
+
+/**
+ * Relays a request or response body between the server and client channels of a proxied exchange.
+ * <p>
+ * Unlike {@link io.undertow.util.Transfer} data is never moved within a buffer. Each read fills a new pooled buffer,
+ * the buffers are queued by reference and written out with a single gathering write, and a buffer is only returned to
+ * the pool once it has been completely written. This means partial writes to a slow sink do not require the unwritten
+ * data to be compacted, and a fast source can read ahead by up to {@link #MAX_QUEUED_BUFFERS} buffers.
+ * <p>
+ * The source and sink of a multiplexed backend connection may belong to different IO threads, so events are
+ * serialized on the relay.
+ */
+final class ProxyRelay<I extends StreamSourceChannel, O extends StreamSinkChannel> implements ChannelListener<Channel> {
+
+    /**
+     * The maximum number of buffers that are read ahead of the sink
+     */
+    static final int MAX_QUEUED_BUFFERS = 4;
+
+    private final ByteBufferPool pool;
+    private final I source;
+    private final O sink;
+    private final ChannelListener<? super I> sourceListener;
+    private final ChannelListener<? super O> sinkListener;
+    private final ChannelExceptionHandler<? super I> readExceptionHandler;
+    private final ChannelExceptionHandler<? super O> writeExceptionHandler;
+
+    /**
+     * Buffers that have been read and are ready to be written, in order
+     */
+    private final Deque<PooledByteBuffer> queued = new ArrayDeque<>(MAX_QUEUED_BUFFERS);
+    private final ByteBuffer[] writeBuffers = new ByteBuffer[MAX_QUEUED_BUFFERS];
+    /**
+     * A buffer that was allocated for a read that returned no data, kept for the next read
+     */
+    private PooledByteBuffer spare;
+    private boolean sourceDone;
+    private boolean done;
+
+    private ProxyRelay(ByteBufferPool pool, I source, O sink, ChannelListener<? super I> sourceListener, ChannelListener<? super O> sinkListener, ChannelExceptionHandler<? super I> readExceptionHandler, ChannelExceptionHandler<? super O> writeExceptionHandler) {
+        this.pool = pool;
+        this.source = source;
+        this.sink = sink;
+        this.sourceListener = sourceListener;
+        this.sinkListener = sinkListener;
+        this.readExceptionHandler = readExceptionHandler;
+        this.writeExceptionHandler = writeExceptionHandler;
+    }
+
+    /**
+     * Relays all data from the source to the sink. The arguments have the same meaning as the ones of
+     * {@link io.undertow.util.Transfer#initiateTransfer(StreamSourceChannel, StreamSinkChannel, ChannelListener, ChannelListener, ChannelExceptionHandler, ChannelExceptionHandler, ByteBufferPool)}.
+     */
+    static <I extends StreamSourceChannel, O extends StreamSinkChannel> void initiateRelay(final I source, final O sink, final ChannelListener<? super I> sourceListener, final ChannelListener<? super O> sinkListener, final ChannelExceptionHandler<? super I> readExceptionHandler, final ChannelExceptionHandler<? super O> writeExceptionHandler, ByteBufferPool pool) {
+        ProxyRelay<I, O> relay = new ProxyRelay<>(pool, source, sink, sourceListener, sinkListener, readExceptionHandler, writeExceptionHandler);
+        synchronized (relay) {
+            if (relay.relay()) {
+                source.getReadSetter().set(relay);
+                sink.getWriteSetter().set(relay);
+                relay.updateInterest();
+            }
+        }
+    }
+
+    @Override
+    public synchronized void handleEvent(Channel channel) {
+        if (done) {
+            if (channel instanceof StreamSinkChannel) {
+                ((StreamSinkChannel) channel).suspendWrites();
+            } else if (channel instanceof StreamSourceChannel) {
+                ((StreamSourceChannel) channel).suspendReads();
+            }
+            return;
+        }
+        if (relay()) {
+            updateInterest();
+        }
+    }
+
+    /**
+     * Reads and writes until neither channel can make progress.
+     *
+     * @return <code>true</code> if the relay has to wait for the channels, <code>false</code> if it is done
+     */
+    private boolean relay() {
+        for (;;) {
+            boolean progress = false;
+            while (!sourceDone && queued.size() < MAX_QUEUED_BUFFERS) {
+                PooledByteBuffer pooled = spare != null ? spare : pool.allocate();
+                spare = null;
+                ByteBuffer buffer = pooled.getBuffer();
+                int res;
+                try {
+                    res = source.read(buffer);
+                } catch (IOException e) {
+                    pooled.close();
+                    fail();
+                    ChannelListeners.invokeChannelExceptionHandler(source, readExceptionHandler, e);
+                    return false;
+                }
+                if (res <= 0) {
+                    if (res == -1) {
+                        sourceDone = true;
+                        pooled.close();
+                    } else {
+                        spare = pooled;
+                    }
+                    break;
+                }
+                buffer.flip();
+                queued.add(pooled);
+                progress = true;
+                if (buffer.limit() < buffer.capacity()) {
+                    //a short read means the source has been drained for now
+                    break;
+                }
+            }
+            if (!queued.isEmpty()) {
+                int count = 0;
+                for (PooledByteBuffer pooled : queued) {
+                    writeBuffers[count++] = pooled.getBuffer();
+                }
+                long res;
+                try {
+                    res = sink.write(writeBuffers, 0, count);
+                } catch (IOException e) {
+                    fail();
+                    ChannelListeners.invokeChannelExceptionHandler(sink, writeExceptionHandler, e);
+                    return false;
+                } finally {
+                    for (int i = 0; i < count; ++i) {
+                        writeBuffers[i] = null;
+                    }
+                }
+                PooledByteBuffer head = queued.peek();
+                while (head != null && !head.getBuffer().hasRemaining()) {
+                    queued.poll().close();
+                    head = queued.peek();
+                }
+                if (res > 0) {
+                    progress = true;
+                }
+            }
+            if (sourceDone && queued.isEmpty()) {
+                finish();
+                return false;
+            }
+            if (!progress || queued.size() == MAX_QUEUED_BUFFERS) {
+                //don't hold on to an empty buffer while waiting, the stream may be idle for a long time
+                if (spare != null) {
+                    spare.close();
+                    spare = null;
+                }
+                return true;
+            }
+        }
+    }
+
+    private void updateInterest() {
+        if (queued.isEmpty()) {
+            sink.suspendWrites();
+        } else if (!sink.isWriteResumed()) {
+            sink.resumeWrites();
+        }
+        if (sourceDone || queued.size() == MAX_QUEUED_BUFFERS) {
+            source.suspendReads();
+        } else if (!source.isReadResumed()) {
+            source.resumeReads();
+        }
+    }
+
+    private void finish() {
+        done = true;
+        releaseBuffers();
+        Channels.setReadListener(source, sourceListener);
+        if (sourceListener == null) {
+            source.suspendReads();
+        } else {
+            source.wakeupReads();
+        }
+
+        Channels.setWriteListener(sink, sinkListener);
+        if (sinkListener == null) {
+            sink.suspendWrites();
+        } else {
+            sink.wakeupWrites();
+        }
+    }
+
+    private void fail() {
+        done = true;
+        releaseBuffers();
+    }
+
+    private void releaseBuffers() {
+        if (spare != null) {
+            spare.close();
+            spare = null;
+        }
+        PooledByteBuffer pooled = queued.poll();
+        while (pooled != null) {
+            pooled.close();
+            pooled = queued.poll();
+        }
+    }
+
+    public String toString() {
+        return "Proxy relay (" + source + " to " + sink + ") -> (" + sourceListener + " and " + sinkListener + ")";
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Estimates a percentile of the recent response times of the backends, from a fixed size window of samples. The
+ * percentile is recalculated every {@link #RECALCULATE_INTERVAL} samples, so reading it is cheap.
+ */
+final class ResponseTimePercentile {
+
+    private static final int SAMPLES = 1024;
+    private static final int RECALCULATE_INTERVAL = 64;
+
+    private final double percentile;
+    private final AtomicLongArray samples = new AtomicLongArray(SAMPLES);
+    private final AtomicLong count = new AtomicLong();
+    private volatile long value = -1;
+
+    ResponseTimePercentile(double percentile) {
+        this.percentile = percentile;
+    }
+
+    /**
+     * @param responseTime The response time in nanoseconds
+     */
+    void record(long responseTime) {
+        long c = count.getAndIncrement();
+        samples.set((int) (c % SAMPLES), responseTime);
+        if (++c % RECALCULATE_INTERVAL == 0) {
+            int n = (int) Math.min(c, SAMPLES);
+            long[] sorted = new long[n];
+            for (int i = 0; i < n; ++i) {
+                sorted[i] = samples.get(i);
+            }
+            Arrays.sort(sorted);
+            value = sorted[Math.max(0, Math.min(n - 1, (int) Math.ceil(percentile * n) - 1))];
+        }
+    }
+
+    /**
+     * @return The response time percentile in nanoseconds, or -1 if not enough responses have been seen yet
+     */
+    long get() {
+        return value;
+    }
+}
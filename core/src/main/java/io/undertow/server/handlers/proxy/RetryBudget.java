@@ -0,0 +1,106 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A token bucket that bounds the extra load the proxy sends to its backends when it retries or hedges requests.
+ * <p>
+ * Every proxied request deposits a fraction of a token, and every retry or hedged request withdraws a whole one, so
+ * over time the number of extra requests is limited to the given ratio of the normal traffic. A small number of
+ * retries per second is always allowed, so retries still work when there is very little traffic.
+ */
+final class RetryBudget {
+
+    private static final long TOKEN = 1000;
+
+    /**
+     * The number of requests the balance can be accumulated over, this allows bursts of retries after a quiet period
+     * without letting a long quiet period pay for a retry storm
+     */
+    private static final int MAX_BALANCE_REQUESTS = 1000;
+
+    private final long deposit;
+    private final long maxBalance;
+    private final int minRetriesPerSecond;
+    private final AtomicLong balance = new AtomicLong();
+    private final AtomicInteger reserve = new AtomicInteger();
+    private final AtomicLong reserveSecond = new AtomicLong(-1);
+
+    /**
+     * @param retryRatio          The ratio of retries to requests that are allowed
+     * @param minRetriesPerSecond The number of retries per second that are allowed regardless of the ratio
+     */
+    RetryBudget(double retryRatio, int minRetriesPerSecond) {
+        this.deposit = (long) (retryRatio * TOKEN);
+        this.maxBalance = deposit * MAX_BALANCE_REQUESTS;
+        this.minRetriesPerSecond = minRetriesPerSecond;
+    }
+
+    /**
+     * Called for every request that is proxied
+     */
+    void requestStarted() {
+        if (deposit <= 0) {
+            return;
+        }
+        for (;;) {
+            long current = balance.get();
+            if (current >= maxBalance) {
+                return;
+            }
+            if (balance.compareAndSet(current, Math.min(maxBalance, current + deposit))) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return {@code true} if a retry is allowed, in which case it has been withdrawn from the budget
+     */
+    boolean tryRetry() {
+        if (minRetriesPerSecond > 0) {
+            long second = System.nanoTime() / 1000000000L;
+            long current = reserveSecond.get();
+            if (current != second && reserveSecond.compareAndSet(current, second)) {
+                reserve.set(minRetriesPerSecond);
+            }
+            for (;;) {
+                int available = reserve.get();
+                if (available <= 0) {
+                    break;
+                }
+                if (reserve.compareAndSet(available, available - 1)) {
+                    return true;
+                }
+            }
+        }
+        for (;;) {
+            long current = balance.get();
+            if (current < TOKEN) {
+                return false;
+            }
+            if (balance.compareAndSet(current, current - TOKEN)) {
+                return true;
+            }
+        }
+    }
+}
@@ -28,6 +28,7 @@ import io.undertow.server.handlers.proxy.ProxyClient;
 import io.undertow.util.CopyOnWriteMap;
 import io.undertow.util.Headers;
 import io.undertow.util.PathMatcher;
+import io.undertow.util.WorkerUtils;
 import io.undertow.connector.ByteBufferPool;
 import org.xnio.OptionMap;
 import org.xnio.XnioExecutor;
@@ -38,10 +39,14 @@ import java.net.URI;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 
 /**
@@ -57,8 +62,11 @@ class ModClusterContainer implements ModClusterController {
     // The available nodes
     private final ConcurrentMap<String, Node> nodes = new CopyOnWriteMap<>();
 
-    // virtual-host > per context balancing table
-    private final ConcurrentMap<String, VirtualHost> hosts = new CopyOnWriteMap<>();
+    // virtual-host > per context balancing table, guarded by this
+    private final Map<String, VirtualHost> hosts = new HashMap<>();
+
+    // the immutable routing table built from the hosts, which is replaced whenever the contexts change
+    private volatile RoutingIndex routingIndex = RoutingIndex.EMPTY;
 
     // Map of removed jvmRoutes to failover domain
     private final LRUCache<String, String> failoverDomains = new LRUCache<>(100, 5 * 60 * 1000);
@@ -190,10 +198,18 @@ class ModClusterContainer implements ModClusterController {
         balancer = balancerConfig.build();
         balancers.put(balancerRef, balancer);
 
-        final Node node = new Node(config, balancer, ioThread, bufferPool, this);
+        // Nodes of the same backend share an IO thread, so they can be checked using a single ping
+        XnioIoThread nodeThread = ioThread;
+        for (final Node other : nodes.values()) {
+            if (config.getConnectionURI().equals(other.getNodeConfig().getConnectionURI())) {
+                nodeThread = other.getIoThread();
+                break;
+            }
+        }
+        final Node node = new Node(config, balancer, nodeThread, bufferPool, this);
         nodes.put(jvmRoute, node);
         // Schedule the health check
-        scheduleHealthCheck(node, ioThread);
+        scheduleHealthCheck(node, nodeThread);
         // Reset the load factor periodically
         if (updateLoadTask.cancelKey == null) {
             updateLoadTask.cancelKey = ioThread.executeAtInterval(updateLoadTask, modCluster.getHealthCheckInterval(), TimeUnit.MILLISECONDS);
@@ -330,6 +346,7 @@ class ModClusterContainer implements ModClusterController {
                     }
                     virtualHost.registerContext(contextPath, jvmRoute, context);
                 }
+                updateRoutes(aliases);
             }
             context.enable();
             return true;
@@ -382,9 +399,27 @@ class ModClusterContainer implements ModClusterController {
                 }
             }
         }
+        updateRoutes(context.getVirtualHosts());
         return true;
     }
 
+    /**
+     * Rebuilds the routes of the given virtual hosts, and replaces the routing index.
+     *
+     * @param aliases the virtual host aliases that have changed
+     */
+    private void updateRoutes(final Collection<String> aliases) {
+        assert Thread.holdsLock(this);
+        final Map<String, RoutingIndex.HostRoutes> changes = new HashMap<>();
+        for (final String alias : aliases) {
+            final VirtualHost virtualHost = hosts.get(alias);
+            changes.put(alias, virtualHost == null ? null : virtualHost.buildRoutes());
+        }
+        final RoutingIndex index = routingIndex.withHosts(changes);
+        routingIndex = index;
+        UndertowLogger.ROOT_LOGGER.debugf("Updated mod_cluster routes for %s, routing index version %s", aliases, index.getVersion());
+    }
+
     /**
      * Find a new node handling this request.
      *
@@ -472,19 +507,20 @@ class ModClusterContainer implements ModClusterController {
      */
     private PathMatcher.PathMatch<VirtualHost.HostEntry> mapVirtualHost(final HttpServerExchange exchange) {
         final String context = exchange.getRelativePath();
+        final RoutingIndex index = routingIndex;
         if(modCluster.isUseAlias()) {
             final String hostName = exchange.getRequestHeaders().getFirst(Headers.HOST);
             if (hostName != null) {
                 // Remove the port from the host
                 int i = hostName.indexOf(":");
-                VirtualHost host;
+                RoutingIndex.HostRoutes host;
                 if (i > 0) {
-                    host = hosts.get(hostName.substring(0, i));
+                    host = index.getHost(hostName.substring(0, i));
                     if (host == null) {
-                        host = hosts.get(hostName);
+                        host = index.getHost(hostName);
                     }
                 } else {
-                    host = hosts.get(hostName);
+                    host = index.getHost(hostName);
                 }
                 if (host == null) {
                     return null;
@@ -496,12 +532,7 @@ class ModClusterContainer implements ModClusterController {
                 return result;
             }
         } else {
-            for(Map.Entry<String, VirtualHost> host : hosts.entrySet()) {
-                PathMatcher.PathMatch<VirtualHost.HostEntry> result = host.getValue().match(context);
-                if (result.getValue() != null) {
-                    return result;
-                }
-            }
+            return index.match(context);
         }
         return null;
     }
@@ -569,7 +600,7 @@ class ModClusterContainer implements ModClusterController {
         assert Thread.holdsLock(this);
         HealthCheckTask task = healthChecks.get(ioThread);
         if (task == null) {
-            task = new HealthCheckTask(removeBrokenNodesThreshold, healthChecker);
+            task = new HealthCheckTask(removeBrokenNodesThreshold, healthChecker, ioThread, modCluster.getHealthCheckInterval());
             healthChecks.put(ioThread, task);
             task.cancelKey = ioThread.executeAtInterval(task, modCluster.getHealthCheckInterval(), TimeUnit.MILLISECONDS);
         }
@@ -604,22 +635,95 @@ class ModClusterContainer implements ModClusterController {
         }
     }
 
+    /**
+     * Pings the nodes of an IO thread once per interval. Nodes sharing the same connection URI are checked using a
+     * single ping, and the pings to the different backends are spread across the interval so they are not all sent in
+     * one burst.
+     */
     static class HealthCheckTask implements Runnable {
 
         private final long threshold;
         private final NodeHealthChecker healthChecker;
-        private final ArrayList<Node> nodes = new ArrayList<>();
+        private final XnioIoThread ioThread;
+        private final long interval;
+        private final List<Node> nodes = new CopyOnWriteArrayList<>();
         private volatile XnioExecutor.Key cancelKey;
 
-        HealthCheckTask(long threshold, NodeHealthChecker healthChecker) {
+        HealthCheckTask(long threshold, NodeHealthChecker healthChecker, XnioIoThread ioThread, long interval) {
+            this.threshold = threshold;
+            this.healthChecker = healthChecker;
+            this.ioThread = ioThread;
+            this.interval = interval;
+        }
+
+        @Override
+        public void run() {
+            final Map<URI, List<Node>> batches = new LinkedHashMap<>();
+            for (final Node node : nodes) {
+                if (node.startHealthCheck()) {
+                    final URI uri = node.getNodeConfig().getConnectionURI();
+                    List<Node> batch = batches.get(uri);
+                    if (batch == null) {
+                        batch = new ArrayList<>();
+                        batches.put(uri, batch);
+                    }
+                    batch.add(node);
+                }
+            }
+            if (batches.isEmpty()) {
+                return;
+            }
+            final long slot = interval / batches.size();
+            long offset = 0;
+            for (final List<Node> batch : batches.values()) {
+                final HealthCheckBatch task = new HealthCheckBatch(batch, threshold, healthChecker);
+                final long delay = slot > 1 ? offset + ThreadLocalRandom.current().nextLong(slot / 2) : 0;
+                if (delay == 0) {
+                    task.run();
+                } else {
+                    WorkerUtils.executeAfter(ioThread, task, delay, TimeUnit.MILLISECONDS);
+                }
+                offset += slot;
+            }
+        }
+    }
+
+    /**
+     * A single ping, whose result is applied to all nodes sharing the connection URI of the first node.
+     */
+    static class HealthCheckBatch implements Runnable, NodePingUtil.PingCallback {
+
+        private final List<Node> nodes;
+        private final long threshold;
+        private final NodeHealthChecker healthChecker;
+        private final List<NodePingUtil.PingCallback> callbacks;
+
+        HealthCheckBatch(List<Node> nodes, long threshold, NodeHealthChecker healthChecker) {
+            this.nodes = nodes;
             this.threshold = threshold;
             this.healthChecker = healthChecker;
+            this.callbacks = new ArrayList<>(nodes.size());
         }
 
         @Override
         public void run() {
             for (final Node node : nodes) {
-                node.checkHealth(threshold, healthChecker);
+                callbacks.add(node.healthCheckCallback(threshold));
+            }
+            nodes.get(0).internalPing(this, healthChecker);
+        }
+
+        @Override
+        public void completed() {
+            for (final NodePingUtil.PingCallback callback : callbacks) {
+                callback.completed();
+            }
+        }
+
+        @Override
+        public void failed() {
+            for (final NodePingUtil.PingCallback callback : callbacks) {
+                callback.failed();
             }
         }
     }
@@ -819,6 +923,11 @@ class ModClusterContainer implements ModClusterController {
             return node.getElected();
         }
 
+        @Override
+        public long getHealthCheckLatency() {
+            return node.getHealthCheckLatency();
+        }
+
         @Override
         public int getCacheConnections() {
             return node.getNodeConfig().getCacheConnections();
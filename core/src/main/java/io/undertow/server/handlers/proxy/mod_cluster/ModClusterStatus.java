@@ -88,6 +88,11 @@ public interface ModClusterStatus {
 
         int getElected();
 
+        /**
+         * @return the average round trip time of the recent health checks in microseconds, or -1 if unknown
+         */
+        long getHealthCheckLatency();
+
         int getCacheConnections();
 
         String getJvmRoute();
@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
 import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
@@ -52,6 +53,8 @@ class Node {
     private final ModClusterContainer container;
     private final List<VHostMapping> vHosts = new CopyOnWriteArrayList<>();
     private final List<Context> contexts = new CopyOnWriteArrayList<>();
+    private final long[] healthCheckLatencies = new long[HEALTH_CHECK_HISTORY];
+    private int healthCheckCount;
 
     private final XnioIoThread ioThread;
     private final ByteBufferPool bufferPool;
@@ -64,6 +67,8 @@ class Node {
     private static final int ACTIVE_PING = 1 << 28;
     private static final int ERROR_MASK = (1 << 10) - 1;
 
+    private static final int HEALTH_CHECK_HISTORY = 16;
+
     private static final AtomicInteger idGen = new AtomicInteger();
     private static final AtomicIntegerFieldUpdater<Node> stateUpdater = AtomicIntegerFieldUpdater.newUpdater(Node.class, "state");
 
@@ -164,6 +169,48 @@ class Node {
         lbStatus.elected();
     }
 
+    /**
+     * Get the round trip times of the most recent successful health checks, oldest first.
+     *
+     * @return the health check latencies in microseconds
+     */
+    public long[] getHealthCheckLatencies() {
+        synchronized (healthCheckLatencies) {
+            final int size = Math.min(healthCheckCount, HEALTH_CHECK_HISTORY);
+            final long[] latencies = new long[size];
+            for (int i = 0; i < size; i++) {
+                latencies[i] = healthCheckLatencies[(healthCheckCount - size + i) % HEALTH_CHECK_HISTORY];
+            }
+            return latencies;
+        }
+    }
+
+    /**
+     * Get the average round trip time of the most recent successful health checks.
+     *
+     * @return the average latency in microseconds, or {@code -1} if no health check succeeded yet
+     */
+    public long getHealthCheckLatency() {
+        final long[] latencies = getHealthCheckLatencies();
+        if (latencies.length == 0) {
+            return -1;
+        }
+        long total = 0;
+        for (long latency : latencies) {
+            total += latency;
+        }
+        return total / latencies.length;
+    }
+
+    void healthCheckLatency(final long nanos) {
+        synchronized (healthCheckLatencies) {
+            healthCheckLatencies[healthCheckCount++ % HEALTH_CHECK_HISTORY] = TimeUnit.NANOSECONDS.toMicros(nanos);
+            if (healthCheckCount == 2 * HEALTH_CHECK_HISTORY) {
+                healthCheckCount = HEALTH_CHECK_HISTORY;
+            }
+        }
+    }
+
     List<VHostMapping> getVHosts() {
         return Collections.unmodifiableList(vHosts);
     }
@@ -181,36 +228,46 @@ class Node {
     }
 
     /**
-     * Check the health of the node and try to ping it if necessary.
+     * Send a health check ping to this node.
      *
-     * @param threshold     the threshold after which the node should be removed
+     * @param callback      the ping callback
      * @param healthChecker the node health checker
      */
-    protected void checkHealth(long threshold, NodeHealthChecker healthChecker) {
-        final int state = this.state;
-        if (anyAreSet(state, REMOVED | ACTIVE_PING)) {
-            return;
-        }
-        healthCheckPing(threshold, healthChecker);
+    void internalPing(final NodePingUtil.PingCallback callback, NodeHealthChecker healthChecker) {
+        NodePingUtil.internalPingNode(this, callback, healthChecker, ioThread, bufferPool, container.getClient(), container.getXnioSsl(), OptionMap.EMPTY);
     }
 
-    void healthCheckPing(final long threshold, NodeHealthChecker healthChecker) {
+    /**
+     * Mark a health check of this node as active.
+     *
+     * @return {@code false} if the node has been removed, or there is already a ping active
+     */
+    boolean startHealthCheck() {
         int oldState, newState;
         for (;;) {
             oldState = this.state;
-            if ((oldState & ACTIVE_PING) != 0) {
-                // There is already a ping active
-                return;
+            if ((oldState & (REMOVED | ACTIVE_PING)) != 0) {
+                return false;
             }
             newState = oldState | ACTIVE_PING;
             if (stateUpdater.compareAndSet(this, oldState, newState)) {
-                break;
+                return true;
             }
         }
+    }
 
-        NodePingUtil.internalPingNode(this, new NodePingUtil.PingCallback() {
+    /**
+     * Create the callback completing a health check started using {@link #startHealthCheck()}.
+     *
+     * @param threshold the threshold after which the node should be removed
+     * @return the ping callback
+     */
+    NodePingUtil.PingCallback healthCheckCallback(final long threshold) {
+        final long start = System.nanoTime();
+        return new NodePingUtil.PingCallback() {
             @Override
             public void completed() {
+                healthCheckLatency(System.nanoTime() - start);
                 clearActivePing();
             }
 
@@ -229,7 +286,7 @@ class Node {
                     clearActivePing();
                 }
             }
-        }, healthChecker, ioThread, bufferPool, container.getClient(), container.getXnioSsl(), OptionMap.EMPTY);
+        };
     }
 
     /**
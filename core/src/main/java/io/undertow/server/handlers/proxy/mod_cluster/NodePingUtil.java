@@ -32,6 +32,7 @@ import io.undertow.client.UndertowClient;
 import io.undertow.server.HttpServerExchange;
 import io.undertow.server.handlers.proxy.ProxyCallback;
 import io.undertow.server.handlers.proxy.ProxyConnection;
+import io.undertow.server.handlers.proxy.ProxyConnectionPool;
 import io.undertow.util.Headers;
 import io.undertow.util.Methods;
 import io.undertow.util.SameThreadExecutor;
@@ -157,7 +158,8 @@ class NodePingUtil {
     }
 
     /**
-     * Internally ping a node. This should probably use the connections from the nodes pool, if there are any available.
+     * Internally ping a node. An idle connection from the nodes pool is used if there is one on the given thread,
+     * otherwise a new connection is opened for the ping and closed afterwards.
      *
      * @param node          the node
      * @param callback      the ping callback
@@ -175,7 +177,37 @@ class NodePingUtil {
         final HttpClientPingTask r = new HttpClientPingTask(uri, exchangeListener, ioThread, client, xnioSsl, bufferPool, options);
         // Schedule timeout task
         scheduleCancelTask(ioThread, exchangeListener, timeout, TimeUnit.SECONDS);
-        ioThread.execute(r);
+        ioThread.execute(new PooledConnectionPingTask(node.getConnectionPool(), uri, exchangeListener, r));
+    }
+
+    static class PooledConnectionPingTask implements Runnable {
+
+        private final ProxyConnectionPool connectionPool;
+        private final URI uri;
+        private final RequestExchangeListener exchangeListener;
+        private final Runnable fallback;
+
+        PooledConnectionPingTask(ProxyConnectionPool connectionPool, URI uri, RequestExchangeListener exchangeListener, Runnable fallback) {
+            this.connectionPool = connectionPool;
+            this.uri = uri;
+            this.exchangeListener = exchangeListener;
+            this.fallback = fallback;
+        }
+
+        @Override
+        public void run() {
+            if (exchangeListener.isDone()) {
+                return;
+            }
+            final ClientConnection connection = connectionPool.acquireIdleConnection();
+            if (connection == null) {
+                fallback.run();
+                return;
+            }
+            // Hand the connection back to the pool once the response has been read
+            exchangeListener.connectionPool = connectionPool;
+            new ConnectionPoolPingTask(new ProxyConnection(connection, "/"), exchangeListener, uri).run();
+        }
     }
 
     static class ConnectionPoolPingTask implements Runnable {
@@ -231,6 +263,10 @@ class NodePingUtil {
                 @Override
                 public void failed(IOException e) {
                     exchangeListener.taskFailed();
+                    if (exchangeListener.connectionPool != null) {
+                        //the connection was taken out of the pool, so nothing else will close it
+                        IoUtils.safeClose(proxyConnection.getConnection());
+                    }
                 }
             });
         }
@@ -371,6 +407,7 @@ class NodePingUtil {
     static class RequestExchangeListener extends CancellableTask implements ClientCallback<ClientExchange> {
 
         private ClientExchange exchange;
+        private ProxyConnectionPool connectionPool;
         private final boolean closeConnection;
         private final NodeHealthChecker healthChecker;
 
@@ -390,14 +427,23 @@ class NodePingUtil {
             final ChannelListener<StreamSourceChannel> listener = ChannelListeners.drainListener(Long.MAX_VALUE, new ChannelListener<StreamSourceChannel>() {
                 @Override
                 public void handleEvent(StreamSourceChannel channel) {
+                    boolean healthy = false;
                     try {
-                        if (healthChecker.checkResponse(result.getResponse())) {
+                        healthy = healthChecker.checkResponse(result.getResponse());
+                        if (healthy) {
                             taskCompleted();
                         } else {
                             taskFailed();
                         }
                     } finally {
-                        if (closeConnection) {
+                        if (connectionPool != null) {
+                            //a connection that failed the check is not handed to a request
+                            if (healthy) {
+                                connectionPool.releaseIdleConnection(result.getConnection());
+                            } else {
+                                IoUtils.safeClose(result.getConnection());
+                            }
+                        } else if (closeConnection) {
                             if (exchange != null) {
                                 IoUtils.safeClose(exchange.getConnection());
                             }
@@ -408,7 +454,7 @@ class NodePingUtil {
                 @Override
                 public void handleException(StreamSourceChannel channel, IOException exception) {
                     taskFailed();
-                    if (exception != null) {
+                    if (exception != null || connectionPool != null) {
                         IoUtils.safeClose(exchange.getConnection());
                     }
                 }
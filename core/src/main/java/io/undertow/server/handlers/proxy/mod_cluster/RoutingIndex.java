@@ -0,0 +1,185 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy.mod_cluster;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.util.PathMatcher;
+
+/**
+ * An immutable index of the registered contexts, used to route requests.
+ * <p>
+ * The index maps a virtual host alias to a trie of context path segments, the node of the longest matching context
+ * path holds the nodes serving it. When contexts are registered or removed only the routes of the affected hosts are
+ * rebuilt, and the container swaps in a new index, so routing a request never has to take a lock or walk the nodes.
+ */
+final class RoutingIndex {
+
+    static final RoutingIndex EMPTY = new RoutingIndex(0, Collections.<String, HostRoutes>emptyMap());
+
+    private final long version;
+    private final Map<String, HostRoutes> hosts;
+    private final HostRoutes[] allHosts;
+
+    private RoutingIndex(long version, Map<String, HostRoutes> hosts) {
+        this.version = version;
+        this.hosts = hosts;
+        this.allHosts = hosts.values().toArray(new HostRoutes[hosts.size()]);
+    }
+
+    /**
+     * Creates a new index with the routes of the given hosts replaced.
+     *
+     * @param changes the new routes by alias, a {@code null} value removes the host
+     * @return the new index
+     */
+    RoutingIndex withHosts(Map<String, HostRoutes> changes) {
+        final Map<String, HostRoutes> newHosts = new HashMap<>(hosts);
+        for (Map.Entry<String, HostRoutes> change : changes.entrySet()) {
+            if (change.getValue() == null) {
+                newHosts.remove(change.getKey());
+            } else {
+                newHosts.put(change.getKey(), change.getValue());
+            }
+        }
+        return new RoutingIndex(version + 1, newHosts);
+    }
+
+    /**
+     * @return the version of the index, which is incremented every time it is rebuilt
+     */
+    long getVersion() {
+        return version;
+    }
+
+    HostRoutes getHost(String alias) {
+        return hosts.get(alias);
+    }
+
+    /**
+     * Matches a path against the contexts of every host, used if virtual host aliases are not used for routing.
+     *
+     * @param path the relative path
+     * @return the first match, or {@code null} if no host has a matching context
+     */
+    PathMatcher.PathMatch<VirtualHost.HostEntry> match(String path) {
+        for (HostRoutes host : allHosts) {
+            final PathMatcher.PathMatch<VirtualHost.HostEntry> result = host.match(path);
+            if (result.getValue() != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The routes of a single virtual host.
+     */
+    static final class HostRoutes {
+
+        private final PathNode root = new PathNode();
+        private final VirtualHost.HostEntry defaultEntry;
+
+        /**
+         * @param entries      the entries by normalized context path
+         * @param defaultEntry the entry for the root context, may be {@code null}
+         */
+        HostRoutes(Map<String, VirtualHost.HostEntry> entries, VirtualHost.HostEntry defaultEntry) {
+            this.defaultEntry = defaultEntry;
+            for (Map.Entry<String, VirtualHost.HostEntry> entry : entries.entrySet()) {
+                final String path = entry.getKey();
+                PathNode node = root;
+                int start = 1;
+                for (;;) {
+                    int end = path.indexOf('/', start);
+                    if (end == -1) {
+                        end = path.length();
+                    }
+                    node = node.child(path.substring(start, end));
+                    if (end == path.length()) {
+                        break;
+                    }
+                    start = end + 1;
+                }
+                node.entry = entry.getValue();
+            }
+        }
+
+        /**
+         * Matches a path against the contexts of this host. A context matches if the path is equal to the context path,
+         * or starts with the context path followed by a slash, and the longest matching context is used.
+         *
+         * @param path The relative path to match
+         * @return The match. This will never be null, however if none matched its value field will be
+         */
+        PathMatcher.PathMatch<VirtualHost.HostEntry> match(String path) {
+            VirtualHost.HostEntry matched = null;
+            int matchedLength = 0;
+            if (!path.isEmpty() && path.charAt(0) == '/') {
+                PathNode node = root;
+                int start = 1;
+                while (node.children != null) {
+                    int end = path.indexOf('/', start);
+                    if (end == -1) {
+                        end = path.length();
+                    }
+                    node = node.children.get(path.substring(start, end));
+                    if (node == null) {
+                        break;
+                    }
+                    if (node.entry != null) {
+                        matched = node.entry;
+                        matchedLength = end;
+                    }
+                    if (end == path.length()) {
+                        break;
+                    }
+                    start = end + 1;
+                }
+            }
+            if (matched != null) {
+                return new PathMatcher.PathMatch<>(path.substring(0, matchedLength), path.substring(matchedLength), matched);
+            }
+            return new PathMatcher.PathMatch<>("", path, defaultEntry);
+        }
+    }
+
+    /**
+     * A path segment, only modified while the routes are being built
+     */
+    private static final class PathNode {
+
+        private Map<String, PathNode> children;
+        private VirtualHost.HostEntry entry;
+
+        PathNode child(String segment) {
+            if (children == null) {
+                children = new HashMap<>();
+            }
+            PathNode child = children.get(segment);
+            if (child == null) {
+                child = new PathNode();
+                children.put(segment, child);
+            }
+            return child;
+        }
+    }
+}
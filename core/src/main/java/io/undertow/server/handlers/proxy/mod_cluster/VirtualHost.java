@@ -18,20 +18,22 @@
 
 package io.undertow.server.handlers.proxy.mod_cluster;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
-import java.util.Comparator;
-import java.util.Set;
-import java.util.TreeSet;
-import java.util.concurrent.ConcurrentMap;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import io.undertow.UndertowMessages;
-import io.undertow.util.CopyOnWriteMap;
-import io.undertow.util.PathMatcher;
 import io.undertow.util.URLUtils;
 
 /**
- * The virtual host handler.
+ * The contexts registered for a virtual host.
+ * <p>
+ * This is only modified while holding the container lock. Requests are not routed using this class directly, instead
+ * every change builds a new immutable {@link RoutingIndex.HostRoutes} for the host.
  *
  * @author Emanuel Muckenhuber
  */
@@ -39,51 +41,14 @@ public class VirtualHost {
 
     private static final String STRING_PATH_SEPARATOR = "/";
 
-    private final HostEntry defaultHandler = new HostEntry(STRING_PATH_SEPARATOR);
-    private final ConcurrentMap<String, HostEntry> contexts = new CopyOnWriteMap<>();
-
-    /**
-     * lengths of all registered contexts
-     */
-    private volatile int[] lengths = {};
+    // context path > node > context
+    private final Map<String, Map<String, Context>> contexts = new HashMap<>();
+    private final Map<String, Context> defaultContexts = new LinkedHashMap<>();
 
     protected VirtualHost() {
         //
     }
 
-    /**
-     * Matches a path against the registered handlers.
-     *
-     * @param path The relative path to match
-     * @return The match match. This will never be null, however if none matched its value field will be
-     */
-    PathMatcher.PathMatch<HostEntry> match(String path){
-        int length = path.length();
-        final int[] lengths = this.lengths;
-        for (int i = 0; i < lengths.length; ++i) {
-            int pathLength = lengths[i];
-            if (pathLength == length) {
-                HostEntry next = contexts.get(path);
-                if (next != null) {
-                    return new PathMatcher.PathMatch<>(path, "", next);
-                }
-            } else if (pathLength < length) {
-                char c = path.charAt(pathLength);
-                if (c == '/') {
-                    String part = path.substring(0, pathLength);
-                    HostEntry next = contexts.get(part);
-                    if (next != null) {
-                        return new PathMatcher.PathMatch<>(part, path.substring(pathLength), next);
-                    }
-                }
-            }
-        }
-        if(defaultHandler.contexts.isEmpty()) {
-            return new PathMatcher.PathMatch<>("", path, null);
-        }
-        return new PathMatcher.PathMatch<>("", path, defaultHandler);
-    }
-
     public synchronized void registerContext(final String path, final String jvmRoute, final Context context) {
         if (path.isEmpty()) {
             throw UndertowMessages.MESSAGES.pathMustBeSpecified();
@@ -91,22 +56,17 @@ public class VirtualHost {
 
         final String normalizedPath = URLUtils.normalizeSlashes(path);
         if (STRING_PATH_SEPARATOR.equals(normalizedPath)) {
-            defaultHandler.contexts.put(jvmRoute, context);
+            defaultContexts.put(jvmRoute, context);
             return;
         }
 
-        boolean rebuild = false;
-        HostEntry hostEntry = contexts.get(normalizedPath);
-        if (hostEntry == null) {
-            rebuild = true;
-            hostEntry = new HostEntry(normalizedPath);
-            contexts.put(normalizedPath, hostEntry);
-        }
-        assert !hostEntry.contexts.containsKey(jvmRoute);
-        hostEntry.contexts.put(jvmRoute, context);
-        if (rebuild) {
-            buildLengths();
+        Map<String, Context> nodes = contexts.get(normalizedPath);
+        if (nodes == null) {
+            nodes = new LinkedHashMap<>();
+            contexts.put(normalizedPath, nodes);
         }
+        assert !nodes.containsKey(jvmRoute);
+        nodes.put(jvmRoute, context);
     }
 
     public synchronized void removeContext(final String path, final String jvmRoute, final Context context) {
@@ -116,51 +76,45 @@ public class VirtualHost {
 
         final String normalizedPath = URLUtils.normalizeSlashes(path);
         if (STRING_PATH_SEPARATOR.equals(normalizedPath)) {
-            defaultHandler.contexts.remove(jvmRoute, context);
+            defaultContexts.remove(jvmRoute, context);
         }
 
-        final HostEntry hostEntry = contexts.get(normalizedPath);
-        if (hostEntry != null) {
-            if (hostEntry.contexts.remove(jvmRoute, context)) {
-                if (hostEntry.contexts.isEmpty()) {
-                    contexts.remove(normalizedPath);
-                    buildLengths();
-                }
-            }
+        final Map<String, Context> nodes = contexts.get(normalizedPath);
+        if (nodes != null && nodes.remove(jvmRoute, context) && nodes.isEmpty()) {
+            contexts.remove(normalizedPath);
         }
     }
 
-    boolean isEmpty() {
-        return contexts.isEmpty() && defaultHandler.contexts.isEmpty();
+    synchronized boolean isEmpty() {
+        return contexts.isEmpty() && defaultContexts.isEmpty();
     }
 
-    private void buildLengths() {
-        final Set<Integer> lengths = new TreeSet<>(new Comparator<Integer>() {
-            @Override
-            public int compare(Integer o1, Integer o2) {
-                return -o1.compareTo(o2);
-            }
-        });
-        for (String p : contexts.keySet()) {
-            lengths.add(p.length());
-        }
-
-        int[] lengthArray = new int[lengths.size()];
-        int pos = 0;
-        for (int i : lengths) {
-            lengthArray[pos++] = i;
+    /**
+     * Builds the routing table for the current contexts of this host.
+     */
+    synchronized RoutingIndex.HostRoutes buildRoutes() {
+        final Map<String, HostEntry> entries = new HashMap<>();
+        for (Map.Entry<String, Map<String, Context>> entry : contexts.entrySet()) {
+            entries.put(entry.getKey(), new HostEntry(entry.getKey(), entry.getValue()));
         }
-        this.lengths = lengthArray;
+        final HostEntry defaultEntry = defaultContexts.isEmpty() ? null : new HostEntry(STRING_PATH_SEPARATOR, defaultContexts);
+        return new RoutingIndex.HostRoutes(entries, defaultEntry);
     }
 
+    /**
+     * The nodes serving a context path. This is an immutable snapshot, a new entry is created when the nodes change.
+     */
     static class HostEntry {
 
         // node > context
-        private final ConcurrentMap<String, Context> contexts = new CopyOnWriteMap<>();
+        private final Map<String, Context> contexts;
+        private final List<Context> contextList;
         private final String contextPath;
 
-        HostEntry(String contextPath) {
+        HostEntry(String contextPath, Map<String, Context> contexts) {
             this.contextPath = contextPath;
+            this.contexts = Collections.unmodifiableMap(new LinkedHashMap<>(contexts));
+            this.contextList = Collections.unmodifiableList(Arrays.asList(this.contexts.values().toArray(new Context[this.contexts.size()])));
         }
 
         protected String getContextPath() {
@@ -180,14 +134,14 @@ public class VirtualHost {
          * Get list of nodes as jvmRoutes.
          */
         protected Collection<String> getNodes() {
-            return Collections.unmodifiableCollection(contexts.keySet());
+            return contexts.keySet();
         }
 
         /**
          * Get all registered contexts.
          */
         protected Collection<Context> getContexts() {
-            return Collections.unmodifiableCollection(contexts.values());
+            return contextList;
         }
 
     }
@@ -0,0 +1,563 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.server.handlers.sse;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.UndertowLogger;
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.util.ImmediatePooledByteBuffer;
+import io.undertow.util.MappedEventLog;
+import io.undertow.util.ReferenceCountedPooled;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
+
+/**
+ * Sends the same events to many Server Sent Event connections.
+ * <p>
+ * Each event is formatted once, into a single reference counted buffer, and every connection writes out a read only
+ * view of that buffer.
+ * <p>
+ * If a limit on queued events is set then a connection that already has that many broadcast events waiting to be
+ * written out does not get the event, and is either skipped or closed depending on the {@link SlowConsumerPolicy}.
+ * <p>
+ * If a replay buffer size is set then the most recent events are retained, and connections that are added with a
+ * {@code Last-Event-ID} are sent the events they missed before any new events. Retained events are copied out of
+ * the pooled buffer into a heap buffer of the exact size, so the replay buffer does not hold on to pooled memory.
+ * <p>
+ * If a {@link MappedEventLog} is set then every event is also appended to it, and it is used for replay instead of
+ * the replay buffer. Events replayed from the log are copied out of the mapped segments, as a segment may be
+ * unmapped once it is deleted. This allows clients to catch up on more events than can be kept in memory, including events
+ * that were sent before a restart.
+ * <p>
+ * If a keep alive time is set then a single timer per IO thread sends keep alive messages to all the connections
+ * that belong to that thread, rather than each connection scheduling its own task.
+ * <p>
+ * Events are sent to the connections while iterating a concurrent set, and neither sending nor replaying is done
+ * while holding the broadcaster lock, so adding a connection on an IO thread is never blocked by a broadcast. An
+ * event is retained for replay before it is sent, so a connection that is added while an event is being broadcast
+ * never misses it. Every event is numbered when it is retained, and a connection that is being replayed to is not
+ * sent the events that were retained before it was added, as those are replayed, while the events retained after
+ * that are held back until the replay has been queued.
+ */
+public class ServerSentEventBroadcaster implements Closeable {
+
+    private final Set<ServerSentEventConnection> connections = ConcurrentHashMap.newKeySet();
+    private final Map<ServerSentEventConnection, Replay> replays = new ConcurrentHashMap<>();
+    private final ArrayDeque<RetainedEvent> replayBuffer = new ArrayDeque<>();
+    private final Map<XnioIoThread, KeepAliveTask> keepAliveTasks = new HashMap<>();
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private long sequence;
+
+    private final ChannelListener<ServerSentEventConnection> closeTask = new ChannelListener<ServerSentEventConnection>() {
+        @Override
+        public void handleEvent(ServerSentEventConnection connection) {
+            removeConnection(connection);
+        }
+    };
+
+    private volatile int maxQueuedEvents = -1;
+    private volatile SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP;
+    private volatile SlowConsumerListener slowConsumerListener;
+    private volatile int replayBufferSize = 0;
+    private volatile long keepAliveTime = -1;
+    private volatile MappedEventLog replayLog;
+
+    public int getMaxQueuedEvents() {
+        return maxQueuedEvents;
+    }
+
+    /**
+     * Sets the number of broadcast events that can be waiting to be written out on a single connection. A negative
+     * value means there is no limit.
+     *
+     * @param maxQueuedEvents the maximum number of queued events per connection
+     * @return this broadcaster
+     */
+    public ServerSentEventBroadcaster setMaxQueuedEvents(int maxQueuedEvents) {
+        this.maxQueuedEvents = maxQueuedEvents;
+        return this;
+    }
+
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+
+    /**
+     * Sets what happens to a connection that has reached the maximum number of queued events.
+     *
+     * @param slowConsumerPolicy the policy
+     * @return this broadcaster
+     */
+    public ServerSentEventBroadcaster setSlowConsumerPolicy(SlowConsumerPolicy slowConsumerPolicy) {
+        this.slowConsumerPolicy = slowConsumerPolicy;
+        return this;
+    }
+
+    public SlowConsumerListener getSlowConsumerListener() {
+        return slowConsumerListener;
+    }
+
+    public ServerSentEventBroadcaster setSlowConsumerListener(SlowConsumerListener slowConsumerListener) {
+        this.slowConsumerListener = slowConsumerListener;
+        return this;
+    }
+
+    public int getReplayBufferSize() {
+        return replayBufferSize;
+    }
+
+    /**
+     * Sets the number of recent events that are retained so they can be replayed to clients that reconnect with a
+     * {@code Last-Event-ID}. Zero disables replay.
+     *
+     * @param replayBufferSize the number of events to retain
+     * @return this broadcaster
+     */
+    public synchronized ServerSentEventBroadcaster setReplayBufferSize(int replayBufferSize) {
+        this.replayBufferSize = Math.max(0, replayBufferSize);
+        while (replayBuffer.size() > this.replayBufferSize) {
+            replayBuffer.poll();
+        }
+        return this;
+    }
+
+    public MappedEventLog getReplayLog() {
+        return replayLog;
+    }
+
+    /**
+     * Sets a log that every event is appended to, which is then used to replay missed events instead of the replay
+     * buffer. The log is not closed when this broadcaster is closed.
+     *
+     * @param replayLog the log, may be null
+     * @return this broadcaster
+     */
+    public synchronized ServerSentEventBroadcaster setReplayLog(MappedEventLog replayLog) {
+        this.replayLog = replayLog;
+        return this;
+    }
+
+    public long getKeepAliveTime() {
+        return keepAliveTime;
+    }
+
+    /**
+     * Sets the keep alive time in milliseconds. If this is larger than zero a ':' message is sent this often to every
+     * connection that is not currently writing anything.
+     *
+     * @param keepAliveTime The time in milliseconds between keep alive messages
+     * @return this broadcaster
+     */
+    public synchronized ServerSentEventBroadcaster setKeepAliveTime(long keepAliveTime) {
+        this.keepAliveTime = keepAliveTime;
+        for (KeepAliveTask task : keepAliveTasks.values()) {
+            task.cancel();
+        }
+        keepAliveTasks.clear();
+        if (keepAliveTime > 0) {
+            for (ServerSentEventConnection connection : connections) {
+                scheduleKeepAlive(connection);
+            }
+        }
+        return this;
+    }
+
+    /**
+     * @return the number of events that were not sent to a connection because it had too many queued events
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+
+    public Set<ServerSentEventConnection> getConnections() {
+        return Collections.unmodifiableSet(connections);
+    }
+
+    /**
+     * Adds a connection, replaying any events it missed based on the {@code Last-Event-ID} request header.
+     *
+     * @param connection the connection
+     * @return <code>true</code> if the last event the client saw was found in the replay buffer
+     */
+    public boolean addConnection(ServerSentEventConnection connection) {
+        return addConnection(connection, connection.getRequestHeaders().getLast(ServerSentEventHandler.LAST_EVENT_ID));
+    }
+
+    /**
+     * Adds a connection, replaying the events that were sent after the given event. If the event is not found
+     * in the replay buffer nothing is replayed, as there is no way to know which events the client missed.
+     *
+     * @param connection  the connection
+     * @param lastEventId the ID of the last event the client received, may be null
+     * @return <code>true</code> if the event was found in the replay buffer
+     */
+    public boolean addConnection(final ServerSentEventConnection connection, String lastEventId) {
+        final MappedEventLog replayLog;
+        final RetainedEvent[] retained;
+        final long replayLogPosition;
+        final Replay replay;
+        synchronized (this) {
+            if (connections.contains(connection)) {
+                return false;
+            }
+            replayLog = this.replayLog;
+            retained = lastEventId == null || replayLog != null ? null : replayBuffer.toArray(new RetainedEvent[replayBuffer.size()]);
+            replayLogPosition = lastEventId == null || replayLog == null ? 0 : replayLog.getPosition();
+            //the replay must be registered before the connection is visible, so new events are held back until it is queued
+            replay = lastEventId == null ? null : new Replay(sequence);
+            if (replay != null) {
+                replays.put(connection, replay);
+            }
+            connections.add(connection);
+            if (keepAliveTime > 0) {
+                scheduleKeepAlive(connection);
+            }
+        }
+        connection.addCloseTask(closeTask);
+        boolean found = false;
+        if (lastEventId != null && replayLog != null) {
+            found = replayLog.replay(lastEventId, replayLogPosition, new MappedEventLog.EventVisitor() {
+                @Override
+                public void event(String id, ByteBuffer payload) {
+                    //the payload is only valid until we return, so it is copied
+                    connection.queuedBroadcastEvents.incrementAndGet();
+                    connection.sendSerialized(allocate(connection.getBufferPool(), payload), null, null, id, QueuedEventCallback.NO_CALLBACK);
+                }
+            });
+        } else if (lastEventId != null) {
+            for (RetainedEvent event : retained) {
+                if (found) {
+                    connection.queuedBroadcastEvents.incrementAndGet();
+                    connection.sendSerialized(new ImmediatePooledByteBuffer(event.serialized.duplicate()), event.data, event.event, event.id, QueuedEventCallback.NO_CALLBACK);
+                } else if (lastEventId.equals(event.id)) {
+                    found = true;
+                }
+            }
+        }
+        if (replay != null) {
+            replay.finish(connection);
+        }
+        if (!connection.isOpen()) {
+            removeConnection(connection);
+        }
+        return found;
+    }
+
+    public synchronized void removeConnection(ServerSentEventConnection connection) {
+        if (connections.remove(connection)) {
+            replays.remove(connection);
+            KeepAliveTask task = keepAliveTasks.get(connection.getIoThread());
+            if (task != null && task.remove(connection)) {
+                keepAliveTasks.remove(connection.getIoThread());
+            }
+        }
+    }
+
+    public int broadcast(String data) {
+        return broadcast(data, null, null, null);
+    }
+
+    public int broadcast(String data, String event, String id) {
+        return broadcast(data, event, id, null);
+    }
+
+    /**
+     * Sends an event to every connection.
+     *
+     * @param data     The event data
+     * @param event    The event name
+     * @param id       The event ID
+     * @param callback A callback that is notified once for every connection the event was sent to
+     * @return the number of connections the event was queued on
+     */
+    public int broadcast(String data, String event, String id, ServerSentEventConnection.EventCallback callback) {
+        StringBuilder message = new StringBuilder();
+        ServerSentEventConnection.formatEvent(message, event, data, id);
+        message.append('\n');
+        final byte[] bytes = message.toString().getBytes(StandardCharsets.UTF_8);
+        //retain the event before it is sent, so a connection that is added concurrently gets it one way or the other
+        final long sequence;
+        synchronized (this) {
+            sequence = ++this.sequence;
+            if (replayLog != null) {
+                try {
+                    replayLog.append(id, ByteBuffer.wrap(bytes));
+                } catch (IOException e) {
+                    UndertowLogger.REQUEST_IO_LOGGER.failedToAppendToReplayLog(e);
+                }
+            }
+            while (!replayBuffer.isEmpty() && replayBuffer.size() >= replayBufferSize) {
+                replayBuffer.poll();
+            }
+            if (replayBufferSize > 0) {
+                replayBuffer.add(new RetainedEvent(data, event, id, ByteBuffer.wrap(bytes).asReadOnlyBuffer()));
+            }
+        }
+        final QueuedEventCallback queuedEventCallback = callback == null ? QueuedEventCallback.NO_CALLBACK : new QueuedEventCallback(callback);
+        final int maxQueuedEvents = this.maxQueuedEvents;
+        ReferenceCountedPooled serialized = null;
+        RetainedEvent deferred = null;
+        int sent = 0;
+        try {
+            for (ServerSentEventConnection connection : connections) {
+                if (maxQueuedEvents >= 0 && connection.queuedBroadcastEvents.get() >= maxQueuedEvents) {
+                    droppedEvents.incrementAndGet();
+                    SlowConsumerListener listener = slowConsumerListener;
+                    if (listener != null) {
+                        listener.eventDropped(connection);
+                    }
+                    if (slowConsumerPolicy == SlowConsumerPolicy.CLOSE) {
+                        IoUtils.safeClose(connection);
+                    }
+                    continue;
+                }
+                final Replay replay = replays.get(connection);
+                if (replay != null && sequence <= replay.sequence) {
+                    //the connection was added after this event was retained, so it has been replayed
+                    continue;
+                }
+                connection.queuedBroadcastEvents.incrementAndGet();
+                if (replay != null && !replay.finished) {
+                    if (deferred == null) {
+                        deferred = new RetainedEvent(data, event, id, ByteBuffer.wrap(bytes).asReadOnlyBuffer());
+                    }
+                    if (replay.defer(deferred, queuedEventCallback)) {
+                        ++sent;
+                        continue;
+                    }
+                }
+                if (serialized == null) {
+                    serialized = new ReferenceCountedPooled(allocate(connection.getBufferPool(), ByteBuffer.wrap(bytes)), 1);
+                }
+                connection.sendSerialized(serialized.createReadOnlyView(), data, event, id, queuedEventCallback);
+                ++sent;
+            }
+        } finally {
+            IoUtils.safeClose(serialized);
+        }
+        return sent;
+    }
+
+    /**
+     * Removes all connections and discards the replay buffer. The connections themselves are not closed.
+     */
+    @Override
+    public synchronized void close() {
+        for (KeepAliveTask task : keepAliveTasks.values()) {
+            task.cancel();
+        }
+        keepAliveTasks.clear();
+        connections.clear();
+        replays.clear();
+        replayBuffer.clear();
+    }
+
+    private void scheduleKeepAlive(ServerSentEventConnection connection) {
+        XnioIoThread ioThread = connection.getIoThread();
+        KeepAliveTask task = keepAliveTasks.get(ioThread);
+        if (task == null) {
+            task = new KeepAliveTask();
+            keepAliveTasks.put(ioThread, task);
+            task.key = ioThread.executeAtInterval(task, keepAliveTime, TimeUnit.MILLISECONDS);
+        }
+        task.connections.add(connection);
+    }
+
+    private static PooledByteBuffer allocate(ByteBufferPool pool, ByteBuffer data) {
+        final PooledByteBuffer pooled;
+        if (data.remaining() > pool.getBufferSize()) {
+            pooled = new ImmediatePooledByteBuffer(ByteBuffer.allocate(data.remaining()));
+        } else {
+            pooled = pool.allocate();
+        }
+        pooled.getBuffer().put(data);
+        pooled.getBuffer().flip();
+        return pooled;
+    }
+
+    /**
+     * What happens to a connection that has too many queued events when a new event is broadcast
+     */
+    public enum SlowConsumerPolicy {
+        /**
+         * The event is not sent to the connection
+         */
+        DROP,
+        /**
+         * The event is not sent to the connection, and the connection is closed
+         */
+        CLOSE,
+    }
+
+    /**
+     * Listener that is notified when an event is not sent to a connection because the client is not reading fast
+     * enough.
+     */
+    public interface SlowConsumerListener {
+
+        /**
+         * Invoked when an event is dropped for a connection that has too many queued broadcast events.
+         *
+         * @param connection the connection
+         */
+        void eventDropped(ServerSentEventConnection connection);
+    }
+
+    private static final class RetainedEvent {
+        final String data;
+        final String event;
+        final String id;
+        final ByteBuffer serialized;
+
+        private RetainedEvent(String data, String event, String id, ByteBuffer serialized) {
+            this.data = data;
+            this.event = event;
+            this.id = id;
+            this.serialized = serialized;
+        }
+    }
+
+    /**
+     * The replay state of a connection that was added with a {@code Last-Event-ID}. Events up to the given sequence
+     * number are replayed, and the events that are broadcast after that are held back until the replay has been queued.
+     */
+    private static final class Replay {
+
+        final long sequence;
+        private final List<RetainedEvent> events = new ArrayList<>();
+        private final List<QueuedEventCallback> callbacks = new ArrayList<>();
+        volatile boolean finished;
+
+        private Replay(long sequence) {
+            this.sequence = sequence;
+        }
+
+        /**
+         * @return <code>false</code> if the replay has finished, and the event should be sent straight away
+         */
+        synchronized boolean defer(RetainedEvent event, QueuedEventCallback callback) {
+            if (finished) {
+                return false;
+            }
+            events.add(event);
+            callbacks.add(callback);
+            return true;
+        }
+
+        /**
+         * Sends the events that were held back.
+         */
+        synchronized void finish(ServerSentEventConnection connection) {
+            finished = true;
+            for (int i = 0; i < events.size(); ++i) {
+                RetainedEvent event = events.get(i);
+                connection.sendSerialized(new ImmediatePooledByteBuffer(event.serialized.duplicate()), event.data, event.event, event.id, callbacks.get(i));
+            }
+            events.clear();
+            callbacks.clear();
+        }
+    }
+
+    /**
+     * Sends keep alive messages to all the connections of a single IO thread. This always runs on that IO thread.
+     */
+    private static final class KeepAliveTask implements Runnable {
+
+        private final Set<ServerSentEventConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<ServerSentEventConnection, Boolean>());
+        private volatile XnioExecutor.Key key;
+
+        @Override
+        public void run() {
+            Iterator<ServerSentEventConnection> it = connections.iterator();
+            while (it.hasNext()) {
+                ServerSentEventConnection connection = it.next();
+                if (connection.isOpen()) {
+                    connection.sendKeepAlive();
+                } else {
+                    it.remove();
+                }
+            }
+        }
+
+        /**
+         * @return <code>true</code> if this was the last connection, and the task has been cancelled
+         */
+        boolean remove(ServerSentEventConnection connection) {
+            connections.remove(connection);
+            if (connections.isEmpty()) {
+                cancel();
+                return true;
+            }
+            return false;
+        }
+
+        void cancel() {
+            XnioExecutor.Key key = this.key;
+            if (key != null) {
+                key.remove();
+            }
+        }
+    }
+
+    private static class QueuedEventCallback implements ServerSentEventConnection.EventCallback {
+
+        static final QueuedEventCallback NO_CALLBACK = new QueuedEventCallback(null);
+
+        private final ServerSentEventConnection.EventCallback delegate;
+
+        private QueuedEventCallback(ServerSentEventConnection.EventCallback delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void done(ServerSentEventConnection connection, String data, String event, String id) {
+            connection.queuedBroadcastEvents.decrementAndGet();
+            if (delegate != null) {
+                delegate.done(connection, data, event, id);
+            }
+        }
+
+        @Override
+        public void failed(ServerSentEventConnection connection, String data, String event, String id, IOException e) {
+            connection.queuedBroadcastEvents.decrementAndGet();
+            if (delegate != null) {
+                delegate.failed(connection, data, event, id, e);
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@
 package io.undertow.server.handlers.sse;
 
 import io.undertow.UndertowLogger;
+import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
 import io.undertow.security.api.SecurityContext;
 import io.undertow.security.idm.Account;
@@ -32,6 +33,7 @@ import org.xnio.ChannelListener;
 import org.xnio.ChannelListeners;
 import org.xnio.IoUtils;
 import org.xnio.XnioExecutor;
+import org.xnio.XnioIoThread;
 import org.xnio.channels.StreamSinkChannel;
 
 import java.io.IOException;
@@ -50,6 +52,7 @@ import java.util.Queue;
 import java.util.concurrent.ConcurrentLinkedDeque;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicIntegerFieldUpdater;
 
 /**
@@ -83,6 +86,11 @@ public class ServerSentEventConnection implements Channel, Attachable {
     private volatile long keepAliveTime = -1;
     private XnioExecutor.Key timerKey;
 
+    /**
+     * The number of events sent by a {@link ServerSentEventBroadcaster} that have not been written out yet
+     */
+    final AtomicInteger queuedBroadcastEvents = new AtomicInteger();
+
 
     public ServerSentEventConnection(HttpServerExchange exchange, StreamSinkChannel sink) {
         this.exchange = exchange;
@@ -261,6 +269,46 @@ public class ServerSentEventConnection implements Channel, Attachable {
         });
     }
 
+    /**
+     * Sends an event that has already been serialized, so the connection does not need to format it again. The
+     * buffer is written out as is, and is closed once it has been written or the connection is closed.
+     *
+     * @param serialized The serialized event, this connection takes ownership of it
+     * @param data The event data
+     * @param event The event name
+     * @param id The event ID
+     * @param callback A callback that is notified on Success or failure
+     */
+    synchronized void sendSerialized(PooledByteBuffer serialized, String data, String event, String id, EventCallback callback) {
+        if (open == 0 || shutdown) {
+            serialized.close();
+            if (callback != null) {
+                callback.failed(this, data, event, id, new ClosedChannelException());
+            }
+            return;
+        }
+        queue.add(new SSEData(event, data, id, callback, serialized));
+        sink.getIoThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (ServerSentEventConnection.this) {
+                    if (pooled == null) {
+                        fillBuffer();
+                        writeListener.handleEvent(sink);
+                    }
+                }
+            }
+        });
+    }
+
+    XnioIoThread getIoThread() {
+        return sink.getIoThread();
+    }
+
+    ByteBufferPool getBufferPool() {
+        return exchange.getConnection().getByteBufferPool();
+    }
+
     public String getParameter(String name) {
         if(parameters == null) {
             return null;
@@ -310,16 +358,23 @@ public class ServerSentEventConnection implements Channel, Attachable {
                     }
                     return;
                 }
-                if(pooled == null) {
-                    pooled = exchange.getConnection().getByteBufferPool().allocate();
-                    pooled.getBuffer().put(":\n".getBytes(StandardCharsets.UTF_8));
-                    pooled.getBuffer().flip();
-                    writeListener.handleEvent(sink);
-                }
+                sendKeepAlive();
             }
         }, keepAliveTime, TimeUnit.MILLISECONDS);
     }
 
+    /**
+     * Sends a ':' message if nothing is currently being written. This must be called from the IO thread.
+     */
+    synchronized void sendKeepAlive() {
+        if(pooled == null && open != 0 && !shutdown) {
+            pooled = exchange.getConnection().getByteBufferPool().allocate();
+            pooled.getBuffer().put(":\n".getBytes(StandardCharsets.UTF_8));
+            pooled.getBuffer().flip();
+            writeListener.handleEvent(sink);
+        }
+    }
+
     private void fillBuffer() {
         if (queue.isEmpty()) {
             if(pooled != null) {
@@ -330,6 +385,26 @@ public class ServerSentEventConnection implements Channel, Attachable {
             return;
         }
 
+        if (pooled != null && pooled.getBuffer().isReadOnly()) {
+            //a shared buffer from a broadcaster, it can't be reused
+            pooled.close();
+            pooled = null;
+        }
+        SSEData next = queue.peek();
+        if (next.serialized != null) {
+            //pre-serialized events are written straight out of the shared buffer
+            queue.poll();
+            buffered.add(next);
+            if (pooled != null) {
+                pooled.close();
+            }
+            pooled = next.serialized;
+            next.serialized = null;
+            next.endBufferPosition = pooled.getBuffer().limit();
+            sink.resumeWrites();
+            return;
+        }
+
         if (pooled == null) {
             pooled = exchange.getConnection().getByteBufferPool().allocate();
         } else {
@@ -337,7 +412,7 @@ public class ServerSentEventConnection implements Channel, Attachable {
         }
         ByteBuffer buffer = pooled.getBuffer();
 
-        while (!queue.isEmpty() && buffer.hasRemaining()) {
+        while (!queue.isEmpty() && buffer.hasRemaining() && queue.peek().serialized == null) {
             SSEData data = queue.poll();
             buffered.add(data);
             if (data.leftOverData == null) {
@@ -347,28 +422,7 @@ public class ServerSentEventConnection implements Channel, Attachable {
                     message.append(data.retry);
                     message.append('\n');
                 } else {
-                    if (data.id != null) {
-                        message.append("id:");
-                        message.append(data.id);
-                        message.append('\n');
-                    }
-                    if (data.event != null) {
-                        message.append("event:");
-                        message.append(data.event);
-                        message.append('\n');
-                    }
-                    if (data.data != null) {
-                        message.append("data:");
-                        for (int i = 0; i < data.data.length(); ++i) {
-                            char c = data.data.charAt(i);
-                            if (c == '\n') {
-                                message.append("\ndata:");
-                            } else {
-                                message.append(c);
-                            }
-                        }
-                        message.append('\n');
-                    }
+                    formatEvent(message, data.event, data.data, data.id);
                 }
                 message.append('\n');
                 byte[] messageBytes = message.toString().getBytes(StandardCharsets.UTF_8);
@@ -400,6 +454,34 @@ public class ServerSentEventConnection implements Channel, Attachable {
         sink.resumeWrites();
     }
 
+    /**
+     * Appends the id, event and data lines of an event, but not the blank line that terminates it
+     */
+    static void formatEvent(StringBuilder message, String event, String data, String id) {
+        if (id != null) {
+            message.append("id:");
+            message.append(id);
+            message.append('\n');
+        }
+        if (event != null) {
+            message.append("event:");
+            message.append(event);
+            message.append('\n');
+        }
+        if (data != null) {
+            message.append("data:");
+            for (int i = 0; i < data.length(); ++i) {
+                char c = data.charAt(i);
+                if (c == '\n') {
+                    message.append("\ndata:");
+                } else {
+                    message.append(c);
+                }
+            }
+            message.append('\n');
+        }
+    }
+
     /**
      * execute a graceful shutdown once all data has been sent
      */
@@ -445,6 +527,10 @@ public class ServerSentEventConnection implements Channel, Attachable {
             buffered.clear();
             flushingMessages.clear();
             for (SSEData i : cb) {
+                if (i.serialized != null) {
+                    i.serialized.close();
+                    i.serialized = null;
+                }
                 if (i.callback != null) {
                     try {
                         i.callback.failed(this, i.data, i.event, i.id, e);
@@ -525,6 +611,7 @@ public class ServerSentEventConnection implements Channel, Attachable {
         private int endBufferPosition = -1;
         private byte[] leftOverData;
         private int leftOverDataOffset;
+        private PooledByteBuffer serialized;
 
         private SSEData(String event, String data, String id, EventCallback callback) {
             this.event = event;
@@ -534,6 +621,11 @@ public class ServerSentEventConnection implements Channel, Attachable {
             this.retry = -1;
         }
 
+        private SSEData(String event, String data, String id, EventCallback callback, PooledByteBuffer serialized) {
+            this(event, data, id, callback);
+            this.serialized = serialized;
+        }
+
         private SSEData(long retry, EventCallback callback) {
             this.event = null;
             this.data = null;
@@ -613,6 +705,8 @@ public class ServerSentEventConnection implements Channel, Attachable {
                             if (pooled == null) {
                                 return;
                             }
+                            //the buffer is replaced if the next event was serialized by a broadcaster
+                            buffer = pooled.getBuffer();
                         } else if (res == 0) {
                             sink.resumeWrites();
                             return;
@@ -41,18 +41,31 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ServerSentEventHandler implements HttpHandler {
 
-    private static final HttpString LAST_EVENT_ID = new HttpString("Last-Event-ID");
+    static final HttpString LAST_EVENT_ID = new HttpString("Last-Event-ID");
 
     private final ServerSentEventConnectionCallback callback;
+    private final ServerSentEventBroadcaster broadcaster;
 
     private final Set<ServerSentEventConnection> connections = Collections.newSetFromMap(new ConcurrentHashMap<ServerSentEventConnection, Boolean>());
 
     public ServerSentEventHandler(ServerSentEventConnectionCallback callback) {
-        this.callback = callback;
+        this(null, callback);
     }
 
     public ServerSentEventHandler() {
-        this.callback = null;
+        this(null, null);
+    }
+
+    /**
+     * Creates a handler that adds every new connection to the given broadcaster, which replays any events the client
+     * missed before the callback is invoked.
+     *
+     * @param broadcaster The broadcaster, may be null
+     * @param callback    The callback, may be null
+     */
+    public ServerSentEventHandler(ServerSentEventBroadcaster broadcaster, ServerSentEventConnectionCallback callback) {
+        this.broadcaster = broadcaster;
+        this.callback = callback;
     }
 
     @Override
@@ -99,12 +112,20 @@ public class ServerSentEventHandler implements HttpHandler {
                 connections.remove(connection);
             }
         });
+        final String lastEventId = exchange.getRequestHeaders().getLast(LAST_EVENT_ID);
+        if(broadcaster != null) {
+            broadcaster.addConnection(connection, lastEventId);
+        }
         if(callback != null) {
-            callback.connected(connection, exchange.getRequestHeaders().getLast(LAST_EVENT_ID));
+            callback.connected(connection, lastEventId);
         }
     }
 
     public Set<ServerSentEventConnection> getConnections() {
         return Collections.unmodifiableSet(connections);
     }
+
+    public ServerSentEventBroadcaster getBroadcaster() {
+        return broadcaster;
+    }
 }
@@ -497,6 +497,10 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
                     //even though this is freed we may un-free it if we get a new packet
                     //this prevents many small reads resulting in a large number of allocated buffers
                     pooled.close();
+                    if(pooled.isReleased()) {
+                        //no views are outstanding so it can't be un-freed, we don't hang on to it while the channel is idle
+                        readData = null;
+                    }
 
                 }
             }
@@ -576,6 +580,33 @@ public abstract class AbstractFramedChannel<C extends AbstractFramedChannel<C, R
      */
     protected abstract FrameHeaderData parseFrame(ByteBuffer data) throws IOException;
 
+    /**
+     * Removes a frame from the pending queue so that it is never written out. The frame at the head of the queue may
+     * already be partially written, so it is never removed.
+     *
+     * @param frame The frame to remove
+     * @return <code>true</code> if the frame was removed
+     */
+    protected synchronized boolean removePendingFrame(S frame) {
+        int index = pendingFrames.indexOf(frame);
+        if (index <= 0) {
+            return false;
+        }
+        pendingFrames.remove(index);
+        return true;
+    }
+
+    /**
+     * Returns true if the frame has been queued but has not been passed to the {@link FramePriority} yet, or if it is
+     * being held back by the frame priority.
+     *
+     * @param frame The frame
+     * @return <code>true</code> if the frame is waiting to be added to the pending queue
+     */
+    protected synchronized boolean isFrameWaiting(S frame) {
+        return newFrames.contains(frame) || heldFrames.contains(frame);
+    }
+
     protected synchronized void recalculateHeldFrames() throws IOException {
         if (!heldFrames.isEmpty()) {
             framePriority.frameAdded(null, pendingFrames, heldFrames);
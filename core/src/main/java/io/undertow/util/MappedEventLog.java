@@ -0,0 +1,442 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import io.undertow.server.DirectByteBufferDeallocator;
+
+/**
+ * An append only log of events, stored in memory mapped segment files, which can be used to replay the events a
+ * client missed while it was disconnected.
+ * <p>
+ * Every event has an optional ID and an opaque payload, which is normally the event exactly as it is sent on the
+ * wire, such as a formatted Server Sent Event or a web socket message. Replay hands out read only views of the
+ * mapped segments, so events are streamed back in order without being copied or parsed.
+ * <p>
+ * Once a segment is full a new one is started. Old segments are deleted when the retained data exceeds the
+ * maximum size, or when the newest event in the segment is older than the maximum age. The segment that is
+ * currently being written to is never deleted. The log is reopened from the existing segments if a log is
+ * created for a directory that already contains them, so events survive a restart.
+ * <p>
+ * Each record is laid out as the length of the rest of the record, the time it was appended, the length of
+ * the ID (or -1 if there is no ID), the UTF-8 ID and then the payload. A length of zero marks the end of the
+ * segment.
+ * <p>
+ * Every segment keeps its own index of the event IDs it contains, so the index is dropped together with the
+ * segment. Deleted segments are unmapped straight away, unless a replay is reading them, in which case they are
+ * unmapped once that replay is done.
+ */
+public class MappedEventLog implements Closeable {
+
+    private static final String SUFFIX = ".log";
+    private static final int RECORD_HEADER = 4 + 8 + 4;
+
+    private final Path directory;
+    private final int segmentSize;
+    private final List<Segment> segments = new ArrayList<>();
+
+    private volatile long maxRetainedBytes = -1;
+    private volatile long maxAge = -1;
+    private boolean closed;
+
+    /**
+     * Opens the log in the given directory, creating it if it does not exist.
+     *
+     * @param directory   the directory the segments are stored in
+     * @param segmentSize the size of each segment file. Events larger than this get a segment of their own.
+     * @throws IOException if the existing segments could not be read
+     */
+    public MappedEventLog(Path directory, int segmentSize) throws IOException {
+        if (segmentSize <= RECORD_HEADER) {
+            throw new IllegalArgumentException("segmentSize");
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        List<Long> bases = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            for (Path file : stream) {
+                String name = file.getFileName().toString();
+                try {
+                    bases.add(Long.parseLong(name.substring(0, name.length() - SUFFIX.length())));
+                } catch (NumberFormatException e) {
+                    //not one of ours
+                }
+            }
+        }
+        Collections.sort(bases);
+        for (long base : bases) {
+            Segment segment = Segment.open(segmentFile(base), base);
+            segments.add(segment);
+            segment.buildIndex();
+        }
+    }
+
+    public long getMaxRetainedBytes() {
+        return maxRetainedBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes retained on disk. This is enforced one segment at a time, so the log may be
+     * larger by up to one segment. A negative value means there is no limit.
+     *
+     * @param maxRetainedBytes the maximum size of the log
+     * @return this log
+     */
+    public MappedEventLog setMaxRetainedBytes(long maxRetainedBytes) {
+        this.maxRetainedBytes = maxRetainedBytes;
+        return this;
+    }
+
+    public long getMaxAge() {
+        return maxAge;
+    }
+
+    /**
+     * Sets how long events are retained in milliseconds. A segment is deleted once the newest event in it is older than
+     * this. A negative value means there is no limit.
+     *
+     * @param maxAge the maximum age of retained events
+     * @return this log
+     */
+    public MappedEventLog setMaxAge(long maxAge) {
+        this.maxAge = maxAge;
+        return this;
+    }
+
+    /**
+     * Appends an event to the log.
+     *
+     * @param id      the event ID, may be null. Replay can start after any event that has an ID.
+     * @param payload the event, the position of the buffer is not changed
+     * @throws IOException if a new segment could not be created
+     */
+    public synchronized void append(String id, ByteBuffer payload) throws IOException {
+        if (closed) {
+            throw new ClosedChannelException();
+        }
+        final byte[] idBytes = id == null ? null : id.getBytes(StandardCharsets.UTF_8);
+        final int recordSize = RECORD_HEADER + (idBytes == null ? 0 : idBytes.length) + payload.remaining();
+        final long now = System.currentTimeMillis();
+        Segment segment = segments.isEmpty() ? null : segments.get(segments.size() - 1);
+        //leave room for the end marker
+        if (segment == null || segment.buffer.capacity() - segment.position < recordSize + 4) {
+            long base = segment == null ? 0 : segment.base + segment.position;
+            segment = Segment.create(segmentFile(base), base, Math.max(segmentSize, recordSize + 4));
+            segments.add(segment);
+        }
+        ByteBuffer buffer = segment.buffer;
+        buffer.position(segment.position + 4);
+        buffer.putLong(now);
+        if (idBytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(idBytes.length);
+            buffer.put(idBytes);
+        }
+        buffer.put(payload.duplicate());
+        //the length is written last, so a partially written record is never read back
+        buffer.putInt(segment.position, recordSize - 4);
+        segment.position += recordSize;
+        segment.lastTimestamp = now;
+        if (id != null) {
+            segment.index.put(id, segment.position);
+        }
+        applyRetention(now);
+    }
+
+    /**
+     * Replays every event that was appended after the event with the given ID, in the order they were appended.
+     * The payloads are read only views of the mapped segments. They are only valid until the visitor returns, as
+     * the segment may be unmapped after that, so a visitor that uses the payload later must copy it.
+     *
+     * @param lastId  the ID of the last event the client received
+     * @param visitor the visitor that is passed every event
+     * @return <code>true</code> if the event was found, <code>false</code> if it is not in the log, in which case
+     * nothing is replayed
+     */
+    public boolean replay(String lastId, EventVisitor visitor) {
+        return replay(lastId, Long.MAX_VALUE, visitor);
+    }
+
+    /**
+     * Replays the events that were appended after the event with the given ID, stopping at the given position,
+     * so that events appended after {@link #getPosition()} returned that position are not replayed.
+     *
+     * @param lastId  the ID of the last event the client received
+     * @param end     the position to stop at
+     * @param visitor the visitor that is passed every event
+     * @return <code>true</code> if the event was found, <code>false</code> if it is not in the log, in which case
+     * nothing is replayed
+     */
+    public boolean replay(String lastId, long end, EventVisitor visitor) {
+        final List<Segment> pinned = new ArrayList<>();
+        final List<ByteBuffer> views = new ArrayList<>();
+        synchronized (this) {
+            if (closed) {
+                return false;
+            }
+            //search from the newest segment, so an ID that has been reused resolves to the latest event
+            int first = segments.size() - 1;
+            Integer start = null;
+            while (first >= 0 && start == null) {
+                start = segments.get(first--).index.get(lastId);
+            }
+            if (start == null) {
+                return false;
+            }
+            for (int i = first + 1; i < segments.size() && segments.get(i).base < end; ++i) {
+                Segment segment = segments.get(i);
+                ByteBuffer view = segment.buffer.asReadOnlyBuffer();
+                view.clear();
+                view.limit((int) Math.min(segment.position, end - segment.base));
+                if (views.isEmpty()) {
+                    view.position(Math.min(start, view.limit()));
+                }
+                views.add(view);
+                segment.references++;
+                pinned.add(segment);
+            }
+        }
+        try {
+            for (ByteBuffer view : views) {
+                replay(view, visitor);
+            }
+        } finally {
+            synchronized (this) {
+                for (Segment segment : pinned) {
+                    if (--segment.references == 0 && segment.retired) {
+                        segment.unmap();
+                    }
+                }
+            }
+        }
+        return true;
+    }
+
+    private static void replay(ByteBuffer view, EventVisitor visitor) {
+        while (view.remaining() >= RECORD_HEADER) {
+            final int length = view.getInt();
+            if (length <= 0) {
+                break;
+            }
+            final int end = view.position() + length;
+            view.getLong();
+            final int idLength = view.getInt();
+            String id = null;
+            if (idLength >= 0) {
+                byte[] idBytes = new byte[idLength];
+                view.get(idBytes);
+                id = new String(idBytes, StandardCharsets.UTF_8);
+            }
+            ByteBuffer payload = view.duplicate();
+            payload.limit(end);
+            visitor.event(id, payload.slice());
+            view.position(end);
+        }
+    }
+
+    /**
+     * @return the position just after the last event that was appended, which can be passed to
+     * {@link #replay(String, long, EventVisitor)} to only replay the events that have been appended so far
+     */
+    public synchronized long getPosition() {
+        if (segments.isEmpty()) {
+            return 0;
+        }
+        Segment segment = segments.get(segments.size() - 1);
+        return segment.base + segment.position;
+    }
+
+    /**
+     * @return the number of bytes written to the retained segments
+     */
+    public synchronized long getRetainedBytes() {
+        long size = 0;
+        for (Segment segment : segments) {
+            size += segment.position;
+        }
+        return size;
+    }
+
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Forces the current segment to be written to the storage device.
+     */
+    public synchronized void force() {
+        if (!segments.isEmpty()) {
+            segments.get(segments.size() - 1).buffer.force();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        force();
+        for (Segment segment : segments) {
+            retire(segment);
+        }
+        segments.clear();
+    }
+
+    private void applyRetention(long now) {
+        final long maxRetainedBytes = this.maxRetainedBytes;
+        final long maxAge = this.maxAge;
+        long retained = maxRetainedBytes >= 0 ? getRetainedBytes() : 0;
+        while (segments.size() > 1) {
+            Segment oldest = segments.get(0);
+            boolean tooBig = maxRetainedBytes >= 0 && retained > maxRetainedBytes;
+            boolean tooOld = maxAge >= 0 && now - oldest.lastTimestamp > maxAge;
+            if (!tooBig && !tooOld) {
+                return;
+            }
+            segments.remove(0);
+            retained -= oldest.position;
+            oldest.delete = true;
+            retire(oldest);
+        }
+    }
+
+    /**
+     * Removes a segment from use, unmapping it now if no replay is reading it, or otherwise once the last replay
+     * that is reading it is done.
+     */
+    private static void retire(Segment segment) {
+        segment.retired = true;
+        if (segment.references == 0) {
+            segment.unmap();
+        }
+    }
+
+    private Path segmentFile(long base) {
+        return directory.resolve(String.format("%020d", base) + SUFFIX);
+    }
+
+    /**
+     * Receives events that are being replayed
+     */
+    public interface EventVisitor {
+
+        /**
+         * @param id      the event ID, or null if it did not have one
+         * @param payload a read only view of the event
+         */
+        void event(String id, ByteBuffer payload);
+    }
+
+    private static final class Segment {
+        final Path file;
+        final long base;
+        final MappedByteBuffer buffer;
+        /**
+         * Maps an event ID to the position just after the event in this segment, which is where replay starts from
+         */
+        final Map<String, Integer> index = new HashMap<>();
+        int position;
+        long lastTimestamp;
+        /**
+         * The number of replays that are currently reading this segment
+         */
+        int references;
+        boolean retired;
+        boolean delete;
+
+        private Segment(Path file, long base, MappedByteBuffer buffer) {
+            this.file = file;
+            this.base = base;
+            this.buffer = buffer;
+        }
+
+        static Segment create(Path file, long base, int size) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                return new Segment(file, base, channel.map(FileChannel.MapMode.READ_WRITE, 0, size));
+            }
+        }
+
+        static Segment open(Path file, long base) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                Segment segment = new Segment(file, base, channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size()));
+                //find the end of the written data, stopping at anything that does not look like a complete record
+                ByteBuffer buffer = segment.buffer;
+                int position = 0;
+                while (buffer.capacity() - position >= RECORD_HEADER) {
+                    int length = buffer.getInt(position);
+                    if (length < RECORD_HEADER - 4 || length > buffer.capacity() - position - 4) {
+                        break;
+                    }
+                    position += 4 + length;
+                }
+                segment.position = position;
+                return segment;
+            }
+        }
+
+        void buildIndex() {
+            ByteBuffer view = buffer.duplicate();
+            view.clear();
+            view.limit(position);
+            while (view.remaining() >= RECORD_HEADER) {
+                final int end = view.position() + 4 + view.getInt();
+                lastTimestamp = view.getLong();
+                final int idLength = view.getInt();
+                if (idLength >= 0) {
+                    byte[] idBytes = new byte[idLength];
+                    view.get(idBytes);
+                    index.put(new String(idBytes, StandardCharsets.UTF_8), end);
+                }
+                view.position(end);
+            }
+        }
+
+        void unmap() {
+            index.clear();
+            DirectByteBufferDeallocator.free(buffer);
+            if (delete) {
+                try {
+                    Files.deleteIfExists(file);
+                } catch (IOException e) {
+                    //we will not try again, but the data is no longer part of the log either way
+                }
+            }
+        }
+    }
+}
@@ -73,6 +73,13 @@ public class ReferenceCountedPooled implements PooledByteBuffer {
         return mainFreed;
     }
 
+    /**
+     * @return <code>true</code> if the main buffer and all its views have been freed, and the underlying buffer has been returned to the pool
+     */
+    public boolean isReleased() {
+        return referenceCountUpdater.get(this) == 0;
+    }
+
     public boolean tryUnfree() {
         int refs;
         do {
@@ -123,50 +130,25 @@ public class ReferenceCountedPooled implements PooledByteBuffer {
         slice = newUnderlying;
 
         increaseReferenceCount();
-        return new PooledByteBuffer() {
-
-            boolean free = false;
-
-            @Override
-            public void close() {
-                //make sure that a given view can only be freed once
-                if(!free) {
-                    free = true;
-                    ReferenceCountedPooled.this.freeInternal();
-                }
-            }
-
-            @Override
-            public boolean isOpen() {
-                return !free;
-            }
-
-            @Override
-            public ByteBuffer getBuffer() throws IllegalStateException {
-                if(free) {
-                    throw UndertowMessages.MESSAGES.bufferAlreadyFreed();
-                }
-                return newValue;
-            }
-
-            @Override
-            public String toString() {
-                return "ReferenceCountedPooled$view{" +
-                        "buffer=" + newValue +
-                        "free=" + free +
-                        "underlying=" + underlying +
-                        ", referenceCount=" + referenceCount +
-                        ", mainFreed=" + mainFreed +
-                        ", slice=" + slice +
-                        '}';
-            }
-        };
+        return new View(newValue);
     }
 
     public PooledByteBuffer createView() {
         return createView(getBuffer().remaining());
     }
 
+    /**
+     * Creates a read only view of the remaining data that does not consume it, so the same data can be written out
+     * to several channels at once. The underlying buffer is not freed until this buffer and every view have been closed.
+     *
+     * @return A read only view of the data
+     */
+    public PooledByteBuffer createReadOnlyView() {
+        final ByteBuffer newValue = getBuffer().asReadOnlyBuffer();
+        increaseReferenceCount();
+        return new View(newValue);
+    }
+
     public void increaseReferenceCount() {
         int val;
         do {
@@ -183,6 +165,50 @@ public class ReferenceCountedPooled implements PooledByteBuffer {
         void freed();
     }
 
+    private final class View implements PooledByteBuffer {
+
+        private final ByteBuffer buffer;
+        private boolean free = false;
+
+        private View(ByteBuffer buffer) {
+            this.buffer = buffer;
+        }
+
+        @Override
+        public void close() {
+            //make sure that a given view can only be freed once
+            if(!free) {
+                free = true;
+                ReferenceCountedPooled.this.freeInternal();
+            }
+        }
+
+        @Override
+        public boolean isOpen() {
+            return !free;
+        }
+
+        @Override
+        public ByteBuffer getBuffer() throws IllegalStateException {
+            if(free) {
+                throw UndertowMessages.MESSAGES.bufferAlreadyFreed();
+            }
+            return buffer;
+        }
+
+        @Override
+        public String toString() {
+            return "ReferenceCountedPooled$view{" +
+                    "buffer=" + buffer +
+                    "free=" + free +
+                    "underlying=" + underlying +
+                    ", referenceCount=" + referenceCount +
+                    ", mainFreed=" + mainFreed +
+                    ", slice=" + slice +
+                    '}';
+        }
+    }
+
     @Override
     public String toString() {
         return "ReferenceCountedPooled{" +
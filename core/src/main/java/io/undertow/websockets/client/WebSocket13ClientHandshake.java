@@ -80,7 +80,8 @@ public class WebSocket13ClientHandshake extends WebSocketClientHandshake {
                 for (WebSocketExtension ext : selected) {
                     for (ExtensionHandshake extHandshake : extensions) {
                         if (ext.getName().equals(extHandshake.getName())) {
-                            negotiated.add(extHandshake.create());
+                            //apply the parameters the server responded with, e.g. client_no_context_takeover
+                            negotiated.add(extHandshake.create(ext));
                         }
                     }
                 }
@@ -0,0 +1,30 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.websockets.core;
+
+/**
+ * A {@link StreamSinkFrameChannel} for data that already contains the complete web socket frame. No header is added
+ * and no extensions are applied, so a single framed message can be shared between many channels.
+ */
+final class FramedStreamSinkChannel extends StreamSinkFrameChannel {
+
+    FramedStreamSinkChannel(WebSocketChannel channel, WebSocketFrameType type) {
+        super(channel, type);
+    }
+}
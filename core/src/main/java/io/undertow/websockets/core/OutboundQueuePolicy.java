@@ -0,0 +1,54 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.websockets.core;
+
+/**
+ * The action a {@link WebSocketChannel} takes when a new data frame is queued while the outbound queue is over the limits
+ * set with {@link WebSocketChannel#setMaxQueuedFrames(int)} and {@link WebSocketChannel#setMaxQueuedBytes(long)}.
+ * <p>
+ * Frames that are dropped are never written out, and their send callback is notified with a
+ * {@link WebSocketMessageDroppedException}. Only complete messages that have not started to be written are ever dropped,
+ * so the peer never sees a partial message.
+ */
+public enum OutboundQueuePolicy {
+
+    /**
+     * The new frame is dropped, the frames that are already queued are sent as normal.
+     */
+    DROP_NEWEST,
+
+    /**
+     * The oldest queued frames are dropped until the queue is back under the limits.
+     */
+    DROP_OLDEST,
+
+    /**
+     * A queued frame is replaced when a new frame with the same conflation key is queued, so only the most recent value
+     * for each key is sent. If the queue is still over the limits the oldest frames are dropped.
+     *
+     * @see StreamSinkFrameChannel#setConflationKey(Object)
+     */
+    CONFLATE,
+
+    /**
+     * All queued frames are dropped and the connection is closed with a
+     * {@link CloseMessage#MSG_VIOLATES_POLICY} close code.
+     */
+    CLOSE
+}
@@ -19,6 +19,8 @@ package io.undertow.websockets.core;
 
 import io.undertow.server.protocol.framed.AbstractFramedStreamSinkChannel;
 
+import java.io.IOException;
+
 /**
  * @author <a href="mailto:nmaurer@redhat.com">Norman Maurer</a>
  */
@@ -28,6 +30,23 @@ public abstract class StreamSinkFrameChannel extends AbstractFramedStreamSinkCha
 
     private int rsv;
 
+    private volatile Object conflationKey;
+
+    /**
+     * If this frame was dropped because the outbound queue was full
+     */
+    private volatile boolean dropped;
+
+    /**
+     * If any part of this message has been written out
+     */
+    private volatile boolean flushed;
+
+    /**
+     * The number of bytes this frame is counted as in the outbound queue of the channel, or -1 if it is not counted
+     */
+    private long queuedBytes = -1;
+
     protected StreamSinkFrameChannel(WebSocketChannel channel, WebSocketFrameType type) {
         super(channel);
         this.type = type;
@@ -87,4 +106,82 @@ public abstract class StreamSinkFrameChannel extends AbstractFramedStreamSinkCha
     public boolean isFinalFragment() {
         return super.isFinalFrameQueued();
     }
+
+    /**
+     * Returns the key used to conflate this message with other queued messages.
+     *
+     * @return the conflation key, or <code>null</code> if this message is never conflated
+     */
+    public Object getConflationKey() {
+        return conflationKey;
+    }
+
+    /**
+     * Sets the key used to conflate this message. If the channel uses the {@link OutboundQueuePolicy#CONFLATE} policy a
+     * queued message that has not started to be written out is dropped when a new message with an equal key is queued.
+     * <p>
+     * This must be set before the final frame is queued.
+     *
+     * @param conflationKey the conflation key
+     */
+    public void setConflationKey(Object conflationKey) {
+        this.conflationKey = conflationKey;
+    }
+
+    /**
+     * @return <code>true</code> if this frame was dropped as the outbound queue of the channel was full
+     */
+    public boolean isDropped() {
+        return dropped;
+    }
+
+    @Override
+    public boolean flush() throws IOException {
+        if (dropped) {
+            throw WebSocketMessages.MESSAGES.messageDropped();
+        }
+        return super.flush();
+    }
+
+    @Override
+    public void markBroken() {
+        getWebSocketChannel().frameReleased(this);
+        super.markBroken();
+    }
+
+    @Override
+    protected void channelForciblyClosed() throws IOException {
+        if (!dropped) {
+            //a dropped frame was never written, so closing it does not break the connection
+            super.channelForciblyClosed();
+        }
+    }
+
+    @Override
+    protected void handleFlushComplete(boolean finalFrame) {
+        flushed = true;
+        getWebSocketChannel().frameReleased(this);
+    }
+
+    /**
+     * @return <code>true</code> if this is a complete message that has not started to be written out, and so can be
+     * dropped without the peer seeing a partial message
+     */
+    boolean isDroppable() {
+        return !dropped && !flushed && isFinalFragment();
+    }
+
+    void markDropped() {
+        dropped = true;
+    }
+
+    synchronized void setQueuedBytes(long queuedBytes) {
+        this.queuedBytes = queuedBytes;
+    }
+
+    synchronized long releaseQueuedBytes() {
+        long queuedBytes = this.queuedBytes;
+        this.queuedBytes = -1;
+        return queuedBytes;
+    }
 }
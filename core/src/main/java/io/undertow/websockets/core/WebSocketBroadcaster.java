@@ -0,0 +1,283 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.websockets.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import io.undertow.connector.ByteBufferPool;
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.util.ImmediatePooledByteBuffer;
+import io.undertow.util.ReferenceCountedPooled;
+import io.undertow.websockets.core.protocol.version07.WebSocket07Channel;
+import io.undertow.websockets.extensions.ExtensionFunction;
+import io.undertow.websockets.extensions.NoopExtensionFunction;
+import io.undertow.websockets.extensions.PerMessageDeflateFunction;
+import org.xnio.IoUtils;
+
+/**
+ * Sends the same message to many web socket channels.
+ * <p>
+ * The message is encoded once. For server channels it is also framed once, into a single reference counted buffer,
+ * and every channel writes out a read only view of that buffer. Channels without extensions share one frame, and
+ * channels that negotiated {@code permessage-deflate} without server context takeover share one compressed frame for
+ * each compression level. Client channels mask their frames, and other extensions make every frame depend on the
+ * connection, so those channels frame the encoded message themselves.
+ * <p>
+ * If a limit on queued messages is set then a channel that already has that many broadcast messages waiting to be
+ * written out does not get the message, and is reported to the {@link SlowConsumerListener}.
+ */
+public class WebSocketBroadcaster {
+
+    private static final byte OPCODE_TEXT = 0x1;
+    private static final byte OPCODE_BINARY = 0x2;
+
+    private final AtomicLong droppedMessages = new AtomicLong();
+
+    private volatile int maxQueuedMessages = -1;
+    private volatile long sendTimeout = -1;
+    private volatile SlowConsumerListener slowConsumerListener;
+
+    public int getMaxQueuedMessages() {
+        return maxQueuedMessages;
+    }
+
+    /**
+     * Sets the number of broadcast messages that can be waiting to be written out on a single channel. Once a channel
+     * has this many queued messages further messages are dropped for that channel until it catches up. A negative
+     * value means there is no limit.
+     *
+     * @param maxQueuedMessages the maximum number of queued messages per channel
+     * @return this broadcaster
+     */
+    public WebSocketBroadcaster setMaxQueuedMessages(int maxQueuedMessages) {
+        this.maxQueuedMessages = maxQueuedMessages;
+        return this;
+    }
+
+    public long getSendTimeout() {
+        return sendTimeout;
+    }
+
+    /**
+     * Sets the time in milliseconds a message can take to be written out to a channel. If this is exceeded the frame
+     * is closed and the callback is notified of the failure. A value of zero or less means there is no timeout.
+     *
+     * @param sendTimeout the timeout in milliseconds
+     * @return this broadcaster
+     */
+    public WebSocketBroadcaster setSendTimeout(long sendTimeout) {
+        this.sendTimeout = sendTimeout;
+        return this;
+    }
+
+    public SlowConsumerListener getSlowConsumerListener() {
+        return slowConsumerListener;
+    }
+
+    public WebSocketBroadcaster setSlowConsumerListener(SlowConsumerListener slowConsumerListener) {
+        this.slowConsumerListener = slowConsumerListener;
+        return this;
+    }
+
+    /**
+     * @return the number of messages that were not sent to a channel because it had too many queued messages
+     */
+    public long getDroppedMessages() {
+        return droppedMessages.get();
+    }
+
+    public int broadcastText(final String message, final Collection<? extends WebSocketChannel> channels) {
+        return broadcastText(message, channels, null, null);
+    }
+
+    /**
+     * Sends a text message to all the given channels.
+     *
+     * @param message  the message
+     * @param channels the channels to send the message to
+     * @param callback the callback, which is notified once for every channel the message was sent to
+     * @param context  the context passed to the callback
+     * @return the number of channels the message was queued on
+     */
+    public <T> int broadcastText(final String message, final Collection<? extends WebSocketChannel> channels, final WebSocketCallback<T> callback, T context) {
+        return broadcast(ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8)), WebSocketFrameType.TEXT, channels, callback, context);
+    }
+
+    public int broadcastBinary(final ByteBuffer data, final Collection<? extends WebSocketChannel> channels) {
+        return broadcastBinary(data, channels, null, null);
+    }
+
+    /**
+     * Sends a binary message to all the given channels. The data is copied before this method returns, and the position
+     * of the buffer is not changed.
+     *
+     * @param data     the message
+     * @param channels the channels to send the message to
+     * @param callback the callback, which is notified once for every channel the message was sent to
+     * @param context  the context passed to the callback
+     * @return the number of channels the message was queued on
+     */
+    public <T> int broadcastBinary(final ByteBuffer data, final Collection<? extends WebSocketChannel> channels, final WebSocketCallback<T> callback, T context) {
+        return broadcast(data, WebSocketFrameType.BINARY, channels, callback, context);
+    }
+
+    private <T> int broadcast(final ByteBuffer payload, final WebSocketFrameType type, final Collection<? extends WebSocketChannel> channels, final WebSocketCallback<T> callback, T context) {
+        final QueuedMessageCallback<T> queuedMessageCallback = new QueuedMessageCallback<>(callback);
+        final int maxQueuedMessages = this.maxQueuedMessages;
+        final byte opCode = type == WebSocketFrameType.TEXT ? OPCODE_TEXT : OPCODE_BINARY;
+        ReferenceCountedPooled message = null;
+        ReferenceCountedPooled frame = null;
+        Map<Integer, ReferenceCountedPooled> compressedFrames = null;
+        int sent = 0;
+        try {
+            for (WebSocketChannel channel : channels) {
+                if (maxQueuedMessages >= 0 && channel.getQueuedBroadcastMessages() >= maxQueuedMessages) {
+                    droppedMessages.incrementAndGet();
+                    SlowConsumerListener listener = slowConsumerListener;
+                    if (listener != null) {
+                        listener.messageDropped(channel);
+                    }
+                    continue;
+                }
+                final ExtensionFunction extension = channel.getExtensionFunction();
+                final PooledByteBuffer data;
+                boolean framed = true;
+                if (!(channel instanceof WebSocket07Channel) || channel.isClient()) {
+                    //client frames are masked in place, so they need their own copy
+                    data = copy(channel.getBufferPool(), payload);
+                    framed = false;
+                } else if (!channel.areExtensionsSupported() || extension == NoopExtensionFunction.INSTANCE) {
+                    if (frame == null) {
+                        frame = frame(channel.getBufferPool(), opCode, 0, payload);
+                    }
+                    data = frame.createReadOnlyView();
+                } else if (extension instanceof PerMessageDeflateFunction && !((PerMessageDeflateFunction) extension).isCompressContextTakeover()) {
+                    final int level = ((PerMessageDeflateFunction) extension).getDeflaterLevel();
+                    if (compressedFrames == null) {
+                        compressedFrames = new HashMap<>();
+                    }
+                    ReferenceCountedPooled compressed = compressedFrames.get(level);
+                    if (compressed == null) {
+                        compressed = frame(channel.getBufferPool(), opCode, extension.writeRsv(0), PerMessageDeflateFunction.compressMessage(payload, level));
+                        compressedFrames.put(level, compressed);
+                    }
+                    data = compressed.createReadOnlyView();
+                } else {
+                    if (message == null) {
+                        message = new ReferenceCountedPooled(copy(channel.getBufferPool(), payload), 1);
+                    }
+                    data = message.createReadOnlyView();
+                    framed = false;
+                }
+                channel.queuedBroadcastMessages.incrementAndGet();
+                WebSockets.sendInternal(data, type, channel, queuedMessageCallback, context, sendTimeout, framed, null);
+                ++sent;
+            }
+        } finally {
+            IoUtils.safeClose(message, frame);
+            if (compressedFrames != null) {
+                for (ReferenceCountedPooled compressed : compressedFrames.values()) {
+                    compressed.close();
+                }
+            }
+        }
+        return sent;
+    }
+
+    private static PooledByteBuffer copy(ByteBufferPool pool, ByteBuffer payload) {
+        final PooledByteBuffer pooled = allocate(pool, payload.remaining());
+        pooled.getBuffer().put(payload.duplicate());
+        pooled.getBuffer().flip();
+        return pooled;
+    }
+
+    /**
+     * Creates a complete unmasked frame for a message that is sent in a single fragment
+     */
+    private static ReferenceCountedPooled frame(ByteBufferPool pool, byte opCode, int rsv, ByteBuffer payload) {
+        final int length = payload.remaining();
+        final PooledByteBuffer pooled = allocate(pool, length + (length <= 125 ? 2 : length <= 0xFFFF ? 4 : 10));
+        final ByteBuffer buffer = pooled.getBuffer();
+        buffer.put((byte) (1 << 7 | (rsv & 7) << 4 | opCode));
+        if (length <= 125) {
+            buffer.put((byte) length);
+        } else if (length <= 0xFFFF) {
+            buffer.put((byte) 126);
+            buffer.putShort((short) length);
+        } else {
+            buffer.put((byte) 127);
+            buffer.putLong(length);
+        }
+        buffer.put(payload.duplicate());
+        buffer.flip();
+        return new ReferenceCountedPooled(pooled, 1);
+    }
+
+    private static PooledByteBuffer allocate(ByteBufferPool pool, int size) {
+        if (size > pool.getBufferSize()) {
+            return new ImmediatePooledByteBuffer(ByteBuffer.allocate(size));
+        }
+        return pool.allocate();
+    }
+
+    /**
+     * Listener that is notified when a message is not sent to a channel because the peer is not reading fast enough.
+     */
+    public interface SlowConsumerListener {
+
+        /**
+         * Invoked when a message is dropped for a channel that has too many queued broadcast messages.
+         *
+         * @param channel the channel
+         */
+        void messageDropped(WebSocketChannel channel);
+    }
+
+    private static final class QueuedMessageCallback<T> implements WebSocketCallback<T> {
+
+        private final WebSocketCallback<T> delegate;
+
+        private QueuedMessageCallback(WebSocketCallback<T> delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        public void complete(WebSocketChannel channel, T context) {
+            channel.queuedBroadcastMessages.decrementAndGet();
+            if (delegate != null) {
+                delegate.complete(channel, context);
+            }
+        }
+
+        @Override
+        public void onError(WebSocketChannel channel, T context, Throwable throwable) {
+            channel.queuedBroadcastMessages.decrementAndGet();
+            if (delegate != null) {
+                delegate.onError(channel, context, throwable);
+            } else {
+                IoUtils.safeClose(channel);
+            }
+        }
+    }
+}
@@ -41,6 +41,10 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * A {@link org.xnio.channels.ConnectedChannel} which can be used to send and receive WebSocket Frames.
@@ -68,6 +72,29 @@ public abstract class WebSocketChannel extends AbstractFramedChannel<WebSocketCh
     protected final ExtensionFunction extensionFunction;
     protected final boolean hasReservedOpCode;
 
+    /**
+     * The number of broadcast messages that have been queued on this channel and not yet written out
+     */
+    final AtomicInteger queuedBroadcastMessages = new AtomicInteger();
+
+    private volatile int maxQueuedFrames = -1;
+    private volatile long maxQueuedBytes = -1;
+    private volatile OutboundQueuePolicy outboundQueuePolicy = OutboundQueuePolicy.DROP_NEWEST;
+    private volatile OutboundQueueListener outboundQueueListener;
+
+    /**
+     * The data frames that have been queued and not yet written out or dropped
+     */
+    private final AtomicInteger queuedFrames = new AtomicInteger();
+    private final AtomicLong queuedBytes = new AtomicLong();
+    private final AtomicLong droppedFrames = new AtomicLong();
+
+    /**
+     * The queued data frames in the order they were queued, only tracked if outbound limits are set
+     */
+    private final ConcurrentLinkedDeque<StreamSinkFrameChannel> queuedDataFrames = new ConcurrentLinkedDeque<>();
+    private final AtomicBoolean outboundLimitClose = new AtomicBoolean();
+
     /**
      * an incoming frame that has not been created yet
      */
@@ -339,6 +366,20 @@ public abstract class WebSocketChannel extends AbstractFramedChannel<WebSocketCh
      * @param type        The {@link WebSocketFrameType} for which a {@link StreamSinkChannel} should be created
      */
     public final StreamSinkFrameChannel send(WebSocketFrameType type) throws IOException {
+        return send(type, false);
+    }
+
+    /**
+     * Returns a new {@link StreamSinkFrameChannel} for data that already contains the complete frame, including the
+     * header and any extension encoding. This is used to write the same framed message to many channels.
+     *
+     * @param type The {@link WebSocketFrameType} of the framed data
+     */
+    StreamSinkFrameChannel sendFramed(WebSocketFrameType type) throws IOException {
+        return send(type, true);
+    }
+
+    private StreamSinkFrameChannel send(WebSocketFrameType type, boolean framed) throws IOException {
         if(closeFrameSent || (closeFrameReceived && type != WebSocketFrameType.CLOSE)) {
             throw WebSocketMessages.MESSAGES.channelClosed();
         }
@@ -347,7 +388,7 @@ public abstract class WebSocketChannel extends AbstractFramedChannel<WebSocketCh
         }
 
 
-        StreamSinkFrameChannel ch = createStreamSinkChannel(type);
+        StreamSinkFrameChannel ch = framed ? new FramedStreamSinkChannel(this, type) : createStreamSinkChannel(type);
         getFramePriority().addToOrderQueue(ch);
         if (type == WebSocketFrameType.CLOSE) {
             closeFrameSent = true;
@@ -399,6 +440,225 @@ public abstract class WebSocketChannel extends AbstractFramedChannel<WebSocketCh
         return Collections.unmodifiableSet(peerConnections);
     }
 
+    /**
+     * Returns the number of messages sent with a {@link WebSocketBroadcaster} that are queued on this channel waiting
+     * to be written out. A channel where this keeps growing belongs to a peer that is not reading fast enough.
+     *
+     * @return the number of queued broadcast messages
+     */
+    public int getQueuedBroadcastMessages() {
+        return queuedBroadcastMessages.get();
+    }
+
+    /**
+     * Sets the maximum number of data frames that can be queued on this channel waiting to be written out. When a frame
+     * is queued over this limit the {@link OutboundQueuePolicy} set with {@link #setOutboundQueuePolicy(OutboundQueuePolicy)}
+     * is applied.
+     *
+     * @param maxQueuedFrames the maximum number of queued frames, or -1 for no limit
+     * @return this channel
+     */
+    public WebSocketChannel setMaxQueuedFrames(int maxQueuedFrames) {
+        this.maxQueuedFrames = maxQueuedFrames;
+        return this;
+    }
+
+    public int getMaxQueuedFrames() {
+        return maxQueuedFrames;
+    }
+
+    /**
+     * Sets the maximum number of bytes of data frames that can be queued on this channel waiting to be written out.
+     * When a frame is queued over this limit the {@link OutboundQueuePolicy} set with
+     * {@link #setOutboundQueuePolicy(OutboundQueuePolicy)} is applied.
+     *
+     * @param maxQueuedBytes the maximum number of queued bytes, or -1 for no limit
+     * @return this channel
+     */
+    public WebSocketChannel setMaxQueuedBytes(long maxQueuedBytes) {
+        this.maxQueuedBytes = maxQueuedBytes;
+        return this;
+    }
+
+    public long getMaxQueuedBytes() {
+        return maxQueuedBytes;
+    }
+
+    /**
+     * Sets the policy that is applied when the outbound queue goes over its limits. Defaults to
+     * {@link OutboundQueuePolicy#DROP_NEWEST}.
+     *
+     * @param outboundQueuePolicy the policy
+     * @return this channel
+     */
+    public WebSocketChannel setOutboundQueuePolicy(OutboundQueuePolicy outboundQueuePolicy) {
+        if (outboundQueuePolicy == null) {
+            throw new IllegalArgumentException("outboundQueuePolicy");
+        }
+        this.outboundQueuePolicy = outboundQueuePolicy;
+        return this;
+    }
+
+    public OutboundQueuePolicy getOutboundQueuePolicy() {
+        return outboundQueuePolicy;
+    }
+
+    /**
+     * Sets a listener that is notified every time a frame is dropped because the outbound queue is over its limits.
+     *
+     * @param outboundQueueListener the listener
+     * @return this channel
+     */
+    public WebSocketChannel setOutboundQueueListener(OutboundQueueListener outboundQueueListener) {
+        this.outboundQueueListener = outboundQueueListener;
+        return this;
+    }
+
+    /**
+     * @return the number of text and binary frames that are queued waiting to be written out
+     */
+    public int getQueuedFrames() {
+        return queuedFrames.get();
+    }
+
+    /**
+     * @return the number of bytes of text and binary frames that are queued waiting to be written out
+     */
+    public long getQueuedBytes() {
+        return queuedBytes.get();
+    }
+
+    /**
+     * @return the number of frames that have been dropped because the outbound queue was over its limits
+     */
+    public long getDroppedFrames() {
+        return droppedFrames.get();
+    }
+
+    @Override
+    protected void queueFrame(StreamSinkFrameChannel frame) throws IOException {
+        WebSocketFrameType type = frame.getType();
+        if (type == WebSocketFrameType.TEXT || type == WebSocketFrameType.BINARY || type == WebSocketFrameType.CONTINUATION) {
+            frameQueued(frame);
+            try {
+                super.queueFrame(frame);
+            } catch (IOException e) {
+                frameReleased(frame);
+                throw e;
+            }
+        } else {
+            super.queueFrame(frame);
+        }
+    }
+
+    private void frameQueued(StreamSinkFrameChannel frame) throws IOException {
+        long bytes = frame.getBuffer().remaining();
+        frame.setQueuedBytes(bytes);
+        queuedFrames.incrementAndGet();
+        queuedBytes.addAndGet(bytes);
+        if (maxQueuedFrames < 0 && maxQueuedBytes < 0) {
+            return;
+        }
+        queuedDataFrames.add(frame);
+        OutboundQueuePolicy policy = outboundQueuePolicy;
+        if (policy == OutboundQueuePolicy.CONFLATE && frame.getConflationKey() != null && frame.isDroppable()) {
+            for (StreamSinkFrameChannel queued : queuedDataFrames) {
+                if (queued != frame && frame.getConflationKey().equals(queued.getConflationKey())) {
+                    dropQueuedFrame(queued, policy);
+                }
+            }
+        }
+        if (!isOutboundLimitExceeded()) {
+            return;
+        }
+        if (policy == OutboundQueuePolicy.CLOSE) {
+            dropNewFrame(frame, policy);
+            for (StreamSinkFrameChannel queued : queuedDataFrames) {
+                dropQueuedFrame(queued, policy);
+            }
+            if (outboundLimitClose.compareAndSet(false, true)) {
+                WebSockets.sendClose(CloseMessage.MSG_VIOLATES_POLICY, "Outbound queue limit exceeded", this, null);
+            }
+            return;
+        }
+        if (policy != OutboundQueuePolicy.DROP_NEWEST) {
+            for (StreamSinkFrameChannel queued : queuedDataFrames) {
+                if (!isOutboundLimitExceeded()) {
+                    return;
+                }
+                if (queued != frame) {
+                    dropQueuedFrame(queued, policy);
+                }
+            }
+        }
+        if (isOutboundLimitExceeded()) {
+            dropNewFrame(frame, policy);
+        }
+    }
+
+    private boolean isOutboundLimitExceeded() {
+        int maxFrames = maxQueuedFrames;
+        long maxBytes = maxQueuedBytes;
+        return (maxFrames >= 0 && queuedFrames.get() > maxFrames) || (maxBytes >= 0 && queuedBytes.get() > maxBytes);
+    }
+
+    /**
+     * Drops the frame that is being queued. It is still passed through the frame queue so that send ordering is
+     * maintained, but it is discarded instead of being written out.
+     */
+    private void dropNewFrame(StreamSinkFrameChannel frame, OutboundQueuePolicy policy) {
+        if (!frame.isDroppable()) {
+            return;
+        }
+        frame.markDropped();
+        frameReleased(frame);
+        frameDropped(frame, policy);
+    }
+
+    private void dropQueuedFrame(StreamSinkFrameChannel frame, OutboundQueuePolicy policy) {
+        if (!frame.isDroppable()) {
+            return;
+        }
+        boolean removed;
+        synchronized (this) {
+            removed = removePendingFrame(frame);
+            if (!removed && !isFrameWaiting(frame)) {
+                return;
+            }
+            //a frame that is still waiting is discarded by the frame priority when it is inserted
+            frame.markDropped();
+        }
+        if (removed) {
+            frame.markBroken();
+        } else {
+            frameReleased(frame);
+        }
+        frameDropped(frame, policy);
+    }
+
+    private void frameDropped(StreamSinkFrameChannel frame, OutboundQueuePolicy policy) {
+        droppedFrames.incrementAndGet();
+        OutboundQueueListener listener = outboundQueueListener;
+        if (listener != null) {
+            listener.frameDropped(this, frame, policy);
+        }
+    }
+
+    /**
+     * Removes a frame from the outbound queue accounting, once it has been written out or it will never be written.
+     */
+    void frameReleased(StreamSinkFrameChannel frame) {
+        long bytes = frame.releaseQueuedBytes();
+        if (bytes < 0) {
+            return;
+        }
+        queuedFrames.decrementAndGet();
+        queuedBytes.addAndGet(-bytes);
+        if (!queuedDataFrames.isEmpty()) {
+            queuedDataFrames.remove(frame);
+        }
+    }
+
     /**
      * If this is true the session is being closed because the remote peer sent a close frame
      * @return <code>true</code> if the remote peer closed the connection
@@ -407,6 +667,22 @@ public abstract class WebSocketChannel extends AbstractFramedChannel<WebSocketCh
         return closeInitiatedByRemotePeer;
     }
 
+    /**
+     * Listener that is notified when a frame is dropped because the outbound queue of a channel is over its limits.
+     */
+    public interface OutboundQueueListener {
+
+        /**
+         * Invoked when a frame is dropped. This may be invoked from the thread that is queuing a new frame, so it should
+         * not block.
+         *
+         * @param channel The channel the frame was queued on
+         * @param frame   The frame that will not be written out
+         * @param policy  The policy that caused the frame to be dropped
+         */
+        void frameDropped(WebSocketChannel channel, StreamSinkFrameChannel frame, OutboundQueuePolicy policy);
+    }
+
     /**
      * Interface that represents a frame channel that is in the process of being created
      */
@@ -72,6 +72,11 @@ public class WebSocketFramePriority implements FramePriority<WebSocketChannel, S
             newFrame.markBroken();
             return true;
         }
+        if (newFrame.isDropped()) {
+            //the outbound queue was full when this frame was queued
+            newFrame.markBroken();
+            return true;
+        }
         if (currentFragmentedSender == null) {
             //we are not sending fragmented
             if (!newFrame.isWritesShutdown()) {
@@ -0,0 +1,34 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.websockets.core;
+
+/**
+ * Exception that is reported to the sender of a message that was dropped because the outbound queue of the channel
+ * was over its limits. The channel itself is still usable.
+ * @see OutboundQueuePolicy
+ */
+public class WebSocketMessageDroppedException extends WebSocketException {
+
+    private static final long serialVersionUID = 2786153521917634632L;
+
+    public WebSocketMessageDroppedException(String msg) {
+        super(msg);
+    }
+
+}
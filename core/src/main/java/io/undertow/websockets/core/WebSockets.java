@@ -602,6 +602,37 @@ public class WebSockets {
         sendInternal(data, WebSocketFrameType.BINARY, wsChannel, callback, context, -1);
     }
 
+    /**
+     * Sends a complete text message that replaces any queued message with the same conflation key that has not started to
+     * be written out yet, if the channel uses the {@link OutboundQueuePolicy#CONFLATE} policy. The callback of a replaced
+     * message is notified with a {@link WebSocketMessageDroppedException}.
+     *
+     * @param message The text to send
+     * @param conflationKey The conflation key
+     * @param wsChannel The web socket channel
+     * @param callback The callback to invoke on completion
+     * @param context The context object that will be passed to the callback on completion
+     */
+    public static <T> void sendTextConflated(final String message, final Object conflationKey, final WebSocketChannel wsChannel, final WebSocketCallback<T> callback, T context) {
+        final ByteBuffer data = ByteBuffer.wrap(message.getBytes(StandardCharsets.UTF_8));
+        sendInternal(new ImmediatePooledByteBuffer(data), WebSocketFrameType.TEXT, wsChannel, callback, context, -1, false, conflationKey);
+    }
+
+    /**
+     * Sends a complete binary message that replaces any queued message with the same conflation key that has not started
+     * to be written out yet, if the channel uses the {@link OutboundQueuePolicy#CONFLATE} policy. The callback of a
+     * replaced message is notified with a {@link WebSocketMessageDroppedException}.
+     *
+     * @param data The data to send
+     * @param conflationKey The conflation key
+     * @param wsChannel The web socket channel
+     * @param callback The callback to invoke on completion
+     * @param context The context object that will be passed to the callback on completion
+     */
+    public static <T> void sendBinaryConflated(final ByteBuffer data, final Object conflationKey, final WebSocketChannel wsChannel, final WebSocketCallback<T> callback, T context) {
+        sendInternal(new ImmediatePooledByteBuffer(data), WebSocketFrameType.BINARY, wsChannel, callback, context, -1, false, conflationKey);
+    }
+
     /**
      * Sends a complete binary message, invoking the callback when complete
      *
@@ -901,9 +932,14 @@ public class WebSockets {
     }
 
     private static <T> void sendInternal(final PooledByteBuffer pooledData, WebSocketFrameType type, final WebSocketChannel wsChannel, final WebSocketCallback<T> callback, T context, long timeoutmillis) {
+        sendInternal(pooledData, type, wsChannel, callback, context, timeoutmillis, false, null);
+    }
+
+    static <T> void sendInternal(final PooledByteBuffer pooledData, WebSocketFrameType type, final WebSocketChannel wsChannel, final WebSocketCallback<T> callback, T context, long timeoutmillis, boolean framed, Object conflationKey) {
         boolean closePooledData = true;
         try {
-            StreamSinkFrameChannel channel = wsChannel.send(type);
+            StreamSinkFrameChannel channel = framed ? wsChannel.sendFramed(type) : wsChannel.send(type);
+            channel.setConflationKey(conflationKey);
             // TODO chunk data into some MTU-like thing to control packet size
             closePooledData = false; // channel.send takes ownership of pooledData so it no longer needs to be closed
             if(!channel.send(pooledData)) {
@@ -913,7 +949,7 @@ public class WebSockets {
         } catch (IOException e) {
             if (callback != null) {
                 callback.onError(wsChannel, context, e);
-            } else {
+            } else if (!(e instanceof WebSocketMessageDroppedException)) {
                 IoUtils.safeClose(wsChannel);
             }
         } finally {
@@ -944,6 +980,18 @@ public class WebSockets {
                     }, new ChannelExceptionHandler<StreamSinkFrameChannel>() {
                         @Override
                         public void handleException(StreamSinkFrameChannel channel, IOException exception) {
+                            if (exception instanceof WebSocketMessageDroppedException) {
+                                //only this message was dropped, the connection is still usable
+                                //the frame is closed the first time this is invoked, so the callback is only notified once
+                                if (channel.isOpen()) {
+                                    IoUtils.safeClose(channel);
+                                    if (callback != null) {
+                                        callback.onError(wsChannel, context, exception);
+                                    }
+                                }
+                                channel.getWriteSetter().set(null);
+                                return;
+                            }
                             if (callback != null) {
                                 callback.onError(wsChannel, context, exception);
                             }
@@ -21,6 +21,7 @@ import io.undertow.server.protocol.framed.FrameHeaderData;
 import io.undertow.websockets.core.function.ChannelFunction;
 
 import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 
 /**
  * @author <a href="mailto:nmaurer@redhat.com">Norman Maurer</a>
@@ -50,12 +51,32 @@ public final class Masker implements ChannelFunction {
 
     private void mask(ByteBuffer buf, int position, int length) {
         int limit = position + length;
-        for (int i = position ; i < limit; ++i) {
+        int i = position;
+        if (length >= 8) {
+            //mask a long at a time, as 8 is a multiple of the key length the key offset does not change
+            long key = longMaskingKey(buf.order());
+            int longLimit = limit - 7;
+            for (; i < longLimit; i += 8) {
+                buf.putLong(i, buf.getLong(i) ^ key);
+            }
+        }
+        for (; i < limit; ++i) {
             buf.put(i, (byte) (buf.get(i) ^ maskingKey[m++]));
             m %= 4;
         }
     }
 
+    /**
+     * Returns the masking key repeated to fill a long, starting at the current key offset, in the given byte order
+     */
+    private long longMaskingKey(ByteOrder order) {
+        long key = 0;
+        for (int j = 0; j < 8; ++j) {
+            key = key << 8 | (maskingKey[(m + j) & 3] & 0xFF);
+        }
+        return order == ByteOrder.BIG_ENDIAN ? key : Long.reverseBytes(key);
+    }
+
     @Override
     public void newFrame(FrameHeaderData headerData) {
         WebSocket07Channel.WebSocketFrameHeader header = (WebSocket07Channel.WebSocketFrameHeader) headerData;
@@ -38,6 +38,11 @@ public class UTF8Checker implements ChannelFunction {
     private static final int UTF8_ACCEPT = 0;
     private static final int UTF8_REJECT = 12;
 
+    /**
+     * The high bit of every byte in a long, if none are set the long only contains ASCII characters
+     */
+    private static final long NON_ASCII_MASK = 0x8080808080808080L;
+
     private static final byte[] TYPES = {0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
             0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
             0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0,
@@ -77,8 +82,14 @@ public class UTF8Checker implements ChannelFunction {
      */
     private void checkUTF8(ByteBuffer buf, int position, int length) throws UnsupportedEncodingException {
         int limit = position + length;
-        for (int i = position; i < limit; i++) {
-            checkUTF8(buf.get(i));
+        int i = position;
+        while (i < limit) {
+            if (state == UTF8_ACCEPT && limit - i >= 8 && (buf.getLong(i) & NON_ASCII_MASK) == 0) {
+                //eight ASCII characters, which do not change the state
+                i += 8;
+            } else {
+                checkUTF8(buf.get(i++));
+            }
         }
     }
 
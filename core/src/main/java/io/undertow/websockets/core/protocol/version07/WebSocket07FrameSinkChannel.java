@@ -65,6 +65,7 @@ public abstract class WebSocket07FrameSinkChannel extends StreamSinkFrameChannel
 
     @Override
     protected void handleFlushComplete(boolean finalFrame) {
+        super.handleFlushComplete(finalFrame);
         dataWritten = true;
 // TODO not sure we need to do this as the key was set when it was last used
 //        if(masker != null) {
@@ -62,4 +62,17 @@ public interface ExtensionHandshake {
      * @return a new instance {@link ExtensionFunction}
      */
     ExtensionFunction create();
+
+    /**
+     * Create a new instance of the {@link ExtensionFunction} for a connection that negotiated the given parameters.
+     * The handshake is shared by all connections, so the parameters must only be applied to the returned function.
+     * <p>
+     * The default implementation ignores the parameters and calls {@link #create()}.
+     *
+     * @param negotiated the extension as it appears in the handshake response
+     * @return a new instance {@link ExtensionFunction}
+     */
+    default ExtensionFunction create(final WebSocketExtension negotiated) {
+        return create();
+    }
 }
@@ -21,6 +21,10 @@ package io.undertow.websockets.extensions;
 import io.undertow.connector.ByteBufferPool;
 import io.undertow.connector.PooledByteBuffer;
 import io.undertow.util.ImmediatePooledByteBuffer;
+import io.undertow.util.NewInstanceObjectPool;
+import io.undertow.util.ObjectPool;
+import io.undertow.util.PooledObject;
+import io.undertow.util.SimpleObjectPool;
 import io.undertow.websockets.core.StreamSinkFrameChannel;
 import io.undertow.websockets.core.StreamSourceFrameChannel;
 import io.undertow.websockets.core.WebSocketChannel;
@@ -31,6 +35,8 @@ import org.xnio.IoUtils;
 
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.zip.DataFormatException;
 import java.util.zip.Deflater;
 import java.util.zip.Inflater;
@@ -43,6 +49,10 @@ import java.util.zip.Inflater;
  * This implementation does not support parameters: {@code server_max_window_bits, client_max_window_bits} .
  * <p>
  * It uses the DEFLATE implementation algorithm packaged on {@link Deflater} and {@link Inflater} classes.
+ * <p>
+ * If a pool is provided for a direction that does not use context takeover the {@link Deflater} or {@link Inflater} is
+ * only borrowed from the pool while a message is being processed, rather than being held for the life of the
+ * connection. This greatly reduces the native memory used by a large number of mostly idle connections.
  *
  * @author Lucas Ponce
  * @see <a href="http://tools.ietf.org/html/draft-ietf-hybi-permessage-compression-18">Compression Extensions for WebSocket</a>
@@ -51,11 +61,30 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
 
     private static final byte[] TAIL = new byte[]{0x00, 0x00, (byte) 0xFF, (byte) 0xFF};
 
+    /**
+     * Approximate native memory used by zlib for a deflater with the default window size and memory level, see the
+     * zlib documentation: {@code (1 << (windowBits + 2)) + (1 << (memLevel + 9))}
+     */
+    static final int DEFLATER_NATIVE_MEMORY = (1 << 17) + (1 << 17);
+
+    /**
+     * Approximate native memory used by zlib for an inflater with the default window size: {@code 1 << windowBits}
+     * plus about 7KB of state
+     */
+    static final int INFLATER_NATIVE_MEMORY = (1 << 15) + 7 * 1024;
+
+    private static final AtomicLong totalNativeMemory = new AtomicLong();
+
     private final int deflaterLevel;
     private final boolean compressContextTakeover;
     private final boolean decompressContextTakeover;
-    private final Inflater decompress;
-    private final Deflater compress;
+    private final ObjectPool<Deflater> deflaterPool;
+    private final ObjectPool<Inflater> inflaterPool;
+    private Inflater decompress;
+    private Deflater compress;
+    private PooledObject<Inflater> pooledDecompress;
+    private PooledObject<Deflater> pooledCompress;
+    private long nativeMemory;
     private StreamSourceFrameChannel currentReadChannel;
 
     /**
@@ -66,11 +95,150 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
      * @param decompressContextTakeover flag for decompressor context takeover or without decompressor context
      */
     public PerMessageDeflateFunction(final int deflaterLevel, boolean compressContextTakeover, boolean decompressContextTakeover) {
+        this(deflaterLevel, compressContextTakeover, decompressContextTakeover, null, null);
+    }
+
+    /**
+     * Create a new {@code PerMessageDeflateExtension} instance that borrows its compressor and decompressor from a pool
+     * for each message, for the directions that do not use context takeover.
+     * <p>
+     * The pools must reset instances when they are returned, as the pools created by
+     * {@link io.undertow.conduits.DeflatingStreamSinkConduit#simpleDeflaterPool(int, int)} and
+     * {@link #simpleInflaterPool(int)} do.
+     *
+     * @param deflaterLevel             the level of configuration of DEFLATE algorithm implementation
+     * @param compressContextTakeover   flag for compressor context takeover or without compressor context
+     * @param decompressContextTakeover flag for decompressor context takeover or without decompressor context
+     * @param deflaterPool              the pool of nowrap deflaters, or <code>null</code> to use a deflater per connection
+     * @param inflaterPool              the pool of nowrap inflaters, or <code>null</code> to use an inflater per connection
+     */
+    public PerMessageDeflateFunction(final int deflaterLevel, boolean compressContextTakeover, boolean decompressContextTakeover,
+                                     ObjectPool<Deflater> deflaterPool, ObjectPool<Inflater> inflaterPool) {
         this.deflaterLevel = deflaterLevel;
-        this.decompress = new Inflater(true);
-        this.compress = new Deflater(this.deflaterLevel, true);
         this.compressContextTakeover = compressContextTakeover;
         this.decompressContextTakeover = decompressContextTakeover;
+        this.deflaterPool = compressContextTakeover ? null : deflaterPool;
+        this.inflaterPool = decompressContextTakeover ? null : inflaterPool;
+        if (this.inflaterPool == null) {
+            this.decompress = new Inflater(true);
+            addNativeMemory(INFLATER_NATIVE_MEMORY);
+        }
+        if (this.deflaterPool == null) {
+            this.compress = new Deflater(this.deflaterLevel, true);
+            addNativeMemory(DEFLATER_NATIVE_MEMORY);
+        }
+    }
+
+    public static ObjectPool<Inflater> newInstanceInflaterPool() {
+        return new NewInstanceObjectPool<Inflater>(() -> new Inflater(true), Inflater::end);
+    }
+
+    public static ObjectPool<Inflater> simpleInflaterPool(int poolSize) {
+        return new SimpleObjectPool<Inflater>(poolSize, () -> new Inflater(true), Inflater::reset, Inflater::end);
+    }
+
+    /**
+     * Returns an estimate of the native zlib memory held by this connection. A pooled compressor or decompressor is
+     * only counted while it is borrowed for a message.
+     *
+     * @return the estimated native memory in bytes
+     */
+    public synchronized long getNativeMemoryUsage() {
+        return nativeMemory;
+    }
+
+    /**
+     * @return an estimate of the native zlib memory held by all open {@code permessage-deflate} connections in bytes
+     */
+    public static long getTotalNativeMemoryUsage() {
+        return totalNativeMemory.get();
+    }
+
+    private void addNativeMemory(long bytes) {
+        nativeMemory += bytes;
+        totalNativeMemory.addAndGet(bytes);
+    }
+
+    private Deflater compressor() {
+        if (compress == null) {
+            pooledCompress = deflaterPool.allocate();
+            compress = pooledCompress.getObject();
+            compress.setLevel(deflaterLevel);
+            addNativeMemory(DEFLATER_NATIVE_MEMORY);
+        }
+        return compress;
+    }
+
+    private Inflater decompressor() {
+        if (decompress == null) {
+            pooledDecompress = inflaterPool.allocate();
+            decompress = pooledDecompress.getObject();
+            addNativeMemory(INFLATER_NATIVE_MEMORY);
+        }
+        return decompress;
+    }
+
+    private void releaseCompressor() {
+        if (pooledCompress != null) {
+            pooledCompress.close();
+            pooledCompress = null;
+            compress = null;
+            addNativeMemory(-DEFLATER_NATIVE_MEMORY);
+        }
+    }
+
+    private void releaseDecompressor() {
+        if (pooledDecompress != null) {
+            pooledDecompress.close();
+            pooledDecompress = null;
+            decompress = null;
+            addNativeMemory(-INFLATER_NATIVE_MEMORY);
+        }
+    }
+
+    public int getDeflaterLevel() {
+        return deflaterLevel;
+    }
+
+    /**
+     * @return {@code true} if the compressor keeps its context between messages, in which case the compressed form of
+     *         a message depends on every message sent before it on the connection
+     */
+    public boolean isCompressContextTakeover() {
+        return compressContextTakeover;
+    }
+
+    /**
+     * Compresses a complete message with a new compressor. The result is the payload this function sends for a message
+     * that is written as a single frame when compressor context takeover is disabled, so it can be shared between
+     * connections that negotiated the same level.
+     *
+     * @param data          the message, this buffer is not modified
+     * @param deflaterLevel the level of configuration of DEFLATE algorithm implementation
+     * @return the compressed payload
+     */
+    public static ByteBuffer compressMessage(ByteBuffer data, int deflaterLevel) {
+        final Deflater deflater = new Deflater(deflaterLevel, true);
+        try {
+            if (data.hasArray()) {
+                deflater.setInput(data.array(), data.arrayOffset() + data.position(), data.remaining());
+            } else {
+                deflater.setInput(Buffers.take(data.duplicate()));
+            }
+            byte[] output = new byte[Math.max(64, data.remaining() / 2)];
+            int length = 0;
+            do {
+                if (length == output.length) {
+                    output = Arrays.copyOf(output, output.length * 2);
+                }
+                length += deflater.deflate(output, length, output.length - length, Deflater.SYNC_FLUSH);
+            } while ((!deflater.needsInput() && !deflater.finished()) || length == output.length);
+            //the loop only exits once there is space left in the output
+            output[length++] = 0;
+            return ByteBuffer.wrap(output, 0, length);
+        } finally {
+            deflater.end();
+        }
     }
 
     @Override
@@ -85,6 +253,7 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
 
     @Override
     public synchronized PooledByteBuffer transformForWrite(PooledByteBuffer pooledBuffer, StreamSinkFrameChannel channel, boolean lastFrame) throws IOException {
+        final Deflater compress = compressor();
         ByteBuffer buffer = pooledBuffer.getBuffer();
         PooledByteBuffer inputBuffer = null;
         if (buffer.hasArray()) {
@@ -120,7 +289,9 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
 
         if(lastFrame) {
             outputBuffer.put((byte) 0);
-            if (!compressContextTakeover) {
+            if (pooledCompress != null) {
+                releaseCompressor();
+            } else if (!compressContextTakeover) {
                 compress.reset();
             }
         }
@@ -167,6 +338,7 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
             //rsv bit not set, this message is not compressed
             return pooledBuffer;
         }
+        final Inflater decompress = decompressor();
         PooledByteBuffer output = allocateBufferWithArray(channel.getWebSocketChannel(), 0); // first pass
         PooledByteBuffer inputBuffer = null;
         if (currentReadChannel != null && currentReadChannel != channel) {
@@ -194,6 +366,7 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
             decompress.setInput(TAIL);
             output = decompress(channel.getWebSocketChannel(), output);
             currentReadChannel = null;
+            releaseDecompressor();
         } else {
             currentReadChannel = channel;
         }
@@ -228,9 +401,21 @@ public class PerMessageDeflateFunction implements ExtensionFunction {
     }
 
     @Override
-    public void dispose() {
+    public synchronized void dispose() {
         // Call end so that native zlib resources can be immediately released rather than relying on finalizer
-        compress.end();
-        decompress.end();
+        if (pooledCompress != null) {
+            releaseCompressor();
+        } else if (compress != null) {
+            compress.end();
+            compress = null;
+            addNativeMemory(-DEFLATER_NATIVE_MEMORY);
+        }
+        if (pooledDecompress != null) {
+            releaseDecompressor();
+        } else if (decompress != null) {
+            decompress.end();
+            decompress = null;
+            addNativeMemory(-INFLATER_NATIVE_MEMORY);
+        }
     }
 }
@@ -22,7 +22,9 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.zip.Deflater;
+import java.util.zip.Inflater;
 
+import io.undertow.util.ObjectPool;
 import io.undertow.websockets.WebSocketExtension;
 import io.undertow.websockets.core.WebSocketLogger;
 
@@ -32,6 +34,10 @@ import io.undertow.websockets.core.WebSocketLogger;
  * This implementation supports parameters: {@code server_no_context_takeover, client_no_context_takeover} .
  * <p>
  * This implementation does not support parameters: {@code server_max_window_bits, client_max_window_bits} .
+ * <p>
+ * If a server is configured with a compressor or decompressor pool it always negotiates no context takeover for that
+ * direction, which RFC 7692 allows a server to do even if the client did not offer it. The zlib state is then only
+ * held while a message is being processed, see {@link PerMessageDeflateFunction}.
  *
  * @see <a href="http://tools.ietf.org/html/draft-ietf-hybi-permessage-compression-18">Compression Extensions for WebSocket</a>
  *
@@ -47,11 +53,13 @@ public class PerMessageDeflateHandshake implements ExtensionHandshake {
 
     private final Set<String> incompatibleExtensions = new HashSet<>();
 
-    private boolean compressContextTakeover;
-    private boolean decompressContextTakeover;
+    private final boolean compressContextTakeover;
+    private final boolean decompressContextTakeover;
 
     private final boolean client;
     private final int deflaterLevel;
+    private ObjectPool<Deflater> deflaterPool;
+    private ObjectPool<Inflater> inflaterPool;
 
     /**
      * Default configuration for DEFLATE algorithm implementation
@@ -111,6 +119,33 @@ public class PerMessageDeflateHandshake implements ExtensionHandshake {
         this.decompressContextTakeover = decompressContextTakeover;
     }
 
+    /**
+     * Sets the pool that compressors are borrowed from for each message. On the server this forces
+     * {@code server_no_context_takeover}, on the client the pool is only used if the server negotiates
+     * {@code client_no_context_takeover}.
+     *
+     * @param deflaterPool a pool of nowrap deflaters, such as
+     *                     {@link io.undertow.conduits.DeflatingStreamSinkConduit#simpleDeflaterPool(int, int)}
+     * @return this handshake
+     */
+    public PerMessageDeflateHandshake setDeflaterPool(ObjectPool<Deflater> deflaterPool) {
+        this.deflaterPool = deflaterPool;
+        return this;
+    }
+
+    /**
+     * Sets the pool that decompressors are borrowed from for each message. On the server this forces
+     * {@code client_no_context_takeover}, on the client the pool is only used if the server negotiates
+     * {@code server_no_context_takeover}.
+     *
+     * @param inflaterPool a pool of nowrap inflaters, such as {@link PerMessageDeflateFunction#simpleInflaterPool(int)}
+     * @return this handshake
+     */
+    public PerMessageDeflateHandshake setInflaterPool(ObjectPool<Inflater> inflaterPool) {
+        this.inflaterPool = inflaterPool;
+        return this;
+    }
+
     @Override
     public String getName() {
         return PERMESSAGE_DEFLATE;
@@ -122,7 +157,7 @@ public class PerMessageDeflateHandshake implements ExtensionHandshake {
 
         WebSocketExtension negotiated = new WebSocketExtension(extension.getName());
 
-        if (extension.getParameters() == null || extension.getParameters().size() == 0) return negotiated;
+        if (extension.getParameters() == null || extension.getParameters().size() == 0) return negotiatePooling(negotiated);
         for (WebSocketExtension.Parameter parameter : extension.getParameters()) {
             if (parameter.getName().equals(SERVER_MAX_WINDOW_BITS)) {
                 /*
@@ -132,29 +167,49 @@ public class PerMessageDeflateHandshake implements ExtensionHandshake {
                 /*
                     Not supported
                  */
-            } else if (parameter.getName().equals(SERVER_NO_CONTEXT_TAKEOVER)) {
-                negotiated.getParameters().add(parameter);
-                if (client) {
-                    decompressContextTakeover = false;
-                } else {
-                    compressContextTakeover = false;
-                }
-            } else if (parameter.getName().equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
+            } else if (parameter.getName().equals(SERVER_NO_CONTEXT_TAKEOVER) || parameter.getName().equals(CLIENT_NO_CONTEXT_TAKEOVER)) {
                 negotiated.getParameters().add(parameter);
-                if (client) {
-                    compressContextTakeover = false;
-                } else {
-                    decompressContextTakeover = false;
-                }
             } else {
                 WebSocketLogger.EXTENSION_LOGGER.incorrectExtensionParameter(parameter);
                 return null;
             }
         }
+        negotiatePooling(negotiated);
         WebSocketLogger.EXTENSION_LOGGER.debugf("Negotiated extension %s for handshake %s", negotiated, extension);
         return negotiated;
     }
 
+    private WebSocketExtension negotiatePooling(WebSocketExtension negotiated) {
+        if (client) {
+            return negotiated;
+        }
+        if (deflaterPool != null) {
+            addParameter(negotiated, SERVER_NO_CONTEXT_TAKEOVER);
+        }
+        if (inflaterPool != null) {
+            addParameter(negotiated, CLIENT_NO_CONTEXT_TAKEOVER);
+        }
+        return negotiated;
+    }
+
+    private static boolean hasParameter(WebSocketExtension extension, String name) {
+        for (WebSocketExtension.Parameter parameter : extension.getParameters()) {
+            if (parameter.getName().equals(name)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static void addParameter(WebSocketExtension extension, String name) {
+        for (WebSocketExtension.Parameter parameter : extension.getParameters()) {
+            if (parameter.getName().equals(name)) {
+                return;
+            }
+        }
+        extension.getParameters().add(new WebSocketExtension.Parameter(name, null));
+    }
+
     @Override
     public boolean isIncompatible(List<ExtensionHandshake> extensions) {
         for (ExtensionHandshake extension : extensions) {
@@ -167,6 +222,20 @@ public class PerMessageDeflateHandshake implements ExtensionHandshake {
 
     @Override
     public ExtensionFunction create() {
-        return new PerMessageDeflateFunction(deflaterLevel, compressContextTakeover, decompressContextTakeover);
+        return new PerMessageDeflateFunction(deflaterLevel, compressContextTakeover, decompressContextTakeover, deflaterPool, inflaterPool);
+    }
+
+    /**
+     * Creates the function for a single connection, applying the no context takeover parameters of the handshake
+     * response on top of the configured ones. This handshake itself is never modified, as it is shared by all
+     * connections.
+     */
+    @Override
+    public ExtensionFunction create(final WebSocketExtension negotiated) {
+        final boolean serverNoContextTakeover = hasParameter(negotiated, SERVER_NO_CONTEXT_TAKEOVER);
+        final boolean clientNoContextTakeover = hasParameter(negotiated, CLIENT_NO_CONTEXT_TAKEOVER);
+        final boolean compress = compressContextTakeover && !(client ? clientNoContextTakeover : serverNoContextTakeover);
+        final boolean decompress = decompressContextTakeover && !(client ? serverNoContextTakeover : clientNoContextTakeover);
+        return new PerMessageDeflateFunction(deflaterLevel, compress, decompress, deflaterPool, inflaterPool);
     }
 }
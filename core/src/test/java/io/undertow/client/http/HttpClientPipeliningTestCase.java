@@ -0,0 +1,264 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.client.http;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.UndertowOptions;
+import io.undertow.client.ClientCallback;
+import io.undertow.client.ClientConnection;
+import io.undertow.client.ClientExchange;
+import io.undertow.client.ClientRequest;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.util.Headers;
+import io.undertow.util.HttpString;
+import io.undertow.util.Methods;
+import io.undertow.util.StringReadChannelListener;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+/**
+ * Tests pipelining of requests on a HTTP/1.1 client connection
+ */
+@RunWith(DefaultServer.class)
+@HttpOneOnly
+public class HttpClientPipeliningTestCase {
+
+    private static final OptionMap PIPELINING = OptionMap.create(UndertowOptions.CLIENT_MAX_PIPELINED_REQUESTS, 4);
+
+    private static XnioWorker worker;
+    private static volatile CountDownLatch release;
+
+    @BeforeClass
+    public static void beforeClass() throws IOException {
+        worker = Xnio.getInstance().createWorker(null, OptionMap.builder()
+                .set(Options.WORKER_IO_THREADS, 2)
+                .set(Options.WORKER_NAME, "Client")
+                .getMap());
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                if (exchange.isInIoThread()) {
+                    exchange.dispatch(this);
+                    return;
+                }
+                if (exchange.getRelativePath().equals("/block")) {
+                    release.await(10, TimeUnit.SECONDS);
+                }
+                if (exchange.getRelativePath().equals("/close")) {
+                    exchange.setPersistent(false);
+                }
+                exchange.getResponseSender().send(exchange.getRequestMethod() + " " + exchange.getRelativePath());
+            }
+        });
+    }
+
+    @AfterClass
+    public static void afterClass() {
+        worker.shutdown();
+    }
+
+    @Before
+    public void setup() {
+        release = new CountDownLatch(1);
+    }
+
+    @Test
+    public void testIdempotentRequestsArePipelined() throws Exception {
+        final ClientConnection connection = connect(PIPELINING);
+        try {
+            Assert.assertEquals(4, connection.getMaxPipelinedRequests());
+            final Results results = new Results(4);
+            send(connection, results, Methods.GET, "/block", Methods.GET, "/a", Methods.HEAD, "/b", Methods.OPTIONS, "/c");
+            //all requests have been written while the first response is still outstanding
+            Assert.assertTrue(results.sent.await(10, TimeUnit.SECONDS));
+            release.countDown();
+            Assert.assertTrue(results.done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("[GET /block, GET /a, , OPTIONS /c]", results.responses());
+            Assert.assertTrue(connection.isOpen());
+
+            //the connection can be used normally afterwards
+            final Results next = new Results(1);
+            send(connection, next, Methods.GET, "/d");
+            Assert.assertTrue(next.done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("[GET /d]", next.responses());
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testPipeliningDisabledByDefault() throws Exception {
+        final ClientConnection connection = connect(OptionMap.EMPTY);
+        try {
+            Assert.assertEquals(1, connection.getMaxPipelinedRequests());
+            final Results results = new Results(2);
+            send(connection, results, Methods.GET, "/block", Methods.GET, "/a");
+            Assert.assertFalse(results.sent.await(200, TimeUnit.MILLISECONDS));
+            release.countDown();
+            Assert.assertTrue(results.done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("[GET /block, GET /a]", results.responses());
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testNonIdempotentRequestIsNotPipelined() throws Exception {
+        final ClientConnection connection = connect(PIPELINING);
+        try {
+            final Results results = new Results(3);
+            send(connection, results, Methods.GET, "/block", Methods.POST, "/a", Methods.GET, "/b");
+            //the POST waits for the connection to be idle, and the GET behind it is not sent ahead of it
+            Assert.assertFalse(results.sent.await(200, TimeUnit.MILLISECONDS));
+            Assert.assertEquals(2, results.sent.getCount());
+            release.countDown();
+            Assert.assertTrue(results.done.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals("[GET /block, POST /a, GET /b]", results.responses());
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    @Test
+    public void testPipelinedRequestsFailWhenConnectionIsClosed() throws Exception {
+        final ClientConnection connection = connect(PIPELINING);
+        try {
+            final Results results = new Results(3);
+            send(connection, results, Methods.GET, "/close", Methods.GET, "/a", Methods.GET, "/b");
+            Assert.assertTrue(results.done.await(10, TimeUnit.SECONDS));
+            //the server may reset the connection as it closes it with the pipelined requests unread, in which case
+            //the response to the first request can be lost as well
+            Assert.assertNull(results.bodies[1]);
+            Assert.assertNull(results.bodies[2]);
+            Assert.assertTrue(results.failures.size() >= 2);
+            Assert.assertFalse(connection.isOpen());
+        } finally {
+            IoUtils.safeClose(connection);
+        }
+    }
+
+    private static ClientConnection connect(OptionMap options) throws Exception {
+        return UndertowClient.getInstance().connect(new URI(DefaultServer.getDefaultServerURL()), worker, DefaultServer.getBufferPool(), options).get();
+    }
+
+    private static void send(final ClientConnection connection, final Results results, final Object... requests) {
+        connection.getIoThread().execute(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < requests.length; i += 2) {
+                    final ClientRequest request = new ClientRequest().setMethod((HttpString) requests[i]).setPath((String) requests[i + 1]);
+                    request.getRequestHeaders().put(Headers.HOST, DefaultServer.getHostAddress());
+                    if (request.getMethod().equals(Methods.POST)) {
+                        request.getRequestHeaders().put(Headers.CONTENT_LENGTH, 0);
+                    }
+                    connection.sendRequest(request, results.callback(i / 2));
+                }
+            }
+        });
+    }
+
+    private static final class Results {
+
+        final CountDownLatch sent;
+        final CountDownLatch done;
+        final String[] bodies;
+        final List<IOException> failures = new CopyOnWriteArrayList<>();
+
+        Results(int count) {
+            sent = new CountDownLatch(count);
+            done = new CountDownLatch(count);
+            bodies = new String[count];
+        }
+
+        /**
+         * @return the response bodies in the order the requests were sent, skipping failed requests
+         */
+        String responses() {
+            final StringBuilder sb = new StringBuilder("[");
+            for (String body : bodies) {
+                if (body != null) {
+                    if (sb.length() > 1) {
+                        sb.append(", ");
+                    }
+                    sb.append(body);
+                }
+            }
+            return sb.append(']').toString();
+        }
+
+        ClientCallback<ClientExchange> callback(final int index) {
+            return new ClientCallback<ClientExchange>() {
+                @Override
+                public void completed(ClientExchange result) {
+                    sent.countDown();
+                    result.setResponseListener(new ClientCallback<ClientExchange>() {
+                        @Override
+                        public void completed(ClientExchange result) {
+                            new StringReadChannelListener(result.getConnection().getBufferPool()) {
+
+                                @Override
+                                protected void stringDone(String string) {
+                                    bodies[index] = string;
+                                    done.countDown();
+                                }
+
+                                @Override
+                                protected void error(IOException e) {
+                                    failed(e);
+                                }
+                            }.setup(result.getResponseChannel());
+                        }
+
+                        @Override
+                        public void failed(IOException e) {
+                            failures.add(e);
+                            done.countDown();
+                        }
+                    });
+                }
+
+                @Override
+                public void failed(IOException e) {
+                    failures.add(e);
+                    sent.countDown();
+                    done.countDown();
+                }
+            };
+        }
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+import io.undertow.testutils.category.UnitTest;
+import io.undertow.util.HeaderMap;
+import io.undertow.util.HttpString;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tests that the decoder hands out the same name and value instances for repeated literals
+ */
+@Category(UnitTest.class)
+public class HpackDecoderInterningUnitTestCase {
+
+    @Test
+    public void testRepeatedLiteralsAreInterned() throws HpackException {
+        for (boolean huffman : new boolean[]{true, false}) {
+            HeaderMap headers = new HeaderMap();
+            headers.add(new HttpString("user-agent"), "Mozilla/5.0 (X11; Linux x86_64; rv:78.0) Gecko/20100101 Firefox/78.0");
+            headers.add(new HttpString("x-forwarded-for"), "10.0.0.1");
+            headers.add(new HttpString("x-custom-header"), "some-value");
+            headers.add(new HttpString("accept-encoding"), "gzip, deflate");
+
+            HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+            RecordingEmitter first = decode(decoder, headers, huffman);
+            RecordingEmitter second = decode(decoder, headers, huffman);
+            Assert.assertEquals(4, first.names.size());
+            for (int i = 0; i < first.names.size(); ++i) {
+                Assert.assertSame(first.names.get(i), second.names.get(i));
+                Assert.assertSame(first.values.get(i), second.values.get(i));
+            }
+            //header names are still lower case, as HTTP/2 requires
+            Assert.assertTrue(first.names.contains(new HttpString("x-forwarded-for")));
+            for (HttpString name : first.names) {
+                Assert.assertEquals(name.toString().toLowerCase(), name.toString());
+            }
+            Assert.assertEquals("10.0.0.1", first.value("x-forwarded-for"));
+            //the value matches the static table entry, so that instance is used
+            Assert.assertSame(Hpack.STATIC_TABLE[16].value, first.value("accept-encoding"));
+        }
+    }
+
+    @Test
+    public void testLatin1Value() throws HpackException {
+        byte[] data = {0x00, 0x01, 0x61, 0x02, (byte) 0xE9, 0x41};
+        HpackDecoder decoder = new HpackDecoder(Hpack.DEFAULT_TABLE_SIZE);
+        RecordingEmitter emitter = new RecordingEmitter();
+        decoder.setHeaderEmitter(emitter);
+        decoder.decode(ByteBuffer.wrap(data), false);
+        Assert.assertEquals("a", emitter.names.get(0).toString());
+        Assert.assertEquals("\u00e9A", emitter.values.get(0));
+    }
+
+    /**
+     * Encodes the headers without indexing, so every field is sent as a literal
+     */
+    private static RecordingEmitter decode(HpackDecoder decoder, HeaderMap headers, final boolean huffman) throws HpackException {
+        HpackEncoder encoder = new HpackEncoder(Hpack.DEFAULT_TABLE_SIZE, new HpackEncoder.HpackHeaderFunction() {
+            @Override
+            public boolean shouldUseIndexing(HttpString header, String value) {
+                return false;
+            }
+
+            @Override
+            public boolean shouldUseHuffman(HttpString header, String value) {
+                return huffman;
+            }
+
+            @Override
+            public boolean shouldUseHuffman(HttpString header) {
+                return huffman;
+            }
+        });
+        ByteBuffer buffer = ByteBuffer.allocate(1024);
+        encoder.encode(headers, buffer);
+        buffer.flip();
+        RecordingEmitter emitter = new RecordingEmitter();
+        decoder.setHeaderEmitter(emitter);
+        decoder.decode(buffer, false);
+        return emitter;
+    }
+
+    private static class RecordingEmitter implements HpackDecoder.HeaderEmitter {
+        final List<HttpString> names = new ArrayList<>();
+        final List<String> values = new ArrayList<>();
+
+        @Override
+        public void emitHeader(HttpString name, String value, boolean neverIndex) {
+            names.add(name);
+            values.add(value);
+        }
+
+        String value(String name) {
+            return values.get(names.indexOf(new HttpString(name)));
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.protocols.http2;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class Http2PriorityTreeUnitTestCase {
+
+    private static final double DELTA = 0.0001;
+
+    @Test
+    public void testSiblingWeights() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 32, false);
+        tree.registerStream(3, 0, 96, false);
+        Assert.assertEquals(0.25, tree.getWeightingProportion(1), DELTA);
+        Assert.assertEquals(0.75, tree.getWeightingProportion(3), DELTA);
+
+        //a dependent stream gets a share of its parents share
+        tree.registerStream(5, 3, 16, false);
+        tree.registerStream(7, 3, 48, false);
+        Assert.assertEquals(0.75 * 0.25, tree.getWeightingProportion(5), DELTA);
+        Assert.assertEquals(0.75 * 0.75, tree.getWeightingProportion(7), DELTA);
+    }
+
+    @Test
+    public void testUnknownDependencyUsesDefaultPriority() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        tree.registerStream(3, 99, 200, false);
+        Assert.assertEquals(0.5, tree.getWeightingProportion(1), DELTA);
+        Assert.assertEquals(0.5, tree.getWeightingProportion(3), DELTA);
+    }
+
+    @Test
+    public void testExclusiveDependency() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        tree.registerStream(3, 0, 16, false);
+        //5 becomes the only dependent of the root, with 1 and 3 depending on it
+        tree.registerStream(5, 0, 16, true);
+        Assert.assertEquals(1, tree.getWeightingProportion(5), DELTA);
+        Assert.assertEquals(0.5, tree.getWeightingProportion(1), DELTA);
+        Assert.assertEquals(0.5, tree.getWeightingProportion(3), DELTA);
+    }
+
+    @Test
+    public void testPriorityFrameReparentsDescendant() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        tree.registerStream(3, 1, 16, false);
+        tree.registerStream(5, 3, 16, false);
+        //RFC 7540 5.3.3, 1 is made dependent on its own descendant 5, so 5 is first moved to the root
+        tree.priorityFrame(1, 5, 16, false);
+        Assert.assertEquals(1, tree.getWeightingProportion(5), DELTA);
+        Assert.assertEquals(1, tree.getWeightingProportion(1), DELTA);
+        Assert.assertEquals(1, tree.getWeightingProportion(3), DELTA);
+
+        //now change the weight of 3 and make it a sibling of 5
+        tree.registerStream(7, 0, 16, false);
+        tree.priorityFrame(3, 0, 48, false);
+        Assert.assertEquals(0.2, tree.getWeightingProportion(5), DELTA);
+        Assert.assertEquals(0.6, tree.getWeightingProportion(3), DELTA);
+        Assert.assertEquals(0.2, tree.getWeightingProportion(7), DELTA);
+    }
+
+    @Test
+    public void testPriorityFrameForIdleStream() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        //priority for a stream that has not been opened yet, it can be used as a dependency
+        tree.priorityFrame(3, 0, 48, false);
+        tree.registerStream(5, 3, 16, false);
+        Assert.assertEquals(0.75, tree.getWeightingProportion(5), DELTA);
+        //when the stream is opened the headers frame priority is used
+        tree.registerStream(3, 0, 16, false);
+        Assert.assertEquals(0.5, tree.getWeightingProportion(3), DELTA);
+    }
+
+    @Test
+    public void testIdleStreamsThatNeverOpenAreEvicted() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        //more idle streams than we will track, none of which are ever opened
+        for (int i = 1; i < 500; i += 2) {
+            tree.priorityFrame(i, 0, 1, false);
+        }
+        //new priority information is still used, as the oldest idle streams make way for it
+        tree.priorityFrame(1001, 0, 255, false);
+        tree.registerStream(1003, 1001, 16, false);
+        Assert.assertTrue(tree.getWeightingProportion(1003) > 0.5);
+
+        for (int i = 2001; i < 2500; i += 2) {
+            tree.extensiblePriority(i, "u=5", true);
+        }
+        tree.extensiblePriority(3001, "u=0", true);
+        tree.registerStream(3001, 0, 16, false);
+        Assert.assertEquals(0, tree.getUrgency(3001));
+    }
+
+    @Test
+    public void testStreamRemovalEvictsOldNodes() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        tree.streamRemoved(1);
+        for (int i = 3; i < 100; i += 2) {
+            tree.registerStream(i, 0, 16, false);
+            tree.streamRemoved(i);
+        }
+        tree.registerStream(101, 0, 16, false);
+        //only recently closed streams are retained, so the new stream gets a large share
+        Assert.assertTrue(tree.getWeightingProportion(101) > 0.05);
+        //1 has been evicted, so depending on it results in the default priority
+        tree.registerStream(103, 1, 16, false);
+        Assert.assertEquals(tree.getWeightingProportion(101), tree.getWeightingProportion(103), DELTA);
+    }
+
+    @Test
+    public void testExtensiblePriority() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        tree.registerStream(1, 0, 16, false);
+        Assert.assertEquals(Http2PriorityTree.DEFAULT_URGENCY, tree.getUrgency(1));
+        Assert.assertTrue(tree.isIncremental(1));
+
+        //the RFC 9218 defaults apply once the header is present
+        tree.extensiblePriority(1, "u=5", false);
+        Assert.assertEquals(5, tree.getUrgency(1));
+        Assert.assertFalse(tree.isIncremental(1));
+
+        tree.registerStream(3, 0, 16, false);
+        tree.extensiblePriority(3, "u=1, i", false);
+        Assert.assertEquals(1, tree.getUrgency(3));
+        Assert.assertTrue(tree.isIncremental(3));
+
+        tree.registerStream(5, 0, 16, false);
+        tree.extensiblePriority(5, "i=?0, u=9, foo=bar;x", false);
+        Assert.assertEquals(Http2PriorityTree.DEFAULT_URGENCY, tree.getUrgency(5));
+        Assert.assertFalse(tree.isIncremental(5));
+
+        tree.registerStream(7, 0, 16, false);
+        tree.extensiblePriority(7, "u=0;p=1, i=?1", false);
+        Assert.assertEquals(0, tree.getUrgency(7));
+        Assert.assertTrue(tree.isIncremental(7));
+    }
+
+    @Test
+    public void testPriorityUpdateTakesPrecedence() {
+        Http2PriorityTree tree = new Http2PriorityTree();
+        //the update arrives before the request
+        tree.extensiblePriority(1, "u=0", true);
+        tree.registerStream(1, 0, 16, false);
+        tree.extensiblePriority(1, "u=6, i", false);
+        Assert.assertEquals(0, tree.getUrgency(1));
+        Assert.assertFalse(tree.isIncremental(1));
+
+        tree.extensiblePriority(1, "u=2, i", true);
+        Assert.assertEquals(2, tree.getUrgency(1));
+        Assert.assertTrue(tree.isIncremental(1));
+    }
+}
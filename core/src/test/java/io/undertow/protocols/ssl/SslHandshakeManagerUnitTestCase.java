@@ -0,0 +1,93 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.protocols.ssl;
+
+import io.undertow.UndertowOptions;
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+import org.xnio.OptionMap;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that a full handshake executor rejects tasks instead of running them somewhere else
+ */
+@Category(UnitTest.class)
+public class SslHandshakeManagerUnitTestCase {
+
+    @Test
+    public void testFullQueueRejectsTasks() throws InterruptedException {
+        SslHandshakeManager manager = new SslHandshakeManager(OptionMap.builder()
+                .set(UndertowOptions.SSL_HANDSHAKE_THREADS, 1)
+                .set(UndertowOptions.SSL_HANDSHAKE_QUEUE_SIZE, 1)
+                .getMap());
+        Executor worker = new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                Assert.fail("Task ran in the worker");
+            }
+        };
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(2);
+        try {
+            manager.executeTask(new Runnable() {
+                @Override
+                public void run() {
+                    running.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    done.countDown();
+                }
+            }, worker);
+            Assert.assertTrue(running.await(10, TimeUnit.SECONDS));
+            manager.executeTask(new Runnable() {
+                @Override
+                public void run() {
+                    done.countDown();
+                }
+            }, worker);
+            try {
+                manager.executeTask(new Runnable() {
+                    @Override
+                    public void run() {
+                        Assert.fail("Task should have been rejected");
+                    }
+                }, worker);
+                Assert.fail("Task should have been rejected");
+            } catch (RejectedExecutionException expected) {
+                //expected
+            }
+            release.countDown();
+            Assert.assertTrue(done.await(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            manager.shutdown();
+        }
+    }
+}
@@ -0,0 +1,306 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.caching;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.ProxyCacheHandler;
+import io.undertow.server.handlers.proxy.LoadBalancingProxyClient;
+import io.undertow.server.handlers.proxy.ProxyHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.FileUtils;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.Options;
+
+/**
+ * Tests the shared cache in front of a proxy handler
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class ProxyCacheHandlerTestCase {
+
+    private static final String ETAG = "\"v1\"";
+
+    private static final AtomicInteger invocations = new AtomicInteger();
+    private static final AtomicInteger notModified = new AtomicInteger();
+    private static volatile String cacheControl;
+    private static volatile String age;
+    private static volatile String vary;
+    private static volatile int status;
+    private static volatile int bodySize;
+    private static volatile CountDownLatch started;
+    private static volatile CountDownLatch latch;
+
+    private static Undertow backend;
+    private static ProxyHandler proxyHandler;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        backend = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new BlockingHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        int res = invocations.incrementAndGet();
+                        started.countDown();
+                        if (!latch.await(20, TimeUnit.SECONDS)) {
+                            exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+                            return;
+                        }
+                        if (status != StatusCodes.OK) {
+                            exchange.setStatusCode(status);
+                            return;
+                        }
+                        exchange.getResponseHeaders().put(Headers.CACHE_CONTROL, cacheControl);
+                        exchange.getResponseHeaders().put(Headers.ETAG, ETAG);
+                        if (age != null) {
+                            exchange.getResponseHeaders().put(Headers.AGE, age);
+                        }
+                        if (vary != null) {
+                            exchange.getResponseHeaders().put(Headers.VARY, vary);
+                        }
+                        if (ETAG.equals(exchange.getRequestHeaders().getFirst(Headers.IF_NONE_MATCH))) {
+                            notModified.incrementAndGet();
+                            exchange.setStatusCode(StatusCodes.NOT_MODIFIED);
+                            return;
+                        }
+                        StringBuilder data = new StringBuilder("Response " + res);
+                        while (data.length() < bodySize) {
+                            data.append('.');
+                        }
+                        String lang = exchange.getRequestHeaders().getFirst(Headers.ACCEPT_LANGUAGE);
+                        if (lang != null) {
+                            data.append(' ').append(lang);
+                        }
+                        exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length());
+                        exchange.getOutputStream().write(data.toString().getBytes("US-ASCII"));
+                    }
+                }))
+                .build();
+        backend.start();
+        proxyHandler = ProxyHandler.builder().setProxyClient(new LoadBalancingProxyClient()
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null)))
+                .setMaxRequestTime(30000).build();
+    }
+
+    @AfterClass
+    public static void after() {
+        backend.stop();
+    }
+
+    @Before
+    public void reset() {
+        invocations.set(0);
+        notModified.set(0);
+        //long enough that the response is still fresh if the Date header of the backend is a little out of date
+        cacheControl = "max-age=3600";
+        age = null;
+        vary = null;
+        status = StatusCodes.OK;
+        bodySize = 0;
+        started = new CountDownLatch(1);
+        latch = new CountDownLatch(0);
+        DefaultServer.setRootHandler(new ProxyCacheHandler(new DirectBufferCache(1024, 10, 100 * 1024), proxyHandler));
+    }
+
+    @Test
+    public void testFreshResponseIsCached() throws Exception {
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/fresh")));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/fresh"));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals("Response 1", HttpClientUtils.readResponse(result));
+            Assert.assertNotNull(result.getFirstHeader(Headers.AGE_STRING));
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+        Assert.assertEquals(1, invocations.get());
+    }
+
+    @Test
+    public void testUncacheableResponse() throws Exception {
+        cacheControl = "no-store";
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/nostore")));
+        Assert.assertEquals("200:Response 2", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/nostore")));
+    }
+
+    @Test
+    public void testSharedMaxAge() throws Exception {
+        cacheControl = "max-age=0, s-maxage=3600";
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/smaxage")));
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/smaxage")));
+        Assert.assertEquals(1, invocations.get());
+    }
+
+    @Test
+    public void testVary() throws Exception {
+        vary = "Accept-Language";
+        Assert.assertEquals("200:Response 1 en", runRequest(get("/vary", "en")));
+        Assert.assertEquals("200:Response 2 fr", runRequest(get("/vary", "fr")));
+        Assert.assertEquals("200:Response 1 en", runRequest(get("/vary", "en")));
+        Assert.assertEquals("200:Response 2 fr", runRequest(get("/vary", "fr")));
+        Assert.assertEquals(2, invocations.get());
+    }
+
+    @Test
+    public void testRevalidation() throws Exception {
+        cacheControl = "max-age=0";
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/revalidate")));
+        //the backend answers with a 304, and the client gets the stored body
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/revalidate")));
+        Assert.assertEquals(2, invocations.get());
+        Assert.assertEquals(1, notModified.get());
+    }
+
+    @Test
+    public void testConditionalRequestServedFromCache() throws Exception {
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/conditional")));
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/conditional");
+        get.addHeader(Headers.IF_NONE_MATCH_STRING, ETAG);
+        Assert.assertEquals("304:", runRequest(get));
+        Assert.assertEquals(1, invocations.get());
+    }
+
+    @Test
+    public void testStaleWhileRevalidate() throws Exception {
+        //the backend reports an age that makes the response stale as soon as it is stored
+        cacheControl = "max-age=60, stale-while-revalidate=600";
+        age = "100";
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/swr")));
+
+        started = new CountDownLatch(1);
+        latch = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> revalidation = executor.submit(new Callable<String>() {
+                @Override
+                public String call() throws Exception {
+                    return runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/swr"));
+                }
+            });
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            //while the revalidation is in progress other requests get the stale response straight away
+            Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/swr")));
+            Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/swr")));
+            Assert.assertEquals(2, invocations.get());
+            latch.countDown();
+            Assert.assertEquals("200:Response 1", revalidation.get(20, TimeUnit.SECONDS));
+            Assert.assertEquals(1, notModified.get());
+        } finally {
+            latch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testStaleIfError() throws Exception {
+        cacheControl = "max-age=60, stale-if-error=600";
+        age = "100";
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/sie")));
+        status = StatusCodes.SERVICE_UNAVAILABLE;
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/sie")));
+        Assert.assertEquals(2, invocations.get());
+
+        //must-revalidate responses are never served stale
+        cacheControl = "max-age=60, stale-if-error=600, must-revalidate";
+        status = StatusCodes.OK;
+        Assert.assertEquals("200:Response 3", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/sie-mr")));
+        status = StatusCodes.SERVICE_UNAVAILABLE;
+        Assert.assertEquals("503:", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/sie-mr")));
+    }
+
+    @Test
+    public void testUnsafeMethodInvalidates() throws Exception {
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/invalidate")));
+        //a failed request has not changed the resource
+        status = StatusCodes.INTERNAL_SERVER_ERROR;
+        Assert.assertEquals("500:", runRequest(new HttpPost(DefaultServer.getDefaultServerURL() + "/invalidate")));
+        status = StatusCodes.OK;
+        Assert.assertEquals("200:Response 1", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/invalidate")));
+        Assert.assertEquals("200:Response 3", runRequest(new HttpPost(DefaultServer.getDefaultServerURL() + "/invalidate")));
+        Assert.assertEquals("200:Response 4", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/invalidate")));
+        Assert.assertEquals("200:Response 4", runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/invalidate")));
+    }
+
+    @Test
+    public void testLargeResponseStoredOnDisk() throws Exception {
+        Path dir = Files.createTempDirectory("proxy-cache");
+        try {
+            DefaultServer.setRootHandler(new ProxyCacheHandler(new DirectBufferCache(1024, 10, 100 * 1024), proxyHandler,
+                    100, 1024, dir, 1024 * 1024, 10 * 1024 * 1024));
+            bodySize = 200 * 1024;
+            String first = runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/large"));
+            Assert.assertTrue(first.startsWith("200:Response 1"));
+            Assert.assertEquals(bodySize, first.length() - 4);
+            Assert.assertEquals(first, runRequest(new HttpGet(DefaultServer.getDefaultServerURL() + "/large")));
+            Assert.assertEquals(1, invocations.get());
+        } finally {
+            DefaultServer.setRootHandler(new ProxyCacheHandler(new DirectBufferCache(1024, 10, 100 * 1024), proxyHandler));
+            FileUtils.deleteRecursive(dir);
+        }
+    }
+
+    private static HttpGet get(final String path, final String language) {
+        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+        get.addHeader(Headers.ACCEPT_LANGUAGE_STRING, language);
+        return get;
+    }
+
+    private static String runRequest(final HttpUriRequest request) throws IOException {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(request);
+            return result.getStatusLine().getStatusCode() + ":" + HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.caching;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.handlers.cache.DirectBufferCache;
+import io.undertow.server.handlers.cache.RequestCollapsingHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that identical concurrent requests are collapsed into a single request to the next handler
+ */
+@RunWith(DefaultServer.class)
+public class RequestCollapsingHandlerTestCase {
+
+    private static final int N_THREADS = 10;
+
+    private static final AtomicInteger invocations = new AtomicInteger();
+    private static volatile CountDownLatch started;
+    private static volatile CountDownLatch latch;
+    private static volatile int failFirst;
+    private static volatile boolean setCookie;
+
+    @Before
+    public void setup() {
+        invocations.set(0);
+        started = new CountDownLatch(1);
+        latch = new CountDownLatch(1);
+        failFirst = 0;
+        setCookie = false;
+        DefaultServer.setRootHandler(new RequestCollapsingHandler(new DirectBufferCache(1024, 10, 100 * 1024), new BlockingHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(HttpServerExchange exchange) throws Exception {
+                int res = invocations.incrementAndGet();
+                started.countDown();
+                if (!latch.await(20, TimeUnit.SECONDS)) {
+                    exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+                    return;
+                }
+                if (res <= failFirst) {
+                    exchange.setStatusCode(StatusCodes.SERVICE_UNAVAILABLE);
+                    return;
+                }
+                if (setCookie) {
+                    exchange.getResponseHeaders().put(Headers.SET_COOKIE, "foo=bar");
+                }
+                String data = "Response " + res;
+                exchange.getResponseHeaders().put(Headers.CONTENT_LENGTH, data.length());
+                exchange.getResponseHeaders().put(Headers.CONTENT_TYPE, "text/plain");
+                exchange.getOutputStream().write(data.getBytes("US-ASCII"));
+            }
+        })));
+    }
+
+    @Test
+    public void testIdenticalRequestsAreCollapsed() throws Exception {
+        List<String> results = runConcurrentRequests("/path");
+        for (String result : results) {
+            Assert.assertEquals("200:Response 1", result);
+        }
+        Assert.assertEquals(1, invocations.get());
+
+        //once the request has completed the next one goes to the handler again
+        Assert.assertEquals("200:Response 2", runRequest("/path"));
+    }
+
+    @Test
+    public void testDifferentRequestsAreNotCollapsed() throws Exception {
+        latch.countDown();
+        Assert.assertEquals("200:Response 1", runRequest("/path?a=1"));
+        Assert.assertEquals("200:Response 2", runRequest("/path?a=2"));
+        Assert.assertEquals(2, invocations.get());
+    }
+
+    @Test
+    public void testRequestsWithCookiesAreNotCollapsed() throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(new Request("/session", "session=a"));
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            Future<String> second = executor.submit(new Request("/session", "session=b"));
+            //the second request must reach the handler while the first is still in progress
+            long end = System.currentTimeMillis() + 10000;
+            while (invocations.get() < 2 && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            latch.countDown();
+            Assert.assertEquals(2, invocations.get());
+            Assert.assertEquals("200:Response 1", first.get(20, TimeUnit.SECONDS));
+            Assert.assertEquals("200:Response 2", second.get(20, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void testUncollapsibleResponse() throws Exception {
+        setCookie = true;
+        List<String> results = runConcurrentRequests("/cookie");
+        Assert.assertEquals(N_THREADS, invocations.get());
+        for (String result : results) {
+            Assert.assertTrue(result, result.startsWith("200:Response "));
+        }
+    }
+
+    @Test
+    public void testFailedLeaderPromotesFollower() throws Exception {
+        failFirst = 1;
+        List<String> results = runConcurrentRequests("/fail");
+        //the first request fails, one follower retries it and the rest get its response
+        Assert.assertEquals(2, invocations.get());
+        int failed = 0;
+        for (String result : results) {
+            if (result.equals("503:")) {
+                failed++;
+            } else {
+                Assert.assertEquals("200:Response 2", result);
+            }
+        }
+        Assert.assertEquals(1, failed);
+    }
+
+    private List<String> runConcurrentRequests(final String path) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(N_THREADS);
+        try {
+            final List<Future<String>> futures = new ArrayList<>();
+            futures.add(executor.submit(new Request(path)));
+            //make sure the first request is the leader
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+            for (int i = 1; i < N_THREADS; ++i) {
+                futures.add(executor.submit(new Request(path)));
+            }
+            Thread.sleep(500);
+            latch.countDown();
+            List<String> results = new ArrayList<>();
+            for (Future<String> future : futures) {
+                results.add(future.get(20, TimeUnit.SECONDS));
+            }
+            return Collections.unmodifiableList(results);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static String runRequest(final String path) throws Exception {
+        return new Request(path).call();
+    }
+
+    private static final class Request implements Callable<String> {
+
+        private final String path;
+        private final String cookie;
+
+        private Request(final String path) {
+            this(path, null);
+        }
+
+        private Request(final String path, final String cookie) {
+            this.path = path;
+            this.cookie = cookie;
+        }
+
+        @Override
+        public String call() throws IOException {
+            TestHttpClient client = new TestHttpClient();
+            try {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + path);
+                if (cookie != null) {
+                    get.addHeader(Headers.COOKIE_STRING, cookie);
+                }
+                HttpResponse result = client.execute(get);
+                return result.getStatusLine().getStatusCode() + ":" + HttpClientUtils.readResponse(result);
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.Undertow;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.Options;
+
+/**
+ * Tests that the latency aware host selectors send less traffic to a slow backend
+ */
+@RunWith(DefaultServer.class)
+public class LoadBalancingProxyHostSelectorTestCase {
+
+    private static final int SLOW_RESPONSE_TIME = 100;
+
+    private static Undertow fast;
+    private static Undertow slow;
+
+    @BeforeClass
+    public static void setup() {
+        int port = DefaultServer.getHostPort("default");
+        fast = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new AbstractLoadBalancingProxyTestCase.StringSendHandler("fast"))
+                .build();
+        slow = Undertow.builder()
+                .addHttpListener(port + 2, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new BlockingHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        Thread.sleep(SLOW_RESPONSE_TIME);
+                        exchange.getResponseSender().send("slow");
+                    }
+                }))
+                .build();
+        fast.start();
+        slow.start();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        fast.stop();
+        slow.stop();
+    }
+
+    @Test
+    public void testPeakEwmaAvoidsSlowHost() throws Exception {
+        setProxy(ProxyHandlerBuilder.createHostSelector("peak-ewma"));
+        int slowCount = 0;
+        for (int i = 0; i < 20; ++i) {
+            if (runRequest().equals("slow")) {
+                slowCount++;
+            }
+        }
+        //once the slow response time has been seen the slow host is only used if it is the only choice
+        Assert.assertTrue("slow host used " + slowCount + " times", slowCount <= 2);
+    }
+
+    @Test
+    public void testLeastOutstandingRequestsAvoidsSlowHost() throws Exception {
+        setProxy(ProxyHandlerBuilder.createHostSelector("least-outstanding-requests"));
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        int slowCount = 0;
+                        for (int i = 0; i < 10; ++i) {
+                            if (runRequest().equals("slow")) {
+                                slowCount++;
+                            }
+                        }
+                        return slowCount;
+                    }
+                }));
+            }
+            int slowCount = 0;
+            for (Future<Integer> future : futures) {
+                slowCount += future.get(30, TimeUnit.SECONDS);
+            }
+            //round robin would send half of the 40 requests to the slow host
+            Assert.assertTrue("slow host used " + slowCount + " times", slowCount < 15);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static void setProxy(LoadBalancingProxyClient.HostSelector hostSelector) throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        DefaultServer.setRootHandler(ProxyHandler.builder().setProxyClient(new LoadBalancingProxyClient(UndertowClient.getInstance(), null, hostSelector)
+                .setConnectionsPerThread(4)
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null))
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 2, null, null, null)))
+                .setMaxRequestTime(10000)
+                .build());
+    }
+
+    private static String runRequest() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/name"));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.net.SocketAddress;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.ServerConnection;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.server.protocol.http2.Http2ServerConnection;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.conn.PoolingClientConnectionManager;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+
+/**
+ * Tests that requests are sent as streams on the HTTP/2 backend connections of each IO thread when multiplexing is enabled
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class LoadBalancingProxyMultiplexedTestCase {
+
+    private static final int REQUESTS = 20;
+
+    private static Undertow backend;
+    private static LoadBalancingProxyClient proxyClient;
+
+    /**
+     * The backend creates a new {@link ServerConnection} for every HTTP/2 stream, so connections are identified by the
+     * address of the proxy end of the socket
+     */
+    private static final Set<SocketAddress> activeConnections = Collections.newSetFromMap(new ConcurrentHashMap<SocketAddress, Boolean>());
+    private static final Set<SocketAddress> usedConnections = Collections.newSetFromMap(new ConcurrentHashMap<SocketAddress, Boolean>());
+    private static volatile CountDownLatch arrived;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        backend = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setWorkerThreads(REQUESTS * 2)
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new BlockingHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        if (!(exchange.getConnection() instanceof Http2ServerConnection)) {
+                            throw new RuntimeException("Not HTTP2");
+                        }
+                        final SocketAddress address = exchange.getConnection().getPeerAddress();
+                        usedConnections.add(address);
+                        if (activeConnections.add(address)) {
+                            exchange.getConnection().addCloseListener(new ServerConnection.CloseListener() {
+                                @Override
+                                public void closed(ServerConnection connection) {
+                                    activeConnections.remove(address);
+                                }
+                            });
+                        }
+                        //every request must be in flight at the same time, which is only possible if they are multiplexed
+                        arrived.countDown();
+                        if (!arrived.await(10, TimeUnit.SECONDS)) {
+                            exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+                        }
+                    }
+                }))
+                .build();
+        backend.start();
+
+        proxyClient = new LoadBalancingProxyClient()
+                .setConnectionsPerThread(1)
+                .setMaxMultiplexedConnections(1)
+                .setMaxQueueSize(REQUESTS)
+                .addHost(new URI("h2c-prior", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null), null, null, OptionMap.create(UndertowOptions.ENABLE_HTTP2, true));
+        DefaultServer.setRootHandler(ProxyHandler.builder().setProxyClient(proxyClient).setMaxRequestTime(20000).build());
+    }
+
+    @AfterClass
+    public static void after() {
+        backend.stop();
+    }
+
+    @Test
+    public void testStreamsAreMultiplexedPerThread() throws Exception {
+        final int ioThreads = DefaultServer.getWorker().getIoThreadCount();
+        //the first round discovers that the backend supports HTTP/2, several requests on a thread may connect at the same time
+        runConcurrentRequests();
+        long end = System.currentTimeMillis() + 10000;
+        while (activeConnections.size() > ioThreads && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        Assert.assertTrue(activeConnections.toString(), activeConnections.size() <= ioThreads);
+
+        //now every request should be a stream on the one remaining connection of its thread
+        usedConnections.clear();
+        runConcurrentRequests();
+        Assert.assertTrue(usedConnections.toString(), usedConnections.size() <= ioThreads);
+        Assert.assertTrue(activeConnections.containsAll(usedConnections));
+    }
+
+    private static void runConcurrentRequests() throws Exception {
+        arrived = new CountDownLatch(REQUESTS);
+        ExecutorService executor = Executors.newFixedThreadPool(REQUESTS);
+        PoolingClientConnectionManager manager = new PoolingClientConnectionManager();
+        manager.setDefaultMaxPerRoute(REQUESTS);
+        final TestHttpClient client = new TestHttpClient(manager);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            for (int i = 0; i < REQUESTS; ++i) {
+                results.add(executor.submit(new Callable<String>() {
+                    @Override
+                    public String call() throws Exception {
+                        HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/path");
+                        HttpResponse result = client.execute(get);
+                        HttpClientUtils.readResponse(result);
+                        return String.valueOf(result.getStatusLine().getStatusCode());
+                    }
+                }));
+            }
+            for (Future<String> result : results) {
+                Assert.assertEquals(String.valueOf(StatusCodes.OK), result.get(20, TimeUnit.SECONDS));
+            }
+        } finally {
+            client.getConnectionManager().shutdown();
+            executor.shutdown();
+        }
+    }
+}
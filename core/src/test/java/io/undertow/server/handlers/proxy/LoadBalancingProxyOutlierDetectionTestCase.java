@@ -0,0 +1,208 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.Options;
+
+/**
+ * Tests outlier ejection and the per host circuit breaker limits of the load balancing proxy
+ */
+@RunWith(DefaultServer.class)
+public class LoadBalancingProxyOutlierDetectionTestCase {
+
+    private static final AtomicInteger failingRequests = new AtomicInteger();
+    private static volatile CountDownLatch blockingLatch;
+
+    private static Undertow good;
+    private static Undertow failing;
+    private static Undertow blocking;
+
+    @BeforeClass
+    public static void setup() {
+        int port = DefaultServer.getHostPort("default");
+        good = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new AbstractLoadBalancingProxyTestCase.StringSendHandler("good"))
+                .build();
+        failing = Undertow.builder()
+                .addHttpListener(port + 2, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        failingRequests.incrementAndGet();
+                        exchange.setStatusCode(StatusCodes.INTERNAL_SERVER_ERROR);
+                        exchange.getResponseSender().send("failing");
+                    }
+                })
+                .build();
+        blocking = Undertow.builder()
+                .addHttpListener(port + 3, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new BlockingHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        blockingLatch.await(20, TimeUnit.SECONDS);
+                        exchange.getResponseSender().send("blocking");
+                    }
+                }))
+                .build();
+        good.start();
+        failing.start();
+        blocking.start();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        good.stop();
+        failing.stop();
+        blocking.stop();
+    }
+
+    @Before
+    public void reset() {
+        failingRequests.set(0);
+        blockingLatch = new CountDownLatch(1);
+    }
+
+    @Test
+    public void testFailingHostIsEjected() throws Exception {
+        setProxy(new LoadBalancingProxyClient()
+                .setOutlierErrorRatio(0.5)
+                .setOutlierDetectionInterval(60000, 5)
+                .setEjectionTime(60000, 60000), 1, 2);
+        for (int i = 0; i < 40; ++i) {
+            runRequest();
+        }
+        //the failing host is ejected once it has handled the minimum number of requests
+        Assert.assertEquals(5, failingRequests.get());
+    }
+
+    @Test
+    public void testEjectedHostIsReadmitted() throws Exception {
+        setProxy(new LoadBalancingProxyClient()
+                .setOutlierErrorRatio(0.5)
+                .setOutlierDetectionInterval(60000, 5)
+                .setEjectionTime(2000, 60000), 1, 2);
+        for (int i = 0; i < 20; ++i) {
+            runRequest();
+        }
+        Assert.assertEquals(5, failingRequests.get());
+        Thread.sleep(2500);
+        for (int i = 0; i < 4; ++i) {
+            runRequest();
+        }
+        Assert.assertTrue(failingRequests.get() > 5);
+    }
+
+    @Test
+    public void testPendingRequestLimitFailsFast() throws Exception {
+        setProxy(new LoadBalancingProxyClient()
+                .setConnectionsPerThread(1)
+                .setMaxConnectionsPerHost(1)
+                .setMaxPendingRequestsPerHost(1), 3);
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int i = 0; i < 4; ++i) {
+                futures.add(executor.submit(new Callable<Integer>() {
+                    @Override
+                    public Integer call() throws Exception {
+                        return runRequest();
+                    }
+                }));
+            }
+            //only one request can be using the connection, and one waiting for it, the rest are rejected straight away
+            int rejected = 0;
+            long end = System.currentTimeMillis() + 10000;
+            while (rejected < 2 && System.currentTimeMillis() < end) {
+                rejected = 0;
+                for (Future<Integer> future : futures) {
+                    if (future.isDone()) {
+                        Assert.assertEquals(StatusCodes.SERVICE_UNAVAILABLE, (int) future.get());
+                        rejected++;
+                    }
+                }
+                Thread.sleep(10);
+            }
+            Assert.assertTrue("only " + rejected + " requests were rejected", rejected >= 2);
+            blockingLatch.countDown();
+            for (Future<Integer> future : futures) {
+                int status = future.get(20, TimeUnit.SECONDS);
+                Assert.assertTrue(status == StatusCodes.OK || status == StatusCodes.SERVICE_UNAVAILABLE);
+            }
+            //the idle connection is handed over if the request arrives on another IO thread
+            for (int i = 0; i < 5; ++i) {
+                Assert.assertEquals(StatusCodes.OK, runRequest());
+            }
+        } finally {
+            blockingLatch.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static void setProxy(LoadBalancingProxyClient client, int... hosts) throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        for (int host : hosts) {
+            client.addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + host, null, null, null));
+        }
+        DefaultServer.setRootHandler(ProxyHandler.builder().setProxyClient(client)
+                .setMaxRequestTime(30000)
+                .build());
+    }
+
+    private static int runRequest() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/name"));
+            HttpClientUtils.readResponse(result);
+            return result.getStatusLine().getStatusCode();
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
@@ -0,0 +1,167 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.testutils.TestHttpClient;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+
+/**
+ * Tests that the connection pool pipelines idempotent requests on busy HTTP/1.1 connections once no more connections
+ * can be opened.
+ */
+@RunWith(DefaultServer.class)
+@HttpOneOnly
+public class LoadBalancingProxyPipeliningTestCase {
+
+    private static volatile CountDownLatch blocked;
+    private static volatile CountDownLatch release;
+
+    private static Undertow backend;
+    private static Undertow proxy;
+    private static String proxyUrl;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        backend = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new BlockingHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        if (exchange.getRelativePath().equals("/block")) {
+                            blocked.countDown();
+                            release.await(20, TimeUnit.SECONDS);
+                        }
+                        exchange.getResponseSender().send(exchange.getRelativePath());
+                    }
+                }))
+                .build();
+        backend.start();
+
+        //a single IO thread, so every request uses the same per thread pool
+        LoadBalancingProxyClient client = new LoadBalancingProxyClient()
+                .setConnectionsPerThread(1)
+                .setMaxQueueSize(0)
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null), null, null,
+                        OptionMap.create(UndertowOptions.CLIENT_MAX_PIPELINED_REQUESTS, 3));
+        proxy = Undertow.builder()
+                .addHttpListener(port + 2, DefaultServer.getHostAddress("default"))
+                .setIoThreads(1)
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(ProxyHandler.builder().setProxyClient(client).setMaxRequestTime(30000).build())
+                .build();
+        proxy.start();
+        proxyUrl = "http://" + DefaultServer.getHostAddress("default") + ":" + (port + 2);
+    }
+
+    @AfterClass
+    public static void teardown() {
+        proxy.stop();
+        backend.stop();
+    }
+
+    @Test
+    public void testRequestsArePipelinedOnBusyConnection() throws Exception {
+        blocked = new CountDownLatch(1);
+        release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(5);
+        try {
+            Future<String> first = executor.submit(new Request(new HttpGet(proxyUrl + "/block")));
+            Assert.assertTrue(blocked.await(10, TimeUnit.SECONDS));
+
+            //the only connection is busy and the queue size is zero, so these can only succeed if they are pipelined
+            List<Future<String>> pipelined = new ArrayList<>();
+            pipelined.add(executor.submit(new Request(new HttpGet(proxyUrl + "/a"))));
+            pipelined.add(executor.submit(new Request(new HttpGet(proxyUrl + "/b"))));
+            Thread.sleep(200);
+            //the pipeline is full, and a POST can never be pipelined
+            Assert.assertEquals("503:", new Request(new HttpGet(proxyUrl + "/c")).call());
+            Assert.assertEquals("503:", new Request(new HttpPost(proxyUrl + "/d")).call());
+
+            release.countDown();
+            Assert.assertEquals("200:/block", first.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("200:/a", pipelined.get(0).get(10, TimeUnit.SECONDS));
+            Assert.assertEquals("200:/b", pipelined.get(1).get(10, TimeUnit.SECONDS));
+
+            //once all exchanges are done the connection is returned to the pool
+            //the connection is handed back to the pool once the last pipelined exchange completes, which may
+            //happen just after the client has read its response
+            String result = null;
+            for (int i = 0; i < 20 && !"200:/e".equals(result); ++i) {
+                if (result != null) {
+                    Thread.sleep(50);
+                }
+                result = new Request(new HttpPost(proxyUrl + "/e")).call();
+            }
+            Assert.assertEquals("200:/e", result);
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    private static final class Request implements Callable<String> {
+
+        private final HttpUriRequest request;
+
+        private Request(HttpUriRequest request) {
+            this.request = request;
+        }
+
+        @Override
+        public String call() throws Exception {
+            TestHttpClient client = new TestHttpClient();
+            try {
+                HttpResponse result = client.execute(request);
+                return result.getStatusLine().getStatusCode() + ":" + HttpClientUtils.readResponse(result);
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.net.URI;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.Undertow;
+import io.undertow.client.UndertowClient;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Headers;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+
+/**
+ * Tests that connections are opened ahead of time, and re-established when they are closed
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class ProxyConnectionPoolWarmUpTestCase {
+
+    private static final int MIN_CONNECTIONS = 2;
+
+    private static Undertow backend;
+    private static ProxyConnectionPool pool;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        backend = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        if (exchange.getRequestPath().equals("/close")) {
+                            exchange.getResponseHeaders().put(Headers.CONNECTION, Headers.CLOSE.toString());
+                        }
+                        exchange.getResponseSender().send("hello");
+                    }
+                })
+                .build();
+        backend.start();
+
+        pool = new ProxyConnectionPool(new WarmUpConnectionPoolManager(), new URI("http", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null), UndertowClient.getInstance(), OptionMap.EMPTY);
+        DefaultServer.setRootHandler(ProxyHandler.builder().setProxyClient(new ProxyClient() {
+            private final ProxyTarget target = new ProxyTarget() {
+            };
+
+            @Override
+            public ProxyTarget findTarget(HttpServerExchange exchange) {
+                return target;
+            }
+
+            @Override
+            public void getConnection(ProxyTarget target, HttpServerExchange exchange, ProxyCallback<ProxyConnection> callback, long timeout, TimeUnit timeUnit) {
+                pool.connect(target, exchange, callback, timeout, timeUnit, false);
+            }
+        }).setMaxRequestTime(10000).build());
+    }
+
+    @AfterClass
+    public static void after() {
+        pool.close();
+        backend.stop();
+    }
+
+    @Test
+    public void testConnectionsAreWarmedUp() throws Exception {
+        final int expected = MIN_CONNECTIONS * DefaultServer.getWorker().getIoThreadCount();
+        pool.warmUp(DefaultServer.getWorker(), DefaultServer.getBufferPool());
+        waitForOpenConnections(expected);
+        ProxyConnectionPoolStatistics statistics = pool.getPoolStatistics();
+        Assert.assertEquals(expected, statistics.getWarmConnectionsOpened());
+
+        //every thread has an established connection, so the request does not have to wait for one
+        Assert.assertEquals("hello", runRequest("/path"));
+        Assert.assertEquals(1, statistics.getHits());
+        Assert.assertEquals(0, statistics.getMisses());
+
+        //a connection that is closed by the backend is re-established in the background
+        Assert.assertEquals("hello", runRequest("/close"));
+        long end = System.currentTimeMillis() + 10000;
+        while (statistics.getWarmConnectionsOpened() == expected && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(expected + 1, statistics.getWarmConnectionsOpened());
+        waitForOpenConnections(expected);
+        Assert.assertEquals(2, statistics.getHits());
+    }
+
+    private static void waitForOpenConnections(int expected) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (pool.getOpenConnections() != expected && System.currentTimeMillis() < end) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(expected, pool.getOpenConnections());
+    }
+
+    private static String runRequest(String path) throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + path));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static final class WarmUpConnectionPoolManager extends ConnectionPoolErrorHandler.SimpleConnectionPoolErrorHandler implements ConnectionPoolManager {
+
+        @Override
+        public int getProblemServerRetry() {
+            return 10;
+        }
+
+        @Override
+        public int getMaxConnections() {
+            return 4;
+        }
+
+        @Override
+        public int getMaxCachedConnections() {
+            return 4;
+        }
+
+        @Override
+        public int getSMaxConnections() {
+            return 0;
+        }
+
+        @Override
+        public long getTtl() {
+            return -1;
+        }
+
+        @Override
+        public int getMaxQueueSize() {
+            return 0;
+        }
+
+        @Override
+        public int getMinConnections() {
+            return MIN_CONNECTIONS;
+        }
+    }
+}
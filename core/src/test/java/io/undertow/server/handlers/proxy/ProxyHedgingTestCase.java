@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+
+/**
+ * Tests that requests to a backend that pauses are hedged to another backend
+ */
+@RunWith(DefaultServer.class)
+public class ProxyHedgingTestCase {
+
+    private static final AtomicInteger pausingRequests = new AtomicInteger();
+    private static volatile int pause;
+
+    private static Undertow fast;
+    private static Undertow pausing;
+
+    @BeforeClass
+    public static void setup() {
+        int port = DefaultServer.getHostPort("default");
+        fast = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setHandler(new AbstractLoadBalancingProxyTestCase.StringSendHandler("fast"))
+                .build();
+        pausing = Undertow.builder()
+                .addHttpListener(port + 2, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setServerOption(UndertowOptions.ENABLE_HTTP2, true)
+                .setHandler(new BlockingHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        pausingRequests.incrementAndGet();
+                        if (pause > 0) {
+                            Thread.sleep(pause);
+                        }
+                        exchange.getResponseSender().send("pausing");
+                    }
+                }))
+                .build();
+        fast.start();
+        pausing.start();
+    }
+
+    @AfterClass
+    public static void teardown() {
+        fast.stop();
+        pausing.stop();
+    }
+
+    @Test
+    public void testSlowRequestIsHedged() throws Exception {
+        setProxy("h2c-prior", OptionMap.create(UndertowOptions.ENABLE_HTTP2, true));
+        pause = 3000;
+        try {
+            pausingRequests.set(0);
+            long start = System.currentTimeMillis();
+            for (int i = 0; i < 6; ++i) {
+                Assert.assertEquals("fast", runRequest());
+            }
+            Assert.assertTrue(System.currentTimeMillis() - start < 3000);
+            Assert.assertTrue(pausingRequests.get() > 0);
+        } finally {
+            pause = 0;
+        }
+    }
+
+    @Test
+    public void testHttp11RequestsAreNotHedged() throws Exception {
+        setProxy("http", OptionMap.EMPTY);
+        pause = 300;
+        try {
+            int paused = 0;
+            for (int i = 0; i < 6; ++i) {
+                if ("pausing".equals(runRequest())) {
+                    paused++;
+                }
+            }
+            //cancelling a hedged request would close the connection, so the slow responses are waited for
+            Assert.assertTrue(paused > 0);
+        } finally {
+            pause = 0;
+        }
+    }
+
+    private static void setProxy(String scheme, OptionMap options) throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        DefaultServer.setRootHandler(ProxyHandler.builder().setProxyClient(new LoadBalancingProxyClient()
+                .addHost(new URI(scheme, null, DefaultServer.getHostAddress("default"), port + 1, null, null, null), null, null, options)
+                .addHost(new URI(scheme, null, DefaultServer.getHostAddress("default"), port + 2, null, null, null), null, null, options))
+                .setHedgingPercentile(0.9)
+                .setMinHedgingDelay(50)
+                .setMaxRequestTime(30000)
+                .build());
+        pause = 0;
+        //the hedging delay is only known once enough responses have been seen
+        for (int i = 0; i < 128; ++i) {
+            runRequest();
+        }
+    }
+
+    private static String runRequest() throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(new HttpGet(DefaultServer.getDefaultServerURL() + "/name"));
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            return HttpClientUtils.readResponse(result);
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
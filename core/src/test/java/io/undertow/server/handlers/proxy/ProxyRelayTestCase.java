@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.util.Random;
+
+import io.undertow.Undertow;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.BlockingHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.InputStreamEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.Options;
+
+/**
+ * Tests that large request and response bodies are relayed intact by the proxy
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class ProxyRelayTestCase {
+
+    private static final int BODY_SIZE = 3 * 1024 * 1024 + 17;
+
+    private static Undertow backend;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        int port = DefaultServer.getHostPort("default");
+        backend = Undertow.builder()
+                .addHttpListener(port + 1, DefaultServer.getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new BlockingHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        //echo the body without a content length, so the response is chunked
+                        byte[] buffer = new byte[8192];
+                        InputStream in = exchange.getInputStream();
+                        OutputStream out = exchange.getOutputStream();
+                        int r;
+                        while ((r = in.read(buffer)) > 0) {
+                            out.write(buffer, 0, r);
+                        }
+                    }
+                }))
+                .build();
+        backend.start();
+
+        DefaultServer.setRootHandler(ProxyHandler.builder().setProxyClient(new LoadBalancingProxyClient()
+                .addHost(new URI("http", null, DefaultServer.getHostAddress("default"), port + 1, null, null, null)))
+                .setMaxRequestTime(30000).build());
+    }
+
+    @AfterClass
+    public static void after() {
+        backend.stop();
+    }
+
+    @Test
+    public void testFixedLengthBody() throws Exception {
+        byte[] data = createData();
+        HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/echo");
+        post.setEntity(new ByteArrayEntity(data));
+        Assert.assertArrayEquals(data, execute(post));
+    }
+
+    @Test
+    public void testChunkedBody() throws Exception {
+        byte[] data = createData();
+        HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/echo");
+        InputStreamEntity entity = new InputStreamEntity(new ByteArrayInputStream(data), -1);
+        entity.setChunked(true);
+        post.setEntity(entity);
+        Assert.assertArrayEquals(data, execute(post));
+    }
+
+    @Test
+    public void testSlowReader() throws Exception {
+        byte[] data = createData();
+        HttpPost post = new HttpPost(DefaultServer.getDefaultServerURL() + "/echo");
+        post.setEntity(new ByteArrayEntity(data));
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            //read slowly so the proxy has to queue data that the client can not accept yet
+            InputStream in = result.getEntity().getContent();
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[64 * 1024];
+            int r;
+            int count = 0;
+            while ((r = in.read(buffer)) > 0) {
+                out.write(buffer, 0, r);
+                if (++count % 8 == 0) {
+                    Thread.sleep(10);
+                }
+            }
+            Assert.assertArrayEquals(data, out.toByteArray());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+
+    private static byte[] createData() {
+        byte[] data = new byte[BODY_SIZE];
+        new Random(42).nextBytes(data);
+        return data;
+    }
+
+    private static byte[] execute(HttpPost post) throws Exception {
+        TestHttpClient client = new TestHttpClient();
+        try {
+            HttpResponse result = client.execute(post);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            return EntityUtils.toByteArray(result.getEntity());
+        } finally {
+            client.getConnectionManager().shutdown();
+        }
+    }
+}
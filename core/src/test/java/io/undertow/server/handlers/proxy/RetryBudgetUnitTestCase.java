@@ -0,0 +1,53 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class RetryBudgetUnitTestCase {
+
+    @Test
+    public void testRetriesAreLimitedToRatio() {
+        RetryBudget budget = new RetryBudget(0.1, 0);
+        Assert.assertFalse(budget.tryRetry());
+        for (int i = 0; i < 20; ++i) {
+            budget.requestStarted();
+        }
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertTrue(budget.tryRetry());
+        Assert.assertFalse(budget.tryRetry());
+    }
+
+    @Test
+    public void testMinimumRetriesPerSecond() {
+        RetryBudget budget = new RetryBudget(0, 3);
+        int allowed = 0;
+        for (int i = 0; i < 10; ++i) {
+            if (budget.tryRetry()) {
+                allowed++;
+            }
+        }
+        //the second may have ticked over between calls
+        Assert.assertTrue(allowed == 3 || allowed == 6);
+    }
+}
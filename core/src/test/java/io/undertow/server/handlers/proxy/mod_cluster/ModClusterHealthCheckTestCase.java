@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy.mod_cluster;
+
+import static io.undertow.testutils.DefaultServer.getClientSSLContext;
+import static io.undertow.testutils.DefaultServer.getHostAddress;
+import static io.undertow.testutils.DefaultServer.getHostPort;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.Handlers;
+import io.undertow.Undertow;
+import io.undertow.client.UndertowClient;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.server.handlers.ResponseCodeHandler;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.Methods;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+
+/**
+ * Tests that nodes sharing a backend are checked using a single ping, and that the ping latencies are recorded.
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+public class ModClusterHealthCheckTestCase {
+
+    private static final AtomicInteger pings = new AtomicInteger();
+
+    private static ModCluster modCluster;
+    private static Undertow backend;
+    private static TestHttpClient httpClient;
+    private static MCMPTestClient modClusterClient;
+
+    @BeforeClass
+    public static void setup() {
+        final int port = getHostPort("default");
+        backend = Undertow.builder()
+                .addHttpListener(port + 1, getHostAddress("default"))
+                .setSocketOption(Options.REUSE_ADDRESSES, true)
+                .setHandler(new HttpHandler() {
+                    @Override
+                    public void handleRequest(HttpServerExchange exchange) throws Exception {
+                        if (exchange.getRequestMethod().equals(Methods.OPTIONS)) {
+                            pings.incrementAndGet();
+                        }
+                    }
+                })
+                .build();
+        backend.start();
+
+        final UndertowXnioSsl xnioSsl = new UndertowXnioSsl(DefaultServer.getWorker().getXnio(), OptionMap.EMPTY, DefaultServer.SSL_BUFFER_POOL, getClientSSLContext());
+        modCluster = ModCluster.builder(DefaultServer.getWorker(), UndertowClient.getInstance(), xnioSsl)
+                .setHealthCheckInterval(100)
+                .setHealthChecker(NodeHealthChecker.OK)
+                .build();
+        final HttpHandler mcmp = MCMPConfig.webBuilder()
+                .setManagementHost(getHostAddress("default"))
+                .setManagementPort(port)
+                .create(modCluster, ResponseCodeHandler.HANDLE_404);
+        DefaultServer.setRootHandler(Handlers.path(modCluster.createProxyHandler()).addPrefixPath("manager", mcmp));
+        modCluster.start();
+
+        httpClient = new TestHttpClient();
+        modClusterClient = new MCMPTestClient(httpClient, DefaultServer.getDefaultServerURL() + "/manager");
+    }
+
+    @AfterClass
+    public static void tearDown() {
+        modCluster.stop();
+        backend.stop();
+        httpClient.getConnectionManager().shutdown();
+    }
+
+    @Test
+    public void testNodesSharingABackendArePingedOnce() throws Exception {
+        final NodeTestConfig s1 = NodeTestConfig.builder()
+                .setJvmRoute("hc1")
+                .setType("http")
+                .setHostname("localhost")
+                .setPort(getHostPort("default") + 1);
+        final NodeTestConfig s2 = NodeTestConfig.builder()
+                .setJvmRoute("hc2")
+                .setType("http")
+                .setHostname("localhost")
+                .setPort(getHostPort("default") + 1);
+        modClusterClient.info();
+        modClusterClient.registerNode(s1);
+        modClusterClient.registerNode(s2);
+        try {
+            final ModClusterContainer container = (ModClusterContainer) modCluster.getController();
+            final Node node1 = container.getNode("hc1");
+            final Node node2 = container.getNode("hc2");
+            Assert.assertSame(node1.getIoThread(), node2.getIoThread());
+
+            final long end = System.currentTimeMillis() + TimeUnit.SECONDS.toMillis(10);
+            while (node1.getHealthCheckLatencies().length < 5 && System.currentTimeMillis() < end) {
+                Thread.sleep(20);
+            }
+            final int checks = node1.getHealthCheckLatencies().length;
+            Assert.assertTrue(checks >= 5);
+            // Every ping counts for both nodes, so the backend sees roughly one ping per check instead of two
+            Assert.assertTrue("pings " + pings.get() + " checks " + checks, pings.get() <= checks + 2);
+            Assert.assertTrue(node2.getHealthCheckLatencies().length >= checks - 1);
+            Assert.assertTrue(node1.getHealthCheckLatency() >= 0);
+            Assert.assertTrue(container.getStatus().getLoadBalancer("mycluster").getNode("hc1").getHealthCheckLatency() >= 0);
+        } finally {
+            modClusterClient.removeNode("hc1");
+            modClusterClient.removeNode("hc2");
+        }
+    }
+
+}
@@ -0,0 +1,99 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.handlers.proxy.mod_cluster;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import io.undertow.testutils.category.UnitTest;
+import io.undertow.util.PathMatcher;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests routing requests to contexts with the mod_cluster routing index
+ */
+@Category(UnitTest.class)
+public class RoutingIndexUnitTestCase {
+
+    @Test
+    public void testLongestContextMatches() {
+        VirtualHost host = new VirtualHost();
+        Context app = register(host, "/app", "s1");
+        Context nested = register(host, "/app/nested/", "s1");
+        Context other = register(host, "/other", "s2");
+        RoutingIndex.HostRoutes routes = host.buildRoutes();
+
+        assertMatch(routes.match("/app"), "/app", "", app);
+        assertMatch(routes.match("/app/"), "/app", "/", app);
+        assertMatch(routes.match("/app/index.html"), "/app", "/index.html", app);
+        assertMatch(routes.match("/app/nested"), "/app/nested", "", nested);
+        assertMatch(routes.match("/app/nested/a/b"), "/app/nested", "/a/b", nested);
+        assertMatch(routes.match("/app/nestedx"), "/app", "/nestedx", app);
+        assertMatch(routes.match("/other/x"), "/other", "/x", other);
+        Assert.assertNull(routes.match("/application").getValue());
+        Assert.assertNull(routes.match("/").getValue());
+        Assert.assertNull(routes.match("").getValue());
+    }
+
+    @Test
+    public void testDefaultContext() {
+        VirtualHost host = new VirtualHost();
+        Context root = register(host, "/", "s1");
+        Context app = register(host, "/app", "s2");
+        RoutingIndex.HostRoutes routes = host.buildRoutes();
+        assertMatch(routes.match("/app/x"), "/app", "/x", app);
+        assertMatch(routes.match("/x"), "", "/x", root);
+    }
+
+    @Test
+    public void testIndexIsReplacedOnChange() {
+        VirtualHost host = new VirtualHost();
+        Context first = register(host, "/app", "s1");
+        RoutingIndex index = RoutingIndex.EMPTY.withHosts(Collections.singletonMap("localhost", host.buildRoutes()));
+        Context second = register(host, "/app", "s2");
+        RoutingIndex updated = index.withHosts(Collections.singletonMap("localhost", host.buildRoutes()));
+
+        Assert.assertEquals(index.getVersion() + 1, updated.getVersion());
+        //the old index is not affected by the change
+        Assert.assertEquals(Collections.singletonList(first), index.getHost("localhost").match("/app").getValue().getContexts());
+        Assert.assertEquals(2, updated.getHost("localhost").match("/app").getValue().getContexts().size());
+        Assert.assertSame(second, updated.match("/app/x").getValue().getContextForNode("s2"));
+
+        Map<String, RoutingIndex.HostRoutes> removal = new HashMap<>();
+        removal.put("localhost", null);
+        RoutingIndex removed = updated.withHosts(removal);
+        Assert.assertNull(removed.getHost("localhost"));
+        Assert.assertNull(removed.match("/app"));
+    }
+
+    private static Context register(VirtualHost host, String path, String jvmRoute) {
+        Context context = new Context(path, null, null);
+        host.registerContext(path, jvmRoute, context);
+        return context;
+    }
+
+    private static void assertMatch(PathMatcher.PathMatch<VirtualHost.HostEntry> match, String matched, String remaining, Context context) {
+        Assert.assertEquals(matched, match.getMatched());
+        Assert.assertEquals(remaining, match.getRemaining());
+        Assert.assertTrue(match.getValue().getContexts().contains(context));
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.server.handlers.sse;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.FileUtils;
+import io.undertow.util.MappedEventLog;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoUtils;
+
+@RunWith(DefaultServer.class)
+public class ServerSentEventBroadcasterTestCase {
+
+    private static final int CONNECTIONS = 3;
+
+    @Test
+    public void testBroadcast() throws Exception {
+        final ServerSentEventBroadcaster broadcaster = new ServerSentEventBroadcaster();
+        final CountDownLatch connected = new CountDownLatch(CONNECTIONS);
+        DefaultServer.setRootHandler(new ServerSentEventHandler(broadcaster, new ServerSentEventConnectionCallback() {
+            @Override
+            public void connected(ServerSentEventConnection connection, String lastEventId) {
+                connected.countDown();
+            }
+        }));
+        ExecutorService executor = Executors.newFixedThreadPool(CONNECTIONS);
+        try {
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < CONNECTIONS; ++i) {
+                responses.add(executor.submit(new Request(null)));
+            }
+            Assert.assertTrue(connected.await(10, TimeUnit.SECONDS));
+
+            final AtomicInteger done = new AtomicInteger();
+            ServerSentEventConnection.EventCallback callback = new ServerSentEventConnection.EventCallback() {
+                @Override
+                public void done(ServerSentEventConnection connection, String data, String event, String id) {
+                    if (done.incrementAndGet() == CONNECTIONS * 2) {
+                        for (ServerSentEventConnection c : broadcaster.getConnections()) {
+                            c.shutdown();
+                        }
+                    }
+                }
+
+                @Override
+                public void failed(ServerSentEventConnection connection, String data, String event, String id, IOException e) {
+                    e.printStackTrace();
+                    IoUtils.safeClose(connection);
+                }
+            };
+            Assert.assertEquals(CONNECTIONS, broadcaster.broadcast("msg 1", "evt", "1", callback));
+            Assert.assertEquals(CONNECTIONS, broadcaster.broadcast("msg\n2", null, null, callback));
+            for (Future<String> response : responses) {
+                Assert.assertEquals("200:id:1\nevent:evt\ndata:msg 1\n\ndata:msg\ndata:2\n\n", response.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+            broadcaster.close();
+        }
+    }
+
+    @Test
+    public void testReplay() throws Exception {
+        final ServerSentEventBroadcaster broadcaster = new ServerSentEventBroadcaster()
+                .setReplayBufferSize(2);
+        DefaultServer.setRootHandler(new ServerSentEventHandler(broadcaster, new ServerSentEventConnectionCallback() {
+            @Override
+            public void connected(ServerSentEventConnection connection, String lastEventId) {
+                connection.send("end", new ServerSentEventConnection.EventCallback() {
+                    @Override
+                    public void done(ServerSentEventConnection connection, String data, String event, String id) {
+                        connection.shutdown();
+                    }
+
+                    @Override
+                    public void failed(ServerSentEventConnection connection, String data, String event, String id, IOException e) {
+                        e.printStackTrace();
+                        IoUtils.safeClose(connection);
+                    }
+                });
+            }
+        }));
+        try {
+            Assert.assertEquals(0, broadcaster.broadcast("one", null, "1"));
+            Assert.assertEquals(0, broadcaster.broadcast("two", null, "2"));
+            Assert.assertEquals(0, broadcaster.broadcast("three", null, "3"));
+
+            Assert.assertEquals("200:id:3\ndata:three\n\ndata:end\n\n", new Request("2").call());
+            Assert.assertEquals("200:data:end\n\n", new Request("3").call());
+            //the first event is no longer retained, so there is no way to know what was missed
+            Assert.assertEquals("200:data:end\n\n", new Request("1").call());
+            Assert.assertEquals("200:data:end\n\n", new Request(null).call());
+        } finally {
+            broadcaster.close();
+        }
+    }
+
+    @Test
+    public void testReplayOrderWithConcurrentBroadcast() throws Exception {
+        final int events = 2000;
+        final ServerSentEventBroadcaster broadcaster = new ServerSentEventBroadcaster()
+                .setReplayBufferSize(events + 1);
+        final CountDownLatch connected = new CountDownLatch(CONNECTIONS);
+        DefaultServer.setRootHandler(new ServerSentEventHandler(broadcaster, new ServerSentEventConnectionCallback() {
+            @Override
+            public void connected(ServerSentEventConnection connection, String lastEventId) {
+                connected.countDown();
+            }
+        }));
+        ExecutorService executor = Executors.newFixedThreadPool(CONNECTIONS);
+        try {
+            broadcaster.broadcast("0", null, "0");
+            List<Future<String>> responses = new ArrayList<>();
+            for (int i = 0; i < CONNECTIONS; ++i) {
+                responses.add(executor.submit(new Request("0")));
+            }
+            //the connections are added and replayed to while these are being broadcast
+            for (int i = 1; i < events; ++i) {
+                broadcaster.broadcast(Integer.toString(i), null, Integer.toString(i));
+            }
+            Assert.assertTrue(connected.await(10, TimeUnit.SECONDS));
+            broadcaster.broadcast("end", null, null, new ServerSentEventConnection.EventCallback() {
+                @Override
+                public void done(ServerSentEventConnection connection, String data, String event, String id) {
+                    connection.shutdown();
+                }
+
+                @Override
+                public void failed(ServerSentEventConnection connection, String data, String event, String id, IOException e) {
+                    e.printStackTrace();
+                    IoUtils.safeClose(connection);
+                }
+            });
+            StringBuilder expected = new StringBuilder("200:");
+            for (int i = 1; i < events; ++i) {
+                expected.append("id:").append(i).append("\ndata:").append(i).append("\n\n");
+            }
+            expected.append("data:end\n\n");
+            for (Future<String> response : responses) {
+                Assert.assertEquals(expected.toString(), response.get(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            executor.shutdown();
+            broadcaster.close();
+        }
+    }
+
+    @Test
+    public void testReplayFromLog() throws Exception {
+        Path dir = Files.createTempDirectory("sse-log");
+        MappedEventLog log = new MappedEventLog(dir, 1024);
+        final ServerSentEventBroadcaster broadcaster = new ServerSentEventBroadcaster()
+                .setReplayLog(log);
+        DefaultServer.setRootHandler(new ServerSentEventHandler(broadcaster, new ServerSentEventConnectionCallback() {
+            @Override
+            public void connected(ServerSentEventConnection connection, String lastEventId) {
+                connection.send("end", new ServerSentEventConnection.EventCallback() {
+                    @Override
+                    public void done(ServerSentEventConnection connection, String data, String event, String id) {
+                        connection.shutdown();
+                    }
+
+                    @Override
+                    public void failed(ServerSentEventConnection connection, String data, String event, String id, IOException e) {
+                        e.printStackTrace();
+                        IoUtils.safeClose(connection);
+                    }
+                });
+            }
+        }));
+        try {
+            Assert.assertEquals(0, broadcaster.broadcast("one", null, "1"));
+            Assert.assertEquals(0, broadcaster.broadcast("two", "evt", "2"));
+            Assert.assertEquals(0, broadcaster.broadcast("three", null, "3"));
+
+            Assert.assertEquals("200:id:2\nevent:evt\ndata:two\n\nid:3\ndata:three\n\ndata:end\n\n", new Request("1").call());
+            Assert.assertEquals("200:data:end\n\n", new Request("unknown").call());
+
+            //the events survive the log being reopened
+            log.close();
+            log = new MappedEventLog(dir, 1024);
+            broadcaster.setReplayLog(log);
+            Assert.assertEquals("200:id:3\ndata:three\n\ndata:end\n\n", new Request("2").call());
+        } finally {
+            broadcaster.close();
+            log.close();
+            FileUtils.deleteRecursive(dir);
+        }
+    }
+
+    @Test
+    public void testSlowConsumerClosed() throws Exception {
+        final AtomicInteger dropped = new AtomicInteger();
+        final ServerSentEventBroadcaster broadcaster = new ServerSentEventBroadcaster()
+                .setMaxQueuedEvents(0)
+                .setSlowConsumerPolicy(ServerSentEventBroadcaster.SlowConsumerPolicy.CLOSE)
+                .setSlowConsumerListener(new ServerSentEventBroadcaster.SlowConsumerListener() {
+                    @Override
+                    public void eventDropped(ServerSentEventConnection connection) {
+                        dropped.incrementAndGet();
+                    }
+                });
+        final CountDownLatch connected = new CountDownLatch(1);
+        DefaultServer.setRootHandler(new ServerSentEventHandler(broadcaster, new ServerSentEventConnectionCallback() {
+            @Override
+            public void connected(ServerSentEventConnection connection, String lastEventId) {
+                connected.countDown();
+            }
+        }));
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            Future<String> response = executor.submit(new Request(null));
+            Assert.assertTrue(connected.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, broadcaster.broadcast("msg"));
+            Assert.assertEquals(1, dropped.get());
+            Assert.assertEquals(1, broadcaster.getDroppedEvents());
+            try {
+                Assert.assertEquals("200:", response.get(10, TimeUnit.SECONDS));
+            } catch (Exception expected) {
+                //the connection may be reset rather than closed cleanly
+            }
+            Assert.assertTrue(broadcaster.getConnections().isEmpty());
+        } finally {
+            executor.shutdown();
+            broadcaster.close();
+        }
+    }
+
+    @Test
+    public void testKeepAlive() throws Exception {
+        final ServerSentEventBroadcaster broadcaster = new ServerSentEventBroadcaster()
+                .setKeepAliveTime(100);
+        final CountDownLatch connected = new CountDownLatch(1);
+        DefaultServer.setRootHandler(new ServerSentEventHandler(broadcaster, new ServerSentEventConnectionCallback() {
+            @Override
+            public void connected(ServerSentEventConnection connection, String lastEventId) {
+                connected.countDown();
+            }
+        }));
+        final Socket socket = new Socket(DefaultServer.getHostAddress("default"), DefaultServer.getHostPort("default"));
+        try {
+            InputStream in = socket.getInputStream();
+            OutputStream out = socket.getOutputStream();
+            out.write(("GET / HTTP/1.1\r\nHost:" + DefaultServer.getHostAddress() + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            Assert.assertTrue(connected.await(10, TimeUnit.SECONDS));
+            socket.setSoTimeout(10000);
+            StringBuilder received = new StringBuilder();
+            byte[] buf = new byte[100];
+            while (received.indexOf(":\n") == -1) {
+                int res = in.read(buf);
+                Assert.assertTrue(res > 0);
+                received.append(new String(buf, 0, res, StandardCharsets.US_ASCII));
+            }
+        } finally {
+            socket.close();
+            broadcaster.close();
+        }
+    }
+
+    private static final class Request implements Callable<String> {
+
+        private final String lastEventId;
+
+        private Request(String lastEventId) {
+            this.lastEventId = lastEventId;
+        }
+
+        @Override
+        public String call() throws IOException {
+            TestHttpClient client = new TestHttpClient();
+            try {
+                HttpGet get = new HttpGet(DefaultServer.getDefaultServerURL() + "/");
+                if (lastEventId != null) {
+                    get.addHeader(ServerSentEventHandler.LAST_EVENT_ID.toString(), lastEventId);
+                }
+                HttpResponse result = client.execute(get);
+                Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+                return result.getStatusLine().getStatusCode() + ":" + HttpClientUtils.readResponse(result);
+            } finally {
+                client.getConnectionManager().shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.ssl;
+
+import io.undertow.UndertowOptions;
+import io.undertow.protocols.ssl.SslConduit;
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.AbstractServerConnection;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpClientUtils;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.testutils.ProxyIgnore;
+import io.undertow.testutils.TestHttpClient;
+import io.undertow.util.StatusCodes;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.OptionMap;
+import org.xnio.ssl.SslConnection;
+
+/**
+ * Tests that dynamic TLS record sizing sends the start of the data in small records, and then switches to
+ * maximum size records.
+ */
+@RunWith(DefaultServer.class)
+@ProxyIgnore
+@HttpOneOnly
+public class DynamicRecordSizingTestCase {
+
+    private static final int SMALL_RECORD_SIZE = 1000;
+    private static final int THRESHOLD = 20000;
+    private static final int RESPONSE_SIZE = 200000;
+
+    @Test
+    public void testDynamicRecordSizing() throws Exception {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < RESPONSE_SIZE; ++i) {
+            sb.append((char) ('a' + (i % 26)));
+        }
+        final String message = sb.toString();
+        DefaultServer.setRootHandler(new HttpHandler() {
+            @Override
+            public void handleRequest(final HttpServerExchange exchange) throws Exception {
+                if (exchange.getRequestPath().equals("/stats")) {
+                    SslConduit conduit = UndertowXnioSsl.getSslConduit((SslConnection) ((AbstractServerConnection) exchange.getConnection()).getChannel());
+                    exchange.getResponseSender().send(conduit.getSmallRecordsWritten() + ":" + conduit.getApplicationRecordsWritten() + ":" + conduit.getApplicationBytesWritten());
+                } else {
+                    exchange.getResponseSender().send(message);
+                }
+            }
+        });
+
+        DefaultServer.startSSLServer(OptionMap.builder()
+                .set(UndertowOptions.SSL_DYNAMIC_RECORD_SIZING, true)
+                .set(UndertowOptions.SSL_SMALL_RECORD_SIZE, SMALL_RECORD_SIZE)
+                .set(UndertowOptions.SSL_SMALL_RECORD_THRESHOLD, THRESHOLD)
+                .getMap());
+        TestHttpClient client = new TestHttpClient();
+        client.setSSLContext(DefaultServer.getClientSSLContext());
+        try {
+            HttpGet get = new HttpGet(DefaultServer.getDefaultServerSSLAddress() + "/data");
+            HttpResponse result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            Assert.assertEquals(message, HttpClientUtils.readResponse(result));
+
+            //the same connection is used for the second request
+            get = new HttpGet(DefaultServer.getDefaultServerSSLAddress() + "/stats");
+            result = client.execute(get);
+            Assert.assertEquals(StatusCodes.OK, result.getStatusLine().getStatusCode());
+            String[] stats = HttpClientUtils.readResponse(result).split(":");
+            long smallRecords = Long.parseLong(stats[0]);
+            long records = Long.parseLong(stats[1]);
+            long bytes = Long.parseLong(stats[2]);
+            Assert.assertTrue(bytes > RESPONSE_SIZE);
+            Assert.assertTrue("" + smallRecords, smallRecords >= THRESHOLD / SMALL_RECORD_SIZE);
+            //everything after the threshold is sent in large records
+            Assert.assertTrue(records + " " + smallRecords, records - smallRecords < (RESPONSE_SIZE - THRESHOLD) / SMALL_RECORD_SIZE);
+        } finally {
+            client.getConnectionManager().shutdown();
+            DefaultServer.stopSSLServer();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.server.ssl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocket;
+
+import io.undertow.Undertow;
+import io.undertow.UndertowOptions;
+import io.undertow.protocols.ssl.SslHandshakeStatistics;
+import io.undertow.server.HttpHandler;
+import io.undertow.server.HttpServerExchange;
+import io.undertow.testutils.DefaultServer;
+import org.junit.Assert;
+import org.junit.Test;
+import org.xnio.Options;
+import org.xnio.Sequence;
+
+/**
+ * Tests the handshake statistics and admission control of SSL listeners
+ */
+public class SslHandshakeStatisticsTestCase {
+
+    private static final HttpHandler HANDLER = new HttpHandler() {
+        @Override
+        public void handleRequest(HttpServerExchange exchange) throws Exception {
+            exchange.getResponseSender().send("hello");
+        }
+    };
+
+    @Test
+    public void testHandshakeStatistics() throws Exception {
+        Undertow server = Undertow.builder()
+                .addHttpsListener(0, "localhost", DefaultServer.getServerSslContext())
+                .setHandler(HANDLER)
+                .setSocketOption(Options.SSL_ENABLED_PROTOCOLS, Sequence.of("TLSv1.2"))
+                .setSocketOption(UndertowOptions.SSL_HANDSHAKE_THREADS, 2)
+                .build();
+        server.start();
+        try {
+            Undertow.ListenerInfo listener = server.getListenerInfo().get(0);
+            SslHandshakeStatistics statistics = listener.getSslHandshakeStatistics();
+            Assert.assertNotNull(statistics);
+            InetSocketAddress address = (InetSocketAddress) listener.getAddress();
+            SSLContext clientContext = DefaultServer.createClientSslContext();
+            for (int i = 0; i < 3; ++i) {
+                Assert.assertEquals("HTTP/1.1 200 OK", doRequest(clientContext, address));
+            }
+            Assert.assertEquals(3, statistics.getCompletedHandshakes());
+            long total = 0;
+            for (long count : statistics.getHandshakeLatencyHistogram()) {
+                total += count;
+            }
+            Assert.assertEquals(3, total);
+            Assert.assertEquals(statistics.getHandshakeLatencyBuckets().length + 1, statistics.getHandshakeLatencyHistogram().length);
+            //the client caches the session, so the later connections resume it
+            Assert.assertTrue(statistics.getResumedSessions() > 0);
+            Assert.assertTrue(statistics.getSessionResumptionRatio() > 0);
+        } finally {
+            server.stop();
+        }
+    }
+
+    @Test
+    public void testHandshakesRejectedWhenLimitReached() throws Exception {
+        Undertow server = Undertow.builder()
+                .addHttpsListener(0, "localhost", DefaultServer.getServerSslContext())
+                .setHandler(HANDLER)
+                .setSocketOption(Options.SSL_ENABLED_PROTOCOLS, Sequence.of("TLSv1.2"))
+                .setSocketOption(UndertowOptions.SSL_MAX_CONCURRENT_HANDSHAKES, 1)
+                .build();
+        server.start();
+        try {
+            Undertow.ListenerInfo listener = server.getListenerInfo().get(0);
+            SslHandshakeStatistics statistics = listener.getSslHandshakeStatistics();
+            InetSocketAddress address = (InetSocketAddress) listener.getAddress();
+            SSLContext clientContext = DefaultServer.createClientSslContext();
+
+            //a connection that never starts the handshake uses up the only slot
+            Socket idle = new Socket();
+            idle.connect(address);
+            try {
+                waitFor(statistics, 1);
+                try {
+                    doRequest(clientContext, address);
+                    Assert.fail("expected the connection to be closed");
+                } catch (IOException expected) {
+                }
+                Assert.assertEquals(1, statistics.getRejectedHandshakes());
+            } finally {
+                idle.close();
+            }
+            waitFor(statistics, 0);
+            Assert.assertEquals(1, statistics.getFailedHandshakes());
+            Assert.assertEquals("HTTP/1.1 200 OK", doRequest(clientContext, address));
+            Assert.assertEquals(1, statistics.getCompletedHandshakes());
+        } finally {
+            server.stop();
+        }
+    }
+
+    private static void waitFor(SslHandshakeStatistics statistics, long active) throws InterruptedException {
+        for (int i = 0; i < 100 && statistics.getActiveHandshakes() != active; ++i) {
+            Thread.sleep(50);
+        }
+        Assert.assertEquals(active, statistics.getActiveHandshakes());
+    }
+
+    /**
+     * Sends a request on a new connection and returns the status line
+     */
+    private static String doRequest(SSLContext clientContext, InetSocketAddress address) throws IOException {
+        try (SSLSocket socket = (SSLSocket) clientContext.getSocketFactory().createSocket(address.getHostString(), address.getPort())) {
+            OutputStream out = socket.getOutputStream();
+            out.write("GET / HTTP/1.1\r\nHost: localhost\r\nConnection: close\r\n\r\n".getBytes(StandardCharsets.US_ASCII));
+            out.flush();
+            InputStream in = socket.getInputStream();
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = in.read()) != '\n') {
+                if (c == -1) {
+                    throw new IOException("Unexpected EOF");
+                }
+                if (c != '\r') {
+                    line.append((char) c);
+                }
+            }
+            return line.toString();
+        }
+    }
+}
@@ -39,6 +39,13 @@ public class DebuggingSlicePool implements ByteBufferPool{
         ALLOCATION_CONTEXT.set(context);
     }
 
+    /**
+     * @return the number of buffers that have been allocated from any debugging pool and not yet freed
+     */
+    public static int getAllocatedBufferCount() {
+        return BUFFERS.size();
+    }
+
     @Override
     public PooledByteBuffer allocate() {
         final PooledByteBuffer delegate = this.delegate.allocate();
@@ -0,0 +1,235 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+@Category(UnitTest.class)
+public class MappedEventLogTestCase {
+
+    private Path dir;
+
+    @Before
+    public void setup() throws IOException {
+        dir = Files.createTempDirectory("event-log");
+    }
+
+    @After
+    public void cleanup() throws IOException {
+        FileUtils.deleteRecursive(dir);
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        MappedEventLog log = new MappedEventLog(dir, 1024);
+        try {
+            log.append("1", bytes("one"));
+            log.append(null, bytes("no id"));
+            log.append("2", bytes("two"));
+            log.append("3", bytes("three"));
+
+            Assert.assertEquals("[no id, 2:two, 3:three]", replay(log, "1").toString());
+            Assert.assertEquals("[3:three]", replay(log, "2").toString());
+            Assert.assertEquals("[]", replay(log, "3").toString());
+            Assert.assertNull(replay(log, "4"));
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void testReplayToPosition() throws IOException {
+        MappedEventLog log = new MappedEventLog(dir, 100);
+        try {
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 20; ++i) {
+                log.append(Integer.toString(i), bytes("event " + i));
+                if (i > 0) {
+                    expected.add(i + ":event " + i);
+                }
+            }
+            long position = log.getPosition();
+            for (int i = 20; i < 40; ++i) {
+                log.append(Integer.toString(i), bytes("event " + i));
+            }
+            final List<String> events = new ArrayList<>();
+            Assert.assertTrue(log.replay("0", position, new MappedEventLog.EventVisitor() {
+                @Override
+                public void event(String id, ByteBuffer payload) {
+                    byte[] data = new byte[payload.remaining()];
+                    payload.get(data);
+                    events.add(id + ":" + new String(data, StandardCharsets.UTF_8));
+                }
+            }));
+            Assert.assertEquals(expected, events);
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void testSegmentRotation() throws IOException {
+        MappedEventLog log = new MappedEventLog(dir, 100);
+        try {
+            List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 50; ++i) {
+                log.append(Integer.toString(i), bytes("event " + i));
+                if (i > 0) {
+                    expected.add(i + ":event " + i);
+                }
+            }
+            Assert.assertTrue(log.getSegmentCount() > 10);
+            Assert.assertEquals(expected, replay(log, "0"));
+
+            //an event that is larger than a segment gets a segment of its own
+            StringBuilder large = new StringBuilder();
+            for (int i = 0; i < 100; ++i) {
+                large.append("large ");
+            }
+            log.append("large", bytes(large.toString()));
+            log.append("after", bytes("after"));
+            Assert.assertEquals("[large:" + large + ", after:after]", replay(log, "49").toString());
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void testSizeRetention() throws IOException {
+        MappedEventLog log = new MappedEventLog(dir, 100)
+                .setMaxRetainedBytes(300);
+        try {
+            for (int i = 0; i < 50; ++i) {
+                log.append(Integer.toString(i), bytes("event " + i));
+            }
+            Assert.assertTrue(log.getRetainedBytes() <= 400);
+            Assert.assertTrue(log.getSegmentCount() <= 4);
+            Assert.assertNull(replay(log, "0"));
+            Assert.assertEquals("[49:event 49]", replay(log, "48").toString());
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void testAgeRetention() throws Exception {
+        MappedEventLog log = new MappedEventLog(dir, 100)
+                .setMaxAge(50);
+        try {
+            for (int i = 0; i < 10; ++i) {
+                log.append(Integer.toString(i), bytes("event " + i));
+            }
+            Assert.assertNotNull(replay(log, "0"));
+            Thread.sleep(100);
+            log.append("new", bytes("new event"));
+            Assert.assertNull(replay(log, "0"));
+            Assert.assertEquals(1, log.getSegmentCount());
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void testReopen() throws IOException {
+        MappedEventLog log = new MappedEventLog(dir, 100);
+        for (int i = 0; i < 20; ++i) {
+            log.append(Integer.toString(i), bytes("event " + i));
+        }
+        log.close();
+
+        log = new MappedEventLog(dir, 100);
+        try {
+            Assert.assertEquals("[18:event 18, 19:event 19]", replay(log, "17").toString());
+            log.append("20", bytes("event 20"));
+            Assert.assertEquals("[19:event 19, 20:event 20]", replay(log, "18").toString());
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    public void testRetentionDuringReplay() throws IOException {
+        final MappedEventLog log = new MappedEventLog(dir, 100)
+                .setMaxRetainedBytes(300);
+        try {
+            final List<String> expected = new ArrayList<>();
+            for (int i = 0; i < 10; ++i) {
+                log.append(Integer.toString(i), bytes("event " + i));
+                if (i > 5) {
+                    expected.add(i + ":event " + i);
+                }
+            }
+            final List<String> events = new ArrayList<>();
+            Assert.assertTrue(log.replay("5", new MappedEventLog.EventVisitor() {
+                @Override
+                public void event(String id, ByteBuffer payload) {
+                    byte[] data = new byte[payload.remaining()];
+                    payload.get(data);
+                    events.add(id + ":" + new String(data, StandardCharsets.UTF_8));
+                    try {
+                        //pushes the segments that are being replayed out of the log
+                        for (int i = 0; i < 10; ++i) {
+                            log.append("new", bytes("new event"));
+                        }
+                    } catch (IOException e) {
+                        throw new RuntimeException(e);
+                    }
+                }
+            }));
+            Assert.assertEquals(expected, events);
+            Assert.assertNull(replay(log, "5"));
+            Assert.assertEquals("[]", replay(log, "new").toString());
+        } finally {
+            log.close();
+        }
+    }
+
+    private static ByteBuffer bytes(String data) {
+        return ByteBuffer.wrap(data.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static List<String> replay(MappedEventLog log, String lastId) {
+        final List<String> events = new ArrayList<>();
+        boolean found = log.replay(lastId, new MappedEventLog.EventVisitor() {
+            @Override
+            public void event(String id, ByteBuffer payload) {
+                Assert.assertTrue(payload.isReadOnly());
+                byte[] data = new byte[payload.remaining()];
+                payload.get(data);
+                String event = new String(data, StandardCharsets.UTF_8);
+                events.add(id == null ? event : id + ":" + event);
+            }
+        });
+        return found ? events : null;
+    }
+}
@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.websockets.core;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+
+import io.undertow.protocols.ssl.UndertowXnioSsl;
+import io.undertow.server.DefaultByteBufferPool;
+import io.undertow.testutils.DebuggingSlicePool;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+
+/**
+ * Tests that an idle web socket connection does not hold on to any pooled buffers between messages
+ */
+@RunWith(DefaultServer.class)
+@HttpOneOnly
+public class IdleWebSocketBufferTestCase {
+
+    private static DefaultByteBufferPool clientPool;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        clientPool = new DefaultByteBufferPool(true, 8192);
+        DefaultServer.setRootHandler(new WebSocketProtocolHandshakeHandler(new WebSocketConnectionCallback() {
+            @Override
+            public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+                channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                    @Override
+                    protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) {
+                        WebSockets.sendText(message.getData(), channel, null);
+                    }
+                });
+                channel.resumeReceives();
+            }
+        }));
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        clientPool.close();
+    }
+
+    @Test
+    public void testIdleConnectionHoldsNoBuffers() throws Exception {
+        runTest(DefaultServer.getDefaultServerURL().replace("http", "ws"), null);
+    }
+
+    @Test
+    public void testIdleSslConnectionHoldsNoBuffers() throws Exception {
+        DefaultServer.startSSLServer();
+        try {
+            UndertowXnioSsl ssl = new UndertowXnioSsl(DefaultServer.getWorker().getXnio(), OptionMap.EMPTY, DefaultServer.getClientSSLContext());
+            runTest(DefaultServer.getDefaultServerSSLAddress().replace("https", "wss"), ssl);
+        } finally {
+            DefaultServer.stopSSLServer();
+        }
+    }
+
+    private void runTest(String uri, UndertowXnioSsl ssl) throws Exception {
+        int allocated = DebuggingSlicePool.getAllocatedBufferCount();
+        WebSocketChannel channel = WebSocketClient.connectionBuilder(DefaultServer.getWorker(), clientPool, new URI(uri))
+                .setSsl(ssl)
+                .connect().get();
+        try {
+            final LinkedBlockingDeque<String> received = new LinkedBlockingDeque<>();
+            channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                @Override
+                protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) {
+                    received.add(message.getData());
+                }
+            });
+            channel.resumeReceives();
+            StringBuilder large = new StringBuilder();
+            for (int i = 0; i < 10000; ++i) {
+                large.append("message ").append(i);
+            }
+            String[] messages = {"hello", large.toString(), "world"};
+            for (String message : messages) {
+                WebSockets.sendTextBlocking(message, channel);
+                Assert.assertEquals(message, received.poll(10, TimeUnit.SECONDS));
+            }
+            long end = System.currentTimeMillis() + 5000;
+            while (DebuggingSlicePool.getAllocatedBufferCount() > allocated && System.currentTimeMillis() < end) {
+                Thread.sleep(10);
+            }
+            Assert.assertEquals(allocated, DebuggingSlicePool.getAllocatedBufferCount());
+            Assert.assertTrue(channel.isOpen());
+        } finally {
+            IoUtils.safeClose(channel);
+        }
+    }
+}
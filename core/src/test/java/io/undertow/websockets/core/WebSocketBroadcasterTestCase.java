@@ -0,0 +1,274 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.websockets.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.WebSocketExtension;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.client.WebSocketClientNegotiation;
+import io.undertow.websockets.extensions.ExtensionHandshake;
+import io.undertow.websockets.extensions.PerMessageDeflateFunction;
+import io.undertow.websockets.extensions.PerMessageDeflateHandshake;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+import static io.undertow.Handlers.path;
+
+/**
+ * Tests sending the same message to many channels with a {@link WebSocketBroadcaster}
+ */
+@RunWith(DefaultServer.class)
+@HttpOneOnly
+public class WebSocketBroadcasterTestCase {
+
+    private static final List<WebSocketChannel> serverChannels = new CopyOnWriteArrayList<>();
+    private static final List<WebSocketChannel> clientChannels = new CopyOnWriteArrayList<>();
+    private static XnioWorker worker;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 2));
+        WebSocketConnectionCallback callback = new WebSocketConnectionCallback() {
+            @Override
+            public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+                serverChannels.add(channel);
+                channel.resumeReceives();
+            }
+        };
+        DefaultServer.setRootHandler(path()
+                .addPrefixPath("/takeover", new WebSocketProtocolHandshakeHandler(callback).addExtension(new PerMessageDeflateHandshake(false, 6, true, true)))
+                .addPrefixPath("/", new WebSocketProtocolHandshakeHandler(callback).addExtension(new PerMessageDeflateHandshake(false, 6, false, true))));
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        worker.shutdown();
+    }
+
+    @After
+    public void closeChannels() {
+        for (WebSocketChannel channel : clientChannels) {
+            IoUtils.safeClose(channel);
+        }
+        clientChannels.clear();
+        serverChannels.clear();
+    }
+
+    @Test
+    public void testBroadcastToChannelsWithDifferentExtensions() throws Exception {
+        List<Receiver> receivers = new ArrayList<>();
+        for (int i = 0; i < 3; ++i) {
+            receivers.add(new Receiver(connect("/", false)));
+        }
+        for (int i = 0; i < 2; ++i) {
+            receivers.add(new Receiver(connect("/", true)));
+        }
+        receivers.add(new Receiver(connect("/takeover", true)));
+        awaitServerChannels(receivers.size());
+        int compressed = 0;
+        for (WebSocketChannel channel : serverChannels) {
+            if (channel.getExtensionFunction() instanceof PerMessageDeflateFunction) {
+                compressed++;
+            }
+        }
+        Assert.assertEquals(3, compressed);
+
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < 5000; ++i) {
+            sb.append("message ").append(i).append(" é");
+        }
+        String[] messages = {"hello", sb.toString(), "world"};
+        final CountDownLatch sent = new CountDownLatch(receivers.size() * messages.length);
+        WebSocketBroadcaster broadcaster = new WebSocketBroadcaster();
+        for (String message : messages) {
+            Assert.assertEquals(receivers.size(), broadcaster.broadcastText(message, serverChannels, new WebSocketCallback<Void>() {
+                @Override
+                public void complete(WebSocketChannel channel, Void context) {
+                    sent.countDown();
+                }
+
+                @Override
+                public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                    throwable.printStackTrace();
+                }
+            }, null));
+        }
+        byte[] binary = new byte[100000];
+        for (int i = 0; i < binary.length; ++i) {
+            binary[i] = (byte) (i % 7);
+        }
+        ByteBuffer data = ByteBuffer.wrap(binary);
+        Assert.assertEquals(receivers.size(), broadcaster.broadcastBinary(data, serverChannels));
+        Assert.assertEquals(binary.length, data.remaining());
+
+        Assert.assertTrue(sent.await(10, TimeUnit.SECONDS));
+        for (Receiver receiver : receivers) {
+            Assert.assertTrue(receiver.received.await(10, TimeUnit.SECONDS));
+            Assert.assertEquals(messages.length, receiver.text.size());
+            for (int i = 0; i < messages.length; ++i) {
+                Assert.assertEquals(messages[i], receiver.text.get(i));
+            }
+            Assert.assertArrayEquals(binary, receiver.binary);
+        }
+        for (WebSocketChannel channel : serverChannels) {
+            Assert.assertEquals(0, channel.getQueuedBroadcastMessages());
+        }
+        Assert.assertEquals(0, broadcaster.getDroppedMessages());
+    }
+
+    @Test
+    public void testSlowConsumerDropsMessages() throws Exception {
+        final Receiver receiver = new Receiver(connect("/", false));
+        //this client never reads
+        connect("/", false);
+        awaitServerChannels(2);
+
+        final List<WebSocketChannel> dropped = new CopyOnWriteArrayList<>();
+        WebSocketBroadcaster broadcaster = new WebSocketBroadcaster()
+                .setMaxQueuedMessages(2)
+                .setSlowConsumerListener(new WebSocketBroadcaster.SlowConsumerListener() {
+                    @Override
+                    public void messageDropped(WebSocketChannel channel) {
+                        dropped.add(channel);
+                    }
+                });
+        byte[] message = new byte[1024 * 1024];
+        int messages = 0;
+        long end = System.currentTimeMillis() + 10000;
+        while (dropped.isEmpty() && System.currentTimeMillis() < end) {
+            //wait for the reading client to keep up, so only the stalled one falls behind
+            while (receiver.binaryMessages.get() < messages && System.currentTimeMillis() < end) {
+                Thread.sleep(5);
+            }
+            broadcaster.broadcastBinary(ByteBuffer.wrap(message), serverChannels);
+            messages++;
+        }
+        Assert.assertFalse(dropped.isEmpty());
+        WebSocketChannel slow = dropped.get(0);
+        for (WebSocketChannel channel : dropped) {
+            Assert.assertSame(slow, channel);
+        }
+        Assert.assertEquals(2, slow.getQueuedBroadcastMessages());
+        Assert.assertEquals(dropped.size(), broadcaster.getDroppedMessages());
+        Assert.assertEquals(1, broadcaster.broadcastText("text", serverChannels));
+        //let the reading client finish, so it is not closed part way through a message
+        while (receiver.text.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(messages, receiver.binaryMessages.get());
+    }
+
+    private static void awaitServerChannels(int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (serverChannels.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, serverChannels.size());
+    }
+
+    private static WebSocketChannel connect(String path, boolean deflate) throws Exception {
+        WebSocketClientNegotiation negotiation = null;
+        Set<ExtensionHandshake> extensions = Collections.emptySet();
+        if (deflate) {
+            negotiation = new WebSocketClientNegotiation(null, WebSocketExtension.parse("permessage-deflate"));
+            extensions = Collections.<ExtensionHandshake>singleton(new PerMessageDeflateHandshake(true));
+        }
+        WebSocketChannel channel = WebSocketClient.connect(worker, null, DefaultServer.getBufferPool(), OptionMap.EMPTY,
+                new URI(DefaultServer.getDefaultServerURL() + path), WebSocketVersion.V13, negotiation, extensions).get();
+        clientChannels.add(channel);
+        return channel;
+    }
+
+    private static final class Receiver extends AbstractReceiveListener {
+
+        final List<String> text = new CopyOnWriteArrayList<>();
+        final AtomicInteger binaryMessages = new AtomicInteger();
+        final CountDownLatch received = new CountDownLatch(1);
+        volatile byte[] binary;
+
+        Receiver(WebSocketChannel channel) {
+            channel.getReceiveSetter().set(this);
+            channel.resumeReceives();
+        }
+
+        @Override
+        protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) throws IOException {
+            text.add(message.getData());
+        }
+
+        @Override
+        protected void onBinary(WebSocketChannel webSocketChannel, StreamSourceFrameChannel messageChannel) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            messageChannel.getReadSetter().set(new ChannelListener<StreamSourceFrameChannel>() {
+                @Override
+                public void handleEvent(StreamSourceFrameChannel channel) {
+                    try (PooledByteBuffer pooled = channel.getWebSocketChannel().getBufferPool().allocate()) {
+                        ByteBuffer buffer = pooled.getBuffer();
+                        int res;
+                        while ((res = channel.read(buffer)) > 0) {
+                            buffer.flip();
+                            byte[] chunk = new byte[buffer.remaining()];
+                            buffer.get(chunk);
+                            out.write(chunk);
+                            buffer.clear();
+                        }
+                        if (res == -1) {
+                            channel.getReadSetter().set(null);
+                            channel.close();
+                            binary = out.toByteArray();
+                            binaryMessages.incrementAndGet();
+                            received.countDown();
+                        }
+                    } catch (IOException e) {
+                        IoUtils.safeClose(channel);
+                    }
+                }
+            });
+            messageChannel.resumeReads();
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.websockets.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.undertow.connector.PooledByteBuffer;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.websockets.WebSocketConnectionCallback;
+import io.undertow.websockets.WebSocketProtocolHandshakeHandler;
+import io.undertow.websockets.client.WebSocketClient;
+import io.undertow.websockets.spi.WebSocketHttpExchange;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.ChannelListener;
+import org.xnio.IoUtils;
+import org.xnio.OptionMap;
+import org.xnio.Options;
+import org.xnio.Xnio;
+import org.xnio.XnioWorker;
+
+/**
+ * Tests the outbound queue limits and policies of {@link WebSocketChannel} with a peer that stops reading
+ */
+@RunWith(DefaultServer.class)
+@HttpOneOnly
+public class WebSocketOutboundQueueTestCase {
+
+    private static final int MESSAGE_SIZE = 256 * 1024;
+
+    private static final List<WebSocketChannel> serverChannels = new CopyOnWriteArrayList<>();
+    private static XnioWorker worker;
+    private WebSocketChannel client;
+
+    @BeforeClass
+    public static void setup() throws IOException {
+        worker = Xnio.getInstance().createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 2));
+        DefaultServer.setRootHandler(new WebSocketProtocolHandshakeHandler(new WebSocketConnectionCallback() {
+            @Override
+            public void onConnect(WebSocketHttpExchange exchange, WebSocketChannel channel) {
+                serverChannels.add(channel);
+                channel.resumeReceives();
+            }
+        }));
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        worker.shutdown();
+    }
+
+    @After
+    public void closeChannels() {
+        IoUtils.safeClose(client);
+        serverChannels.clear();
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        WebSocketChannel channel = connect();
+        channel.setMaxQueuedFrames(3).setOutboundQueuePolicy(OutboundQueuePolicy.DROP_NEWEST);
+        final Results results = new Results();
+        int sent = 0;
+        long end = System.currentTimeMillis() + 10000;
+        while (results.dropped.get() == 0 && System.currentTimeMillis() < end) {
+            sendBinary(channel, sent++, results);
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(1, results.dropped.get());
+        Assert.assertEquals(1, channel.getDroppedFrames());
+        Assert.assertEquals(3, channel.getQueuedFrames());
+        Assert.assertEquals(3L * (MESSAGE_SIZE + 4), channel.getQueuedBytes());
+        Assert.assertTrue(channel.isOpen());
+
+        Receiver receiver = new Receiver(client);
+        awaitCount(receiver.binary, sent - 1);
+        for (int i = 0; i < sent - 1; ++i) {
+            Assert.assertEquals(i, (int) receiver.binary.get(i));
+        }
+        awaitCount(results.complete, sent - 1);
+        Assert.assertEquals(0, channel.getQueuedFrames());
+        Assert.assertEquals(0, channel.getQueuedBytes());
+
+        //the channel is still usable
+        WebSockets.sendText("done", channel, null);
+        awaitCount(receiver.text, 1);
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        WebSocketChannel channel = connect();
+        channel.setMaxQueuedBytes(3L * (MESSAGE_SIZE + 4)).setOutboundQueuePolicy(OutboundQueuePolicy.DROP_OLDEST);
+        final Results results = new Results();
+        int sent = 0;
+        long end = System.currentTimeMillis() + 10000;
+        while (results.dropped.get() < 3 && System.currentTimeMillis() < end) {
+            sendBinary(channel, sent++, results);
+            Thread.sleep(5);
+        }
+        Assert.assertEquals(3, results.dropped.get());
+        Assert.assertTrue(channel.getQueuedBytes() <= 3L * (MESSAGE_SIZE + 4));
+
+        Receiver receiver = new Receiver(client);
+        awaitCount(receiver.binary, sent - 3);
+        //the most recent messages are always delivered
+        Assert.assertEquals(sent - 1, (int) receiver.binary.get(sent - 4));
+        Assert.assertEquals(sent - 2, (int) receiver.binary.get(sent - 5));
+        for (int i = 1; i < receiver.binary.size(); ++i) {
+            Assert.assertTrue(receiver.binary.get(i) > receiver.binary.get(i - 1));
+        }
+        awaitCount(results.complete, sent - 3);
+        Assert.assertEquals(0, channel.getQueuedFrames());
+    }
+
+    @Test
+    public void testConflate() throws Exception {
+        WebSocketChannel channel = connect();
+        final List<OutboundQueuePolicy> policies = new CopyOnWriteArrayList<>();
+        channel.setMaxQueuedFrames(1000)
+                .setOutboundQueuePolicy(OutboundQueuePolicy.CONFLATE)
+                .setOutboundQueueListener(new WebSocketChannel.OutboundQueueListener() {
+                    @Override
+                    public void frameDropped(WebSocketChannel channel, StreamSinkFrameChannel frame, OutboundQueuePolicy policy) {
+                        policies.add(policy);
+                    }
+                });
+        final Results results = new Results();
+        int sent = fillUntilBlocked(channel, results);
+        for (int i = 0; i < 50; ++i) {
+            WebSockets.sendTextConflated("a" + i, "a", channel, results, null);
+            WebSockets.sendTextConflated("b" + i, "b", channel, results, null);
+            Thread.sleep(1);
+        }
+        Assert.assertEquals(98, results.dropped.get());
+        Assert.assertEquals(98, policies.size());
+        Assert.assertEquals(OutboundQueuePolicy.CONFLATE, policies.get(0));
+
+        Receiver receiver = new Receiver(client);
+        awaitCount(receiver.text, 2);
+        Assert.assertEquals(sent, receiver.binary.size());
+        Assert.assertEquals("a49", receiver.text.get(0));
+        Assert.assertEquals("b49", receiver.text.get(1));
+    }
+
+    @Test
+    public void testClose() throws Exception {
+        WebSocketChannel channel = connect();
+        channel.setMaxQueuedFrames(2).setOutboundQueuePolicy(OutboundQueuePolicy.CLOSE);
+        final Results results = new Results();
+        long end = System.currentTimeMillis() + 10000;
+        int sent = 0;
+        while (results.dropped.get() == 0 && System.currentTimeMillis() < end) {
+            sendBinary(channel, sent++, results);
+            Thread.sleep(5);
+        }
+        Assert.assertTrue(results.dropped.get() > 0);
+        Assert.assertTrue(channel.isCloseFrameSent());
+        Assert.assertEquals(CloseMessage.MSG_VIOLATES_POLICY, channel.getCloseCode());
+        //only the frame that is partially written out is left
+        Assert.assertTrue(channel.getQueuedFrames() <= 1);
+
+        Receiver receiver = new Receiver(client);
+        awaitCount(receiver.closeCodes, 1);
+        Assert.assertEquals(CloseMessage.MSG_VIOLATES_POLICY, (int) receiver.closeCodes.get(0));
+    }
+
+    private WebSocketChannel connect() throws Exception {
+        client = WebSocketClient.connectionBuilder(worker, DefaultServer.getBufferPool(), new URI(DefaultServer.getDefaultServerURL()))
+                .connect().get();
+        long end = System.currentTimeMillis() + 10000;
+        while (serverChannels.isEmpty() && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(1, serverChannels.size());
+        return serverChannels.get(0);
+    }
+
+    /**
+     * Sends messages until the socket buffers are full and frames are building up in the outbound queue
+     */
+    private static int fillUntilBlocked(WebSocketChannel channel, Results results) throws InterruptedException {
+        int sent = 0;
+        long end = System.currentTimeMillis() + 10000;
+        while (channel.getQueuedFrames() < 2 && System.currentTimeMillis() < end) {
+            sendBinary(channel, sent++, results);
+            Thread.sleep(20);
+        }
+        Assert.assertTrue(channel.getQueuedFrames() >= 2);
+        return sent;
+    }
+
+    private static void sendBinary(WebSocketChannel channel, int id, Results results) {
+        ByteBuffer data = ByteBuffer.allocate(MESSAGE_SIZE + 4);
+        data.putInt(id);
+        data.position(0);
+        WebSockets.sendBinary(data, channel, results, null);
+    }
+
+    private static void awaitCount(List<?> list, int count) throws InterruptedException {
+        long end = System.currentTimeMillis() + 10000;
+        while (list.size() < count && System.currentTimeMillis() < end) {
+            Thread.sleep(10);
+        }
+        Assert.assertEquals(count, list.size());
+    }
+
+    private static final class Results implements WebSocketCallback<Void> {
+
+        final AtomicInteger dropped = new AtomicInteger();
+        final List<WebSocketChannel> complete = new CopyOnWriteArrayList<>();
+
+        @Override
+        public void complete(WebSocketChannel channel, Void context) {
+            complete.add(channel);
+        }
+
+        @Override
+        public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+            if (throwable instanceof WebSocketMessageDroppedException) {
+                dropped.incrementAndGet();
+            }
+        }
+    }
+
+    private static final class Receiver extends AbstractReceiveListener {
+
+        final List<Integer> binary = new CopyOnWriteArrayList<>();
+        final List<String> text = new CopyOnWriteArrayList<>();
+        final List<Integer> closeCodes = new CopyOnWriteArrayList<>();
+
+        Receiver(WebSocketChannel channel) {
+            channel.getReceiveSetter().set(this);
+            channel.resumeReceives();
+        }
+
+        @Override
+        protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) throws IOException {
+            text.add(message.getData());
+        }
+
+        @Override
+        protected void onBinary(WebSocketChannel webSocketChannel, StreamSourceFrameChannel messageChannel) throws IOException {
+            final ByteArrayOutputStream out = new ByteArrayOutputStream();
+            messageChannel.getReadSetter().set(new ChannelListener<StreamSourceFrameChannel>() {
+                @Override
+                public void handleEvent(StreamSourceFrameChannel channel) {
+                    try (PooledByteBuffer pooled = channel.getWebSocketChannel().getBufferPool().allocate()) {
+                        ByteBuffer buffer = pooled.getBuffer();
+                        int res;
+                        while ((res = channel.read(buffer)) > 0) {
+                            buffer.flip();
+                            byte[] chunk = new byte[buffer.remaining()];
+                            buffer.get(chunk);
+                            out.write(chunk);
+                            buffer.clear();
+                        }
+                        if (res == -1) {
+                            channel.getReadSetter().set(null);
+                            channel.close();
+                            binary.add(ByteBuffer.wrap(out.toByteArray()).getInt());
+                        }
+                    } catch (IOException e) {
+                        IoUtils.safeClose(channel);
+                    }
+                }
+            });
+            messageChannel.resumeReads();
+        }
+
+        @Override
+        protected void onCloseMessage(CloseMessage cm, WebSocketChannel channel) {
+            closeCodes.add(cm.getCode());
+        }
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.websockets.core.protocol.version07;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Random;
+
+import io.undertow.testutils.category.UnitTest;
+import org.junit.Assert;
+import org.junit.Test;
+import org.junit.experimental.categories.Category;
+
+/**
+ * Tests that the word at a time {@link Masker} and {@link UTF8Checker} give the same results as a byte at a time
+ * implementation, for any alignment and split of the frame
+ */
+@Category(UnitTest.class)
+public class MaskerTestCase {
+
+    private static final int KEY = 0x12345678;
+
+    @Test
+    public void testMasking() {
+        Random random = new Random(42);
+        for (int length : new int[]{0, 1, 3, 7, 8, 9, 15, 16, 17, 63, 64, 1000}) {
+            byte[] data = new byte[length];
+            random.nextBytes(data);
+            byte[] expected = maskBytes(data);
+            for (ByteOrder order : new ByteOrder[]{ByteOrder.BIG_ENDIAN, ByteOrder.LITTLE_ENDIAN}) {
+                for (boolean direct : new boolean[]{true, false}) {
+                    for (int offset = 0; offset < 8; ++offset) {
+                        for (int split = 0; split <= length; split += Math.max(1, length / 7)) {
+                            ByteBuffer buf = direct ? ByteBuffer.allocateDirect(length + offset) : ByteBuffer.allocate(length + offset);
+                            buf.order(order);
+                            buf.position(offset);
+                            buf.put(data);
+                            Masker masker = new Masker(KEY);
+                            //the frame can be split across several reads
+                            masker.afterRead(buf, offset, split);
+                            masker.afterRead(buf, offset + split, length - split);
+                            byte[] result = new byte[length];
+                            buf.position(offset);
+                            buf.get(result);
+                            Assert.assertArrayEquals(expected, result);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testUtf8Validation() throws Exception {
+        String text = "ASCII text that is long enough for the fast path, then some other characters: é ñ 中文 😀 and ASCII again.";
+        byte[] valid = text.getBytes(StandardCharsets.UTF_8);
+        for (int split = 0; split <= valid.length; ++split) {
+            Assert.assertTrue(isValid(valid, split));
+        }
+        //a truncated multi byte sequence
+        byte[] truncated = "abcdefghijklmnop中".getBytes(StandardCharsets.UTF_8);
+        Assert.assertFalse(isValid(Arrays.copyOf(truncated, truncated.length - 1), 0));
+        //an invalid byte after a run of ASCII
+        byte[] invalid = "abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+        invalid[20] = (byte) 0xFF;
+        for (int split = 0; split <= invalid.length; ++split) {
+            Assert.assertFalse(isValid(invalid, split));
+        }
+        //a continuation byte without a start byte
+        invalid = "abcdefghijklmnopqrstuvwxyz".getBytes(StandardCharsets.UTF_8);
+        invalid[9] = (byte) 0x80;
+        Assert.assertFalse(isValid(invalid, 0));
+    }
+
+    private static boolean isValid(byte[] data, int split) {
+        ByteBuffer buf = ByteBuffer.allocateDirect(data.length);
+        buf.put(data);
+        UTF8Checker checker = new UTF8Checker();
+        try {
+            checker.afterRead(buf, 0, split);
+            checker.afterRead(buf, split, data.length - split);
+            checker.complete();
+            return true;
+        } catch (UnsupportedEncodingException e) {
+            return false;
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static byte[] maskBytes(byte[] data) {
+        byte[] key = {(byte) (KEY >> 24), (byte) (KEY >> 16), (byte) (KEY >> 8), (byte) KEY};
+        byte[] result = new byte[data.length];
+        for (int i = 0; i < data.length; ++i) {
+            result[i] = (byte) (data[i] ^ key[i % 4]);
+        }
+        return result;
+    }
+}
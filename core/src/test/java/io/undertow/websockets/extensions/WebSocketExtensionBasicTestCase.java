@@ -18,6 +18,7 @@
 package io.undertow.websockets.extensions;
 
 import io.undertow.testutils.DefaultServer;
+import io.undertow.conduits.DeflatingStreamSinkConduit;
 import io.undertow.testutils.HttpOneOnly;
 import io.undertow.util.StringWriteChannelListener;
 import io.undertow.websockets.WebSocketConnectionCallback;
@@ -50,6 +51,7 @@ import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingDeque;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 
@@ -322,4 +324,134 @@ public class WebSocketExtensionBasicTestCase {
 
         Assert.assertEquals(SEC_WEBSOCKET_EXTENSIONS_EXPECTED, debug.getResponseExtensions().toString());
     }
+
+    @Test
+    public void testPooledCompression() throws Exception {
+        XnioWorker client = Xnio.getInstance(WebSocketExtensionBasicTestCase.class.getClassLoader())
+                .createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 2));
+
+        final AtomicReference<WebSocketChannel> serverChannel = new AtomicReference<>();
+        WebSocketProtocolHandshakeHandler handler = new WebSocketProtocolHandshakeHandler(new WebSocketConnectionCallback() {
+            @Override
+            public void onConnect(final WebSocketHttpExchange exchange, final WebSocketChannel channel) {
+                serverChannel.set(channel);
+                channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                    @Override
+                    protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) throws IOException {
+                        WebSockets.sendText(message.getData(), channel, null);
+                    }
+                });
+                channel.resumeReceives();
+            }
+        }).addExtension(new PerMessageDeflateHandshake(false, 6)
+                .setDeflaterPool(DeflatingStreamSinkConduit.simpleDeflaterPool(2, 6))
+                .setInflaterPool(PerMessageDeflateFunction.simpleInflaterPool(2)));
+        DebugExtensionsHeaderHandler debug = new DebugExtensionsHeaderHandler(handler);
+        DefaultServer.setRootHandler(path().addPrefixPath("/", debug));
+
+        final WebSocketClientNegotiation negotiation = new WebSocketClientNegotiation(null, WebSocketExtension.parse("permessage-deflate"));
+        Set<ExtensionHandshake> extensionHandshakes = new HashSet<>();
+        extensionHandshakes.add(new PerMessageDeflateHandshake(true));
+        final WebSocketChannel clientChannel = WebSocketClient.connect(client, null, DefaultServer.getBufferPool(), OptionMap.EMPTY, new URI(DefaultServer.getDefaultServerURL()), WebSocketVersion.V13, negotiation, extensionHandshakes).get();
+        try {
+            //the server always asks for no context takeover when it pools the zlib state
+            Assert.assertEquals("[permessage-deflate; server_no_context_takeover; client_no_context_takeover]", debug.getResponseExtensions().toString());
+
+            final LinkedBlockingDeque<String> results = new LinkedBlockingDeque<>();
+            clientChannel.getReceiveSetter().set(new AbstractReceiveListener() {
+                @Override
+                protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) throws IOException {
+                    results.add(message.getData());
+                }
+            });
+            clientChannel.resumeReceives();
+
+            for (int i = 0; i < 5; ++i) {
+                StringBuilder message = new StringBuilder();
+                for (int j = 0; j < 2000 * (i + 1); ++j) {
+                    message.append("message ").append(i).append(' ');
+                }
+                WebSockets.sendTextBlocking(message.toString(), clientChannel);
+                Assert.assertEquals(message.toString(), results.poll(10, TimeUnit.SECONDS));
+            }
+            //once a message has been processed the connection holds no zlib state
+            Assert.assertEquals(0, ((PerMessageDeflateFunction) serverChannel.get().getExtensionFunction()).getNativeMemoryUsage());
+            //the client does not pool, so it holds a deflater and an inflater
+            Assert.assertEquals(PerMessageDeflateFunction.DEFLATER_NATIVE_MEMORY + PerMessageDeflateFunction.INFLATER_NATIVE_MEMORY,
+                    ((PerMessageDeflateFunction) clientChannel.getExtensionFunction()).getNativeMemoryUsage());
+            Assert.assertTrue(PerMessageDeflateFunction.getTotalNativeMemoryUsage() > 0);
+            clientChannel.sendClose();
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testNegotiatedParametersAreNotShared() throws Exception {
+        XnioWorker client = Xnio.getInstance(WebSocketExtensionBasicTestCase.class.getClassLoader())
+                .createWorker(OptionMap.create(Options.WORKER_IO_THREADS, 2));
+
+        //the first server negotiates no context takeover, the second keeps the context between messages
+        WebSocketProtocolHandshakeHandler pooled = new WebSocketProtocolHandshakeHandler(echoCallback())
+                .addExtension(new PerMessageDeflateHandshake(false, 6)
+                        .setDeflaterPool(DeflatingStreamSinkConduit.simpleDeflaterPool(2, 6))
+                        .setInflaterPool(PerMessageDeflateFunction.simpleInflaterPool(2)));
+        WebSocketProtocolHandshakeHandler plain = new WebSocketProtocolHandshakeHandler(echoCallback())
+                .addExtension(new PerMessageDeflateHandshake(false, 6));
+        DefaultServer.setRootHandler(path().addPrefixPath("/pooled", pooled).addPrefixPath("/plain", plain));
+
+        //one set of handshakes is shared by both connections, as the JSR container does for its client extensions.
+        //the client inflater pool is only used on connections where the server negotiated no context takeover
+        Set<ExtensionHandshake> extensionHandshakes = new HashSet<>();
+        extensionHandshakes.add(new PerMessageDeflateHandshake(true)
+                .setInflaterPool(PerMessageDeflateFunction.simpleInflaterPool(2)));
+        final WebSocketChannel pooledChannel = WebSocketClient.connect(client, null, DefaultServer.getBufferPool(), OptionMap.EMPTY,
+                new URI(DefaultServer.getDefaultServerURL() + "/pooled"), WebSocketVersion.V13,
+                new WebSocketClientNegotiation(null, WebSocketExtension.parse("permessage-deflate")), extensionHandshakes).get();
+        final WebSocketChannel plainChannel = WebSocketClient.connect(client, null, DefaultServer.getBufferPool(), OptionMap.EMPTY,
+                new URI(DefaultServer.getDefaultServerURL() + "/plain"), WebSocketVersion.V13,
+                new WebSocketClientNegotiation(null, WebSocketExtension.parse("permessage-deflate")), extensionHandshakes).get();
+        try {
+            Assert.assertFalse(((PerMessageDeflateFunction) pooledChannel.getExtensionFunction()).isCompressContextTakeover());
+            Assert.assertTrue(((PerMessageDeflateFunction) plainChannel.getExtensionFunction()).isCompressContextTakeover());
+            for (WebSocketChannel channel : new WebSocketChannel[]{pooledChannel, plainChannel}) {
+                final LinkedBlockingDeque<String> results = new LinkedBlockingDeque<>();
+                channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                    @Override
+                    protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) throws IOException {
+                        results.add(message.getData());
+                    }
+                });
+                channel.resumeReceives();
+                //identical messages, so the later ones are compressed against the context of the earlier ones
+                StringBuilder message = new StringBuilder();
+                for (int j = 0; j < 1000; ++j) {
+                    message.append("message ").append(j % 10).append(' ');
+                }
+                for (int i = 0; i < 5; ++i) {
+                    WebSockets.sendTextBlocking(message.toString(), channel);
+                    Assert.assertEquals(message.toString(), results.poll(10, TimeUnit.SECONDS));
+                }
+            }
+            pooledChannel.sendClose();
+            plainChannel.sendClose();
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    private static WebSocketConnectionCallback echoCallback() {
+        return new WebSocketConnectionCallback() {
+            @Override
+            public void onConnect(final WebSocketHttpExchange exchange, final WebSocketChannel channel) {
+                channel.getReceiveSetter().set(new AbstractReceiveListener() {
+                    @Override
+                    protected void onFullTextMessage(WebSocketChannel channel, BufferedTextMessage message) throws IOException {
+                        WebSockets.sendText(message.getData(), channel, null);
+                    }
+                });
+                channel.resumeReceives();
+            }
+        };
+    }
 }
@@ -81,7 +81,10 @@ public class Bootstrap implements ServletExtension {
         for(ExtensionHandshake e: info.getExtensions()) {
             extensions.add(new ExtensionImpl(e.getName(), Collections.emptyList()));
         }
-        ServerWebSocketContainer container = new ServerWebSocketContainer(deploymentInfo.getClassIntrospecter(), servletContext.getClassLoader(), worker, buffers, setup, info.isDispatchToWorkerThread(), bind, info.getReconnectHandler(), extensions);
+        ServerWebSocketContainer container = new ServerWebSocketContainer(deploymentInfo.getClassIntrospecter(), servletContext.getClassLoader(), worker, buffers, setup, info.isDispatchToWorkerThread() || info.isDispatchToVirtualThreads(), bind, info.getReconnectHandler(), extensions);
+        if (info.isDispatchToVirtualThreads()) {
+            container.setDispatchToVirtualThreads(true);
+        }
         try {
             for (Class<?> annotation : info.getAnnotatedEndpoints()) {
                 container.addEndpoint(annotation);
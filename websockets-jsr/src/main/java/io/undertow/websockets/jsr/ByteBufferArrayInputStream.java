@@ -0,0 +1,124 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.websockets.jsr;
+
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * An input stream that reads directly from an array of buffers, without first copying them into a single array.
+ * <p>
+ * The positions of the underlying buffers are not modified, however the stream is only valid for as long
+ * as the buffers are. Like {@link java.io.ByteArrayInputStream} the stream is initially marked at the start, so
+ * {@link #reset()} returns to the start if {@link #mark(int)} has not been called.
+ */
+final class ByteBufferArrayInputStream extends InputStream {
+
+    private final ByteBuffer[] buffers;
+    private int index;
+    private int markIndex;
+
+    ByteBufferArrayInputStream(ByteBuffer... payload) {
+        this.buffers = new ByteBuffer[payload.length];
+        for (int i = 0; i < payload.length; ++i) {
+            buffers[i] = payload[i].duplicate();
+            buffers[i].mark();
+        }
+    }
+
+    private ByteBuffer current() {
+        while (index < buffers.length) {
+            ByteBuffer buffer = buffers[index];
+            if (buffer.hasRemaining()) {
+                return buffer;
+            }
+            index++;
+        }
+        return null;
+    }
+
+    @Override
+    public int read() {
+        ByteBuffer buffer = current();
+        if (buffer == null) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        int read = 0;
+        ByteBuffer buffer = current();
+        while (buffer != null && read < len) {
+            int count = Math.min(len - read, buffer.remaining());
+            buffer.get(b, off + read, count);
+            read += count;
+            buffer = current();
+        }
+        return read == 0 ? -1 : read;
+    }
+
+    @Override
+    public long skip(long n) {
+        long skipped = 0;
+        ByteBuffer buffer = current();
+        while (buffer != null && skipped < n) {
+            int count = (int) Math.min(n - skipped, buffer.remaining());
+            buffer.position(buffer.position() + count);
+            skipped += count;
+            buffer = current();
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        long available = 0;
+        for (int i = index; i < buffers.length; ++i) {
+            available += buffers[i].remaining();
+        }
+        return (int) Math.min(available, Integer.MAX_VALUE);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return true;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+        markIndex = index;
+        for (int i = index; i < buffers.length; ++i) {
+            buffers[i].mark();
+        }
+    }
+
+    @Override
+    public synchronized void reset() {
+        for (int i = markIndex; i < buffers.length; ++i) {
+            buffers[i].reset();
+        }
+        index = markIndex;
+    }
+}
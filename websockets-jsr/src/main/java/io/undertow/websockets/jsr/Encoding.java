@@ -18,7 +18,6 @@
 
 package io.undertow.websockets.jsr;
 
-import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
@@ -34,6 +33,7 @@ import javax.websocket.EncodeException;
 import javax.websocket.Encoder;
 
 import io.undertow.servlet.api.InstanceHandle;
+import org.xnio.Buffers;
 
 /**
  * Manages all encoders and decoders for an endpoint instance
@@ -150,24 +150,54 @@ public class Encoding implements Closeable {
     }
 
     public Object decodeBinary(final Class<?> targetType, final byte[] bytes) throws DecodeException {
+        return decodeBinary(targetType, ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * Decodes a binary message without copying it out of the buffers it was read into. {@link Decoder.Binary}
+     * decoders are passed a read only view of the payload and {@link Decoder.BinaryStream} decoders read the
+     * buffers directly, so neither may retain a reference to the data once they have returned.
+     *
+     * @param targetType The type to decode to
+     * @param payload    The message payload
+     * @return The decoded object
+     * @throws DecodeException If the payload could not be decoded
+     */
+    public Object decodeBinary(final Class<?> targetType, final ByteBuffer... payload) throws DecodeException {
+        ByteBuffer buffer = null;
         List<InstanceHandle<? extends Decoder>> decoders = binaryDecoders.get(targetType);
         if (decoders != null) {
             for (InstanceHandle<? extends Decoder> decoderHandle : decoders) {
                 Decoder decoder = decoderHandle.getInstance();
                 if (decoder instanceof Decoder.Binary) {
-                    if (((Decoder.Binary) decoder).willDecode(ByteBuffer.wrap(bytes))) {
-                        return ((Decoder.Binary) decoder).decode(ByteBuffer.wrap(bytes));
+                    if (buffer == null) {
+                        buffer = FrameHandler.toReadOnlyBuffer(payload);
+                    }
+                    if (((Decoder.Binary) decoder).willDecode(buffer.duplicate())) {
+                        return ((Decoder.Binary) decoder).decode(buffer.duplicate());
                     }
                 } else {
                     try {
-                        return ((Decoder.BinaryStream) decoder).decode(new ByteArrayInputStream(bytes));
+                        return ((Decoder.BinaryStream) decoder).decode(new ByteBufferArrayInputStream(payload));
                     } catch (IOException e) {
-                        throw new DecodeException(ByteBuffer.wrap(bytes), "Could not decode binary", e);
+                        throw new DecodeException(copy(payload), "Could not decode binary", e);
                     }
                 }
             }
         }
-        throw new DecodeException(ByteBuffer.wrap(bytes), "Could not decode binary");
+        throw new DecodeException(copy(payload), "Could not decode binary");
+    }
+
+    /**
+     * The exception may be reported after the pooled buffers have been released, so it needs its own copy of the data
+     */
+    private static ByteBuffer copy(final ByteBuffer... payload) {
+        ByteBuffer copy = ByteBuffer.allocate((int) Buffers.remaining(payload));
+        for (ByteBuffer buffer : payload) {
+            copy.put(buffer.duplicate());
+        }
+        copy.flip();
+        return copy;
     }
 
     public String encodeText(final Object o) throws EncodeException {
@@ -33,7 +33,6 @@ import javax.websocket.CloseReason;
 import javax.websocket.Endpoint;
 import javax.websocket.MessageHandler;
 import javax.websocket.PongMessage;
-import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.Reader;
@@ -75,7 +74,11 @@ class FrameHandler extends AbstractReceiveListener {
         this.endpoint = endpoint;
 
         final Executor executor;
-        if (session.getContainer().isDispatchToWorker()) {
+        final Executor virtualThreadExecutor = session.getContainer().getVirtualThreadExecutor();
+        if (virtualThreadExecutor != null) {
+            //each task gets a new virtual thread, the ordered executor makes sure they run one at a time
+            executor = new OrderedExecutor(virtualThreadExecutor);
+        } else if (session.getContainer().isDispatchToWorker()) {
             executor = new OrderedExecutor(session.getWebSocketChannel().getWorker());
         } else {
             executor = session.getWebSocketChannel().getIoThread();
@@ -224,31 +227,29 @@ class FrameHandler extends AbstractReceiveListener {
                         MessageHandler.Partial mHandler = (MessageHandler.Partial) handler.getHandler();
                         ByteBuffer[] payload = pooled.getResource();
                         if(handler.decodingNeeded) {
-                            Object object = getSession().getEncoding().decodeBinary(handler.getMessageType(), toArray(payload));
+                            Object object = getSession().getEncoding().decodeBinary(handler.getMessageType(), payload);
                             mHandler.onMessage(object, finalFragment);
                         } else if (handler.getMessageType() == ByteBuffer.class) {
-                            mHandler.onMessage(toBuffer(payload), finalFragment);
+                            mHandler.onMessage(toReadOnlyBuffer(payload), finalFragment);
                         } else if (handler.getMessageType() == byte[].class) {
                             byte[] data = toArray(payload);
                             mHandler.onMessage(data, finalFragment);
                         } else if (handler.getMessageType() == InputStream.class) {
-                            byte[] data = toArray(payload);
-                            mHandler.onMessage(new ByteArrayInputStream(data), finalFragment);
+                            mHandler.onMessage(new ByteBufferArrayInputStream(payload), finalFragment);
                         }
                     } else {
                         MessageHandler.Whole mHandler = (MessageHandler.Whole) handler.getHandler();
                         ByteBuffer[] payload = pooled.getResource();
                         if(handler.decodingNeeded) {
-                            Object object = getSession().getEncoding().decodeBinary(handler.getMessageType(), toArray(payload));
+                            Object object = getSession().getEncoding().decodeBinary(handler.getMessageType(), payload);
                             mHandler.onMessage(object);
                         } else if (handler.getMessageType() == ByteBuffer.class) {
-                            mHandler.onMessage(toBuffer(payload));
+                            mHandler.onMessage(toReadOnlyBuffer(payload));
                         } else if (handler.getMessageType() == byte[].class) {
                             byte[] data = toArray(payload);
                             mHandler.onMessage(data);
                         } else if (handler.getMessageType() == InputStream.class) {
-                            byte[] data = toArray(payload);
-                            mHandler.onMessage(new ByteArrayInputStream(data));
+                            mHandler.onMessage(new ByteBufferArrayInputStream(payload));
                         }
                     }
                 } catch (Exception e) {
@@ -351,6 +352,15 @@ class FrameHandler extends AbstractReceiveListener {
         return buffer;
     }
 
+    /**
+     * Returns a read only view of the payload. If the payload is a single buffer this is a view of the pooled
+     * buffer itself, so it is only valid until the handler it is passed to returns. Otherwise the buffers are
+     * gathered into a single buffer.
+     */
+    protected static ByteBuffer toReadOnlyBuffer(ByteBuffer... payload) {
+        return toBuffer(payload).asReadOnlyBuffer();
+    }
+
     protected static byte[] toArray(ByteBuffer... payload) {
         if (payload.length == 1) {
             ByteBuffer buf = payload[0];
@@ -86,4 +86,8 @@ public interface JsrWebSocketLogger extends BasicLogger {
 
     @Message(id = 26012, value = "Buffer pool was not set on WebSocketDeploymentInfo, and there is no default to use")
     IllegalArgumentException bufferPoolWasNullAndNoDefault();
+
+    @LogMessage(level = Logger.Level.WARN)
+    @Message(id = 26013, value = "Dispatch to virtual threads was requested, however this JDK does not support virtual threads. The XNIO worker will be used instead")
+    void virtualThreadsNotSupported();
 }
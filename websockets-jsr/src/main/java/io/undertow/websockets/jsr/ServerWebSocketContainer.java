@@ -34,6 +34,8 @@ import io.undertow.util.StatusCodes;
 import io.undertow.websockets.WebSocketExtension;
 import io.undertow.websockets.client.WebSocketClient;
 import io.undertow.websockets.client.WebSocketClientNegotiation;
+import io.undertow.websockets.core.WebSocketBroadcaster;
+import io.undertow.websockets.core.WebSocketCallback;
 import io.undertow.websockets.core.WebSocketChannel;
 import io.undertow.websockets.core.protocol.Handshake;
 import io.undertow.websockets.extensions.ExtensionHandshake;
@@ -64,6 +66,8 @@ import javax.websocket.DeploymentException;
 import javax.websocket.Endpoint;
 import javax.websocket.Extension;
 import javax.websocket.HandshakeResponse;
+import javax.websocket.SendHandler;
+import javax.websocket.SendResult;
 import javax.websocket.Session;
 import javax.websocket.server.ServerContainer;
 import javax.websocket.server.ServerEndpoint;
@@ -72,10 +76,12 @@ import java.io.Closeable;
 import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.URI;
+import java.nio.ByteBuffer;
 import java.nio.channels.ClosedChannelException;
 import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -86,6 +92,7 @@ import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
 import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Supplier;
 
@@ -138,6 +145,10 @@ public class ServerWebSocketContainer implements ServerContainer, Closeable {
 
     private volatile boolean closed = false;
 
+    private volatile ExecutorService virtualThreadExecutor;
+
+    private final WebSocketBroadcaster broadcaster = new WebSocketBroadcaster();
+
     public ServerWebSocketContainer(final ClassIntrospecter classIntrospecter, final Supplier<XnioWorker> xnioWorker, ByteBufferPool bufferPool, List<ThreadSetupHandler> threadSetupHandlers, boolean dispatchToWorker, boolean clientMode) {
         this(classIntrospecter, ServerWebSocketContainer.class.getClassLoader(), xnioWorker, bufferPool, threadSetupHandlers, dispatchToWorker, null, null);
     }
@@ -589,7 +600,7 @@ public class ServerWebSocketContainer implements ServerContainer, Closeable {
      * @param invocation The task to run
      */
     public void invokeEndpointMethod(final Executor executor, final Runnable invocation) {
-        if (dispatchToWorker) {
+        if (dispatchToWorker || virtualThreadExecutor != null) {
             executor.execute(new Runnable() {
                 @Override
                 public void run() {
@@ -842,6 +853,10 @@ public class ServerWebSocketContainer implements ServerContainer, Closeable {
         for (ConfiguredServerEndpoint endpoint : configuredServerEndpoints) {
             endpoint.awaitClose(end - System.currentTimeMillis());
         }
+        ExecutorService virtualThreadExecutor = this.virtualThreadExecutor;
+        if (virtualThreadExecutor != null) {
+            virtualThreadExecutor.shutdown();
+        }
     }
     @Override
     public synchronized void close() {
@@ -852,6 +867,69 @@ public class ServerWebSocketContainer implements ServerContainer, Closeable {
         return bufferPool;
     }
 
+    /**
+     * Returns the broadcaster used by {@link #broadcastText(String, Collection, SendHandler)} and
+     * {@link #broadcastBinary(ByteBuffer, Collection, SendHandler)}, which can be used to configure limits for slow consumers.
+     *
+     * @return the broadcaster
+     */
+    public WebSocketBroadcaster getBroadcaster() {
+        return broadcaster;
+    }
+
+    /**
+     * Sends a text message to all the given sessions. The message is encoded and framed once and then shared between
+     * the sessions, rather than each session encoding its own copy.
+     *
+     * @param message  the message
+     * @param sessions the sessions to send the message to
+     * @param handler  the handler, which is notified once for every session the message was sent to, may be null
+     * @return the number of sessions the message was queued on
+     * @see WebSocketBroadcaster
+     */
+    public int broadcastText(final String message, final Collection<? extends Session> sessions, final SendHandler handler) {
+        return broadcaster.broadcastText(message, toChannels(sessions), toCallback(handler), null);
+    }
+
+    /**
+     * Sends a binary message to all the given sessions. The message is framed once and then shared between the sessions.
+     * The data is copied before this method returns, and the position of the buffer is not changed.
+     *
+     * @param data     the message
+     * @param sessions the sessions to send the message to
+     * @param handler  the handler, which is notified once for every session the message was sent to, may be null
+     * @return the number of sessions the message was queued on
+     * @see WebSocketBroadcaster
+     */
+    public int broadcastBinary(final ByteBuffer data, final Collection<? extends Session> sessions, final SendHandler handler) {
+        return broadcaster.broadcastBinary(data, toChannels(sessions), toCallback(handler), null);
+    }
+
+    private static List<WebSocketChannel> toChannels(final Collection<? extends Session> sessions) {
+        final List<WebSocketChannel> channels = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            channels.add(((UndertowSession) session).getWebSocketChannel());
+        }
+        return channels;
+    }
+
+    private static WebSocketCallback<Void> toCallback(final SendHandler handler) {
+        if (handler == null) {
+            return null;
+        }
+        return new WebSocketCallback<Void>() {
+            @Override
+            public void complete(WebSocketChannel channel, Void context) {
+                handler.onResult(new SendResult());
+            }
+
+            @Override
+            public void onError(WebSocketChannel channel, Void context, Throwable throwable) {
+                handler.onResult(new SendResult(throwable));
+            }
+        };
+    }
+
     public XnioWorker getXnioWorker() {
         return xnioWorker.get();
     }
@@ -1047,4 +1125,37 @@ public class ServerWebSocketContainer implements ServerContainer, Closeable {
     public boolean isDispatchToWorker() {
         return dispatchToWorker;
     }
+
+    /**
+     * Enables or disables invoking endpoint methods on virtual threads. This only affects sessions that are opened after
+     * this method has been called.
+     * <p>
+     * If the JDK does not support virtual threads then a warning is logged, and endpoint methods are invoked as if this
+     * had not been called.
+     *
+     * @param dispatchToVirtualThreads <code>true</code> to dispatch to virtual threads
+     */
+    public synchronized void setDispatchToVirtualThreads(boolean dispatchToVirtualThreads) {
+        if (!dispatchToVirtualThreads) {
+            //sessions that are already open keep using the executor, it does not hold any threads once they are done
+            this.virtualThreadExecutor = null;
+        } else if (virtualThreadExecutor == null) {
+            ExecutorService executor = VirtualThreads.newVirtualThreadPerTaskExecutor();
+            if (executor == null) {
+                JsrWebSocketLogger.ROOT_LOGGER.virtualThreadsNotSupported();
+            }
+            this.virtualThreadExecutor = executor;
+        }
+    }
+
+    /**
+     * @return <code>true</code> if endpoint methods of new sessions are invoked on virtual threads
+     */
+    public boolean isDispatchToVirtualThreads() {
+        return virtualThreadExecutor != null;
+    }
+
+    Executor getVirtualThreadExecutor() {
+        return virtualThreadExecutor;
+    }
 }
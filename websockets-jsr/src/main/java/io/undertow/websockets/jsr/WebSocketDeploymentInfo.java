@@ -54,6 +54,7 @@ public class WebSocketDeploymentInfo implements Cloneable {
     };
     private ByteBufferPool buffers;
     private boolean dispatchToWorkerThread = false;
+    private boolean dispatchToVirtualThreads = false;
     private final List<Class<?>> annotatedEndpoints = new ArrayList<>();
     private final List<ServerEndpointConfig> programaticEndpoints = new ArrayList<>();
     private final List<ContainerReadyListener> containerReadyListeners = new ArrayList<>();
@@ -151,6 +152,25 @@ public class WebSocketDeploymentInfo implements Cloneable {
         return this;
     }
 
+    public boolean isDispatchToVirtualThreads() {
+        return dispatchToVirtualThreads;
+    }
+
+    /**
+     * If this is true then endpoint methods are invoked on virtual threads, rather than on the XNIO worker, which allows
+     * endpoints that block to scale to a large number of sessions. Messages for a given session are still delivered in
+     * order, one at a time.
+     * <p>
+     * If the JDK does not support virtual threads then a warning is logged and the XNIO worker is used instead.
+     *
+     * @param dispatchToVirtualThreads <code>true</code> to dispatch to virtual threads
+     * @return this deployment info
+     */
+    public WebSocketDeploymentInfo setDispatchToVirtualThreads(boolean dispatchToVirtualThreads) {
+        this.dispatchToVirtualThreads = dispatchToVirtualThreads;
+        return this;
+    }
+
     public interface ContainerReadyListener {
         void ready(ServerWebSocketContainer container);
     }
@@ -204,6 +224,7 @@ public class WebSocketDeploymentInfo implements Cloneable {
                 .setWorker(this.worker)
                 .setBuffers(this.buffers)
                 .setDispatchToWorkerThread(this.dispatchToWorkerThread)
+                .setDispatchToVirtualThreads(this.dispatchToVirtualThreads)
                 .addAnnotatedEndpoints(this.annotatedEndpoints)
                 .addProgramaticEndpoints(this.programaticEndpoints)
                 .addListeners(this.containerReadyListeners)
@@ -0,0 +1,239 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.websockets.jsr.test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import javax.servlet.ServletException;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.DecodeException;
+import javax.websocket.Decoder;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+
+import io.undertow.Handlers;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.api.ServletContainer;
+import io.undertow.servlet.test.util.TestClassIntrospector;
+import io.undertow.servlet.test.util.TestResourceLoader;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.websockets.jsr.WebSocketDeploymentInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests that binary messages are delivered to {@link ByteBuffer} handlers and decoders as read only views of the
+ * received data, for both messages that fit in a single pooled buffer and messages that span several.
+ */
+@RunWith(DefaultServer.class)
+@HttpOneOnly
+public class BinaryDecoderTestCase {
+
+    @BeforeClass
+    public static void setup() throws ServletException {
+        final ServletContainer container = ServletContainer.Factory.newInstance();
+
+        DeploymentInfo builder = new DeploymentInfo()
+                .setClassLoader(BinaryDecoderTestCase.class.getClassLoader())
+                .setContextPath("/")
+                .setResourceManager(new TestResourceLoader(BinaryDecoderTestCase.class))
+                .setClassIntrospecter(TestClassIntrospector.INSTANCE)
+                .addServletContextAttribute(WebSocketDeploymentInfo.ATTRIBUTE_NAME,
+                        new WebSocketDeploymentInfo()
+                                .setBuffers(DefaultServer.getBufferPool())
+                                .setWorker(DefaultServer.getWorkerSupplier())
+                                .addEndpoint(BufferEndpoint.class)
+                                .addEndpoint(BinaryDecoderEndpoint.class)
+                                .addEndpoint(StreamDecoderEndpoint.class)
+                )
+                .setDeploymentName("servletContext.war");
+
+        DeploymentManager manager = container.addDeployment(builder);
+        manager.deploy();
+
+        DefaultServer.setRootHandler(Handlers.path().addPrefixPath("/", manager.start()));
+    }
+
+    @Test
+    public void testByteBufferHandler() throws Exception {
+        runTest("/buffer", true);
+    }
+
+    @Test
+    public void testBinaryDecoder() throws Exception {
+        runTest("/decoder", true);
+    }
+
+    @Test
+    public void testBinaryStreamDecoder() throws Exception {
+        runTest("/stream", false);
+    }
+
+    private void runTest(String path, boolean readOnly) throws Exception {
+        final LinkedBlockingDeque<String> responses = new LinkedBlockingDeque<>();
+        Session session = ContainerProvider.getWebSocketContainer().connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+                session.addMessageHandler(new MessageHandler.Whole<String>() {
+                    @Override
+                    public void onMessage(String message) {
+                        responses.add(message);
+                    }
+                });
+            }
+        }, ClientEndpointConfig.Builder.create().build(), new URI(DefaultServer.getDefaultServerURL() + path));
+        try {
+            //a small message fits in a single pooled buffer, a large one spans several
+            for (int size : new int[]{100, 256 * 1024}) {
+                byte[] data = new byte[size];
+                new Random().nextBytes(data);
+                String expected = describe(ByteBuffer.wrap(data), readOnly);
+                session.getBasicRemote().sendBinary(ByteBuffer.wrap(data));
+                Assert.assertEquals(expected, responses.poll(10, TimeUnit.SECONDS));
+            }
+        } finally {
+            session.close();
+        }
+    }
+
+    static String describe(ByteBuffer buffer, boolean readOnly) {
+        CRC32 crc = new CRC32();
+        int length = buffer.remaining();
+        while (buffer.hasRemaining()) {
+            crc.update(buffer.get());
+        }
+        return readOnly + ":" + length + ":" + crc.getValue();
+    }
+
+    @ServerEndpoint("/buffer")
+    public static class BufferEndpoint {
+
+        @OnMessage
+        public String onMessage(ByteBuffer message) {
+            return describe(message, message.isReadOnly());
+        }
+    }
+
+    @ServerEndpoint(value = "/decoder", decoders = BufferDecoder.class)
+    public static class BinaryDecoderEndpoint {
+
+        @OnMessage
+        public String onMessage(Decoded message) {
+            return message.description;
+        }
+    }
+
+    @ServerEndpoint(value = "/stream", decoders = StreamDecoder.class)
+    public static class StreamDecoderEndpoint {
+
+        @OnMessage
+        public String onMessage(StreamDecoded message) {
+            return message.description;
+        }
+    }
+
+    public static class Decoded {
+        final String description;
+
+        Decoded(String description) {
+            this.description = description;
+        }
+    }
+
+    public static class StreamDecoded {
+        final String description;
+
+        StreamDecoded(String description) {
+            this.description = description;
+        }
+    }
+
+    public static class BufferDecoder implements Decoder.Binary<Decoded> {
+
+        @Override
+        public Decoded decode(ByteBuffer bytes) throws DecodeException {
+            return new Decoded(describe(bytes, bytes.isReadOnly()));
+        }
+
+        @Override
+        public boolean willDecode(ByteBuffer bytes) {
+            //consuming the buffer here must not affect what decode() sees
+            bytes.position(bytes.limit());
+            return true;
+        }
+
+        @Override
+        public void init(EndpointConfig config) {
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+
+    public static class StreamDecoder implements Decoder.BinaryStream<StreamDecoded> {
+
+        @Override
+        public StreamDecoded decode(InputStream is) throws DecodeException, IOException {
+            //without a mark, reset returns to the start of the message
+            Assert.assertEquals(10, is.skip(10));
+            is.reset();
+            CRC32 crc = new CRC32();
+            byte[] buf = new byte[1000];
+            int length = 0;
+            int res = is.read();
+            while (res != -1) {
+                crc.update(res);
+                length++;
+                res = is.read(buf);
+                if (res > 0) {
+                    crc.update(buf, 0, res);
+                    length += res;
+                    res = is.read();
+                }
+            }
+            return new StreamDecoded(false + ":" + length + ":" + crc.getValue());
+        }
+
+        @Override
+        public void init(EndpointConfig config) {
+        }
+
+        @Override
+        public void destroy() {
+        }
+    }
+}
@@ -0,0 +1,156 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+package io.undertow.websockets.jsr.test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+import javax.websocket.server.ServerEndpoint;
+
+import io.undertow.Handlers;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.api.ServletContainer;
+import io.undertow.servlet.test.util.TestClassIntrospector;
+import io.undertow.servlet.test.util.TestResourceLoader;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.websockets.jsr.ServerWebSocketContainer;
+import io.undertow.websockets.jsr.WebSocketDeploymentInfo;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/**
+ * Tests broadcasting a message to JSR sessions through the {@link ServerWebSocketContainer}
+ */
+@RunWith(DefaultServer.class)
+@HttpOneOnly
+public class BroadcastTestCase {
+
+    private static final int CLIENTS = 3;
+
+    @BeforeClass
+    public static void setup() throws ServletException {
+        final ServletContainer container = ServletContainer.Factory.newInstance();
+
+        DeploymentInfo builder = new DeploymentInfo()
+                .setClassLoader(BroadcastTestCase.class.getClassLoader())
+                .setContextPath("/")
+                .setResourceManager(new TestResourceLoader(BroadcastTestCase.class))
+                .setClassIntrospecter(TestClassIntrospector.INSTANCE)
+                .addServletContextAttribute(WebSocketDeploymentInfo.ATTRIBUTE_NAME,
+                        new WebSocketDeploymentInfo()
+                                .setBuffers(DefaultServer.getBufferPool())
+                                .setWorker(DefaultServer.getWorkerSupplier())
+                                .addEndpoint(BroadcastSocket.class)
+                )
+                .setDeploymentName("servletContext.war");
+
+        DeploymentManager manager = container.addDeployment(builder);
+        manager.deploy();
+        DefaultServer.setRootHandler(Handlers.path().addPrefixPath("/", manager.start()));
+    }
+
+    @Test
+    public void testBroadcastToOpenSessions() throws Exception {
+        final BlockingQueue<String> received = new LinkedBlockingQueue<>();
+        final List<Session> sessions = new ArrayList<>();
+        try {
+            for (int i = 0; i < CLIENTS; ++i) {
+                sessions.add(ContainerProvider.getWebSocketContainer().connectToServer(new Endpoint() {
+                    @Override
+                    public void onOpen(Session session, EndpointConfig config) {
+                        session.addMessageHandler(new MessageHandler.Whole<String>() {
+                            @Override
+                            public void onMessage(String message) {
+                                received.add(message);
+                            }
+                        });
+                        session.addMessageHandler(new MessageHandler.Whole<ByteBuffer>() {
+                            @Override
+                            public void onMessage(ByteBuffer message) {
+                                received.add("binary:" + message.remaining());
+                            }
+                        });
+                    }
+                }, ClientEndpointConfig.Builder.create().build(), new URI(DefaultServer.getDefaultServerURL() + "/broadcast")));
+            }
+            sessions.get(0).getBasicRemote().sendText("go " + CLIENTS);
+            List<String> messages = new ArrayList<>();
+            for (int i = 0; i < CLIENTS * 2; ++i) {
+                String message = received.poll(10, TimeUnit.SECONDS);
+                Assert.assertNotNull(message);
+                messages.add(message);
+            }
+            Assert.assertEquals(CLIENTS, count(messages, "hello everyone"));
+            Assert.assertEquals(CLIENTS, count(messages, "binary:1000"));
+        } finally {
+            for (Session session : sessions) {
+                session.close();
+            }
+        }
+    }
+
+    private static int count(List<String> messages, String message) {
+        int count = 0;
+        for (String m : messages) {
+            if (m.equals(message)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @ServerEndpoint("/broadcast")
+    public static class BroadcastSocket {
+
+        @OnMessage
+        public void onMessage(String message, Session session) throws IOException {
+            int expected = Integer.parseInt(message.substring(3));
+            //the last client may not be in the set of open sessions straight away
+            long end = System.currentTimeMillis() + 10000;
+            while (session.getOpenSessions().size() < expected && System.currentTimeMillis() < end) {
+                try {
+                    Thread.sleep(10);
+                } catch (InterruptedException e) {
+                    throw new IOException(e);
+                }
+            }
+            ServerWebSocketContainer container = (ServerWebSocketContainer) session.getContainer();
+            container.broadcastText("hello everyone", session.getOpenSessions(), null);
+            container.broadcastBinary(ByteBuffer.allocate(1000), session.getOpenSessions(), null);
+        }
+    }
+}
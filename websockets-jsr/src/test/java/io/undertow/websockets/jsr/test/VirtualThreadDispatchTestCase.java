@@ -0,0 +1,163 @@
+/*
+ * JBoss, Home of Professional Open Source.
+ * Copyright 2020 Red Hat, Inc., and individual contributors
+ * as indicated by the @author tags.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ *  Unless required by applicable law or agreed to in writing, software
+ *  distributed under the License is distributed on an "AS IS" BASIS,
+ *  WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *  See the License for the specific language governing permissions and
+ *  limitations under the License.
+ */
+
+
+package io.undertow.websockets.jsr.test;
+
+import java.lang.reflect.Method;
+import java.net.URI;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.websocket.ClientEndpointConfig;
+import javax.websocket.ContainerProvider;
+import javax.websocket.Endpoint;
+import javax.websocket.EndpointConfig;
+import javax.websocket.MessageHandler;
+import javax.websocket.OnMessage;
+import javax.websocket.Session;
+import javax.websocket.server.ServerContainer;
+import javax.websocket.server.ServerEndpoint;
+
+import io.undertow.Handlers;
+import io.undertow.servlet.api.DeploymentInfo;
+import io.undertow.servlet.api.DeploymentManager;
+import io.undertow.servlet.api.ServletContainer;
+import io.undertow.servlet.test.util.TestClassIntrospector;
+import io.undertow.servlet.test.util.TestResourceLoader;
+import io.undertow.testutils.DefaultServer;
+import io.undertow.testutils.HttpOneOnly;
+import io.undertow.websockets.jsr.ServerWebSocketContainer;
+import io.undertow.websockets.jsr.WebSocketDeploymentInfo;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.xnio.XnioIoThread;
+
+/**
+ * Tests that endpoint methods are dispatched to virtual threads if requested, falling back to the worker if
+ * the JDK does not support them.
+ */
+@RunWith(DefaultServer.class)
+@HttpOneOnly
+public class VirtualThreadDispatchTestCase {
+
+    private static final int MESSAGES = 200;
+
+    private static ServerWebSocketContainer serverContainer;
+
+    @BeforeClass
+    public static void setup() throws ServletException {
+        final ServletContainer container = ServletContainer.Factory.newInstance();
+
+        DeploymentInfo builder = new DeploymentInfo()
+                .setClassLoader(VirtualThreadDispatchTestCase.class.getClassLoader())
+                .setContextPath("/")
+                .setResourceManager(new TestResourceLoader(VirtualThreadDispatchTestCase.class))
+                .setClassIntrospecter(TestClassIntrospector.INSTANCE)
+                .addServletContextAttribute(WebSocketDeploymentInfo.ATTRIBUTE_NAME,
+                        new WebSocketDeploymentInfo()
+                                .setBuffers(DefaultServer.getBufferPool())
+                                .setWorker(DefaultServer.getWorkerSupplier())
+                                .setDispatchToVirtualThreads(true)
+                                .addEndpoint(ThreadEndpoint.class)
+                )
+                .setDeploymentName("servletContext.war");
+
+        DeploymentManager manager = container.addDeployment(builder);
+        manager.deploy();
+        serverContainer = (ServerWebSocketContainer) manager.getDeployment().getServletContext().getAttribute(ServerContainer.class.getName());
+
+        DefaultServer.setRootHandler(Handlers.path().addPrefixPath("/", manager.start()));
+    }
+
+    @AfterClass
+    public static void cleanup() {
+        serverContainer = null;
+    }
+
+    @Test
+    public void testMessagesDispatchedInOrder() throws Exception {
+        Assert.assertTrue(serverContainer.isDispatchToWorker());
+        Assert.assertEquals(isVirtualThreadSupported(), serverContainer.isDispatchToVirtualThreads());
+
+        final List<String> received = new CopyOnWriteArrayList<>();
+        final CountDownLatch latch = new CountDownLatch(MESSAGES);
+        Session session = ContainerProvider.getWebSocketContainer().connectToServer(new Endpoint() {
+            @Override
+            public void onOpen(Session session, EndpointConfig config) {
+                session.addMessageHandler(new MessageHandler.Whole<String>() {
+                    @Override
+                    public void onMessage(String message) {
+                        received.add(message);
+                        latch.countDown();
+                    }
+                });
+            }
+        }, ClientEndpointConfig.Builder.create().build(), new URI(DefaultServer.getDefaultServerURL() + "/thread"));
+        try {
+            for (int i = 0; i < MESSAGES; ++i) {
+                session.getBasicRemote().sendText(Integer.toString(i));
+            }
+            Assert.assertTrue(latch.await(20, TimeUnit.SECONDS));
+        } finally {
+            session.close();
+        }
+        for (int i = 0; i < MESSAGES; ++i) {
+            String[] parts = received.get(i).split(":");
+            Assert.assertEquals(Integer.toString(i), parts[0]);
+            Assert.assertEquals("io thread", "false", parts[1]);
+            Assert.assertEquals("virtual thread", Boolean.toString(isVirtualThreadSupported()), parts[2]);
+        }
+    }
+
+    private static boolean isVirtualThreadSupported() {
+        try {
+            Thread.class.getMethod("isVirtual");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    static boolean isVirtual(Thread thread) {
+        try {
+            Method method = Thread.class.getMethod("isVirtual");
+            return (Boolean) method.invoke(thread);
+        } catch (Exception e) {
+            return false;
+        }
+    }
+
+    @ServerEndpoint("/thread")
+    public static class ThreadEndpoint {
+
+        @OnMessage
+        public String onMessage(String message) throws InterruptedException {
+            //blocking is fine here, it does not tie up an IO thread
+            Thread.sleep(1);
+            Thread current = Thread.currentThread();
+            return message + ":" + (current instanceof XnioIoThread) + ":" + isVirtual(current);
+        }
+    }
+}